@@ -0,0 +1,228 @@
+package com.querifylabs.blog.optimizer;
+
+import org.apache.calcite.plan.RelOptCost;
+import org.apache.calcite.plan.RelOptUtil;
+import org.apache.calcite.rel.RelNode;
+import org.apache.calcite.rel.core.TableScan;
+import org.apache.calcite.rex.RexDynamicParam;
+import org.apache.calcite.rex.RexNode;
+import org.apache.calcite.rex.RexShuttle;
+import org.apache.calcite.sql.SqlExplainLevel;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Plans of a batch of statements that share their common subplans.
+ * <p>
+ * Subplans with the same digest are replaced with a single instance, so that the plans form a DAG. A subplan
+ * that refers to dynamic parameters is shared only within its statement, because every statement binds its own
+ * parameter values. Operators with several consumers are reported by {@link #getSharedNodes()}, executors
+ * compute their results once for the whole batch.
+ * <p>
+ * The report compares the batch with the independent execution of the statements: the number of table scans and
+ * the cumulative cost of the operators that are computed once instead of multiple times.
+ */
+public final class BatchPlan {
+
+    private final List<RelNode> plans;
+    private final Map<RelNode, Integer> sharedNodes;
+    private final int scanCount;
+    private final int sharedScanCount;
+    private final RelOptCost cost;
+    private final RelOptCost sharedCost;
+
+    private BatchPlan(
+        List<RelNode> plans,
+        Map<RelNode, Integer> sharedNodes,
+        int scanCount,
+        int sharedScanCount,
+        RelOptCost cost,
+        RelOptCost sharedCost
+    ) {
+        this.plans = plans;
+        this.sharedNodes = sharedNodes;
+        this.scanCount = scanCount;
+        this.sharedScanCount = sharedScanCount;
+        this.cost = cost;
+        this.sharedCost = sharedCost;
+    }
+
+    /**
+     * Share the common subplans of the optimized plans of the statements. The plans are not modified: operators
+     * whose inputs are replaced are copied.
+     */
+    public static BatchPlan create(List<RelNode> plans) {
+        if (plans.isEmpty()) {
+            throw new IllegalArgumentException("Batch must have at least one plan");
+        }
+
+        Map<String, RelNode> canonicalNodes = new HashMap<>();
+        Map<RelNode, Integer> consumerCounts = new IdentityHashMap<>();
+        List<RelNode> sharedPlans = new ArrayList<>(plans.size());
+
+        int scanCount = 0;
+        RelOptCost cost = null;
+
+        for (int i = 0; i < plans.size(); i++) {
+            RelNode plan = plans.get(i);
+
+            sharedPlans.add(share(plan, i, canonicalNodes, consumerCounts));
+            scanCount += countScans(plan);
+
+            RelOptCost planCost = plan.getCluster().getMetadataQuery().getCumulativeCost(plan);
+            cost = cost == null ? planCost : cost.plus(planCost);
+        }
+
+        Map<RelNode, Integer> sharedNodes = new IdentityHashMap<>();
+        int sharedScanCount = 0;
+        RelOptCost sharedCost = null;
+
+        for (Map.Entry<RelNode, Integer> entry : consumerCounts.entrySet()) {
+            RelNode node = entry.getKey();
+
+            if (entry.getValue() > 1) {
+                sharedNodes.put(node, entry.getValue());
+            }
+
+            if (node instanceof TableScan) {
+                sharedScanCount++;
+            }
+
+            RelOptCost nodeCost = node.getCluster().getMetadataQuery().getNonCumulativeCost(node);
+            sharedCost = sharedCost == null ? nodeCost : sharedCost.plus(nodeCost);
+        }
+
+        return new BatchPlan(
+            Collections.unmodifiableList(sharedPlans),
+            Collections.unmodifiableMap(sharedNodes),
+            scanCount,
+            sharedScanCount,
+            cost,
+            sharedCost
+        );
+    }
+
+    /**
+     * Plans of the statements, in the order of the statements.
+     */
+    public List<RelNode> getPlans() {
+        return plans;
+    }
+
+    /**
+     * Operators consumed by more than one parent operator or statement.
+     */
+    public Set<RelNode> getSharedNodes() {
+        return sharedNodes.keySet();
+    }
+
+    /**
+     * Number of the parent operators and statements that consume the results of the operator.
+     */
+    public int getConsumerCount(RelNode node) {
+        return sharedNodes.getOrDefault(node, 1);
+    }
+
+    /** Number of table scans if the statements are executed independently. */
+    public int getScanCount() {
+        return scanCount;
+    }
+
+    /** Number of table scans of the batch. */
+    public int getSharedScanCount() {
+        return sharedScanCount;
+    }
+
+    /** Cumulative cost of the plans if the statements are executed independently. */
+    public RelOptCost getCost() {
+        return cost;
+    }
+
+    /** Cost of the batch, where every shared operator is counted once. */
+    public RelOptCost getSharedCost() {
+        return sharedCost;
+    }
+
+    /** Cost saved by the sharing. */
+    public RelOptCost getSavedCost() {
+        return cost.minus(sharedCost);
+    }
+
+    private static RelNode share(
+        RelNode node,
+        int statement,
+        Map<String, RelNode> canonicalNodes,
+        Map<RelNode, Integer> consumerCounts
+    ) {
+        String key = RelOptUtil.toString(node, SqlExplainLevel.DIGEST_ATTRIBUTES)
+            + node.getRowType().getFullTypeString();
+
+        if (containsDynamicParam(node)) {
+            key = statement + ":" + key;
+        }
+
+        RelNode res = canonicalNodes.get(key);
+
+        if (res == null) {
+            List<RelNode> inputs = node.getInputs();
+            List<RelNode> newInputs = new ArrayList<>(inputs.size());
+
+            for (RelNode input : inputs) {
+                newInputs.add(share(input, statement, canonicalNodes, consumerCounts));
+            }
+
+            res = newInputs.equals(inputs) ? node : node.copy(node.getTraitSet(), newInputs);
+
+            canonicalNodes.put(key, res);
+        }
+
+        consumerCounts.merge(res, 1, Integer::sum);
+
+        return res;
+    }
+
+    /**
+     * Whether the operator or its inputs refer to dynamic parameters.
+     */
+    static boolean containsDynamicParam(RelNode node) {
+        boolean[] res = new boolean[1];
+
+        node.accept(new RexShuttle() {
+            @Override
+            public RexNode visitDynamicParam(RexDynamicParam dynamicParam) {
+                res[0] = true;
+
+                return dynamicParam;
+            }
+        });
+
+        for (RelNode input : node.getInputs()) {
+            res[0] |= containsDynamicParam(input);
+        }
+
+        return res[0];
+    }
+
+    private static int countScans(RelNode node) {
+        int res = node instanceof TableScan ? 1 : 0;
+
+        for (RelNode input : node.getInputs()) {
+            res += countScans(input);
+        }
+
+        return res;
+    }
+
+    @Override
+    public String toString() {
+        return "BatchPlan{statements=" + plans.size() + ", sharedNodes=" + sharedNodes.size()
+            + ", scans=" + sharedScanCount + "/" + scanCount + ", cost=" + sharedCost + "/" + cost
+            + ", saved=" + getSavedCost() + '}';
+    }
+}
@@ -0,0 +1,146 @@
+package com.querifylabs.blog.optimizer;
+
+/**
+ * Statistics of a single column.
+ * <p>
+ * Minimum, maximum and histogram bounds use the numeric representation of values: numbers as is, {@code DATE}
+ * as days since epoch, {@code TIME} as milliseconds of the day, and {@code TIMESTAMP} as milliseconds since epoch.
+ * Any statistic could be absent, in which case the optimizer falls back to the default guess.
+ */
+public class ColumnStatistic {
+
+    private final Double distinctCount;
+    private final double nullFraction;
+    private final Double min;
+    private final Double max;
+    private final Histogram histogram;
+
+    private ColumnStatistic(Double distinctCount, double nullFraction, Double min, Double max, Histogram histogram) {
+        this.distinctCount = distinctCount;
+        this.nullFraction = nullFraction;
+        this.min = min;
+        this.max = max;
+        this.histogram = histogram;
+    }
+
+    /** Number of distinct non-null values, or {@code null} if unknown. */
+    public Double getDistinctCount() {
+        return distinctCount;
+    }
+
+    /** Fraction of rows where the column is {@code NULL}. */
+    public double getNullFraction() {
+        return nullFraction;
+    }
+
+    /** Minimum value, or {@code null} if unknown. */
+    public Double getMin() {
+        return min;
+    }
+
+    /** Maximum value, or {@code null} if unknown. */
+    public Double getMax() {
+        return max;
+    }
+
+    /** Histogram of non-null values, or {@code null} if unknown. */
+    public Histogram getHistogram() {
+        return histogram;
+    }
+
+    /**
+     * Fraction of non-null values that are less than the given value, or {@code null} if the column has neither
+     * histogram, nor min/max values.
+     */
+    public Double fractionLessThan(double value) {
+        if (histogram != null) {
+            return histogram.fractionLessThan(value);
+        }
+
+        if (min != null && max != null) {
+            if (value <= min) {
+                return 0.0d;
+            }
+
+            if (value > max) {
+                return 1.0d;
+            }
+
+            return max > min ? (value - min) / (max - min) : 0.5d;
+        }
+
+        return null;
+    }
+
+    @Override
+    public String toString() {
+        return "ColumnStatistic{distinctCount=" + distinctCount + ", nullFraction=" + nullFraction
+            + ", min=" + min + ", max=" + max + ", histogram=" + histogram + '}';
+    }
+
+    public static Builder newBuilder() {
+        return new Builder();
+    }
+
+    public static final class Builder {
+
+        private Double distinctCount;
+        private double nullFraction;
+        private Double min;
+        private Double max;
+        private Histogram histogram;
+
+        private Builder() {
+            // No-op.
+        }
+
+        public Builder withDistinctCount(double distinctCount) {
+            if (distinctCount < 0) {
+                throw new IllegalArgumentException("Distinct count cannot be negative: " + distinctCount);
+            }
+
+            this.distinctCount = distinctCount;
+
+            return this;
+        }
+
+        public Builder withNullFraction(double nullFraction) {
+            if (nullFraction < 0.0d || nullFraction > 1.0d) {
+                throw new IllegalArgumentException("Null fraction must be between 0 and 1: " + nullFraction);
+            }
+
+            this.nullFraction = nullFraction;
+
+            return this;
+        }
+
+        public Builder withMinMax(double min, double max) {
+            if (min > max) {
+                throw new IllegalArgumentException("Min cannot be greater than max: " + min + " > " + max);
+            }
+
+            this.min = min;
+            this.max = max;
+
+            return this;
+        }
+
+        public Builder withHistogram(Histogram histogram) {
+            this.histogram = histogram;
+
+            return this;
+        }
+
+        public ColumnStatistic build() {
+            Double min0 = min;
+            Double max0 = max;
+
+            if (histogram != null && min0 == null) {
+                min0 = histogram.getMin();
+                max0 = histogram.getMax();
+            }
+
+            return new ColumnStatistic(distinctCount, nullFraction, min0, max0, histogram);
+        }
+    }
+}
@@ -0,0 +1,283 @@
+package com.querifylabs.blog.optimizer;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Dynamic programming join enumerator with cross-product suppression.
+ * <p>
+ * Inputs are identified by their ordinal, sets of inputs are encoded as bit masks. For every connected subset
+ * of inputs the enumerator keeps the cheapest bushy join tree, built from the cheapest trees of its two halves.
+ * Only the splits that have at least one join condition between the halves are considered, so cross-products
+ * are never produced for connected join graphs.
+ * <p>
+ * The cost of a tree is the sum of cardinalities of all intermediate results (C_out). The cardinality of a
+ * subset does not depend on the join order: it is the product of input row counts multiplied by selectivities
+ * of the conditions that reference only the inputs of that subset.
+ * <p>
+ * The exhaustive enumeration visits 3^N pairs of subsets, so for the graphs with more than
+ * {@link #MAX_DP_INPUTS} inputs the enumerator falls back to the greedy operator ordering, which repeatedly
+ * joins the pair of connected trees with the smallest result.
+ */
+public class DpJoinEnumerator {
+
+    /** Maximum number of inputs planned with the exhaustive dynamic programming. */
+    public static final int MAX_DP_INPUTS = 12;
+
+    /** Maximum number of inputs supported by the bit mask encoding. */
+    public static final int MAX_INPUTS = 63;
+
+    /** Row counts of the inputs. */
+    private final double[] rowCounts;
+
+    /** Join conditions. */
+    private final List<Condition> conditions = new ArrayList<>();
+
+    public DpJoinEnumerator(double[] rowCounts) {
+        if (rowCounts.length == 0 || rowCounts.length > MAX_INPUTS) {
+            throw new IllegalArgumentException("Unsupported number of inputs: " + rowCounts.length);
+        }
+
+        this.rowCounts = rowCounts.clone();
+    }
+
+    /**
+     * Add a condition that references the given inputs.
+     */
+    public void addCondition(long inputs, double selectivity) {
+        conditions.add(new Condition(inputs, selectivity));
+    }
+
+    /**
+     * Find the cheapest cross-product free join tree, or {@code null} if the join graph is not connected.
+     */
+    public JoinTree enumerate() {
+        if (rowCounts.length == 1) {
+            return leaf(0);
+        }
+
+        if (rowCounts.length <= MAX_DP_INPUTS) {
+            return enumerateDp();
+        } else {
+            return enumerateGreedy();
+        }
+    }
+
+    private JoinTree enumerateDp() {
+        int inputCount = rowCounts.length;
+        long all = (1L << inputCount) - 1;
+
+        JoinTree[] best = new JoinTree[(int) all + 1];
+
+        for (int i = 0; i < inputCount; i++) {
+            best[1 << i] = leaf(i);
+        }
+
+        // Subsets are visited in the increasing order of their masks, so both halves of the subset are always
+        // planned before the subset itself.
+        for (long set = 1; set <= all; set++) {
+            if (Long.bitCount(set) < 2) {
+                continue;
+            }
+
+            double rowCount = rowCount(set);
+            JoinTree bestTree = null;
+
+            for (long left = (set - 1) & set; left > 0; left = (left - 1) & set) {
+                long right = set ^ left;
+
+                // Every unordered pair is visited once, the orientation is decided by the row counts.
+                if (left < right) {
+                    continue;
+                }
+
+                JoinTree leftTree = best[(int) left];
+                JoinTree rightTree = best[(int) right];
+
+                if (leftTree == null || rightTree == null || !connected(left, right)) {
+                    continue;
+                }
+
+                double cost = leftTree.cost + rightTree.cost + rowCount;
+
+                if (bestTree == null || cost < bestTree.cost) {
+                    bestTree = join(leftTree, rightTree, rowCount, cost);
+                }
+            }
+
+            best[(int) set] = bestTree;
+        }
+
+        return best[(int) all];
+    }
+
+    private JoinTree enumerateGreedy() {
+        List<JoinTree> trees = new ArrayList<>(rowCounts.length);
+
+        for (int i = 0; i < rowCounts.length; i++) {
+            trees.add(leaf(i));
+        }
+
+        while (trees.size() > 1) {
+            int bestLeft = -1;
+            int bestRight = -1;
+            double bestRowCount = Double.MAX_VALUE;
+
+            for (int i = 0; i < trees.size(); i++) {
+                for (int j = i + 1; j < trees.size(); j++) {
+                    long left = trees.get(i).inputs;
+                    long right = trees.get(j).inputs;
+
+                    if (!connected(left, right)) {
+                        continue;
+                    }
+
+                    double rowCount = rowCount(left | right);
+
+                    if (rowCount < bestRowCount) {
+                        bestLeft = i;
+                        bestRight = j;
+                        bestRowCount = rowCount;
+                    }
+                }
+            }
+
+            if (bestLeft == -1) {
+                // Not connected.
+                return null;
+            }
+
+            JoinTree right = trees.remove(bestRight);
+            JoinTree left = trees.remove(bestLeft);
+
+            trees.add(join(left, right, bestRowCount, left.cost + right.cost + bestRowCount));
+        }
+
+        return trees.get(0);
+    }
+
+    /**
+     * Estimated number of rows produced by the join of the given inputs.
+     */
+    private double rowCount(long inputs) {
+        double res = 1.0d;
+
+        for (int i = 0; i < rowCounts.length; i++) {
+            if ((inputs & (1L << i)) != 0) {
+                res *= rowCounts[i];
+            }
+        }
+
+        for (Condition condition : conditions) {
+            if ((condition.inputs & ~inputs) == 0) {
+                res *= condition.selectivity;
+            }
+        }
+
+        return Math.max(res, 1.0d);
+    }
+
+    /**
+     * Whether there is a condition that connects two disjoint sets of inputs.
+     */
+    private boolean connected(long left, long right) {
+        long inputs = left | right;
+
+        for (Condition condition : conditions) {
+            if ((condition.inputs & ~inputs) == 0
+                && (condition.inputs & left) != 0
+                && (condition.inputs & right) != 0) {
+                return true;
+            }
+        }
+
+        return false;
+    }
+
+    private JoinTree leaf(int index) {
+        return new JoinTree(1L << index, index, null, null, rowCounts[index], 0.0d);
+    }
+
+    /**
+     * Create a join, placing the smaller input on the right (build) side.
+     */
+    private static JoinTree join(JoinTree first, JoinTree second, double rowCount, double cost) {
+        if (first.rowCount >= second.rowCount) {
+            return new JoinTree(first.inputs | second.inputs, -1, first, second, rowCount, cost);
+        } else {
+            return new JoinTree(first.inputs | second.inputs, -1, second, first, rowCount, cost);
+        }
+    }
+
+    /**
+     * Condition that references a set of inputs.
+     */
+    private static class Condition {
+        private final long inputs;
+        private final double selectivity;
+        private Condition(long inputs, double selectivity) {
+            this.inputs = inputs;
+            this.selectivity = selectivity;
+        }
+    }
+
+    /**
+     * Either a leaf input or a join of two trees.
+     */
+    public static class JoinTree {
+        private final long inputs;
+        private final int index;
+        private final JoinTree left;
+        private final JoinTree right;
+        private final double rowCount;
+        private final double cost;
+
+        private JoinTree(long inputs, int index, JoinTree left, JoinTree right, double rowCount, double cost) {
+            this.inputs = inputs;
+            this.index = index;
+            this.left = left;
+            this.right = right;
+            this.rowCount = rowCount;
+            this.cost = cost;
+        }
+
+        public boolean isLeaf() {
+            return left == null;
+        }
+
+        /** Bit mask of the inputs of this tree. */
+        public long getInputs() {
+            return inputs;
+        }
+
+        /** Ordinal of the input for leaves, {@code -1} for joins. */
+        public int getIndex() {
+            return index;
+        }
+
+        public JoinTree getLeft() {
+            return left;
+        }
+
+        public JoinTree getRight() {
+            return right;
+        }
+
+        public double getRowCount() {
+            return rowCount;
+        }
+
+        public double getCost() {
+            return cost;
+        }
+
+        @Override
+        public String toString() {
+            if (isLeaf()) {
+                return Integer.toString(index);
+            }
+
+            return "(" + left + "x" + right + ")";
+        }
+    }
+}
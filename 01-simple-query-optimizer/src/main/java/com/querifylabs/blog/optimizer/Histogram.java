@@ -0,0 +1,107 @@
+package com.querifylabs.blog.optimizer;
+
+import java.util.Arrays;
+
+/**
+ * Equi-depth histogram over the numeric representation of column values.
+ * <p>
+ * The histogram consists of N buckets defined by N+1 ascending bounds. Every bucket contains the same fraction
+ * of non-null values, so the buckets are narrow where values are dense and wide where they are sparse. Values
+ * are assumed to be uniformly distributed inside a bucket.
+ */
+public class Histogram {
+
+    private final double[] bounds;
+
+    public Histogram(double[] bounds) {
+        if (bounds.length < 2) {
+            throw new IllegalArgumentException("Histogram must have at least one bucket");
+        }
+
+        for (int i = 1; i < bounds.length; i++) {
+            if (bounds[i] < bounds[i - 1]) {
+                throw new IllegalArgumentException("Histogram bounds must be ascending: " + Arrays.toString(bounds));
+            }
+        }
+
+        this.bounds = bounds.clone();
+    }
+
+    /**
+     * Build a histogram with the given number of buckets from the sorted values.
+     */
+    public static Histogram equiDepth(double[] sortedValues, int bucketCount) {
+        if (sortedValues.length == 0) {
+            throw new IllegalArgumentException("Cannot build a histogram without values");
+        }
+
+        int bucketCount0 = Math.max(1, Math.min(bucketCount, sortedValues.length));
+        double[] bounds = new double[bucketCount0 + 1];
+
+        for (int i = 0; i <= bucketCount0; i++) {
+            int index = (int) Math.min(sortedValues.length - 1, (long) i * sortedValues.length / bucketCount0);
+            bounds[i] = sortedValues[index];
+        }
+
+        bounds[bucketCount0] = sortedValues[sortedValues.length - 1];
+
+        return new Histogram(bounds);
+    }
+
+    public int getBucketCount() {
+        return bounds.length - 1;
+    }
+
+    public double getMin() {
+        return bounds[0];
+    }
+
+    public double getMax() {
+        return bounds[bounds.length - 1];
+    }
+
+    /**
+     * Fraction of non-null values that are less than the given value.
+     */
+    public double fractionLessThan(double value) {
+        if (value <= bounds[0]) {
+            return 0.0d;
+        }
+
+        if (value > bounds[bounds.length - 1]) {
+            return 1.0d;
+        }
+
+        int bucketCount = getBucketCount();
+        double res = 0.0d;
+
+        for (int i = 0; i < bucketCount; i++) {
+            double lower = bounds[i];
+            double upper = bounds[i + 1];
+
+            if (value > upper) {
+                res += 1.0d;
+            } else {
+                if (upper > lower) {
+                    res += (value - lower) / (upper - lower);
+                }
+
+                break;
+            }
+        }
+
+        return Math.min(1.0d, res / bucketCount);
+    }
+
+    /**
+     * Fraction of non-null values in the range {@code [lower, upper)}.
+     */
+    public double fractionBetween(double lower, double upper) {
+        return Math.max(0.0d, fractionLessThan(upper) - fractionLessThan(lower));
+    }
+
+    @Override
+    public String toString() {
+        return "Histogram" + Arrays.toString(bounds);
+    }
+}
@@ -0,0 +1,277 @@
+package com.querifylabs.blog.optimizer;
+
+import com.google.common.collect.ImmutableList;
+import org.apache.calcite.plan.RelOptRule;
+import org.apache.calcite.plan.RelOptRuleCall;
+import org.apache.calcite.plan.RelOptUtil;
+import org.apache.calcite.plan.RelRule;
+import org.apache.calcite.rel.RelNode;
+import org.apache.calcite.rel.core.JoinRelType;
+import org.apache.calcite.rel.metadata.RelMdUtil;
+import org.apache.calcite.rel.metadata.RelMetadataQuery;
+import org.apache.calcite.rel.rules.CoreRules;
+import org.apache.calcite.rel.rules.LoptMultiJoin;
+import org.apache.calcite.rel.rules.MultiJoin;
+import org.apache.calcite.rel.rules.TransformationRule;
+import org.apache.calcite.rex.RexBuilder;
+import org.apache.calcite.rex.RexCall;
+import org.apache.calcite.rex.RexInputRef;
+import org.apache.calcite.rex.RexNode;
+import org.apache.calcite.rex.RexPermuteInputsShuttle;
+import org.apache.calcite.rex.RexUtil;
+import org.apache.calcite.sql.SqlKind;
+import org.apache.calcite.tools.RelBuilder;
+import org.apache.calcite.util.ImmutableBitSet;
+import org.apache.calcite.util.Pair;
+import org.apache.calcite.util.mapping.Mappings;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Rule that reorders the inputs of a {@link MultiJoin} with the {@link DpJoinEnumerator}.
+ * <p>
+ * The join region is first collapsed into a single {@link MultiJoin} by the {@link #MULTI_JOIN_RULES}. The rule
+ * then extracts the join graph: inputs become vertices annotated with their row counts (that come from the
+ * {@link SimpleTableStatistic} for table scans), and join conditions become edges annotated with their
+ * selectivities. The cheapest cross-product free join tree is converted back to the tree of binary joins.
+ * <p>
+ * Only inner joins are reordered. Since the rule produces a single join order, there is no need for the join
+ * commute and associate rules that explode the search space on the queries with many joins.
+ */
+public class JoinEnumeratorRule extends RelRule<JoinEnumeratorRule.Config> implements TransformationRule {
+
+    public static final JoinEnumeratorRule INSTANCE = Config.DEFAULT.toRule();
+
+    /** Rules that collapse the join region into a MultiJoin and then reorder it. */
+    public static final List<RelOptRule> MULTI_JOIN_RULES = ImmutableList.of(
+        CoreRules.JOIN_TO_MULTI_JOIN,
+        CoreRules.FILTER_MULTI_JOIN_MERGE,
+        CoreRules.PROJECT_MULTI_JOIN_MERGE,
+        INSTANCE
+    );
+
+    private JoinEnumeratorRule(Config config) {
+        super(config);
+    }
+
+    @Override
+    public void onMatch(RelOptRuleCall call) {
+        MultiJoin multiJoinRel = call.rel(0);
+
+        if (!isInnerOnly(multiJoinRel)) {
+            return;
+        }
+
+        LoptMultiJoin multiJoin = new LoptMultiJoin(multiJoinRel);
+        int inputCount = multiJoin.getNumJoinFactors();
+
+        if (inputCount < 2 || inputCount > DpJoinEnumerator.MAX_INPUTS) {
+            return;
+        }
+
+        RelMetadataQuery mq = call.getMetadataQuery();
+
+        // Vertices of the join graph.
+        double[] rowCounts = new double[inputCount];
+
+        for (int i = 0; i < inputCount; i++) {
+            Double rowCount = mq.getRowCount(multiJoin.getJoinFactor(i));
+            rowCounts[i] = rowCount != null ? rowCount : 1.0d;
+        }
+
+        // Edges of the join graph. For inner joins the post-join filter is equivalent to the join filter, so its
+        // conjuncts are used as join conditions as well.
+        DpJoinEnumerator enumerator = new DpJoinEnumerator(rowCounts);
+        List<RexNode> filters = new ArrayList<>(RelOptUtil.conjunctions(multiJoinRel.getJoinFilter()));
+        filters.addAll(RelOptUtil.conjunctions(multiJoinRel.getPostJoinFilter()));
+        List<Long> filterInputs = new ArrayList<>(filters.size());
+
+        for (RexNode filter : filters) {
+            long inputs = inputs(multiJoin, filter);
+            filterInputs.add(inputs);
+
+            if (inputs != 0) {
+                enumerator.addCondition(inputs, selectivity(multiJoin, filter, mq));
+            }
+        }
+
+        DpJoinEnumerator.JoinTree tree = enumerator.enumerate();
+
+        if (tree == null) {
+            // The join graph is not connected, leave the original join order.
+            return;
+        }
+
+        RelBuilder relBuilder = call.builder();
+        RexBuilder rexBuilder = multiJoinRel.getCluster().getRexBuilder();
+
+        Pair<RelNode, Mappings.TargetMapping> top = toRel(tree, multiJoin, filters, filterInputs, relBuilder);
+
+        // Restore the original order of fields, and apply the conditions that do not reference any input.
+        relBuilder.push(top.left).project(relBuilder.fields(top.right));
+
+        List<RexNode> constantFilters = new ArrayList<>();
+        for (int i = 0; i < filters.size(); i++) {
+            if (filterInputs.get(i) == 0) {
+                constantFilters.add(filters.get(i));
+            }
+        }
+        if (!constantFilters.isEmpty()) {
+            relBuilder.filter(RexUtil.composeConjunction(rexBuilder, constantFilters));
+        }
+
+        call.transformTo(relBuilder.build());
+    }
+
+    /**
+     * Convert the join tree to relational operators. Returns the operator and the mapping from the fields of
+     * the MultiJoin to the fields of the operator.
+     */
+    private static Pair<RelNode, Mappings.TargetMapping> toRel(
+        DpJoinEnumerator.JoinTree tree,
+        LoptMultiJoin multiJoin,
+        List<RexNode> filters,
+        List<Long> filterInputs,
+        RelBuilder relBuilder
+    ) {
+        if (tree.isLeaf()) {
+            int index = tree.getIndex();
+            RelNode input = multiJoin.getJoinFactor(index);
+
+            Mappings.TargetMapping mapping = Mappings.offsetSource(
+                Mappings.createIdentity(input.getRowType().getFieldCount()),
+                multiJoin.getJoinStart(index),
+                multiJoin.getNumTotalFields()
+            );
+
+            List<RexNode> conditions = conditions(tree, filters, filterInputs);
+
+            relBuilder.push(input);
+
+            if (!conditions.isEmpty()) {
+                RexNode condition = RexUtil.composeConjunction(relBuilder.getRexBuilder(), conditions);
+                relBuilder.filter(condition.accept(new RexPermuteInputsShuttle(mapping, input)));
+            }
+
+            return Pair.of(relBuilder.build(), mapping);
+        }
+
+        Pair<RelNode, Mappings.TargetMapping> left = toRel(tree.getLeft(), multiJoin, filters, filterInputs, relBuilder);
+        Pair<RelNode, Mappings.TargetMapping> right = toRel(tree.getRight(), multiJoin, filters, filterInputs, relBuilder);
+
+        Mappings.TargetMapping mapping = Mappings.merge(
+            left.right,
+            Mappings.offsetTarget(right.right, left.left.getRowType().getFieldCount())
+        );
+
+        RexNode condition = RexUtil.composeConjunction(
+            relBuilder.getRexBuilder(),
+            conditions(tree, filters, filterInputs)
+        );
+
+        RelNode join = relBuilder.push(left.left)
+            .push(right.left)
+            .join(JoinRelType.INNER, condition.accept(new RexPermuteInputsShuttle(mapping, left.left, right.left)))
+            .build();
+
+        return Pair.of(join, mapping);
+    }
+
+    /**
+     * Conditions that become applicable at the given node of the tree: they reference only the inputs of the
+     * node, but not only the inputs of one of its children.
+     */
+    private static List<RexNode> conditions(
+        DpJoinEnumerator.JoinTree tree,
+        List<RexNode> filters,
+        List<Long> filterInputs
+    ) {
+        List<RexNode> res = new ArrayList<>();
+
+        for (int i = 0; i < filters.size(); i++) {
+            long inputs = filterInputs.get(i);
+
+            if (inputs == 0 || (inputs & ~tree.getInputs()) != 0) {
+                continue;
+            }
+
+            if (!tree.isLeaf()
+                && ((inputs & ~tree.getLeft().getInputs()) == 0 || (inputs & ~tree.getRight().getInputs()) == 0)) {
+                continue;
+            }
+
+            res.add(filters.get(i));
+        }
+
+        return res;
+    }
+
+    /**
+     * Selectivity of the join condition. Equi-join selectivity is derived from the number of distinct values of
+     * the joined columns, other conditions rely on the default guesses.
+     */
+    private static double selectivity(LoptMultiJoin multiJoin, RexNode filter, RelMetadataQuery mq) {
+        if (filter.isA(SqlKind.EQUALS)) {
+            RexCall call = (RexCall) filter;
+            RexNode operand0 = call.getOperands().get(0);
+            RexNode operand1 = call.getOperands().get(1);
+
+            if (operand0 instanceof RexInputRef && operand1 instanceof RexInputRef) {
+                Double distinctCount0 = distinctCount(multiJoin, ((RexInputRef) operand0).getIndex(), mq);
+                Double distinctCount1 = distinctCount(multiJoin, ((RexInputRef) operand1).getIndex(), mq);
+
+                if (distinctCount0 != null && distinctCount1 != null) {
+                    return 1.0d / Math.max(Math.max(distinctCount0, distinctCount1), 1.0d);
+                }
+            }
+        }
+
+        return RelMdUtil.guessSelectivity(filter);
+    }
+
+    private static Double distinctCount(LoptMultiJoin multiJoin, int field, RelMetadataQuery mq) {
+        int factor = multiJoin.findRef(field);
+        int factorField = field - multiJoin.getJoinStart(factor);
+
+        return mq.getDistinctRowCount(multiJoin.getJoinFactor(factor), ImmutableBitSet.of(factorField), null);
+    }
+
+    private static boolean isInnerOnly(MultiJoin multiJoin) {
+        if (multiJoin.isFullOuterJoin()) {
+            return false;
+        }
+
+        for (JoinRelType joinType : multiJoin.getJoinTypes()) {
+            if (joinType != JoinRelType.INNER) {
+                return false;
+            }
+        }
+
+        return true;
+    }
+
+    /**
+     * Bit mask of the inputs referenced by the condition.
+     */
+    private static long inputs(LoptMultiJoin multiJoin, RexNode filter) {
+        long res = 0L;
+
+        for (int field : RelOptUtil.InputFinder.bits(filter)) {
+            res |= 1L << multiJoin.findRef(field);
+        }
+
+        return res;
+    }
+
+    public interface Config extends RelRule.Config {
+        Config DEFAULT = EMPTY
+            .withOperandSupplier(b -> b.operand(MultiJoin.class).anyInputs())
+            .as(Config.class);
+
+        @Override
+        default JoinEnumeratorRule toRule() {
+            return new JoinEnumeratorRule(this);
+        }
+    }
+}
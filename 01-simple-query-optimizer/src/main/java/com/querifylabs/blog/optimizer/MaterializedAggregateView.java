@@ -0,0 +1,196 @@
+package com.querifylabs.blog.optimizer;
+
+import org.apache.calcite.sql.SqlKind;
+import org.apache.calcite.sql.type.SqlTypeName;
+
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Materialized result of an aggregate query over a single table, see {@link MaterializedViews}.
+ * <p>
+ * The view selects the group keys followed by the aggregates. Only the aggregates that could be merged are
+ * supported: {@code SUM}, {@code COUNT}, {@code MIN} and {@code MAX}. The groups are kept in memory, so that the
+ * aggregates of the appended rows are merged into them without the recomputation. The view is immutable: merging
+ * creates a new view.
+ */
+public final class MaterializedAggregateView {
+
+    private final String viewName;
+    private final String sql;
+    private final String tableName;
+    private final List<String> fieldNames;
+    private final List<SqlTypeName> fieldTypes;
+    private final List<Integer> fieldScales;
+    private final List<SqlKind> aggKinds;
+    private final Map<List<Object>, Object[]> groups;
+
+    MaterializedAggregateView(
+        String viewName,
+        String sql,
+        String tableName,
+        List<String> fieldNames,
+        List<SqlTypeName> fieldTypes,
+        List<Integer> fieldScales,
+        List<SqlKind> aggKinds,
+        Map<List<Object>, Object[]> groups
+    ) {
+        this.viewName = viewName;
+        this.sql = sql;
+        this.tableName = tableName;
+        this.fieldNames = Collections.unmodifiableList(new ArrayList<>(fieldNames));
+        this.fieldTypes = Collections.unmodifiableList(new ArrayList<>(fieldTypes));
+        this.fieldScales = Collections.unmodifiableList(new ArrayList<>(fieldScales));
+        this.aggKinds = Collections.unmodifiableList(new ArrayList<>(aggKinds));
+        this.groups = Collections.unmodifiableMap(groups);
+    }
+
+    public String getViewName() {
+        return viewName;
+    }
+
+    /** Query of the view. */
+    public String getSql() {
+        return sql;
+    }
+
+    /** Name of the aggregated table. */
+    public String getTableName() {
+        return tableName;
+    }
+
+    public int getGroupCount() {
+        return groups.size();
+    }
+
+    /**
+     * Create the view with the aggregated rows merged into the groups. The rows have the same layout as the view:
+     * the group keys followed by the aggregates.
+     */
+    MaterializedAggregateView merge(List<Object[]> rows) {
+        int keyCount = fieldNames.size() - aggKinds.size();
+        Map<List<Object>, Object[]> newGroups = new HashMap<>(groups);
+
+        for (Object[] row : rows) {
+            List<Object> key = Collections.unmodifiableList(Arrays.asList(Arrays.copyOf(row, keyCount)));
+            Object[] values = Arrays.copyOfRange(row, keyCount, row.length);
+            Object[] oldValues = newGroups.get(key);
+
+            if (oldValues != null) {
+                for (int i = 0; i < values.length; i++) {
+                    values[i] = merge(aggKinds.get(i), oldValues[i], values[i]);
+                }
+            }
+
+            newGroups.put(key, values);
+        }
+
+        return new MaterializedAggregateView(
+            viewName,
+            sql,
+            tableName,
+            fieldNames,
+            fieldTypes,
+            fieldScales,
+            aggKinds,
+            newGroups
+        );
+    }
+
+    /**
+     * Table with the groups of the view.
+     */
+    SimpleTable toTable() {
+        int keyCount = fieldNames.size() - aggKinds.size();
+        List<Object[]> rows = new ArrayList<>(groups.size());
+
+        for (Map.Entry<List<Object>, Object[]> group : groups.entrySet()) {
+            Object[] row = new Object[fieldNames.size()];
+
+            for (int i = 0; i < keyCount; i++) {
+                row[i] = group.getKey().get(i);
+            }
+
+            System.arraycopy(group.getValue(), 0, row, keyCount, aggKinds.size());
+            rows.add(row);
+        }
+
+        SimpleTable.Builder builder = SimpleTable.newBuilder(viewName);
+
+        for (int i = 0; i < fieldNames.size(); i++) {
+            builder.addField(fieldNames.get(i), fieldTypes.get(i), fieldScales.get(i));
+        }
+
+        if (keyCount > 0) {
+            builder.withKey(fieldNames.subList(0, keyCount).toArray(new String[0]));
+        }
+
+        // The table cannot be empty, even if there are no groups yet.
+        return builder
+            .addPartition(rows)
+            .withRowCount(Math.max(1, rows.size()))
+            .build();
+    }
+
+    private static Object merge(SqlKind aggKind, Object oldValue, Object value) {
+        if (oldValue == null) {
+            return value;
+        }
+
+        if (value == null) {
+            return oldValue;
+        }
+
+        switch (aggKind) {
+            case SUM:
+            case SUM0:
+            case COUNT:
+                return add(oldValue, value);
+
+            case MIN:
+                return compare(oldValue, value) <= 0 ? oldValue : value;
+
+            case MAX:
+                return compare(oldValue, value) >= 0 ? oldValue : value;
+
+            default:
+                throw new IllegalStateException("Unsupported aggregate: " + aggKind);
+        }
+    }
+
+    private static Object add(Object value1, Object value2) {
+        if (value1 instanceof BigDecimal) {
+            return ((BigDecimal) value1).add((BigDecimal) value2);
+        }
+
+        if (value1 instanceof Double || value1 instanceof Float) {
+            return ((Number) value1).doubleValue() + ((Number) value2).doubleValue();
+        }
+
+        if (value1 instanceof Long) {
+            return (Long) value1 + ((Number) value2).longValue();
+        }
+
+        if (value1 instanceof Integer) {
+            return (Integer) value1 + ((Number) value2).intValue();
+        }
+
+        throw new IllegalStateException("Unsupported value: " + value1);
+    }
+
+    @SuppressWarnings({"unchecked", "rawtypes"})
+    private static int compare(Object value1, Object value2) {
+        return ((Comparable) value1).compareTo(value2);
+    }
+
+    @Override
+    public String toString() {
+        return "MaterializedAggregateView{name=" + viewName + ", table=" + tableName + ", groups=" + groups.size()
+            + '}';
+    }
+}
@@ -0,0 +1,226 @@
+package com.querifylabs.blog.optimizer;
+
+import com.querifylabs.blog.optimizer.storage.ColumnType;
+import com.querifylabs.blog.optimizer.vectorized.VectorizedConvention;
+import com.querifylabs.blog.optimizer.vectorized.VectorizedExecutor;
+import com.querifylabs.blog.optimizer.vectorized.VectorizedRules;
+import org.apache.calcite.rel.RelNode;
+import org.apache.calcite.rel.core.Aggregate;
+import org.apache.calcite.rel.core.AggregateCall;
+import org.apache.calcite.rel.core.TableScan;
+import org.apache.calcite.rel.type.RelDataTypeField;
+import org.apache.calcite.sql.SqlKind;
+import org.apache.calcite.sql.type.SqlTypeName;
+import org.apache.calcite.tools.RuleSet;
+import org.apache.calcite.tools.RuleSets;
+import org.apache.calcite.util.ImmutableBitSet;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+
+/**
+ * Creates and maintains the {@link MaterializedAggregateView}s of the schema.
+ * <p>
+ * The optimizers of the factory use the views through the Calcite materialization support: a query, or a part
+ * of it, that could be computed from the view is rewritten to scan the view table, e.g. aggregating the view
+ * groups further. The rewritten plan competes with the original one on cost.
+ * <p>
+ * Rows must be appended through {@link #append(String, List)}: the rows are aggregated on their own, and the
+ * aggregates are merged into the groups of every view of the table. The table and its views are published in
+ * the same snapshot of the schema. Concurrent changes of the schema are retried without locking.
+ */
+public final class MaterializedViews {
+
+    private static final RuleSet RULES = RuleSets.ofList(VectorizedRules.RULES);
+
+    private final OptimizerFactory factory;
+
+    public MaterializedViews(OptimizerFactory factory) {
+        this.factory = factory;
+    }
+
+    /**
+     * Create the view, compute its contents from the current data and publish it. The query must aggregate a
+     * single table, and select the group keys followed by the {@code SUM}, {@code COUNT}, {@code MIN} and
+     * {@code MAX} aggregates.
+     */
+    public MaterializedAggregateView create(String viewName, String sql) throws Exception {
+        while (true) {
+            Optimizer optimizer = factory.newOptimizer();
+            SimpleSchemaSnapshot snapshot = optimizer.getSchema();
+
+            RelNode rel = optimizer.convert(optimizer.validate(optimizer.parse(sql)));
+
+            if (BatchPlan.containsDynamicParam(rel)) {
+                throw new IllegalArgumentException("View cannot have dynamic parameters: " + viewName);
+            }
+
+            MaterializedAggregateView view = define(viewName, sql, rel);
+
+            RelNode plan = optimizer.optimize(rel, rel.getTraitSet().plus(VectorizedConvention.INSTANCE), RULES);
+            view = view.merge(VectorizedExecutor.execute(plan, Collections.emptyList()));
+
+            if (factory.getSchema().publish(snapshot, snapshot.withMaterializedView(view))) {
+                return view;
+            }
+        }
+    }
+
+    /**
+     * Append the rows to the table, and merge their aggregates into the views of the table.
+     *
+     * @return The published snapshot.
+     */
+    public SimpleSchemaSnapshot append(String tableName, List<Object[]> rows) throws Exception {
+        while (true) {
+            SimpleSchemaSnapshot snapshot = factory.getSchema().snapshot();
+            SimpleTable table = (SimpleTable) snapshot.getTableMap().get(tableName);
+
+            if (table == null) {
+                throw new IllegalArgumentException("Table is not defined: " + tableName);
+            }
+
+            if (rows.isEmpty()) {
+                return snapshot;
+            }
+
+            SimpleSchemaSnapshot newSnapshot = snapshot.withBaseTable(table.append(rows));
+            OptimizerFactory deltaFactory = null;
+
+            for (MaterializedAggregateView view : snapshot.getMaterializedViews().values()) {
+                if (!view.getTableName().equals(tableName)) {
+                    continue;
+                }
+
+                if (deltaFactory == null) {
+                    deltaFactory = deltaFactory(snapshot.getSchemaName(), table, rows);
+                }
+
+                Optimizer optimizer = deltaFactory.newOptimizer();
+                RelNode plan = optimizer.plan(view.getSql(), RULES, VectorizedConvention.INSTANCE);
+
+                newSnapshot = newSnapshot.withMaterializedView(
+                    view.merge(VectorizedExecutor.execute(plan, Collections.emptyList()))
+                );
+            }
+
+            if (factory.getSchema().publish(snapshot, newSnapshot)) {
+                return newSnapshot;
+            }
+        }
+    }
+
+    /**
+     * Factory of the optimizers for the schema with the given rows as the only contents of the table.
+     */
+    private OptimizerFactory deltaFactory(String schemaName, SimpleTable table, List<Object[]> rows) {
+        SimpleTable.Builder deltaTable = SimpleTable.newBuilder(table.getTableName());
+
+        for (int i = 0; i < table.getFieldNames().size(); i++) {
+            deltaTable.addField(
+                table.getFieldNames().get(i),
+                table.getFieldTypes().get(i),
+                table.getFieldScales().get(i)
+            );
+        }
+
+        SimpleSchema deltaSchema = SimpleSchema.newBuilder(schemaName)
+            .addTable(deltaTable.addPartition(rows).build())
+            .build();
+
+        return OptimizerFactory.create(deltaSchema, factory.getCostFactory());
+    }
+
+    private static MaterializedAggregateView define(String viewName, String sql, RelNode rel) {
+        if (!(rel instanceof Aggregate)) {
+            throw new IllegalArgumentException("View must be an aggregate query: " + viewName);
+        }
+
+        Aggregate aggregate = (Aggregate) rel;
+
+        if (aggregate.getGroupType() != Aggregate.Group.SIMPLE
+            || !aggregate.getGroupSet().equals(ImmutableBitSet.range(aggregate.getGroupCount()))) {
+            throw new IllegalArgumentException("View must select the group keys followed by the aggregates: "
+                + viewName);
+        }
+
+        List<SqlKind> aggKinds = new ArrayList<>(aggregate.getAggCallList().size());
+
+        for (AggregateCall aggCall : aggregate.getAggCallList()) {
+            SqlKind aggKind = aggCall.getAggregation().getKind();
+
+            switch (aggKind) {
+                case SUM:
+                case SUM0:
+                case COUNT:
+                case MIN:
+                case MAX:
+                    break;
+
+                default:
+                    throw new IllegalArgumentException("Unsupported aggregate in the view " + viewName + ": "
+                        + aggCall);
+            }
+
+            if (aggCall.isDistinct() || aggCall.hasFilter()) {
+                throw new IllegalArgumentException("Unsupported aggregate in the view " + viewName + ": "
+                    + aggCall);
+            }
+
+            aggKinds.add(aggKind);
+        }
+
+        List<String> fieldNames = new ArrayList<>();
+        List<SqlTypeName> fieldTypes = new ArrayList<>();
+        List<Integer> fieldScales = new ArrayList<>();
+
+        for (RelDataTypeField field : rel.getRowType().getFieldList()) {
+            SqlTypeName fieldType = field.getType().getSqlTypeName();
+
+            if (!ColumnType.isSupported(fieldType)) {
+                throw new IllegalArgumentException("Unsupported type of the view column " + field.getName() + ": "
+                    + fieldType);
+            }
+
+            fieldNames.add(field.getName());
+            fieldTypes.add(fieldType);
+            fieldScales.add(fieldType == SqlTypeName.DECIMAL ? field.getType().getScale() : 0);
+        }
+
+        return new MaterializedAggregateView(
+            viewName,
+            sql,
+            tableName(viewName, rel),
+            fieldNames,
+            fieldTypes,
+            fieldScales,
+            aggKinds,
+            new HashMap<>()
+        );
+    }
+
+    private static String tableName(String viewName, RelNode rel) {
+        List<String> res = new ArrayList<>();
+        collectTables(rel, res);
+
+        if (res.size() != 1) {
+            throw new IllegalArgumentException("View must aggregate a single table: " + viewName);
+        }
+
+        return res.get(0);
+    }
+
+    private static void collectTables(RelNode rel, List<String> res) {
+        if (rel instanceof TableScan) {
+            SimpleTable table = rel.getTable().unwrap(SimpleTable.class);
+
+            res.add(table != null ? table.getTableName() : String.valueOf(rel.getTable().getQualifiedName()));
+        }
+
+        for (RelNode input : rel.getInputs()) {
+            collectTables(input, res);
+        }
+    }
+}
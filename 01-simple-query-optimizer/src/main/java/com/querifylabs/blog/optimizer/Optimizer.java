@@ -1,140 +1,417 @@
 package com.querifylabs.blog.optimizer;
 
-import org.apache.calcite.avatica.util.Casing;
-import org.apache.calcite.config.CalciteConnectionConfig;
-import org.apache.calcite.config.CalciteConnectionConfigImpl;
-import org.apache.calcite.config.CalciteConnectionProperty;
-import org.apache.calcite.jdbc.CalciteSchema;
-import org.apache.calcite.jdbc.JavaTypeFactoryImpl;
-import org.apache.calcite.plan.Contexts;
-import org.apache.calcite.plan.ConventionTraitDef;
-import org.apache.calcite.plan.RelOptCluster;
-import org.apache.calcite.plan.RelOptCostImpl;
+import com.google.common.collect.ImmutableList;
+import org.apache.calcite.plan.RelOptMaterialization;
+import org.apache.calcite.plan.RelOptMaterializations;
+import org.apache.calcite.plan.RelOptRule;
+import org.apache.calcite.plan.RelOptTable;
+import org.apache.calcite.plan.RelTrait;
 import org.apache.calcite.plan.RelTraitSet;
+import org.apache.calcite.plan.hep.HepPlanner;
+import org.apache.calcite.plan.hep.HepProgram;
+import org.apache.calcite.plan.hep.HepProgramBuilder;
 import org.apache.calcite.plan.volcano.VolcanoPlanner;
-import org.apache.calcite.prepare.CalciteCatalogReader;
 import org.apache.calcite.prepare.Prepare;
 import org.apache.calcite.rel.RelNode;
 import org.apache.calcite.rel.RelRoot;
-import org.apache.calcite.rel.type.RelDataTypeFactory;
-import org.apache.calcite.rex.RexBuilder;
+import org.apache.calcite.rel.logical.LogicalTableScan;
+import org.apache.calcite.rel.rules.CoreRules;
 import org.apache.calcite.sql.SqlNode;
-import org.apache.calcite.sql.SqlOperatorTable;
-import org.apache.calcite.sql.fun.SqlStdOperatorTable;
+import org.apache.calcite.sql.dialect.CalciteSqlDialect;
+import org.apache.calcite.sql.parser.SqlParseException;
 import org.apache.calcite.sql.parser.SqlParser;
-import org.apache.calcite.sql.util.ChainedSqlOperatorTable;
 import org.apache.calcite.sql.validate.SqlValidator;
-import org.apache.calcite.sql.validate.SqlValidatorUtil;
 import org.apache.calcite.sql2rel.SqlToRelConverter;
-import org.apache.calcite.sql2rel.StandardConvertletTable;
-import org.apache.calcite.tools.Program;
-import org.apache.calcite.tools.Programs;
 import org.apache.calcite.tools.RuleSet;
 import org.apache.calcite.tools.RuleSets;
+import org.apache.calcite.util.CancelFlag;
+import org.apache.calcite.util.Pair;
 
-import java.util.Collections;
-import java.util.Properties;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
 
+/**
+ * Optimizer that parses, validates, converts and optimizes queries.
+ * <p>
+ * The optimizer holds the mutable validator and planner, and therefore must not be shared between threads.
+ * Use the {@link OptimizerFactory} to create a cheap optimizer for every planning session.
+ * <p>
+ * If the {@link PlannerInstrumentation} is provided, the optimizer reports the time spent in every phase, and the
+ * instrumentation listens to the rule calls of the planners.
+ * <p>
+ * The {@link MaterializedAggregateView}s of the schema snapshot are registered in the cost-based planner, so that
+ * the queries could be rewritten to use them.
+ */
 public class Optimizer {
 
-    private final CalciteConnectionConfig config;
+    /**
+     * Simplifying rules that do not need a cost model: predicate pushdown, constant reduction, and merging
+     * of adjacent filters and projects.
+     */
+    public static final RuleSet HEURISTIC_RULES = RuleSets.ofList(
+        CoreRules.FILTER_INTO_JOIN,
+        CoreRules.JOIN_CONDITION_PUSH,
+        CoreRules.FILTER_PROJECT_TRANSPOSE,
+        CoreRules.FILTER_AGGREGATE_TRANSPOSE,
+        CoreRules.FILTER_MERGE,
+        CoreRules.PROJECT_MERGE,
+        CoreRules.PROJECT_REMOVE,
+        CoreRules.FILTER_REDUCE_EXPRESSIONS,
+        CoreRules.PROJECT_REDUCE_EXPRESSIONS,
+        CoreRules.JOIN_REDUCE_EXPRESSIONS
+    );
+
+    private final SimpleSchemaSnapshot schema;
+    private final SqlParser.Config parserConfig;
     private final SqlValidator validator;
     private final SqlToRelConverter converter;
     private final VolcanoPlanner planner;
+    private final PlanCache planCache;
+    private final PlanningBudgetListener budgetListener;
+    private final PlannerInstrumentation instrumentation;
+
+    private List<RelOptMaterialization> materializations;
+
+    /**
+     * Creates the optimizer. The context of the planner must contain a {@link CancelFlag}. The plan cache may be
+     * shared with other optimizers that plan against the same schema with the same cost factory.
+     */
+    public Optimizer(
+        SimpleSchemaSnapshot schema,
+        SqlParser.Config parserConfig,
+        SqlValidator validator,
+        SqlToRelConverter converter,
+        VolcanoPlanner planner,
+        PlanCache planCache
+    ) {
+        this(schema, parserConfig, validator, converter, planner, planCache, null);
+    }
 
+    /**
+     * Creates the optimizer with the optional instrumentation. The context of the planner must contain a
+     * {@link CancelFlag}.
+     */
     public Optimizer(
-        CalciteConnectionConfig config,
+        SimpleSchemaSnapshot schema,
+        SqlParser.Config parserConfig,
         SqlValidator validator,
         SqlToRelConverter converter,
-        VolcanoPlanner planner
+        VolcanoPlanner planner,
+        PlanCache planCache,
+        PlannerInstrumentation instrumentation
     ) {
-        this.config = config;
+        this.schema = schema;
+        this.parserConfig = parserConfig;
         this.validator = validator;
         this.converter = converter;
         this.planner = planner;
+        this.planCache = planCache;
+        this.instrumentation = instrumentation;
+
+        budgetListener = new PlanningBudgetListener(planner.getContext().unwrap(CancelFlag.class));
+        planner.addListener(budgetListener);
+
+        if (instrumentation != null) {
+            planner.addListener(instrumentation);
+        }
     }
 
     public static Optimizer create(SimpleSchema schema) {
-        RelDataTypeFactory typeFactory = new JavaTypeFactoryImpl();
-
-        Properties configProperties = new Properties();
-        configProperties.put(CalciteConnectionProperty.CASE_SENSITIVE.camelName(), Boolean.TRUE.toString());
-        configProperties.put(CalciteConnectionProperty.UNQUOTED_CASING.camelName(), Casing.UNCHANGED.toString());
-        configProperties.put(CalciteConnectionProperty.QUOTED_CASING.camelName(), Casing.UNCHANGED.toString());
-        CalciteConnectionConfig config = new CalciteConnectionConfigImpl(configProperties);
-
-        CalciteSchema rootSchema = CalciteSchema.createRootSchema(false, false);
-        rootSchema.add(schema.getSchemaName(), schema);
-        Prepare.CatalogReader catalogReader = new CalciteCatalogReader(
-            rootSchema,
-            Collections.singletonList(schema.getSchemaName()),
-            typeFactory,
-            config
-        );
+        return OptimizerFactory.create(schema).newOptimizer();
+    }
 
-        SqlOperatorTable operatorTable = ChainedSqlOperatorTable.of(SqlStdOperatorTable.instance());
+    public SqlNode parse(String sql) throws Exception {
+        long start = onPhaseStarted(PlannerPhase.PARSE);
 
-        SqlValidator.Config validatorConfig = SqlValidator.Config.DEFAULT
-            .withLenientOperatorLookup(config.lenientOperatorLookup())
-            .withSqlConformance(config.conformance())
-            .withDefaultNullCollation(config.defaultNullCollation())
-            .withIdentifierExpansion(true);
+        try {
+            SqlParser parser = SqlParser.create(sql, parserConfig);
 
-        SqlValidator validator = SqlValidatorUtil.newValidator(operatorTable, catalogReader, typeFactory, validatorConfig);
+            return parser.parseStmt();
+        } finally {
+            onPhaseFinished(PlannerPhase.PARSE, start);
+        }
+    }
 
-        VolcanoPlanner planner = new VolcanoPlanner(RelOptCostImpl.FACTORY, Contexts.of(config));
-        planner.addRelTraitDef(ConventionTraitDef.INSTANCE);
+    public SqlNode validate(SqlNode node) {
+        long start = onPhaseStarted(PlannerPhase.VALIDATE);
 
-        RelOptCluster cluster = RelOptCluster.create(planner, new RexBuilder(typeFactory));
+        try {
+            return validator.validate(node);
+        } finally {
+            onPhaseFinished(PlannerPhase.VALIDATE, start);
+        }
+    }
 
-        SqlToRelConverter.Config converterConfig = SqlToRelConverter.configBuilder()
-            .withTrimUnusedFields(true)
-            .withExpand(false) // https://issues.apache.org/jira/browse/CALCITE-1045
-            .build();
+    public RelNode convert(SqlNode node) {
+        long start = onPhaseStarted(PlannerPhase.CONVERT);
 
-        SqlToRelConverter converter = new SqlToRelConverter(
-            null,
-            validator,
-            catalogReader,
-            cluster,
-            StandardConvertletTable.INSTANCE,
-            converterConfig
-        );
+        try {
+            RelRoot root = converter.convertQuery(node, false, true);
 
-        return new Optimizer(config, validator, converter, planner);
+            return root.rel;
+        } finally {
+            onPhaseFinished(PlannerPhase.CONVERT, start);
+        }
     }
 
-    public SqlNode parse(String sql) throws Exception {
-        SqlParser.ConfigBuilder parserConfig = SqlParser.configBuilder();
-        parserConfig.setCaseSensitive(config.caseSensitive());
-        parserConfig.setUnquotedCasing(config.unquotedCasing());
-        parserConfig.setQuotedCasing(config.quotedCasing());
-        parserConfig.setConformance(config.conformance());
+    public RelNode optimize(RelNode node, RelTraitSet requiredTraitSet, RuleSet rules) {
+        return optimize(node, requiredTraitSet, rules, PlanningBudget.UNLIMITED).getRel();
+    }
 
-        SqlParser parser = SqlParser.create(sql, parserConfig.build());
+    /**
+     * Optimize the node within the given budget. If the budget is exhausted, the cheapest complete plan found so
+     * far is returned, and the result is marked as non-exhaustive. If no complete plan has been found by that
+     * time, {@link org.apache.calcite.plan.RelOptPlanner.CannotPlanException} is thrown.
+     */
+    public OptimizerResult optimize(
+        RelNode node,
+        RelTraitSet requiredTraitSet,
+        RuleSet rules,
+        PlanningBudget budget
+    ) {
+        long start = onPhaseStarted(PlannerPhase.OPTIMIZE);
 
-        return parser.parseStmt();
+        try {
+            return optimizeCostBased(node, requiredTraitSet, rules, budget);
+        } finally {
+            onPhaseFinished(PlannerPhase.OPTIMIZE, start);
+        }
     }
 
-    public SqlNode validate(SqlNode node) {
-        return validator.validate(node);
+    private OptimizerResult optimizeCostBased(
+        RelNode node,
+        RelTraitSet requiredTraitSet,
+        RuleSet rules,
+        PlanningBudget budget
+    ) {
+        long start = System.nanoTime();
+
+        RelNode optimizedNode;
+        boolean budgetExhausted;
+
+        budgetListener.start(budget);
+
+        try {
+            planner.clear();
+
+            for (RelOptRule rule : rules) {
+                planner.addRule(rule);
+            }
+
+            RelNode root = node.getTraitSet().equals(requiredTraitSet)
+                ? node
+                : planner.changeTraits(node, requiredTraitSet);
+
+            planner.setRoot(root);
+
+            // The substitutions are registered as the equivalents of the original node. The materializations are
+            // not passed to the planner, because it matches them against the first root it has ever seen.
+            for (Pair<RelNode, List<RelOptMaterialization>> use
+                : RelOptMaterializations.useMaterializedViews(node, materializations())) {
+                planner.ensureRegistered(use.left, node);
+            }
+
+            optimizedNode = planner.findBestExp();
+        } finally {
+            budgetExhausted = budgetListener.stop();
+        }
+
+        return new OptimizerResult(optimizedNode, 0L, System.nanoTime() - start, !budgetExhausted);
     }
 
-    public RelNode convert(SqlNode node) {
-        RelRoot root = converter.convertQuery(node, false, true);
+    /**
+     * Materializations of the views of the schema, converted in the cluster of the optimizer on the first use.
+     */
+    private List<RelOptMaterialization> materializations() {
+        if (materializations == null) {
+            List<RelOptMaterialization> res = new ArrayList<>(schema.getMaterializedViews().size());
+
+            for (MaterializedAggregateView view : schema.getMaterializedViews().values()) {
+                res.add(materialization(view));
+            }
+
+            materializations = res;
+        }
 
-        return root.rel;
+        return materializations;
     }
 
-    public RelNode optimize(RelNode node, RelTraitSet requiredTraitSet, RuleSet rules) {
-        Program program = Programs.of(RuleSets.ofList(rules));
+    private RelOptMaterialization materialization(MaterializedAggregateView view) {
+        SqlNode node;
+
+        try {
+            node = SqlParser.create(view.getSql(), parserConfig).parseStmt();
+        } catch (SqlParseException e) {
+            throw new IllegalStateException("Failed to parse the view " + view.getViewName(), e);
+        }
+
+        RelNode queryRel = converter.convertQuery(validator.validate(node), false, true).rel;
 
-        return program.run(
-            planner,
-            node,
+        RelOptTable table = catalogReader().getTable(Arrays.asList(schema.getSchemaName(), view.getViewName()));
+
+        RelNode tableRel = LogicalTableScan.create(queryRel.getCluster(), table, ImmutableList.of());
+
+        return new RelOptMaterialization(tableRel, queryRel, null, table.getQualifiedName());
+    }
+
+    private Prepare.CatalogReader catalogReader() {
+        return validator.getCatalogReader().unwrap(Prepare.CatalogReader.class);
+    }
+
+    /**
+     * Optimize the node in two phases. First, the heuristic rules are applied by the {@link HepPlanner} until
+     * none of them can fire. Second, the cost-based rules are applied to the simplified tree by the
+     * {@link VolcanoPlanner}. Since the simplifications are not registered in the Volcano memo, it contains
+     * fewer equivalent alternatives.
+     */
+    public OptimizerResult optimize(
+        RelNode node,
+        RelTraitSet requiredTraitSet,
+        RuleSet heuristicRules,
+        RuleSet costBasedRules
+    ) {
+        return optimize(node, requiredTraitSet, heuristicRules, costBasedRules, PlanningBudget.UNLIMITED);
+    }
+
+    /**
+     * Optimize the node in two phases, limiting the cost-based phase with the given budget.
+     */
+    public OptimizerResult optimize(
+        RelNode node,
+        RelTraitSet requiredTraitSet,
+        RuleSet heuristicRules,
+        RuleSet costBasedRules,
+        PlanningBudget budget
+    ) {
+        long start = onPhaseStarted(PlannerPhase.OPTIMIZE);
+
+        try {
+            return optimizeTwoPhase(node, requiredTraitSet, heuristicRules, costBasedRules, budget);
+        } finally {
+            onPhaseFinished(PlannerPhase.OPTIMIZE, start);
+        }
+    }
+
+    private OptimizerResult optimizeTwoPhase(
+        RelNode node,
+        RelTraitSet requiredTraitSet,
+        RuleSet heuristicRules,
+        RuleSet costBasedRules,
+        PlanningBudget budget
+    ) {
+        long heuristicPhaseStart = System.nanoTime();
+
+        HepProgram program = new HepProgramBuilder()
+            .addRuleCollection(ImmutableList.copyOf(heuristicRules))
+            .build();
+
+        HepPlanner heuristicPlanner = new HepPlanner(program);
+        if (instrumentation != null) {
+            heuristicPlanner.addListener(instrumentation);
+        }
+        heuristicPlanner.setRoot(node);
+        RelNode simplifiedNode = heuristicPlanner.findBestExp();
+
+        long heuristicPhaseNanos = System.nanoTime() - heuristicPhaseStart;
+
+        OptimizerResult result = optimizeCostBased(simplifiedNode, requiredTraitSet, costBasedRules, budget);
+
+        return new OptimizerResult(
+            result.getRel(),
+            heuristicPhaseNanos,
+            result.getCostBasedPhaseNanos(),
+            result.isExhaustive()
+        );
+    }
+
+    /**
+     * Parse, validate, convert and optimize the query. The optimized plan is cached in the shared plan cache, so
+     * that the subsequent executions of the same statement by this or another optimizer skip planning. A statement
+     * with the same text is found before parsing. A statement that differs only in formatting or keyword casing is
+     * found after validation, by its normalized SQL and the types of dynamic parameters. The returned plan is always
+     * bound to the cluster of this optimizer.
+     */
+    public RelNode plan(String sql, RuleSet rules, RelTrait... requiredTraits) throws Exception {
+        long schemaVersion = schema.getVersion();
+
+        RelTraitSet requiredTraitSet = planner.emptyTraitSet();
+        for (RelTrait requiredTrait : requiredTraits) {
+            requiredTraitSet = requiredTraitSet.replace(requiredTrait);
+        }
+
+        PlanCache.Key textKey = PlanCache.key(sql, rules, requiredTraitSet, schemaVersion);
+
+        RelNode plan = planCache.get(textKey, converter.getCluster(), catalogReader());
+
+        if (plan != null) {
+            return plan;
+        }
+
+        SqlNode validatedNode = validate(parse(sql));
+
+        PlanCache.Key key = PlanCache.key(
+            validatedNode.toSqlString(CalciteSqlDialect.DEFAULT).getSql(),
+            validator.getParameterRowType(validatedNode),
+            rules,
             requiredTraitSet,
-            Collections.emptyList(),
-            Collections.emptyList()
+            schemaVersion
         );
+
+        plan = planCache.get(key, converter.getCluster(), catalogReader());
+
+        if (plan == null) {
+            plan = optimize(convert(validatedNode), requiredTraitSet, rules);
+
+            planCache.put(key, plan);
+        }
+
+        planCache.put(textKey, plan);
+
+        return plan;
+    }
+
+    /**
+     * Plan the statements that are executed together, sharing their common subplans. Every statement is planned
+     * with {@link #plan(String, RuleSet, RelTrait...)}, so the plans of the repeated statements are taken from
+     * the cache.
+     */
+    public BatchPlan planBatch(List<String> sqls, RuleSet rules, RelTrait... requiredTraits) throws Exception {
+        List<RelNode> plans = new ArrayList<>(sqls.size());
+
+        for (String sql : sqls) {
+            plans.add(plan(sql, rules, requiredTraits));
+        }
+
+        return BatchPlan.create(plans);
+    }
+
+    /**
+     * Snapshot of the schema the optimizer plans against.
+     */
+    public SimpleSchemaSnapshot getSchema() {
+        return schema;
+    }
+
+    public PlanCache getPlanCache() {
+        return planCache;
+    }
+
+    public PlannerInstrumentation getInstrumentation() {
+        return instrumentation;
+    }
+
+    private long onPhaseStarted(PlannerPhase phase) {
+        if (instrumentation != null) {
+            instrumentation.onPhaseStarted(phase);
+        }
+
+        return System.nanoTime();
+    }
+
+    private void onPhaseFinished(PlannerPhase phase, long start) {
+        if (instrumentation != null) {
+            instrumentation.onPhaseFinished(phase, System.nanoTime() - start);
+        }
     }
 }
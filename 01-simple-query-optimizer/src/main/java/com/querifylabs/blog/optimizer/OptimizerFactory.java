@@ -0,0 +1,188 @@
+package com.querifylabs.blog.optimizer;
+
+import org.apache.calcite.avatica.util.Casing;
+import org.apache.calcite.config.CalciteConnectionConfig;
+import org.apache.calcite.config.CalciteConnectionConfigImpl;
+import org.apache.calcite.config.CalciteConnectionProperty;
+import org.apache.calcite.jdbc.CalciteSchema;
+import org.apache.calcite.jdbc.JavaTypeFactoryImpl;
+import org.apache.calcite.plan.Contexts;
+import org.apache.calcite.plan.ConventionTraitDef;
+import org.apache.calcite.plan.RelOptCluster;
+import org.apache.calcite.plan.volcano.VolcanoPlanner;
+import org.apache.calcite.prepare.CalciteCatalogReader;
+import org.apache.calcite.prepare.Prepare;
+import org.apache.calcite.rel.type.RelDataTypeFactory;
+import org.apache.calcite.rex.RexBuilder;
+import org.apache.calcite.sql.SqlOperatorTable;
+import org.apache.calcite.sql.fun.SqlStdOperatorTable;
+import org.apache.calcite.sql.parser.SqlParser;
+import org.apache.calcite.sql.util.ChainedSqlOperatorTable;
+import org.apache.calcite.sql.validate.SqlValidator;
+import org.apache.calcite.sql.validate.SqlValidatorUtil;
+import org.apache.calcite.sql2rel.SqlToRelConverter;
+import org.apache.calcite.sql2rel.StandardConvertletTable;
+import org.apache.calcite.util.CancelFlag;
+
+import java.util.Collections;
+import java.util.Properties;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Factory of optimizers for the given schema.
+ * <p>
+ * The factory creates the immutable parts of the planning environment once: configuration, type factory,
+ * operator table and configs of the parser, validator and converter. These objects are shared between all
+ * optimizers created by the factory. Stateful objects, such as the validator and the planner, are created for
+ * every optimizer.
+ * <p>
+ * Every optimizer pins the snapshot of the schema that is current at the time of its creation, see
+ * {@link SimpleSchema#snapshot()}. Tables added or dropped afterwards are observed by the new optimizers only.
+ * <p>
+ * The factory is thread-safe. Optimizers are not: every thread should plan its queries with its own optimizer,
+ * which is cheap to create. All optimizers share the {@link PlanCache} of the factory, so that a statement planned
+ * by one optimizer is not planned again by the others until a new snapshot of the schema is published.
+ */
+public class OptimizerFactory {
+
+    private final SimpleSchema schema;
+    private final CalciteConnectionConfig config;
+    private final RelDataTypeFactory typeFactory;
+    private final SqlOperatorTable operatorTable;
+    private final SqlParser.Config parserConfig;
+    private final SqlValidator.Config validatorConfig;
+    private final SqlToRelConverter.Config converterConfig;
+    private final SimpleCostFactory costFactory;
+    private final PlanCache planCache = new PlanCache();
+
+    private OptimizerFactory(
+        SimpleSchema schema,
+        CalciteConnectionConfig config,
+        RelDataTypeFactory typeFactory,
+        SqlOperatorTable operatorTable,
+        SqlParser.Config parserConfig,
+        SqlValidator.Config validatorConfig,
+        SqlToRelConverter.Config converterConfig,
+        SimpleCostFactory costFactory
+    ) {
+        this.schema = schema;
+        this.config = config;
+        this.typeFactory = typeFactory;
+        this.operatorTable = operatorTable;
+        this.parserConfig = parserConfig;
+        this.validatorConfig = validatorConfig;
+        this.converterConfig = converterConfig;
+        this.costFactory = costFactory;
+    }
+
+    public static OptimizerFactory create(SimpleSchema schema) {
+        return create(schema, SimpleCostFactory.DEFAULT);
+    }
+
+    /**
+     * Create a factory whose optimizers compare plans with the given weights of the cost dimensions.
+     */
+    public static OptimizerFactory create(SimpleSchema schema, SimpleCostFactory costFactory) {
+        RelDataTypeFactory typeFactory = new JavaTypeFactoryImpl();
+
+        Properties configProperties = new Properties();
+        configProperties.put(CalciteConnectionProperty.CASE_SENSITIVE.camelName(), Boolean.TRUE.toString());
+        configProperties.put(CalciteConnectionProperty.UNQUOTED_CASING.camelName(), Casing.UNCHANGED.toString());
+        configProperties.put(CalciteConnectionProperty.QUOTED_CASING.camelName(), Casing.UNCHANGED.toString());
+        CalciteConnectionConfig config = new CalciteConnectionConfigImpl(configProperties);
+
+        SqlOperatorTable operatorTable = ChainedSqlOperatorTable.of(SqlStdOperatorTable.instance());
+
+        SqlParser.Config parserConfig = SqlParser.configBuilder()
+            .setCaseSensitive(config.caseSensitive())
+            .setUnquotedCasing(config.unquotedCasing())
+            .setQuotedCasing(config.quotedCasing())
+            .setConformance(config.conformance())
+            .build();
+
+        SqlValidator.Config validatorConfig = SqlValidator.Config.DEFAULT
+            .withLenientOperatorLookup(config.lenientOperatorLookup())
+            .withSqlConformance(config.conformance())
+            .withDefaultNullCollation(config.defaultNullCollation())
+            .withIdentifierExpansion(true);
+
+        SqlToRelConverter.Config converterConfig = SqlToRelConverter.configBuilder()
+            .withTrimUnusedFields(true)
+            .withExpand(false) // https://issues.apache.org/jira/browse/CALCITE-1045
+            .build();
+
+        return new OptimizerFactory(
+            schema,
+            config,
+            typeFactory,
+            operatorTable,
+            parserConfig,
+            validatorConfig,
+            converterConfig,
+            costFactory
+        );
+    }
+
+    /**
+     * Create a new optimizer that could be used to plan queries from a single thread.
+     */
+    public Optimizer newOptimizer() {
+        return newOptimizer(null);
+    }
+
+    /**
+     * Create a new optimizer that reports to the given instrumentation, which may be shared by many optimizers.
+     */
+    public Optimizer newOptimizer(PlannerInstrumentation instrumentation) {
+        SimpleSchemaSnapshot snapshot = schema.snapshot();
+
+        CalciteSchema rootSchema = CalciteSchema.createRootSchema(false, false);
+        rootSchema.add(snapshot.getSchemaName(), snapshot);
+        Prepare.CatalogReader catalogReader = new CalciteCatalogReader(
+            rootSchema,
+            Collections.singletonList(snapshot.getSchemaName()),
+            typeFactory,
+            config
+        );
+
+        SqlValidator validator = SqlValidatorUtil.newValidator(operatorTable, catalogReader, typeFactory, validatorConfig);
+
+        CancelFlag cancelFlag = new CancelFlag(new AtomicBoolean());
+        VolcanoPlanner planner = new VolcanoPlanner(costFactory, Contexts.of(config, cancelFlag));
+        planner.addRelTraitDef(ConventionTraitDef.INSTANCE);
+
+        RelOptCluster cluster = RelOptCluster.create(planner, new RexBuilder(typeFactory));
+        SimpleRelMetadataProvider.install(cluster);
+
+        SqlToRelConverter converter = new SqlToRelConverter(
+            null,
+            validator,
+            catalogReader,
+            cluster,
+            StandardConvertletTable.INSTANCE,
+            converterConfig
+        );
+
+        return new Optimizer(
+            snapshot,
+            parserConfig,
+            validator,
+            converter,
+            planner,
+            planCache,
+            instrumentation
+        );
+    }
+
+    public SimpleSchema getSchema() {
+        return schema;
+    }
+
+    public SimpleCostFactory getCostFactory() {
+        return costFactory;
+    }
+
+    public PlanCache getPlanCache() {
+        return planCache;
+    }
+}
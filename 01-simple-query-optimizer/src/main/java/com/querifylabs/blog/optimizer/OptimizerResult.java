@@ -0,0 +1,50 @@
+package com.querifylabs.blog.optimizer;
+
+import org.apache.calcite.rel.RelNode;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The result of the optimization: the optimized plan, the time spent in every phase, and whether the search
+ * was exhaustive or stopped early because the planning budget was exhausted.
+ */
+public class OptimizerResult {
+
+    private final RelNode rel;
+    private final long heuristicPhaseNanos;
+    private final long costBasedPhaseNanos;
+    private final boolean exhaustive;
+
+    public OptimizerResult(RelNode rel, long heuristicPhaseNanos, long costBasedPhaseNanos, boolean exhaustive) {
+        this.rel = rel;
+        this.heuristicPhaseNanos = heuristicPhaseNanos;
+        this.costBasedPhaseNanos = costBasedPhaseNanos;
+        this.exhaustive = exhaustive;
+    }
+
+    public RelNode getRel() {
+        return rel;
+    }
+
+    /** Time spent in the rule-driven HepPlanner phase. */
+    public long getHeuristicPhaseNanos() {
+        return heuristicPhaseNanos;
+    }
+
+    /** Time spent in the cost-based VolcanoPlanner phase. */
+    public long getCostBasedPhaseNanos() {
+        return costBasedPhaseNanos;
+    }
+
+    /** Whether the cost-based search completed, or was stopped because the planning budget was exhausted. */
+    public boolean isExhaustive() {
+        return exhaustive;
+    }
+
+    @Override
+    public String toString() {
+        return "OptimizerResult{heuristicPhase=" + TimeUnit.NANOSECONDS.toMicros(heuristicPhaseNanos) + "us"
+            + ", costBasedPhase=" + TimeUnit.NANOSECONDS.toMicros(costBasedPhaseNanos) + "us"
+            + ", exhaustive=" + exhaustive + "}";
+    }
+}
@@ -0,0 +1,251 @@
+package com.querifylabs.blog.optimizer;
+
+import com.google.common.collect.ImmutableList;
+import com.querifylabs.blog.optimizer.vectorized.VectorizedAggregate;
+import com.querifylabs.blog.optimizer.vectorized.VectorizedCalc;
+import com.querifylabs.blog.optimizer.vectorized.VectorizedTableScan;
+import org.apache.calcite.adapter.enumerable.EnumerableAggregate;
+import org.apache.calcite.adapter.enumerable.EnumerableCalc;
+import org.apache.calcite.adapter.enumerable.EnumerableFilter;
+import org.apache.calcite.adapter.enumerable.EnumerableHashJoin;
+import org.apache.calcite.adapter.enumerable.EnumerableMergeJoin;
+import org.apache.calcite.adapter.enumerable.EnumerableNestedLoopJoin;
+import org.apache.calcite.adapter.enumerable.EnumerableProject;
+import org.apache.calcite.adapter.enumerable.EnumerableSort;
+import org.apache.calcite.adapter.enumerable.EnumerableTableScan;
+import org.apache.calcite.adapter.enumerable.EnumerableValues;
+import org.apache.calcite.plan.RelTrait;
+import org.apache.calcite.plan.RelTraitSet;
+import org.apache.calcite.plan.hep.HepRelVertex;
+import org.apache.calcite.plan.volcano.RelSubset;
+import org.apache.calcite.rel.RelNode;
+import org.apache.calcite.rel.RelVisitor;
+import org.apache.calcite.rel.logical.LogicalAggregate;
+import org.apache.calcite.rel.logical.LogicalCalc;
+import org.apache.calcite.rel.logical.LogicalFilter;
+import org.apache.calcite.rel.logical.LogicalJoin;
+import org.apache.calcite.rel.logical.LogicalProject;
+import org.apache.calcite.rel.logical.LogicalSort;
+import org.apache.calcite.rel.logical.LogicalTableScan;
+import org.apache.calcite.rel.logical.LogicalValues;
+import org.apache.calcite.rel.metadata.RelMetadataQuery;
+import org.apache.calcite.schema.Table;
+import org.apache.calcite.tools.RuleSet;
+import org.apache.calcite.util.ImmutableBitSet;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Warm-up of the planning environment, intended to be run once on startup, before the first query is planned.
+ * <p>
+ * The first query planned in a fresh JVM is much slower than the subsequent ones: the parser, validator,
+ * converter and rule classes are loaded and initialized lazily, the metadata handlers are generated and compiled
+ * by Janino on the first access, and the planning code runs in the interpreter. The warm-up removes these costs
+ * from the first user query:
+ * <ol>
+ *     <li>The operator classes are registered in the metadata provider upfront, so the handlers are generated
+ *     once for all of them, rather than regenerated every time a new operator class appears in the memo.</li>
+ *     <li>The workload is parsed, validated, converted and optimized, and every metadata kind is requested for
+ *     every operator of the resulting plans, so all handlers are compiled.</li>
+ * </ol>
+ * The workload is either provided explicitly, or derived from the schema: a filter and an aggregation over every
+ * table. The warm-up does not use the plan cache.
+ * <p>
+ * The warm-up does not reduce the class loading part of the JVM startup. The classes loaded by the warm-up could
+ * be stored in an application class data sharing archive on JDK 13+: run the application with
+ * {@code -XX:ArchiveClassesAtExit=optimizer.jsa} once, and then with {@code -XX:SharedArchiveFile=optimizer.jsa}.
+ * The classes are archived only from JAR files, not from directories.
+ */
+public final class OptimizerWarmup {
+
+    /** Operator classes registered in the metadata provider by default. */
+    public static final List<Class<? extends RelNode>> DEFAULT_REL_CLASSES = ImmutableList.of(
+        RelSubset.class,
+        HepRelVertex.class,
+        LogicalTableScan.class,
+        LogicalProject.class,
+        LogicalFilter.class,
+        LogicalCalc.class,
+        LogicalAggregate.class,
+        LogicalJoin.class,
+        LogicalSort.class,
+        LogicalValues.class,
+        EnumerableTableScan.class,
+        EnumerableProject.class,
+        EnumerableFilter.class,
+        EnumerableCalc.class,
+        EnumerableAggregate.class,
+        EnumerableHashJoin.class,
+        EnumerableMergeJoin.class,
+        EnumerableNestedLoopJoin.class,
+        EnumerableSort.class,
+        EnumerableValues.class,
+        VectorizedTableScan.class,
+        VectorizedCalc.class,
+        VectorizedAggregate.class
+    );
+
+    private final List<String> queries;
+    private final RuleSet rules;
+    private final List<RelTrait> requiredTraits;
+    private final List<Class<? extends RelNode>> relClasses;
+    private final int iterations;
+
+    private OptimizerWarmup(
+        List<String> queries,
+        RuleSet rules,
+        List<RelTrait> requiredTraits,
+        List<Class<? extends RelNode>> relClasses,
+        int iterations
+    ) {
+        this.queries = queries;
+        this.rules = rules;
+        this.requiredTraits = requiredTraits;
+        this.relClasses = relClasses;
+        this.iterations = iterations;
+    }
+
+    public static Builder newBuilder() {
+        return new Builder();
+    }
+
+    /**
+     * Run the warm-up against the schema of the factory. Returns the time spent in the warm-up.
+     */
+    public long run(OptimizerFactory factory) throws Exception {
+        long start = System.nanoTime();
+
+        SimpleRelMetadataProvider.registerRelClasses(relClasses);
+
+        List<String> workload = queries.isEmpty() ? defaultQueries(factory.getSchema()) : queries;
+
+        for (int i = 0; i < iterations; i++) {
+            for (String query : workload) {
+                Optimizer optimizer = factory.newOptimizer();
+
+                RelNode relTree = optimizer.convert(optimizer.validate(optimizer.parse(query)));
+
+                RelTraitSet requiredTraitSet = relTree.getTraitSet();
+                for (RelTrait requiredTrait : requiredTraits) {
+                    requiredTraitSet = requiredTraitSet.replace(requiredTrait);
+                }
+
+                RelNode optimizedRelTree = optimizer.optimize(relTree, requiredTraitSet, rules);
+
+                requestMetadata(relTree);
+                requestMetadata(optimizedRelTree);
+            }
+        }
+
+        return System.nanoTime() - start;
+    }
+
+    /**
+     * A filter and an aggregation over the first column of every table.
+     */
+    static List<String> defaultQueries(SimpleSchema schema) {
+        List<String> res = new ArrayList<>();
+
+        for (Map.Entry<String, Table> entry : schema.getTableMap().entrySet()) {
+            String table = '"' + entry.getKey() + '"';
+            String column = '"' + ((SimpleTable) entry.getValue()).getFieldNames().get(0) + '"';
+
+            res.add("select * from " + table + " where " + column + " = ?");
+            res.add("select " + column + ", count(*) from " + table + " group by " + column);
+        }
+
+        return res;
+    }
+
+    private static void requestMetadata(RelNode rel) {
+        new RelVisitor() {
+            @Override
+            public void visit(RelNode node, int ordinal, RelNode parent) {
+                RelMetadataQuery mq = node.getCluster().getMetadataQuery();
+                ImmutableBitSet firstColumn = ImmutableBitSet.of(0);
+
+                mq.getRowCount(node);
+                mq.getMaxRowCount(node);
+                mq.getMinRowCount(node);
+                mq.getCumulativeCost(node);
+                mq.getNonCumulativeCost(node);
+                mq.getSelectivity(node, null);
+                mq.getDistinctRowCount(node, firstColumn, null);
+                mq.getPopulationSize(node, firstColumn);
+                mq.getUniqueKeys(node);
+                mq.areColumnsUnique(node, firstColumn);
+                mq.getColumnOrigins(node, 0);
+                mq.getPulledUpPredicates(node);
+                mq.getAverageRowSize(node);
+                mq.collations(node);
+                mq.distribution(node);
+
+                super.visit(node, ordinal, parent);
+            }
+        }.go(rel);
+    }
+
+    public static final class Builder {
+
+        private final List<String> queries = new ArrayList<>();
+        private RuleSet rules;
+        private List<RelTrait> requiredTraits = ImmutableList.of();
+        private List<Class<? extends RelNode>> relClasses = DEFAULT_REL_CLASSES;
+        private int iterations = 1;
+
+        private Builder() {
+            // No-op.
+        }
+
+        /**
+         * Add the query to the workload. If no queries are added, the workload is derived from the schema.
+         */
+        public Builder addQuery(String sql) {
+            if (sql == null || sql.isEmpty()) {
+                throw new IllegalArgumentException("Query cannot be null or empty");
+            }
+
+            queries.add(sql);
+
+            return this;
+        }
+
+        public Builder withRules(RuleSet rules, RelTrait... requiredTraits) {
+            this.rules = rules;
+            this.requiredTraits = ImmutableList.copyOf(requiredTraits);
+
+            return this;
+        }
+
+        /**
+         * Operator classes to register in the metadata provider. Should include all classes that the rules may
+         * produce, including the custom ones.
+         */
+        public Builder withRelClasses(Collection<Class<? extends RelNode>> relClasses) {
+            this.relClasses = ImmutableList.copyOf(relClasses);
+
+            return this;
+        }
+
+        public Builder withIterations(int iterations) {
+            if (iterations <= 0) {
+                throw new IllegalArgumentException("Iterations must be positive: " + iterations);
+            }
+
+            this.iterations = iterations;
+
+            return this;
+        }
+
+        public OptimizerWarmup build() {
+            if (rules == null) {
+                throw new IllegalStateException("Rules are not set");
+            }
+
+            return new OptimizerWarmup(ImmutableList.copyOf(queries), rules, requiredTraits, relClasses, iterations);
+        }
+    }
+}
@@ -0,0 +1,273 @@
+package com.querifylabs.blog.optimizer;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.CacheStats;
+import org.apache.calcite.plan.RelOptCluster;
+import org.apache.calcite.plan.RelOptRule;
+import org.apache.calcite.plan.RelTraitDef;
+import org.apache.calcite.plan.RelTraitSet;
+import org.apache.calcite.plan.volcano.VolcanoPlanner;
+import org.apache.calcite.prepare.Prepare;
+import org.apache.calcite.rel.RelNode;
+import org.apache.calcite.rel.RelVisitor;
+import org.apache.calcite.rel.type.RelDataType;
+import org.apache.calcite.rel.type.RelDataTypeField;
+import org.apache.calcite.rex.RexBuilder;
+import org.apache.calcite.tools.RuleSet;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Objects;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Bounded cache of optimized plans, shared by all optimizers of the same {@link OptimizerFactory}.
+ * <p>
+ * Plans are bound to the cluster of the optimizer that created them: the cluster refers to the planner of the
+ * optimizer and caches the metadata, neither of which is thread-safe. Therefore, the cache never stores or returns
+ * the plans of the optimizers. A plan is copied to a detached cluster when it is put into the cache, and the copy is
+ * copied again to the cluster of the optimizer that finds it, see {@link PlanCopier}. Plans with operators that
+ * cannot be copied are not cached.
+ * <p>
+ * Plans are keyed either by the statement text with the whitespace normalized, which could be looked up before the
+ * statement is parsed, or by the normalized SQL of the validated statement and the types of dynamic parameters. Both
+ * keys include the rules and the required traits. The weight of an entry is the number of operators in the plan,
+ * so a few huge plans cannot push out hundreds of small ones.
+ * <p>
+ * Every entry is bound to the version of the schema it was planned against. When the cache observes a newer
+ * schema version, all entries are dropped.
+ */
+public class PlanCache {
+
+    /** Default maximum total number of operators in the cached plans. */
+    public static final long DEFAULT_MAXIMUM_WEIGHT = 100_000L;
+
+    private final Cache<Key, RelNode> cache;
+
+    /** The most recent schema version observed by the cache. */
+    private final AtomicLong schemaVersion = new AtomicLong();
+
+    public PlanCache() {
+        this(DEFAULT_MAXIMUM_WEIGHT);
+    }
+
+    public PlanCache(long maximumWeight) {
+        cache = CacheBuilder.newBuilder()
+            .maximumWeight(maximumWeight)
+            .weigher((Key key, RelNode plan) -> weight(plan))
+            .recordStats()
+            .build();
+    }
+
+    /**
+     * Find the plan and copy it to the given cluster, resolving the tables through the given catalog reader.
+     */
+    public RelNode get(Key key, RelOptCluster cluster, Prepare.CatalogReader catalogReader) {
+        onSchemaVersion(key.schemaVersion);
+
+        RelNode plan = cache.getIfPresent(key);
+
+        return plan != null ? new PlanCopier(cluster, catalogReader).copy(plan) : null;
+    }
+
+    public void put(Key key, RelNode plan) {
+        onSchemaVersion(key.schemaVersion);
+
+        // Do not pollute the cache with plans created against the outdated schema.
+        if (key.schemaVersion == schemaVersion.get()) {
+            // Every plan gets its own cluster, because the copying may request the metadata from it. The planner
+            // of the cluster is never run, it only defines the traits.
+            VolcanoPlanner planner = new VolcanoPlanner();
+            for (RelTraitDef<?> traitDef : plan.getCluster().getPlanner().getRelTraitDefs()) {
+                planner.addRelTraitDef(traitDef);
+            }
+
+            RelOptCluster cluster = RelOptCluster.create(planner, new RexBuilder(plan.getCluster().getTypeFactory()));
+
+            RelNode detachedPlan = new PlanCopier(cluster, null).copy(plan);
+
+            if (detachedPlan != null) {
+                cache.put(key, detachedPlan);
+            }
+        }
+    }
+
+    public void invalidateAll() {
+        cache.invalidateAll();
+    }
+
+    public long size() {
+        return cache.size();
+    }
+
+    public CacheStats stats() {
+        return cache.stats();
+    }
+
+    private void onSchemaVersion(long version) {
+        long currentVersion = schemaVersion.get();
+
+        while (version > currentVersion) {
+            if (schemaVersion.compareAndSet(currentVersion, version)) {
+                cache.invalidateAll();
+
+                break;
+            }
+
+            currentVersion = schemaVersion.get();
+        }
+    }
+
+    private static int weight(RelNode plan) {
+        int[] res = new int[1];
+
+        new RelVisitor() {
+            @Override
+            public void visit(RelNode node, int ordinal, RelNode parent) {
+                res[0]++;
+                super.visit(node, ordinal, parent);
+            }
+        }.go(plan);
+
+        return res[0];
+    }
+
+    /**
+     * Key of the statement text. The types of dynamic parameters are not known before the statement is validated,
+     * but they are determined by the text and the schema version.
+     */
+    public static Key key(String sql, RuleSet rules, RelTraitSet requiredTraitSet, long schemaVersion) {
+        return new Key(normalize(sql), null, ruleNames(rules), requiredTraitSet.toString(), schemaVersion);
+    }
+
+    /**
+     * Key of the validated statement.
+     */
+    public static Key key(
+        String normalizedSql,
+        RelDataType parameterRowType,
+        RuleSet rules,
+        RelTraitSet requiredTraitSet,
+        long schemaVersion
+    ) {
+        List<String> parameterTypes = new ArrayList<>(parameterRowType.getFieldCount());
+        for (RelDataTypeField field : parameterRowType.getFieldList()) {
+            parameterTypes.add(field.getType().getFullTypeString());
+        }
+
+        return new Key(
+            normalizedSql,
+            Collections.unmodifiableList(parameterTypes),
+            ruleNames(rules),
+            requiredTraitSet.toString(),
+            schemaVersion
+        );
+    }
+
+    private static List<String> ruleNames(RuleSet rules) {
+        List<String> res = new ArrayList<>();
+        for (RelOptRule rule : rules) {
+            res.add(rule.toString());
+        }
+
+        return Collections.unmodifiableList(res);
+    }
+
+    /**
+     * Replace every run of whitespace outside of literals, quoted identifiers and comments with a single space.
+     * The line comments keep their terminating line breaks.
+     */
+    static String normalize(String sql) {
+        StringBuilder res = new StringBuilder(sql.length());
+        int i = 0;
+
+        while (i < sql.length()) {
+            char c = sql.charAt(i);
+            int end;
+
+            if (c == '\'' || c == '"') {
+                end = sql.indexOf(c, i + 1);
+
+                // The escaped quotes are two consecutive quotes, which are copied as two quoted strings.
+                end = end < 0 ? sql.length() : end + 1;
+            } else if (sql.startsWith("--", i)) {
+                end = sql.indexOf('\n', i);
+                end = end < 0 ? sql.length() : end + 1;
+            } else if (sql.startsWith("/*", i)) {
+                end = sql.indexOf("*/", i + 2);
+                end = end < 0 ? sql.length() : end + 2;
+            } else if (Character.isWhitespace(c)) {
+                end = i + 1;
+                while (end < sql.length() && Character.isWhitespace(sql.charAt(end))) {
+                    end++;
+                }
+
+                if (res.length() > 0 && end < sql.length()) {
+                    res.append(' ');
+                }
+
+                i = end;
+
+                continue;
+            } else {
+                end = i + 1;
+            }
+
+            res.append(sql, i, end);
+            i = end;
+        }
+
+        return res.toString();
+    }
+
+    /**
+     * Key of the cached plan.
+     */
+    public static final class Key {
+        private final String normalizedSql;
+        /** Types of dynamic parameters, or {@code null} if the key is the statement text. */
+        private final List<String> parameterTypes;
+        private final List<String> rules;
+        private final String requiredTraits;
+        private final long schemaVersion;
+
+        private Key(
+            String normalizedSql,
+            List<String> parameterTypes,
+            List<String> rules,
+            String requiredTraits,
+            long schemaVersion
+        ) {
+            this.normalizedSql = normalizedSql;
+            this.parameterTypes = parameterTypes;
+            this.rules = rules;
+            this.requiredTraits = requiredTraits;
+            this.schemaVersion = schemaVersion;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) return true;
+            if (o == null || getClass() != o.getClass()) return false;
+            Key key = (Key) o;
+            return schemaVersion == key.schemaVersion
+                && normalizedSql.equals(key.normalizedSql)
+                && Objects.equals(parameterTypes, key.parameterTypes)
+                && rules.equals(key.rules)
+                && requiredTraits.equals(key.requiredTraits);
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(normalizedSql, parameterTypes, rules, requiredTraits, schemaVersion);
+        }
+
+        @Override
+        public String toString() {
+            return "Key{sql=" + normalizedSql + ", parameterTypes=" + parameterTypes + ", rules=" + rules
+                + ", requiredTraits=" + requiredTraits + ", schemaVersion=" + schemaVersion + '}';
+        }
+    }
+}
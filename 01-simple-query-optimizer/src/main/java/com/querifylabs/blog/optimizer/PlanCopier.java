@@ -0,0 +1,177 @@
+package com.querifylabs.blog.optimizer;
+
+import com.querifylabs.blog.optimizer.vectorized.VectorizedAggregate;
+import com.querifylabs.blog.optimizer.vectorized.VectorizedCalc;
+import com.querifylabs.blog.optimizer.vectorized.VectorizedTableScan;
+import org.apache.calcite.adapter.enumerable.EnumerableAggregate;
+import org.apache.calcite.adapter.enumerable.EnumerableCalc;
+import org.apache.calcite.adapter.enumerable.EnumerableFilter;
+import org.apache.calcite.adapter.enumerable.EnumerableHashJoin;
+import org.apache.calcite.adapter.enumerable.EnumerableLimit;
+import org.apache.calcite.adapter.enumerable.EnumerableNestedLoopJoin;
+import org.apache.calcite.adapter.enumerable.EnumerableProject;
+import org.apache.calcite.adapter.enumerable.EnumerableSort;
+import org.apache.calcite.adapter.enumerable.EnumerableTableScan;
+import org.apache.calcite.plan.RelOptCluster;
+import org.apache.calcite.plan.RelOptTable;
+import org.apache.calcite.plan.RelTrait;
+import org.apache.calcite.plan.RelTraitSet;
+import org.apache.calcite.prepare.Prepare;
+import org.apache.calcite.rel.InvalidRelException;
+import org.apache.calcite.rel.RelNode;
+import org.apache.calcite.rel.core.Aggregate;
+import org.apache.calcite.rel.core.Calc;
+import org.apache.calcite.rel.core.Join;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Copies the optimized plans from one cluster to another.
+ * <p>
+ * A plan is bound to the cluster it was created in, and through the cluster to the planner and the metadata query
+ * of an optimizer, neither of which is thread-safe. The copier rebuilds every operator of the plan in the target
+ * cluster, so that the plan created by one optimizer could be used by another one. The trait sets are rebuilt from
+ * the empty trait set of the target cluster. If the catalog reader is provided, the tables are resolved again
+ * through it.
+ * <p>
+ * Only the physical operators produced by the Enumerable and vectorized rules are supported.
+ */
+final class PlanCopier {
+
+    private final RelOptCluster cluster;
+    private final Prepare.CatalogReader catalogReader;
+
+    PlanCopier(RelOptCluster cluster, Prepare.CatalogReader catalogReader) {
+        this.cluster = cluster;
+        this.catalogReader = catalogReader;
+    }
+
+    /**
+     * Copy the plan to the target cluster, or return {@code null} if the plan contains an unsupported operator or
+     * a table that is not found by the catalog reader.
+     */
+    RelNode copy(RelNode node) {
+        List<RelNode> inputs = new ArrayList<>(node.getInputs().size());
+
+        for (RelNode input : node.getInputs()) {
+            RelNode copiedInput = copy(input);
+
+            if (copiedInput == null) {
+                return null;
+            }
+
+            inputs.add(copiedInput);
+        }
+
+        RelNode res = copy(node, traitSet(node.getTraitSet()), inputs);
+
+        if (res != null) {
+            // The row type is derived lazily. Derive it now, so that the copy is not modified after publication.
+            res.getRowType();
+        }
+
+        return res;
+    }
+
+    private RelNode copy(RelNode node, RelTraitSet traitSet, List<RelNode> inputs) {
+        if (node instanceof VectorizedTableScan) {
+            VectorizedTableScan scan = (VectorizedTableScan) node;
+            RelOptTable table = table(scan.getTable());
+
+            return table != null
+                ? new VectorizedTableScan(cluster, traitSet, table, scan.getProjects(), scan.getFilters())
+                : null;
+        } else if (node instanceof EnumerableTableScan) {
+            RelOptTable table = table(node.getTable());
+
+            return table != null ? EnumerableTableScan.create(cluster, table) : null;
+        } else if (node instanceof VectorizedCalc) {
+            return new VectorizedCalc(cluster, traitSet, inputs.get(0), ((Calc) node).getProgram());
+        } else if (node instanceof EnumerableCalc) {
+            return new EnumerableCalc(cluster, traitSet, inputs.get(0), ((Calc) node).getProgram());
+        } else if (node instanceof EnumerableProject) {
+            EnumerableProject project = (EnumerableProject) node;
+
+            return new EnumerableProject(
+                cluster,
+                traitSet,
+                inputs.get(0),
+                project.getProjects(),
+                project.getRowType()
+            );
+        } else if (node instanceof EnumerableFilter) {
+            return new EnumerableFilter(cluster, traitSet, inputs.get(0), ((EnumerableFilter) node).getCondition());
+        } else if (node instanceof VectorizedAggregate) {
+            Aggregate aggregate = (Aggregate) node;
+
+            return new VectorizedAggregate(
+                cluster,
+                traitSet,
+                inputs.get(0),
+                aggregate.getGroupSet(),
+                aggregate.getGroupSets(),
+                aggregate.getAggCallList()
+            );
+        } else if (node instanceof EnumerableAggregate) {
+            Aggregate aggregate = (Aggregate) node;
+
+            try {
+                return new EnumerableAggregate(
+                    cluster,
+                    traitSet,
+                    inputs.get(0),
+                    aggregate.getGroupSet(),
+                    aggregate.getGroupSets(),
+                    aggregate.getAggCallList()
+                );
+            } catch (InvalidRelException e) {
+                throw new IllegalStateException("Failed to copy the aggregate: " + node, e);
+            }
+        } else if (node instanceof EnumerableHashJoin) {
+            Join join = (Join) node;
+
+            return EnumerableHashJoin.create(
+                inputs.get(0),
+                inputs.get(1),
+                join.getCondition(),
+                join.getVariablesSet(),
+                join.getJoinType()
+            );
+        } else if (node instanceof EnumerableNestedLoopJoin) {
+            Join join = (Join) node;
+
+            return EnumerableNestedLoopJoin.create(
+                inputs.get(0),
+                inputs.get(1),
+                join.getCondition(),
+                join.getVariablesSet(),
+                join.getJoinType()
+            );
+        } else if (node instanceof EnumerableSort) {
+            EnumerableSort sort = (EnumerableSort) node;
+
+            return new EnumerableSort(cluster, traitSet, inputs.get(0), sort.getCollation(), sort.offset, sort.fetch);
+        } else if (node instanceof EnumerableLimit) {
+            EnumerableLimit limit = (EnumerableLimit) node;
+
+            return new EnumerableLimit(cluster, traitSet, inputs.get(0), limit.offset, limit.fetch);
+        }
+
+        return null;
+    }
+
+    private RelTraitSet traitSet(RelTraitSet traitSet) {
+        RelTraitSet res = cluster.traitSet();
+
+        for (RelTrait trait : traitSet) {
+            res = res.plus(trait);
+        }
+
+        return res;
+    }
+
+    private RelOptTable table(RelOptTable table) {
+        return catalogReader != null ? catalogReader.getTable(table.getQualifiedName()) : table;
+    }
+}
@@ -0,0 +1,247 @@
+package com.querifylabs.blog.optimizer;
+
+import org.apache.calcite.plan.RelOptListener;
+import org.apache.calcite.plan.volcano.VolcanoPlanner;
+
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.EnumMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Opt-in instrumentation of the {@link Optimizer}: time spent in every planning phase, the number of attempted
+ * and successful calls and the time spent in every rule, and the number of operators and equivalence sets
+ * registered in the memo of the {@link VolcanoPlanner}.
+ * <p>
+ * Rules are measured through the {@link RelOptListener} callbacks of both the heuristic and the cost-based
+ * planners. A rule call is successful if it produced at least one new operator.
+ * <p>
+ * The instrumentation is thread-safe, so a single instance could be shared by all optimizers of the
+ * {@link OptimizerFactory} and exposed through JMX, see {@link #register(ObjectName)}.
+ */
+public class PlannerInstrumentation implements RelOptListener, PlannerInstrumentationMXBean {
+
+    private final Map<PlannerPhase, LongAdder> phaseNanos = new EnumMap<>(PlannerPhase.class);
+    private final ConcurrentHashMap<String, RuleCounters> rules = new ConcurrentHashMap<>();
+    private final LongAdder relsRegistered = new LongAdder();
+    private final LongAdder setsCreated = new LongAdder();
+
+    /** Rule call in progress and the sets seen by the current optimization in the planning thread. */
+    private final ThreadLocal<ThreadState> threadState = ThreadLocal.withInitial(ThreadState::new);
+
+    public PlannerInstrumentation() {
+        for (PlannerPhase phase : PlannerPhase.values()) {
+            phaseNanos.put(phase, new LongAdder());
+        }
+    }
+
+    void onPhaseStarted(PlannerPhase phase) {
+        if (phase == PlannerPhase.OPTIMIZE) {
+            threadState.get().equivalenceClasses.clear();
+        }
+    }
+
+    void onPhaseFinished(PlannerPhase phase, long nanos) {
+        phaseNanos.get(phase).add(nanos);
+
+        if (phase == PlannerPhase.OPTIMIZE) {
+            threadState.get().equivalenceClasses.clear();
+        }
+    }
+
+    @Override
+    public void ruleAttempted(RuleAttemptedEvent event) {
+        ThreadState state = threadState.get();
+
+        // Rule calls do not nest, the planners fire them one by one.
+        if (event.isBefore()) {
+            state.ruleStartNanos = System.nanoTime();
+            state.ruleProduced = false;
+        } else {
+            long nanos = System.nanoTime() - state.ruleStartNanos;
+            RuleCounters counters = rules.computeIfAbsent(
+                event.getRuleCall().getRule().toString(),
+                ruleName -> new RuleCounters()
+            );
+
+            counters.attempts.increment();
+            counters.nanos.add(nanos);
+
+            if (state.ruleProduced) {
+                counters.successes.increment();
+            }
+        }
+    }
+
+    @Override
+    public void ruleProductionSucceeded(RuleProductionEvent event) {
+        if (!event.isBefore()) {
+            threadState.get().ruleProduced = true;
+        }
+    }
+
+    @Override
+    public void relEquivalenceFound(RelEquivalenceEvent event) {
+        // Logical events are fired once per operator registered in a set, physical ones are fired for subsets.
+        if (!(event.getSource() instanceof VolcanoPlanner) || event.isPhysical()) {
+            return;
+        }
+
+        relsRegistered.increment();
+
+        if (threadState.get().equivalenceClasses.add(event.getEquivalenceClass())) {
+            setsCreated.increment();
+        }
+    }
+
+    @Override
+    public void relDiscarded(RelDiscardedEvent event) {
+        // No-op.
+    }
+
+    @Override
+    public void relChosen(RelChosenEvent event) {
+        // No-op.
+    }
+
+    public PlannerReport report() {
+        Map<PlannerPhase, Long> phases = new EnumMap<>(PlannerPhase.class);
+        for (Map.Entry<PlannerPhase, LongAdder> entry : phaseNanos.entrySet()) {
+            phases.put(entry.getKey(), entry.getValue().sum());
+        }
+
+        List<PlannerReport.RuleReport> ruleReports = new ArrayList<>(rules.size());
+        for (Map.Entry<String, RuleCounters> entry : rules.entrySet()) {
+            RuleCounters counters = entry.getValue();
+
+            ruleReports.add(new PlannerReport.RuleReport(
+                entry.getKey(),
+                counters.attempts.sum(),
+                counters.successes.sum(),
+                counters.nanos.sum()
+            ));
+        }
+        ruleReports.sort(Comparator.comparingLong(PlannerReport.RuleReport::getNanos).reversed());
+
+        return new PlannerReport(phases, ruleReports, relsRegistered.sum(), setsCreated.sum());
+    }
+
+    @Override
+    public void reset() {
+        for (LongAdder adder : phaseNanos.values()) {
+            adder.reset();
+        }
+
+        rules.clear();
+        relsRegistered.reset();
+        setsCreated.reset();
+    }
+
+    /**
+     * Register the instrumentation in the platform MBean server under the given name.
+     */
+    public void register(ObjectName name) {
+        try {
+            ManagementFactory.getPlatformMBeanServer().registerMBean(this, name);
+        } catch (JMException e) {
+            throw new IllegalStateException("Failed to register the planner instrumentation: " + name, e);
+        }
+    }
+
+    public void unregister(ObjectName name) {
+        MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+
+        try {
+            if (server.isRegistered(name)) {
+                server.unregisterMBean(name);
+            }
+        } catch (JMException e) {
+            throw new IllegalStateException("Failed to unregister the planner instrumentation: " + name, e);
+        }
+    }
+
+    @Override
+    public long getParseNanos() {
+        return phaseNanos.get(PlannerPhase.PARSE).sum();
+    }
+
+    @Override
+    public long getValidateNanos() {
+        return phaseNanos.get(PlannerPhase.VALIDATE).sum();
+    }
+
+    @Override
+    public long getConvertNanos() {
+        return phaseNanos.get(PlannerPhase.CONVERT).sum();
+    }
+
+    @Override
+    public long getOptimizeNanos() {
+        return phaseNanos.get(PlannerPhase.OPTIMIZE).sum();
+    }
+
+    @Override
+    public long getRuleAttempts() {
+        long res = 0;
+
+        for (RuleCounters counters : rules.values()) {
+            res += counters.attempts.sum();
+        }
+
+        return res;
+    }
+
+    @Override
+    public long getRuleSuccesses() {
+        long res = 0;
+
+        for (RuleCounters counters : rules.values()) {
+            res += counters.successes.sum();
+        }
+
+        return res;
+    }
+
+    @Override
+    public long getRelsRegistered() {
+        return relsRegistered.sum();
+    }
+
+    @Override
+    public long getSetsCreated() {
+        return setsCreated.sum();
+    }
+
+    @Override
+    public Map<String, Long> getRuleNanos() {
+        Map<String, Long> res = new TreeMap<>();
+
+        for (Map.Entry<String, RuleCounters> entry : rules.entrySet()) {
+            res.put(entry.getKey(), entry.getValue().nanos.sum());
+        }
+
+        return res;
+    }
+
+    private static final class RuleCounters {
+        private final LongAdder attempts = new LongAdder();
+        private final LongAdder successes = new LongAdder();
+        private final LongAdder nanos = new LongAdder();
+    }
+
+    private static final class ThreadState {
+        private final Set<Object> equivalenceClasses = new HashSet<>();
+        private long ruleStartNanos;
+        private boolean ruleProduced;
+    }
+}
@@ -0,0 +1,29 @@
+package com.querifylabs.blog.optimizer;
+
+import java.util.Map;
+
+/**
+ * JMX view of the {@link PlannerInstrumentation}. All values are cumulative since the creation or the last reset.
+ */
+public interface PlannerInstrumentationMXBean {
+    long getParseNanos();
+
+    long getValidateNanos();
+
+    long getConvertNanos();
+
+    long getOptimizeNanos();
+
+    long getRuleAttempts();
+
+    long getRuleSuccesses();
+
+    long getRelsRegistered();
+
+    long getSetsCreated();
+
+    /** Total time spent in every rule, keyed by the rule description. */
+    Map<String, Long> getRuleNanos();
+
+    void reset();
+}
@@ -0,0 +1,11 @@
+package com.querifylabs.blog.optimizer;
+
+/**
+ * Phase of the query planning, measured by the {@link PlannerInstrumentation}.
+ */
+public enum PlannerPhase {
+    PARSE,
+    VALIDATE,
+    CONVERT,
+    OPTIMIZE
+}
@@ -0,0 +1,139 @@
+package com.querifylabs.blog.optimizer;
+
+import java.util.Collections;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Snapshot of the {@link PlannerInstrumentation}: time spent in every planning phase, statistics of every rule,
+ * and the growth of the {@link org.apache.calcite.plan.volcano.VolcanoPlanner} memo.
+ */
+public class PlannerReport {
+
+    private final Map<PlannerPhase, Long> phaseNanos;
+    private final List<RuleReport> rules;
+    private final long relsRegistered;
+    private final long setsCreated;
+
+    public PlannerReport(
+        Map<PlannerPhase, Long> phaseNanos,
+        List<RuleReport> rules,
+        long relsRegistered,
+        long setsCreated
+    ) {
+        this.phaseNanos = Collections.unmodifiableMap(new EnumMap<>(phaseNanos));
+        this.rules = Collections.unmodifiableList(rules);
+        this.relsRegistered = relsRegistered;
+        this.setsCreated = setsCreated;
+    }
+
+    public long getPhaseNanos(PlannerPhase phase) {
+        return phaseNanos.getOrDefault(phase, 0L);
+    }
+
+    /** Statistics of the rules that were attempted, the slowest first. */
+    public List<RuleReport> getRules() {
+        return rules;
+    }
+
+    public RuleReport getRule(String ruleName) {
+        for (RuleReport rule : rules) {
+            if (rule.getRuleName().equals(ruleName)) {
+                return rule;
+            }
+        }
+
+        return null;
+    }
+
+    public long getRuleAttempts() {
+        long res = 0;
+
+        for (RuleReport rule : rules) {
+            res += rule.getAttempts();
+        }
+
+        return res;
+    }
+
+    public long getRuleSuccesses() {
+        long res = 0;
+
+        for (RuleReport rule : rules) {
+            res += rule.getSuccesses();
+        }
+
+        return res;
+    }
+
+    /** Number of the relational operators registered in the memo of the cost-based planner. */
+    public long getRelsRegistered() {
+        return relsRegistered;
+    }
+
+    /** Number of the equivalence sets created in the memo of the cost-based planner. */
+    public long getSetsCreated() {
+        return setsCreated;
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder res = new StringBuilder("PlannerReport{");
+
+        for (PlannerPhase phase : PlannerPhase.values()) {
+            res.append(phase.name().toLowerCase()).append('=')
+                .append(TimeUnit.NANOSECONDS.toMicros(getPhaseNanos(phase))).append("us, ");
+        }
+
+        res.append("relsRegistered=").append(relsRegistered)
+            .append(", setsCreated=").append(setsCreated)
+            .append(", rules=").append(rules)
+            .append('}');
+
+        return res.toString();
+    }
+
+    /**
+     * Statistics of a single rule.
+     */
+    public static final class RuleReport {
+        private final String ruleName;
+        private final long attempts;
+        private final long successes;
+        private final long nanos;
+
+        public RuleReport(String ruleName, long attempts, long successes, long nanos) {
+            this.ruleName = ruleName;
+            this.attempts = attempts;
+            this.successes = successes;
+            this.nanos = nanos;
+        }
+
+        public String getRuleName() {
+            return ruleName;
+        }
+
+        /** Number of the rule calls. */
+        public long getAttempts() {
+            return attempts;
+        }
+
+        /** Number of the rule calls that produced at least one new operator. */
+        public long getSuccesses() {
+            return successes;
+        }
+
+        /** Total time spent in the rule calls. */
+        public long getNanos() {
+            return nanos;
+        }
+
+        @Override
+        public String toString() {
+            return ruleName + "{attempts=" + attempts + ", successes=" + successes
+                + ", time=" + TimeUnit.NANOSECONDS.toMicros(nanos) + "us}";
+        }
+    }
+}
@@ -0,0 +1,57 @@
+package com.querifylabs.blog.optimizer;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Limits the time and the number of rule firings spent by the cost-based optimization. When the budget is
+ * exhausted, the planner stops exploring and returns the cheapest complete plan found so far.
+ */
+public final class PlanningBudget {
+
+    public static final PlanningBudget UNLIMITED = new PlanningBudget(Long.MAX_VALUE, Long.MAX_VALUE);
+
+    private final long timeNanos;
+    private final long ruleFirings;
+
+    private PlanningBudget(long timeNanos, long ruleFirings) {
+        if (timeNanos <= 0) {
+            throw new IllegalArgumentException("Time budget must be positive: " + timeNanos);
+        }
+
+        if (ruleFirings <= 0) {
+            throw new IllegalArgumentException("Rule firing budget must be positive: " + ruleFirings);
+        }
+
+        this.timeNanos = timeNanos;
+        this.ruleFirings = ruleFirings;
+    }
+
+    public static PlanningBudget ofTime(long time, TimeUnit unit) {
+        return new PlanningBudget(unit.toNanos(time), Long.MAX_VALUE);
+    }
+
+    public static PlanningBudget ofRuleFirings(long ruleFirings) {
+        return new PlanningBudget(Long.MAX_VALUE, ruleFirings);
+    }
+
+    public static PlanningBudget of(long time, TimeUnit unit, long ruleFirings) {
+        return new PlanningBudget(unit.toNanos(time), ruleFirings);
+    }
+
+    public long getTimeNanos() {
+        return timeNanos;
+    }
+
+    public long getRuleFirings() {
+        return ruleFirings;
+    }
+
+    public boolean isUnlimited() {
+        return timeNanos == Long.MAX_VALUE && ruleFirings == Long.MAX_VALUE;
+    }
+
+    @Override
+    public String toString() {
+        return "PlanningBudget{timeNanos=" + timeNanos + ", ruleFirings=" + ruleFirings + '}';
+    }
+}
@@ -0,0 +1,79 @@
+package com.querifylabs.blog.optimizer;
+
+import org.apache.calcite.plan.RelOptListener;
+import org.apache.calcite.util.CancelFlag;
+
+/**
+ * Listener that requests the cancellation of the planning when the budget is exhausted.
+ * <p>
+ * The {@link org.apache.calcite.plan.volcano.VolcanoPlanner} checks the cancel flag before every rule firing.
+ * When the flag is set, it stops the search, and builds the cheapest plan from the alternatives registered so
+ * far. The rule that is being fired when the budget is exhausted is allowed to complete.
+ */
+class PlanningBudgetListener implements RelOptListener {
+
+    private final CancelFlag cancelFlag;
+
+    private long deadlineNanos = Long.MAX_VALUE;
+    private long remainingRuleFirings = Long.MAX_VALUE;
+
+    PlanningBudgetListener(CancelFlag cancelFlag) {
+        this.cancelFlag = cancelFlag;
+    }
+
+    void start(PlanningBudget budget) {
+        cancelFlag.clearCancel();
+
+        if (budget.getTimeNanos() == Long.MAX_VALUE) {
+            deadlineNanos = Long.MAX_VALUE;
+        } else {
+            deadlineNanos = System.nanoTime() + budget.getTimeNanos();
+        }
+
+        remainingRuleFirings = budget.getRuleFirings();
+    }
+
+    /**
+     * Stop tracking the budget. Returns {@code true} if the budget was exhausted.
+     */
+    boolean stop() {
+        boolean exhausted = cancelFlag.isCancelRequested();
+
+        cancelFlag.clearCancel();
+        deadlineNanos = Long.MAX_VALUE;
+        remainingRuleFirings = Long.MAX_VALUE;
+
+        return exhausted;
+    }
+
+    @Override
+    public void ruleAttempted(RuleAttemptedEvent event) {
+        if (!event.isBefore() && --remainingRuleFirings <= 0) {
+            cancelFlag.requestCancel();
+        }
+
+        if (deadlineNanos != Long.MAX_VALUE && System.nanoTime() >= deadlineNanos) {
+            cancelFlag.requestCancel();
+        }
+    }
+
+    @Override
+    public void relEquivalenceFound(RelEquivalenceEvent event) {
+        // No-op.
+    }
+
+    @Override
+    public void ruleProductionSucceeded(RuleProductionEvent event) {
+        // No-op.
+    }
+
+    @Override
+    public void relDiscarded(RelDiscardedEvent event) {
+        // No-op.
+    }
+
+    @Override
+    public void relChosen(RelChosenEvent event) {
+        // No-op.
+    }
+}
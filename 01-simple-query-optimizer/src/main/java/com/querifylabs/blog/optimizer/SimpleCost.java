@@ -0,0 +1,210 @@
+package com.querifylabs.blog.optimizer;
+
+import org.apache.calcite.plan.RelOptCost;
+import org.apache.calcite.plan.RelOptUtil;
+
+/**
+ * Cost with separate dimensions for CPU, bytes read, memory footprint and network transfer.
+ * <p>
+ * Costs are compared by the weighted sum of the dimensions, see {@link SimpleCostFactory}. The row count is
+ * carried along for the {@link RelOptCost} contract, but does not participate in comparisons: the per-row work
+ * is already accounted in the CPU dimension.
+ * <p>
+ * Costs of other implementations, e.g. produced by a planner with the default cost factory, are interpreted as
+ * the CPU and I/O dimensions only.
+ */
+public final class SimpleCost implements RelOptCost {
+
+    private final SimpleCostFactory factory;
+    private final double rows;
+    private final double cpu;
+    private final double io;
+    private final double memory;
+    private final double network;
+
+    SimpleCost(SimpleCostFactory factory, double rows, double cpu, double io, double memory, double network) {
+        this.factory = factory;
+        this.rows = rows;
+        this.cpu = cpu;
+        this.io = io;
+        this.memory = memory;
+        this.network = network;
+    }
+
+    @Override
+    public double getRows() {
+        return rows;
+    }
+
+    /** Number of the row-level operations. */
+    @Override
+    public double getCpu() {
+        return cpu;
+    }
+
+    /** Number of bytes read from the storage. */
+    @Override
+    public double getIo() {
+        return io;
+    }
+
+    /** Number of bytes held in memory at once, e.g. by hash tables and sort buffers. */
+    public double getMemory() {
+        return memory;
+    }
+
+    /** Number of bytes transferred over the network. */
+    public double getNetwork() {
+        return network;
+    }
+
+    /** Weighted sum of the dimensions. */
+    public double getValue() {
+        return factory.value(cpu, io, memory, network);
+    }
+
+    @Override
+    public boolean isInfinite() {
+        return rows == Double.POSITIVE_INFINITY
+            || cpu == Double.POSITIVE_INFINITY
+            || io == Double.POSITIVE_INFINITY
+            || memory == Double.POSITIVE_INFINITY
+            || network == Double.POSITIVE_INFINITY;
+    }
+
+    @Override
+    public boolean equals(RelOptCost other) {
+        if (this == other) {
+            return true;
+        }
+
+        SimpleCost cost = of(other);
+
+        return rows == cost.rows
+            && cpu == cost.cpu
+            && io == cost.io
+            && memory == cost.memory
+            && network == cost.network;
+    }
+
+    @Override
+    public boolean isEqWithEpsilon(RelOptCost other) {
+        if (this == other) {
+            return true;
+        }
+
+        SimpleCost cost = of(other);
+
+        if (isInfinite() || cost.isInfinite()) {
+            return isInfinite() && cost.isInfinite();
+        }
+
+        return Math.abs(getValue() - cost.getValue()) < RelOptUtil.EPSILON;
+    }
+
+    @Override
+    public boolean isLe(RelOptCost other) {
+        SimpleCost cost = of(other);
+
+        if (cost.isInfinite()) {
+            return true;
+        }
+
+        if (isInfinite()) {
+            return false;
+        }
+
+        return getValue() <= cost.getValue();
+    }
+
+    @Override
+    public boolean isLt(RelOptCost other) {
+        SimpleCost cost = of(other);
+
+        if (isInfinite()) {
+            return false;
+        }
+
+        if (cost.isInfinite()) {
+            return true;
+        }
+
+        return getValue() < cost.getValue();
+    }
+
+    @Override
+    public RelOptCost plus(RelOptCost other) {
+        SimpleCost cost = of(other);
+
+        if (isInfinite() || cost.isInfinite()) {
+            return factory.makeInfiniteCost();
+        }
+
+        return new SimpleCost(
+            factory,
+            rows + cost.rows,
+            cpu + cost.cpu,
+            io + cost.io,
+            memory + cost.memory,
+            network + cost.network
+        );
+    }
+
+    @Override
+    public RelOptCost minus(RelOptCost other) {
+        if (isInfinite()) {
+            return this;
+        }
+
+        SimpleCost cost = of(other);
+
+        return new SimpleCost(
+            factory,
+            rows - cost.rows,
+            cpu - cost.cpu,
+            io - cost.io,
+            memory - cost.memory,
+            network - cost.network
+        );
+    }
+
+    @Override
+    public RelOptCost multiplyBy(double factor) {
+        if (isInfinite()) {
+            return this;
+        }
+
+        return new SimpleCost(factory, rows * factor, cpu * factor, io * factor, memory * factor, network * factor);
+    }
+
+    @Override
+    public double divideBy(RelOptCost cost) {
+        SimpleCost other = of(cost);
+
+        double value = getValue();
+        double otherValue = other.getValue();
+
+        if (isInfinite() || other.isInfinite() || value == 0.0d || otherValue == 0.0d) {
+            return 1.0d;
+        }
+
+        return value / otherValue;
+    }
+
+    private SimpleCost of(RelOptCost cost) {
+        if (cost instanceof SimpleCost) {
+            return (SimpleCost) cost;
+        }
+
+        return new SimpleCost(factory, cost.getRows(), cost.getCpu(), cost.getIo(), 0.0d, 0.0d);
+    }
+
+    @Override
+    public String toString() {
+        if (isInfinite()) {
+            return "{inf}";
+        }
+
+        return "{" + rows + " rows, " + cpu + " cpu, " + io + " io, " + memory + " memory, " + network + " network}";
+    }
+}
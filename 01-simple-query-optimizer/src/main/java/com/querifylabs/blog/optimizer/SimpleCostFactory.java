@@ -0,0 +1,161 @@
+package com.querifylabs.blog.optimizer;
+
+import org.apache.calcite.plan.RelOptCost;
+import org.apache.calcite.plan.RelOptCostFactory;
+
+/**
+ * Factory of the {@link SimpleCost}s, which holds the weights of the cost dimensions.
+ * <p>
+ * The weights convert the dimensions to a single comparable value, expressed in the row-level operations: one
+ * CPU operation costs {@code 1.0} by default, reading one byte from the storage costs {@link #DEFAULT_IO_WEIGHT},
+ * and so on. The weights should be tuned to the hardware: e.g. the network weight should be lowered on a fast
+ * interconnect, and the memory weight raised when the planner must avoid plans that spill.
+ * <p>
+ * The dimensions are derived from the statistics by the {@link SimpleRelMdNonCumulativeCost}. Operators that call
+ * {@link #makeCost(double, double, double)} directly get the CPU and I/O dimensions only.
+ */
+public final class SimpleCostFactory implements RelOptCostFactory {
+
+    public static final double DEFAULT_CPU_WEIGHT = 1.0d;
+    public static final double DEFAULT_IO_WEIGHT = 0.25d;
+    public static final double DEFAULT_MEMORY_WEIGHT = 0.05d;
+    public static final double DEFAULT_NETWORK_WEIGHT = 1.0d;
+
+    public static final SimpleCostFactory DEFAULT = newBuilder().build();
+
+    private final double cpuWeight;
+    private final double ioWeight;
+    private final double memoryWeight;
+    private final double networkWeight;
+
+    private final SimpleCost infinity;
+    private final SimpleCost huge;
+    private final SimpleCost tiny;
+    private final SimpleCost zero;
+
+    private SimpleCostFactory(double cpuWeight, double ioWeight, double memoryWeight, double networkWeight) {
+        this.cpuWeight = cpuWeight;
+        this.ioWeight = ioWeight;
+        this.memoryWeight = memoryWeight;
+        this.networkWeight = networkWeight;
+
+        double inf = Double.POSITIVE_INFINITY;
+        double max = Double.MAX_VALUE;
+
+        infinity = new SimpleCost(this, inf, inf, inf, inf, inf);
+        huge = new SimpleCost(this, max, max, max, max, max);
+        tiny = new SimpleCost(this, 1.0d, 1.0d, 0.0d, 0.0d, 0.0d);
+        zero = new SimpleCost(this, 0.0d, 0.0d, 0.0d, 0.0d, 0.0d);
+    }
+
+    public static Builder newBuilder() {
+        return new Builder();
+    }
+
+    @Override
+    public RelOptCost makeCost(double rows, double cpu, double io) {
+        return new SimpleCost(this, rows, cpu, io, 0.0d, 0.0d);
+    }
+
+    public RelOptCost makeCost(double rows, double cpu, double io, double memory, double network) {
+        return new SimpleCost(this, rows, cpu, io, memory, network);
+    }
+
+    @Override
+    public RelOptCost makeHugeCost() {
+        return huge;
+    }
+
+    @Override
+    public RelOptCost makeInfiniteCost() {
+        return infinity;
+    }
+
+    @Override
+    public RelOptCost makeTinyCost() {
+        return tiny;
+    }
+
+    @Override
+    public RelOptCost makeZeroCost() {
+        return zero;
+    }
+
+    double value(double cpu, double io, double memory, double network) {
+        return cpu * cpuWeight + io * ioWeight + memory * memoryWeight + network * networkWeight;
+    }
+
+    public double getCpuWeight() {
+        return cpuWeight;
+    }
+
+    public double getIoWeight() {
+        return ioWeight;
+    }
+
+    public double getMemoryWeight() {
+        return memoryWeight;
+    }
+
+    public double getNetworkWeight() {
+        return networkWeight;
+    }
+
+    @Override
+    public String toString() {
+        return "SimpleCostFactory{cpu=" + cpuWeight + ", io=" + ioWeight + ", memory=" + memoryWeight
+            + ", network=" + networkWeight + '}';
+    }
+
+    public static final class Builder {
+
+        private double cpuWeight = DEFAULT_CPU_WEIGHT;
+        private double ioWeight = DEFAULT_IO_WEIGHT;
+        private double memoryWeight = DEFAULT_MEMORY_WEIGHT;
+        private double networkWeight = DEFAULT_NETWORK_WEIGHT;
+
+        private Builder() {
+            // No-op.
+        }
+
+        /** Weight of a single row-level operation. */
+        public Builder withCpuWeight(double cpuWeight) {
+            this.cpuWeight = validate("CPU", cpuWeight);
+
+            return this;
+        }
+
+        /** Weight of a single byte read from the storage. */
+        public Builder withIoWeight(double ioWeight) {
+            this.ioWeight = validate("I/O", ioWeight);
+
+            return this;
+        }
+
+        /** Weight of a single byte held in memory. */
+        public Builder withMemoryWeight(double memoryWeight) {
+            this.memoryWeight = validate("Memory", memoryWeight);
+
+            return this;
+        }
+
+        /** Weight of a single byte transferred over the network. */
+        public Builder withNetworkWeight(double networkWeight) {
+            this.networkWeight = validate("Network", networkWeight);
+
+            return this;
+        }
+
+        public SimpleCostFactory build() {
+            return new SimpleCostFactory(cpuWeight, ioWeight, memoryWeight, networkWeight);
+        }
+
+        private static double validate(String dimension, double weight) {
+            if (!(weight >= 0.0d) || Double.isInfinite(weight)) {
+                throw new IllegalArgumentException(dimension + " weight must be a non-negative number: " + weight);
+            }
+
+            return weight;
+        }
+    }
+}
@@ -0,0 +1,68 @@
+package com.querifylabs.blog.optimizer;
+
+import org.apache.calcite.rel.RelNode;
+import org.apache.calcite.rel.core.TableScan;
+import org.apache.calcite.rel.metadata.ReflectiveRelMetadataProvider;
+import org.apache.calcite.rel.metadata.RelMdDistinctRowCount;
+import org.apache.calcite.rel.metadata.RelMdUtil;
+import org.apache.calcite.rel.metadata.RelMetadataProvider;
+import org.apache.calcite.rel.metadata.RelMetadataQuery;
+import org.apache.calcite.rex.RexNode;
+import org.apache.calcite.util.BuiltInMethod;
+import org.apache.calcite.util.ImmutableBitSet;
+
+/**
+ * Number of distinct values of table columns derived from the column statistics and declared keys.
+ */
+public class SimpleRelMdDistinctRowCount extends RelMdDistinctRowCount {
+
+    public static final RelMetadataProvider SOURCE = ReflectiveRelMetadataProvider.reflectiveSource(
+        BuiltInMethod.DISTINCT_ROW_COUNT.method,
+        new SimpleRelMdDistinctRowCount()
+    );
+
+    private SimpleRelMdDistinctRowCount() {
+        // No-op.
+    }
+
+    public Double getDistinctRowCount(TableScan rel, RelMetadataQuery mq, ImmutableBitSet groupKey, RexNode predicate) {
+        SimpleTableStatistic statistic = SimpleRelMetadataProvider.statistic(rel);
+
+        if (statistic == null) {
+            return super.getDistinctRowCount((RelNode) rel, mq, groupKey, predicate);
+        }
+
+        if (groupKey.isEmpty()) {
+            return 1.0d;
+        }
+
+        double rowCount = statistic.getRowCount();
+        double selectedRowCount = rowCount;
+
+        if (predicate != null && !predicate.isAlwaysTrue()) {
+            Double selectivity = mq.getSelectivity(rel, predicate);
+            selectedRowCount *= selectivity != null ? selectivity : RelMdUtil.guessSelectivity(predicate);
+        }
+
+        if (statistic.isKey(groupKey)) {
+            return selectedRowCount;
+        }
+
+        double distinctCount = 1.0d;
+
+        for (int column : groupKey) {
+            ColumnStatistic columnStatistic = statistic.getColumnStatistic(column);
+
+            if (columnStatistic == null || columnStatistic.getDistinctCount() == null) {
+                return super.getDistinctRowCount((RelNode) rel, mq, groupKey, predicate);
+            }
+
+            // NULL forms a separate group.
+            distinctCount *= columnStatistic.getDistinctCount() + (columnStatistic.getNullFraction() > 0.0d ? 1 : 0);
+        }
+
+        distinctCount = Math.min(distinctCount, rowCount);
+
+        return RelMdUtil.numDistinctVals(distinctCount, selectedRowCount);
+    }
+}
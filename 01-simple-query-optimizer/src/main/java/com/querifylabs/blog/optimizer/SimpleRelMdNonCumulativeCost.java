@@ -0,0 +1,235 @@
+package com.querifylabs.blog.optimizer;
+
+import com.querifylabs.blog.optimizer.storage.ColumnType;
+import com.querifylabs.blog.optimizer.vectorized.VectorizedAggregate;
+import com.querifylabs.blog.optimizer.vectorized.VectorizedCalc;
+import com.querifylabs.blog.optimizer.vectorized.VectorizedTableScan;
+import org.apache.calcite.adapter.enumerable.EnumerableMergeJoin;
+import org.apache.calcite.adapter.enumerable.EnumerableNestedLoopJoin;
+import org.apache.calcite.plan.RelOptCost;
+import org.apache.calcite.plan.RelOptCostFactory;
+import org.apache.calcite.plan.RelOptUtil;
+import org.apache.calcite.rel.RelNode;
+import org.apache.calcite.rel.core.Aggregate;
+import org.apache.calcite.rel.core.Calc;
+import org.apache.calcite.rel.core.Exchange;
+import org.apache.calcite.rel.core.Filter;
+import org.apache.calcite.rel.core.Join;
+import org.apache.calcite.rel.core.Project;
+import org.apache.calcite.rel.core.Sort;
+import org.apache.calcite.rel.core.TableScan;
+import org.apache.calcite.rel.metadata.BuiltInMetadata;
+import org.apache.calcite.rel.metadata.MetadataDef;
+import org.apache.calcite.rel.metadata.MetadataHandler;
+import org.apache.calcite.rel.metadata.ReflectiveRelMetadataProvider;
+import org.apache.calcite.rel.metadata.RelMetadataProvider;
+import org.apache.calcite.rel.metadata.RelMetadataQuery;
+import org.apache.calcite.rel.type.RelDataTypeField;
+import org.apache.calcite.rex.RexProgram;
+import org.apache.calcite.sql.type.SqlTypeName;
+import org.apache.calcite.util.BuiltInMethod;
+
+/**
+ * Multi-dimensional cost of the operators, see {@link SimpleCost}. Applies only when the planner uses the
+ * {@link SimpleCostFactory}, otherwise the operators compute their own costs.
+ * <p>
+ * <ul>
+ *     <li>Scans read the scanned columns of every row.</li>
+ *     <li>Filters, projects and calcs spend one operation per input row, plus one operation per expression per
+ *     row. A calc is cheaper than a filter with a project, because the rows are passed once.</li>
+ *     <li>Hash joins and aggregates hold the build side and the groups in memory; sorts hold all rows and spend
+ *     {@code n log n} comparisons; nested loop joins spend an operation per pair of rows.</li>
+ *     <li>Exchanges transfer all rows over the network.</li>
+ * </ul>
+ * Row sizes are derived from the column types: every column has the width of the columnar storage, e.g. strings
+ * are read as 4-byte dictionary codes, see {@link ColumnType}. Types that could not be stored take 8 bytes.
+ */
+public class SimpleRelMdNonCumulativeCost implements MetadataHandler<BuiltInMetadata.NonCumulativeCost> {
+
+    public static final RelMetadataProvider SOURCE = ReflectiveRelMetadataProvider.reflectiveSource(
+        BuiltInMethod.NON_CUMULATIVE_COST.method,
+        new SimpleRelMdNonCumulativeCost()
+    );
+
+    /** Saving of the batch processing on the per-row overhead of the vectorized operators. */
+    private static final double VECTORIZED_CPU_FACTOR = 0.5d;
+
+    /** Expected fraction of blocks that are not skipped by the zone maps, same as in the Calcite's BindableTableScan. */
+    private static final double ZONE_MAP_FACTOR = 0.5d;
+
+    private SimpleRelMdNonCumulativeCost() {
+        // No-op.
+    }
+
+    @Override
+    public MetadataDef<BuiltInMetadata.NonCumulativeCost> getDef() {
+        return BuiltInMetadata.NonCumulativeCost.DEF;
+    }
+
+    public RelOptCost getNonCumulativeCost(RelNode rel, RelMetadataQuery mq) {
+        return rel.computeSelfCost(rel.getCluster().getPlanner(), mq);
+    }
+
+    public RelOptCost getNonCumulativeCost(TableScan rel, RelMetadataQuery mq) {
+        SimpleCostFactory factory = factory(rel);
+
+        if (factory == null) {
+            return getNonCumulativeCost((RelNode) rel, mq);
+        }
+
+        double rows = mq.getRowCount(rel);
+        double cpu = rows * rel.getRowType().getFieldCount();
+        double io = rows * rowWidth(rel);
+
+        if (rel instanceof VectorizedTableScan) {
+            cpu *= VECTORIZED_CPU_FACTOR;
+
+            if (!((VectorizedTableScan) rel).getFilters().isEmpty()) {
+                cpu *= ZONE_MAP_FACTOR;
+                io *= ZONE_MAP_FACTOR;
+            }
+        }
+
+        return factory.makeCost(rows, cpu, io, 0.0d, 0.0d);
+    }
+
+    public RelOptCost getNonCumulativeCost(Filter rel, RelMetadataQuery mq) {
+        SimpleCostFactory factory = factory(rel);
+
+        if (factory == null) {
+            return getNonCumulativeCost((RelNode) rel, mq);
+        }
+
+        double inputRows = mq.getRowCount(rel.getInput());
+        int conjunctions = RelOptUtil.conjunctions(rel.getCondition()).size();
+
+        return factory.makeCost(mq.getRowCount(rel), inputRows * (1 + conjunctions), 0.0d, 0.0d, 0.0d);
+    }
+
+    public RelOptCost getNonCumulativeCost(Project rel, RelMetadataQuery mq) {
+        SimpleCostFactory factory = factory(rel);
+
+        if (factory == null) {
+            return getNonCumulativeCost((RelNode) rel, mq);
+        }
+
+        double rows = mq.getRowCount(rel);
+
+        return factory.makeCost(rows, rows * (1 + rel.getProjects().size()), 0.0d, 0.0d, 0.0d);
+    }
+
+    public RelOptCost getNonCumulativeCost(Calc rel, RelMetadataQuery mq) {
+        SimpleCostFactory factory = factory(rel);
+
+        if (factory == null) {
+            return getNonCumulativeCost((RelNode) rel, mq);
+        }
+
+        RexProgram program = rel.getProgram();
+        int conjunctions = program.getCondition() != null
+            ? RelOptUtil.conjunctions(program.expandLocalRef(program.getCondition())).size()
+            : 0;
+
+        double rows = mq.getRowCount(rel);
+        double cpu = mq.getRowCount(rel.getInput()) * (1 + conjunctions) + rows * program.getProjectList().size();
+
+        if (rel instanceof VectorizedCalc) {
+            cpu *= VECTORIZED_CPU_FACTOR;
+        }
+
+        return factory.makeCost(rows, cpu, 0.0d, 0.0d, 0.0d);
+    }
+
+    public RelOptCost getNonCumulativeCost(Join rel, RelMetadataQuery mq) {
+        SimpleCostFactory factory = factory(rel);
+
+        if (factory == null) {
+            return getNonCumulativeCost((RelNode) rel, mq);
+        }
+
+        double rows = mq.getRowCount(rel);
+        double leftRows = mq.getRowCount(rel.getLeft());
+        double rightRows = mq.getRowCount(rel.getRight());
+        double rightMemory = rightRows * rowWidth(rel.getRight());
+
+        if (rel instanceof EnumerableMergeJoin) {
+            // Inputs are already sorted, nothing is buffered.
+            return factory.makeCost(rows, leftRows + rightRows + rows, 0.0d, 0.0d, 0.0d);
+        }
+
+        if (rel instanceof EnumerableNestedLoopJoin) {
+            return factory.makeCost(rows, leftRows * rightRows + rows, 0.0d, rightMemory, 0.0d);
+        }
+
+        // Hash join builds the hash table on the right input.
+        return factory.makeCost(rows, leftRows + rightRows + rows, 0.0d, rightMemory, 0.0d);
+    }
+
+    public RelOptCost getNonCumulativeCost(Aggregate rel, RelMetadataQuery mq) {
+        SimpleCostFactory factory = factory(rel);
+
+        if (factory == null) {
+            return getNonCumulativeCost((RelNode) rel, mq);
+        }
+
+        double rows = mq.getRowCount(rel);
+        double cpu = mq.getRowCount(rel.getInput()) * (1 + rel.getAggCallList().size());
+
+        if (rel instanceof VectorizedAggregate) {
+            cpu *= VECTORIZED_CPU_FACTOR;
+        }
+
+        return factory.makeCost(rows, cpu, 0.0d, rows * rowWidth(rel), 0.0d);
+    }
+
+    public RelOptCost getNonCumulativeCost(Sort rel, RelMetadataQuery mq) {
+        SimpleCostFactory factory = factory(rel);
+
+        if (factory == null) {
+            return getNonCumulativeCost((RelNode) rel, mq);
+        }
+
+        double rows = mq.getRowCount(rel);
+        double inputRows = mq.getRowCount(rel.getInput());
+        int keys = rel.getCollation().getFieldCollations().size();
+
+        if (keys == 0) {
+            // Offset and fetch only.
+            return factory.makeCost(rows, rows, 0.0d, 0.0d, 0.0d);
+        }
+
+        double comparisons = inputRows * Math.log(Math.max(inputRows, 2.0d)) / Math.log(2.0d) * keys;
+
+        return factory.makeCost(rows, comparisons, 0.0d, inputRows * rowWidth(rel.getInput()), 0.0d);
+    }
+
+    public RelOptCost getNonCumulativeCost(Exchange rel, RelMetadataQuery mq) {
+        SimpleCostFactory factory = factory(rel);
+
+        if (factory == null) {
+            return getNonCumulativeCost((RelNode) rel, mq);
+        }
+
+        double rows = mq.getRowCount(rel);
+
+        return factory.makeCost(rows, rows, 0.0d, 0.0d, rows * rowWidth(rel));
+    }
+
+    private static SimpleCostFactory factory(RelNode rel) {
+        RelOptCostFactory factory = rel.getCluster().getPlanner().getCostFactory();
+
+        return factory instanceof SimpleCostFactory ? (SimpleCostFactory) factory : null;
+    }
+
+    private static double rowWidth(RelNode rel) {
+        double res = 0.0d;
+
+        for (RelDataTypeField field : rel.getRowType().getFieldList()) {
+            SqlTypeName typeName = field.getType().getSqlTypeName();
+
+            res += ColumnType.isSupported(typeName) ? ColumnType.of(typeName).getWidth() : Long.BYTES;
+        }
+
+        return res;
+    }
+}
@@ -0,0 +1,161 @@
+package com.querifylabs.blog.optimizer;
+
+import org.apache.calcite.plan.RelOptUtil;
+import org.apache.calcite.rel.RelNode;
+import org.apache.calcite.rel.core.TableScan;
+import org.apache.calcite.rel.metadata.ReflectiveRelMetadataProvider;
+import org.apache.calcite.rel.metadata.RelMdSelectivity;
+import org.apache.calcite.rel.metadata.RelMdUtil;
+import org.apache.calcite.rel.metadata.RelMetadataProvider;
+import org.apache.calcite.rel.metadata.RelMetadataQuery;
+import org.apache.calcite.rex.RexCall;
+import org.apache.calcite.rex.RexInputRef;
+import org.apache.calcite.rex.RexLiteral;
+import org.apache.calcite.rex.RexNode;
+import org.apache.calcite.sql.SqlKind;
+import org.apache.calcite.util.BuiltInMethod;
+
+/**
+ * Selectivity of predicates on table scans derived from the column statistics.
+ * <p>
+ * Equality uses the number of distinct values, range comparisons with literals use histograms or min/max values,
+ * and {@code IS [NOT] NULL} uses the null fraction. Conjuncts are assumed to be independent. Conjuncts that
+ * cannot be estimated from statistics, such as comparisons with dynamic parameters, fall back to the default
+ * guesses.
+ */
+public class SimpleRelMdSelectivity extends RelMdSelectivity {
+
+    public static final RelMetadataProvider SOURCE = ReflectiveRelMetadataProvider.reflectiveSource(
+        BuiltInMethod.SELECTIVITY.method,
+        new SimpleRelMdSelectivity()
+    );
+
+    private SimpleRelMdSelectivity() {
+        // No-op.
+    }
+
+    public Double getSelectivity(TableScan rel, RelMetadataQuery mq, RexNode predicate) {
+        SimpleTableStatistic statistic = SimpleRelMetadataProvider.statistic(rel);
+
+        if (statistic == null || predicate == null) {
+            return super.getSelectivity((RelNode) rel, mq, predicate);
+        }
+
+        double res = 1.0d;
+
+        for (RexNode conjunct : RelOptUtil.conjunctions(predicate)) {
+            Double selectivity = selectivity(statistic, conjunct);
+
+            res *= selectivity != null ? selectivity : RelMdUtil.guessSelectivity(conjunct);
+        }
+
+        return res;
+    }
+
+    /**
+     * Selectivity of a single conjunct, or {@code null} if it cannot be derived from statistics.
+     */
+    private static Double selectivity(SimpleTableStatistic statistic, RexNode conjunct) {
+        if (!(conjunct instanceof RexCall)) {
+            return null;
+        }
+
+        RexCall call = (RexCall) conjunct;
+        SqlKind kind = call.getKind();
+
+        if (kind == SqlKind.IS_NULL || kind == SqlKind.IS_NOT_NULL) {
+            RexNode operand = call.getOperands().get(0);
+
+            if (!(operand instanceof RexInputRef)) {
+                return null;
+            }
+
+            ColumnStatistic column = statistic.getColumnStatistic(((RexInputRef) operand).getIndex());
+
+            if (column == null) {
+                return null;
+            }
+
+            return kind == SqlKind.IS_NULL ? column.getNullFraction() : 1.0d - column.getNullFraction();
+        }
+
+        if (!kind.belongsTo(SqlKind.COMPARISON) || call.getOperands().size() != 2) {
+            return null;
+        }
+
+        RexNode operand0 = call.getOperands().get(0);
+        RexNode operand1 = call.getOperands().get(1);
+
+        // Normalize to "column op value".
+        if (!(operand0 instanceof RexInputRef)) {
+            RexNode tmp = operand0;
+            operand0 = operand1;
+            operand1 = tmp;
+            kind = kind.reverse();
+        }
+
+        if (!(operand0 instanceof RexInputRef)) {
+            return null;
+        }
+
+        ColumnStatistic column = statistic.getColumnStatistic(((RexInputRef) operand0).getIndex());
+
+        if (column == null) {
+            return null;
+        }
+
+        double nonNullFraction = 1.0d - column.getNullFraction();
+        Double distinctCount = column.getDistinctCount();
+
+        switch (kind) {
+            case EQUALS:
+                // The value is unknown for dynamic parameters, but a single value is still matched.
+                return distinctCount != null ? nonNullFraction / Math.max(distinctCount, 1.0d) : null;
+
+            case NOT_EQUALS:
+                return distinctCount != null ? nonNullFraction * (1.0d - 1.0d / Math.max(distinctCount, 1.0d)) : null;
+
+            case LESS_THAN:
+            case LESS_THAN_OR_EQUAL:
+            case GREATER_THAN:
+            case GREATER_THAN_OR_EQUAL:
+                Double value = toDouble(operand1);
+
+                if (value == null) {
+                    return null;
+                }
+
+                Double fractionLessThan = column.fractionLessThan(value);
+
+                if (fractionLessThan == null) {
+                    return null;
+                }
+
+                double fraction = kind == SqlKind.LESS_THAN || kind == SqlKind.LESS_THAN_OR_EQUAL
+                    ? fractionLessThan
+                    : 1.0d - fractionLessThan;
+
+                return nonNullFraction * fraction;
+
+            default:
+                return null;
+        }
+    }
+
+    /**
+     * Numeric representation of a literal, or {@code null} if the node is not a literal with numeric representation.
+     */
+    static Double toDouble(RexNode node) {
+        if (!(node instanceof RexLiteral)) {
+            return null;
+        }
+
+        Comparable<?> value = ((RexLiteral) node).getValue4();
+
+        if (value instanceof Number) {
+            return ((Number) value).doubleValue();
+        }
+
+        return null;
+    }
+}
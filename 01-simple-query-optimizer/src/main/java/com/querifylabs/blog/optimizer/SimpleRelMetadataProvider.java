@@ -0,0 +1,93 @@
+package com.querifylabs.blog.optimizer;
+
+import com.google.common.collect.ImmutableList;
+import org.apache.calcite.plan.RelOptCluster;
+import org.apache.calcite.rel.RelNode;
+import org.apache.calcite.rel.core.TableScan;
+import org.apache.calcite.rel.metadata.ChainedRelMetadataProvider;
+import org.apache.calcite.rel.metadata.DefaultRelMetadataProvider;
+import org.apache.calcite.rel.metadata.JaninoRelMetadataProvider;
+import org.apache.calcite.rel.metadata.RelMetadataProvider;
+import org.apache.calcite.rel.metadata.RelMetadataQuery;
+
+/**
+ * Metadata provider that derives selectivity and distinct row counts from the {@link SimpleTableStatistic},
+ * computes the multi-dimensional {@link SimpleCost}s of the operators, and delegates everything else to the default
+ * Calcite provider.
+ * <p>
+ * Uniqueness doesn't need a custom handler: the default one relies on the keys declared in the table statistic.
+ */
+public final class SimpleRelMetadataProvider {
+
+    public static final RelMetadataProvider INSTANCE = ChainedRelMetadataProvider.of(ImmutableList.of(
+        SimpleRelMdSelectivity.SOURCE,
+        SimpleRelMdDistinctRowCount.SOURCE,
+        SimpleRelMdNonCumulativeCost.SOURCE,
+        DefaultRelMetadataProvider.INSTANCE
+    ));
+
+    private static final JaninoRelMetadataProvider JANINO_INSTANCE = JaninoRelMetadataProvider.of(INSTANCE);
+
+    private SimpleRelMetadataProvider() {
+        // No-op.
+    }
+
+    /**
+     * Make the cluster use this provider, see {@link #metadataQuery()}.
+     */
+    public static void install(RelOptCluster cluster) {
+        JaninoRelMetadataProvider threadProvider = RelMetadataQuery.THREAD_PROVIDERS.get();
+
+        try {
+            cluster.setMetadataProvider(INSTANCE);
+            cluster.setMetadataQuerySupplier(SimpleRelMetadataProvider::metadataQuery);
+        } finally {
+            // The cluster sets the provider of the thread as a side effect.
+            restoreThreadProvider(threadProvider);
+        }
+    }
+
+    /**
+     * Create a metadata query that uses this provider. Intended to be used as a metadata query supplier of
+     * the cluster.
+     */
+    public static RelMetadataQuery metadataQuery() {
+        JaninoRelMetadataProvider threadProvider = RelMetadataQuery.THREAD_PROVIDERS.get();
+
+        // The only way to pass a custom provider to the metadata query in this version of Calcite. The provider
+        // of the thread is restored, so that the metadata queries of the other clusters are not affected.
+        RelMetadataQuery.THREAD_PROVIDERS.set(JANINO_INSTANCE);
+
+        try {
+            return RelMetadataQuery.instance();
+        } finally {
+            restoreThreadProvider(threadProvider);
+        }
+    }
+
+    private static void restoreThreadProvider(JaninoRelMetadataProvider threadProvider) {
+        if (threadProvider == null) {
+            RelMetadataQuery.THREAD_PROVIDERS.remove();
+        } else {
+            RelMetadataQuery.THREAD_PROVIDERS.set(threadProvider);
+        }
+    }
+
+    /**
+     * Register the operator classes, so that the metadata handlers generated by Janino dispatch on all of them at
+     * once, instead of being regenerated every time a new class is observed.
+     */
+    static void registerRelClasses(Iterable<Class<? extends RelNode>> relClasses) {
+        JANINO_INSTANCE.register(relClasses);
+    }
+
+    static SimpleTableStatistic statistic(TableScan scan) {
+        SimpleTable table = scan.getTable().unwrap(SimpleTable.class);
+
+        if (table == null || !(table.getStatistic() instanceof SimpleTableStatistic)) {
+            return null;
+        }
+
+        return (SimpleTableStatistic) table.getStatistic();
+    }
+}
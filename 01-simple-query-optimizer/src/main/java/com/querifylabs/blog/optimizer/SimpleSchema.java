@@ -7,29 +7,90 @@ import org.apache.calcite.schema.impl.AbstractSchema;
 
 import java.util.HashMap;
 import java.util.Map;
-
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.UnaryOperator;
+
+/**
+ * Versioned registry of tables.
+ * <p>
+ * The state of the schema is an immutable {@link SimpleSchemaSnapshot}. DDL operations create the next version
+ * of the snapshot and publish it atomically, concurrent operations are retried. Readers never lock: they pin
+ * the current snapshot with {@link #snapshot()} and observe a consistent set of tables, no matter how many
+ * versions are published afterwards.
+ */
 public class SimpleSchema extends AbstractSchema {
 
-    private final String schemaName;
-    private final Map<String, Table> tableMap;
+    private final AtomicReference<SimpleSchemaSnapshot> current;
 
-    private SimpleSchema(String schemaName, Map<String, Table> tableMap) {
-        this.schemaName = schemaName;
-        this.tableMap = tableMap;
+    private SimpleSchema(SimpleSchemaSnapshot snapshot) {
+        current = new AtomicReference<>(snapshot);
     }
 
     public String getSchemaName() {
-        return schemaName;
+        return current.get().getSchemaName();
+    }
+
+    /**
+     * Version of the schema that is incremented on every change. Used to invalidate cached plans.
+     */
+    public long getVersion() {
+        return current.get().getVersion();
+    }
+
+    /**
+     * The current immutable state of the schema.
+     */
+    public SimpleSchemaSnapshot snapshot() {
+        return current.get();
+    }
+
+    public SimpleSchemaSnapshot addTable(SimpleTable table) {
+        return update(snapshot -> snapshot.withTable(table, false));
+    }
+
+    /**
+     * Replace the table with the same name, e.g. to publish a table with new data or statistics. The data of the
+     * tables of the materialized views can only be changed through {@link MaterializedViews}.
+     */
+    public SimpleSchemaSnapshot replaceTable(SimpleTable table) {
+        return update(snapshot -> snapshot.withTable(table, true));
     }
 
+    public SimpleSchemaSnapshot dropTable(String tableName) {
+        return update(snapshot -> snapshot.withoutTable(tableName));
+    }
+
+    /**
+     * Tables of the current snapshot. Use {@link #snapshot()} to read several tables consistently.
+     */
     @Override
     public Map<String, Table> getTableMap() {
-        return tableMap;
+        return current.get().getTableMap();
     }
 
     @Override
     public Schema snapshot(SchemaVersion version) {
-        return this;
+        return snapshot();
+    }
+
+    /**
+     * Publish the new snapshot if the current one is the expected snapshot.
+     *
+     * @return {@code true} if the snapshot is published, {@code false} if the schema was changed concurrently.
+     */
+    boolean publish(SimpleSchemaSnapshot expected, SimpleSchemaSnapshot snapshot) {
+        return current.compareAndSet(expected, snapshot);
+    }
+
+    private SimpleSchemaSnapshot update(UnaryOperator<SimpleSchemaSnapshot> change) {
+        while (true) {
+            SimpleSchemaSnapshot snapshot = current.get();
+            SimpleSchemaSnapshot newSnapshot = change.apply(snapshot);
+
+            if (current.compareAndSet(snapshot, newSnapshot)) {
+                return newSnapshot;
+            }
+        }
     }
 
     public static Builder newBuilder(String schemaName) {
@@ -60,7 +121,7 @@ public class SimpleSchema extends AbstractSchema {
         }
 
         public SimpleSchema build() {
-            return new SimpleSchema(schemaName, tableMap);
+            return new SimpleSchema(new SimpleSchemaSnapshot(schemaName, 0L, tableMap));
         }
     }
 }
@@ -0,0 +1,183 @@
+package com.querifylabs.blog.optimizer;
+
+import com.google.common.collect.ImmutableMap;
+import org.apache.calcite.schema.Schema;
+import org.apache.calcite.schema.SchemaVersion;
+import org.apache.calcite.schema.Table;
+import org.apache.calcite.schema.impl.AbstractSchema;
+
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Immutable state of the {@link SimpleSchema} at the given version.
+ * <p>
+ * Optimizers plan against a snapshot, so that concurrent DDL cannot change the set of tables in the middle of
+ * the planning. The version of the snapshot identifies the set of tables, and is used to invalidate plans
+ * cached against older versions.
+ * <p>
+ * The snapshot also holds the definitions of the {@link MaterializedAggregateView}s, whose tables are published
+ * in the same snapshot, so that the views are always consistent with the tables they aggregate.
+ */
+public final class SimpleSchemaSnapshot extends AbstractSchema {
+
+    private final String schemaName;
+    private final long version;
+    private final ImmutableMap<String, Table> tableMap;
+    private final ImmutableMap<String, MaterializedAggregateView> materializedViews;
+
+    SimpleSchemaSnapshot(String schemaName, long version, Map<String, Table> tableMap) {
+        this(schemaName, version, tableMap, ImmutableMap.of());
+    }
+
+    private SimpleSchemaSnapshot(
+        String schemaName,
+        long version,
+        Map<String, Table> tableMap,
+        Map<String, MaterializedAggregateView> materializedViews
+    ) {
+        this.schemaName = schemaName;
+        this.version = version;
+        this.tableMap = ImmutableMap.copyOf(tableMap);
+        this.materializedViews = ImmutableMap.copyOf(materializedViews);
+    }
+
+    public String getSchemaName() {
+        return schemaName;
+    }
+
+    public long getVersion() {
+        return version;
+    }
+
+    @Override
+    public Map<String, Table> getTableMap() {
+        return tableMap;
+    }
+
+    /**
+     * Materialized views by the names of their tables.
+     */
+    public Map<String, MaterializedAggregateView> getMaterializedViews() {
+        return materializedViews;
+    }
+
+    @Override
+    public boolean isMutable() {
+        return false;
+    }
+
+    @Override
+    public Schema snapshot(SchemaVersion version) {
+        return this;
+    }
+
+    /**
+     * Create the next version of the snapshot with the given table added, or replacing the table with the same name.
+     * <p>
+     * The data of the tables of the materialized views cannot be replaced, since the views would become stale. Use
+     * {@link MaterializedViews#append(String, List)} instead. The same data with e.g. a new statistic is accepted.
+     */
+    SimpleSchemaSnapshot withTable(SimpleTable table, boolean replace) {
+        Table current = tableMap.get(table.getTableName());
+
+        if (replace && current instanceof SimpleTable && ((SimpleTable) current).getStore() != table.getStore()) {
+            checkNoMaterializedViews(table.getTableName());
+        }
+
+        return putTable(table, replace);
+    }
+
+    /**
+     * Create the next version of the snapshot with the new data of the base table of the materialized views. The
+     * views merged with the new data must be published in the same snapshot.
+     */
+    SimpleSchemaSnapshot withBaseTable(SimpleTable table) {
+        return putTable(table, true);
+    }
+
+    private SimpleSchemaSnapshot putTable(SimpleTable table, boolean replace) {
+        boolean exists = tableMap.containsKey(table.getTableName());
+
+        if (exists && !replace) {
+            throw new IllegalArgumentException("Table already defined: " + table.getTableName());
+        }
+
+        if (!exists && replace) {
+            throw new IllegalArgumentException("Table is not defined: " + table.getTableName());
+        }
+
+        ImmutableMap.Builder<String, Table> newTableMap = ImmutableMap.builder();
+
+        for (Map.Entry<String, Table> entry : tableMap.entrySet()) {
+            if (!entry.getKey().equals(table.getTableName())) {
+                newTableMap.put(entry);
+            }
+        }
+
+        newTableMap.put(table.getTableName(), table);
+
+        return new SimpleSchemaSnapshot(schemaName, version + 1, newTableMap.build(), materializedViews);
+    }
+
+    /**
+     * Create the next version of the snapshot with the given view and its table, replacing the previous state of
+     * the view with the same name.
+     */
+    SimpleSchemaSnapshot withMaterializedView(MaterializedAggregateView view) {
+        boolean exists = materializedViews.containsKey(view.getViewName());
+
+        if (!exists && tableMap.containsKey(view.getViewName())) {
+            throw new IllegalArgumentException("Table already defined: " + view.getViewName());
+        }
+
+        SimpleSchemaSnapshot res = putTable(view.toTable(), exists);
+
+        ImmutableMap.Builder<String, MaterializedAggregateView> newViews = ImmutableMap.builder();
+
+        for (Map.Entry<String, MaterializedAggregateView> entry : materializedViews.entrySet()) {
+            if (!entry.getKey().equals(view.getViewName())) {
+                newViews.put(entry);
+            }
+        }
+
+        newViews.put(view.getViewName(), view);
+
+        return new SimpleSchemaSnapshot(schemaName, res.version, res.tableMap, newViews.build());
+    }
+
+    /**
+     * Create the next version of the snapshot without the given table.
+     */
+    SimpleSchemaSnapshot withoutTable(String tableName) {
+        if (!tableMap.containsKey(tableName)) {
+            throw new IllegalArgumentException("Table is not defined: " + tableName);
+        }
+
+        checkNoMaterializedViews(tableName);
+
+        ImmutableMap.Builder<String, Table> newTableMap = ImmutableMap.builder();
+
+        for (Map.Entry<String, Table> entry : tableMap.entrySet()) {
+            if (!entry.getKey().equals(tableName)) {
+                newTableMap.put(entry);
+            }
+        }
+
+        return new SimpleSchemaSnapshot(schemaName, version + 1, newTableMap.build(), materializedViews);
+    }
+
+    private void checkNoMaterializedViews(String tableName) {
+        for (MaterializedAggregateView view : materializedViews.values()) {
+            if (view.getViewName().equals(tableName) || view.getTableName().equals(tableName)) {
+                throw new IllegalArgumentException("Table is used by the materialized view: " + view.getViewName());
+            }
+        }
+    }
+
+    @Override
+    public String toString() {
+        return "SimpleSchemaSnapshot{name=" + schemaName + ", version=" + version + ", tables=" + tableMap.keySet()
+            + '}';
+    }
+}
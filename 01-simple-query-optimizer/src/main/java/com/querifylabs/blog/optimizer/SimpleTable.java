@@ -1,34 +1,64 @@
 package com.querifylabs.blog.optimizer;
 
+import com.querifylabs.blog.optimizer.storage.Block;
+import com.querifylabs.blog.optimizer.storage.ColumnarFile;
+import com.querifylabs.blog.optimizer.storage.ColumnarStore;
+import com.querifylabs.blog.optimizer.storage.ZoneMapFilter;
 import org.apache.calcite.DataContext;
 import org.apache.calcite.linq4j.Enumerable;
+import org.apache.calcite.linq4j.Linq4j;
 import org.apache.calcite.rel.type.RelDataType;
 import org.apache.calcite.rel.type.RelDataTypeFactory;
 import org.apache.calcite.rel.type.RelDataTypeField;
 import org.apache.calcite.rel.type.RelDataTypeFieldImpl;
 import org.apache.calcite.rel.type.RelRecordType;
 import org.apache.calcite.rel.type.StructKind;
+import org.apache.calcite.rex.RexNode;
+import org.apache.calcite.schema.ProjectableFilterableTable;
 import org.apache.calcite.schema.ScannableTable;
 import org.apache.calcite.schema.Statistic;
 import org.apache.calcite.schema.impl.AbstractTable;
 import org.apache.calcite.sql.type.SqlTypeName;
+import org.apache.calcite.util.ImmutableBitSet;
 
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 
-public class SimpleTable extends AbstractTable implements ScannableTable {
+/**
+ * Table backed by the off-heap {@link ColumnarStore}.
+ * <p>
+ * The table accepts pushed-down projections and filters. Only the projected columns are materialized, and the
+ * blocks that cannot contain matching rows are skipped with the per-block zone maps, see {@link ZoneMapFilter}.
+ * Filters are not evaluated on individual rows, so they are always left for the caller.
+ */
+public class SimpleTable extends AbstractTable implements ScannableTable, ProjectableFilterableTable {
 
     private final String tableName;
     private final List<String> fieldNames;
     private final List<SqlTypeName> fieldTypes;
+    private final List<Integer> fieldScales;
+    private final ColumnarStore store;
     private final SimpleTableStatistic statistic;
 
     private RelDataType rowType;
 
-    private SimpleTable(String tableName, List<String> fieldNames, List<SqlTypeName> fieldTypes, SimpleTableStatistic statistic) {
+    private SimpleTable(
+        String tableName,
+        List<String> fieldNames,
+        List<SqlTypeName> fieldTypes,
+        List<Integer> fieldScales,
+        ColumnarStore store,
+        SimpleTableStatistic statistic
+    ) {
         this.tableName = tableName;
         this.fieldNames = fieldNames;
         this.fieldTypes = fieldTypes;
+        this.fieldScales = fieldScales;
+        this.store = store;
         this.statistic = statistic;
     }
 
@@ -36,13 +66,41 @@ public class SimpleTable extends AbstractTable implements ScannableTable {
         return tableName;
     }
 
+    public List<String> getFieldNames() {
+        return Collections.unmodifiableList(fieldNames);
+    }
+
+    public List<SqlTypeName> getFieldTypes() {
+        return Collections.unmodifiableList(fieldTypes);
+    }
+
+    /**
+     * Scales of the {@code DECIMAL} fields, zeros for the fields of other types.
+     */
+    public List<Integer> getFieldScales() {
+        return Collections.unmodifiableList(fieldScales);
+    }
+
+    /**
+     * Off-heap columnar storage of the table data.
+     */
+    public ColumnarStore getStore() {
+        return store;
+    }
+
     @Override
     public RelDataType getRowType(RelDataTypeFactory typeFactory) {
         if (rowType == null) {
             List<RelDataTypeField> fields = new ArrayList<>(fieldNames.size());
 
             for (int i = 0; i < fieldNames.size(); i++) {
-                RelDataType fieldType = typeFactory.createSqlType(fieldTypes.get(i));
+                RelDataType fieldType = fieldTypes.get(i) == SqlTypeName.DECIMAL
+                    ? typeFactory.createSqlType(
+                        SqlTypeName.DECIMAL,
+                        typeFactory.getTypeSystem().getMaxNumericPrecision(),
+                        fieldScales.get(i)
+                    )
+                    : typeFactory.createSqlType(fieldTypes.get(i));
                 RelDataTypeField field = new RelDataTypeFieldImpl(fieldNames.get(i), i, fieldType);
                 fields.add(field);
             }
@@ -58,9 +116,136 @@ public class SimpleTable extends AbstractTable implements ScannableTable {
         return statistic;
     }
 
+    /**
+     * Create the table with the same data and the given statistic, e.g. collected by the
+     * {@link StatisticsCollector}. The table is not modified: publish the result with
+     * {@link SimpleSchema#replaceTable(SimpleTable)}.
+     */
+    public SimpleTable withStatistic(SimpleTableStatistic statistic) {
+        return new SimpleTable(tableName, fieldNames, fieldTypes, fieldScales, store, statistic);
+    }
+
+    /**
+     * Create the table with the rows appended to the data. The full blocks of this table are shared. A trailing
+     * block that is not full, e.g. of the previous append, is rebuilt together with the appended rows, so that
+     * frequent small appends do not fragment the table into tiny blocks.
+     * <p>
+     * The row count and the null fractions are updated, and min/max values are widened to the appended values.
+     * Distinct counts and histograms no longer describe the data, so they are dropped until the statistics are
+     * collected again with {@link StatisticsCollector}. Keys are retained.
+     * <p>
+     * The table is not modified: publish the result with {@link SimpleSchema#replaceTable(SimpleTable)}. If the
+     * table has materialized views, append the rows with {@link MaterializedViews#append(String, List)} instead,
+     * which maintains the views.
+     */
+    public SimpleTable append(List<Object[]> rows) {
+        ColumnarStore.Builder storeBuilder = ColumnarStore.newBuilder(fieldTypes, fieldScales);
+
+        List<Block> blocks = store.getBlocks();
+
+        for (int i = 0; i < blocks.size(); i++) {
+            Block block = blocks.get(i);
+
+            if (i == blocks.size() - 1 && block.getRowCount() < ColumnarStore.DEFAULT_BLOCK_SIZE) {
+                storeBuilder.addRows(block.rows());
+            } else {
+                storeBuilder.addBlock(block);
+            }
+        }
+
+        storeBuilder.addRows(rows);
+
+        ColumnarStore newStore = storeBuilder.build();
+
+        // Take the row counts from the stores, rather than from the statistic, which may be estimated.
+        long rowCount = store.getRowCount();
+        List<ColumnStatistic> columnStatistics = new ArrayList<>(fieldNames.size());
+        for (int i = 0; i < fieldNames.size(); i++) {
+            columnStatistics.add(appendedStatistic(statistic.getColumnStatistic(i), i, rowCount, rows));
+        }
+
+        SimpleTableStatistic newStatistic = new SimpleTableStatistic(
+            newStore.getRowCount(),
+            columnStatistics,
+            statistic.getKeys()
+        );
+
+        return new SimpleTable(tableName, fieldNames, fieldTypes, fieldScales, newStore, newStatistic);
+    }
+
+    /**
+     * Statistic of the column after the rows are appended to the given number of rows, or {@code null} if unknown.
+     */
+    private static ColumnStatistic appendedStatistic(
+        ColumnStatistic statistic,
+        int column,
+        long rowCount,
+        List<Object[]> rows
+    ) {
+        if (statistic == null || rows.isEmpty()) {
+            return statistic;
+        }
+
+        long nullCount = 0L;
+        double min = Double.POSITIVE_INFINITY;
+        double max = Double.NEGATIVE_INFINITY;
+
+        for (Object[] row : rows) {
+            Object value = row[column];
+
+            if (value == null) {
+                nullCount++;
+            } else if (value instanceof Number) {
+                // Numbers and the numeric representation of dates and times.
+                double value0 = ((Number) value).doubleValue();
+                min = Math.min(min, value0);
+                max = Math.max(max, value0);
+            }
+        }
+
+        ColumnStatistic.Builder res = ColumnStatistic.newBuilder()
+            .withNullFraction((statistic.getNullFraction() * rowCount + nullCount) / (rowCount + rows.size()));
+
+        if (statistic.getMin() != null && statistic.getMax() != null) {
+            res.withMinMax(Math.min(statistic.getMin(), min), Math.max(statistic.getMax(), max));
+        }
+
+        return res.build();
+    }
+
     @Override
     public Enumerable<Object[]> scan(DataContext root) {
-        throw new UnsupportedOperationException("Not implemented");
+        List<Enumerable<Object[]>> enumerables = new ArrayList<>(store.getBlocks().size());
+
+        for (Block block : store.getBlocks()) {
+            enumerables.add(Linq4j.asEnumerable(block.rows()));
+        }
+
+        return Linq4j.concat(enumerables);
+    }
+
+    @Override
+    public Enumerable<Object[]> scan(DataContext root, List<RexNode> filters, int[] projects) {
+        int[] projects0 = projects;
+
+        if (projects0 == null) {
+            projects0 = new int[fieldNames.size()];
+
+            for (int i = 0; i < projects0.length; i++) {
+                projects0[i] = i;
+            }
+        }
+
+        ZoneMapFilter filter = ZoneMapFilter.create(filters, index -> root.get("?" + index));
+        List<Enumerable<Object[]>> enumerables = new ArrayList<>(store.getBlocks().size());
+
+        for (Block block : store.getBlocks()) {
+            if (filter.mayMatch(block)) {
+                enumerables.add(Linq4j.asEnumerable(block.rows(projects0)));
+            }
+        }
+
+        return Linq4j.concat(enumerables);
     }
 
     public static Builder newBuilder(String tableName) {
@@ -72,6 +257,11 @@ public class SimpleTable extends AbstractTable implements ScannableTable {
         private final String tableName;
         private final List<String> fieldNames = new ArrayList<>();
         private final List<SqlTypeName> fieldTypes = new ArrayList<>();
+        private final List<Integer> fieldScales = new ArrayList<>();
+        private final Map<String, ColumnStatistic> columnStatistics = new HashMap<>();
+        private final List<List<String>> keys = new ArrayList<>();
+        private final List<List<Object[]>> partitions = new ArrayList<>();
+        private ColumnarStore store;
         private long rowCount;
 
         private Builder(String tableName) {
@@ -83,6 +273,16 @@ public class SimpleTable extends AbstractTable implements ScannableTable {
         }
 
         public Builder addField(String name, SqlTypeName typeName) {
+            return addField(name, typeName, 0);
+        }
+
+        /**
+         * Add the field with the given scale, which is applicable only to {@code DECIMAL}. Values of the field are
+         * stored exactly as unscaled longs. A {@code BigDecimal} that cannot be represented with the scale, or
+         * whose unscaled value does not fit into a {@code long}, is rejected when the data is loaded. Floating
+         * point values are rounded to the scale.
+         */
+        public Builder addField(String name, SqlTypeName typeName, int scale) {
             if (name == null || name.isEmpty()) {
                 throw new IllegalArgumentException("Field name cannot be null or empty");
             }
@@ -91,28 +291,163 @@ public class SimpleTable extends AbstractTable implements ScannableTable {
                 throw new IllegalArgumentException("Field already defined: " + name);
             }
 
+            if (scale != 0 && typeName != SqlTypeName.DECIMAL) {
+                throw new IllegalArgumentException("Scale is applicable only to DECIMAL: " + name);
+            }
+
             fieldNames.add(name);
             fieldTypes.add(typeName);
+            fieldScales.add(scale);
+
+            return this;
+        }
+
+        /**
+         * Add a partition of the table data. Values use the internal Calcite representation, e.g. {@code DATE}
+         * is an {@code Integer} number of days since epoch. Rows are loaded into the columnar storage on
+         * {@link #build()}, every partition starts a new block. If the row count is not set explicitly, it is
+         * derived from the data.
+         */
+        public Builder addPartition(List<Object[]> rows) {
+            partitions.add(rows);
+
+            return this;
+        }
+
+        /**
+         * Use the pre-loaded columnar storage. Cannot be combined with {@link #addPartition(List)}.
+         */
+        public Builder withStore(ColumnarStore store) {
+            this.store = store;
 
             return this;
         }
 
+        /**
+         * Add the fields stored in the footer of the file, and use the memory-mapped store of the file.
+         */
+        public Builder withFile(ColumnarFile file) {
+            for (int i = 0; i < file.getFieldNames().size(); i++) {
+                addField(
+                    file.getFieldNames().get(i),
+                    file.getStore().getTypes().get(i),
+                    file.getStore().getScales().get(i)
+                );
+            }
+
+            return withStore(file.getStore());
+        }
+
         public Builder withRowCount(long rowCount) {
             this.rowCount = rowCount;
 
             return this;
         }
 
+        public Builder withColumnStatistic(String fieldName, ColumnStatistic columnStatistic) {
+            if (columnStatistics.containsKey(fieldName)) {
+                throw new IllegalArgumentException("Column statistic already defined: " + fieldName);
+            }
+
+            columnStatistics.put(fieldName, columnStatistic);
+
+            return this;
+        }
+
+        /**
+         * Declare that the values of the given fields are unique.
+         */
+        public Builder withKey(String... fieldNames) {
+            if (fieldNames.length == 0) {
+                throw new IllegalArgumentException("Key must have at least one field");
+            }
+
+            keys.add(Arrays.asList(fieldNames));
+
+            return this;
+        }
+
         public SimpleTable build() {
             if (fieldNames.isEmpty()) {
                 throw new IllegalStateException("Table must have at least one field");
             }
 
-            if (rowCount == 0L) {
+            ColumnarStore store0 = store;
+
+            if (store0 != null) {
+                if (!partitions.isEmpty()) {
+                    throw new IllegalStateException("Table cannot have both the store and the partitions");
+                }
+
+                if (!store0.getTypes().equals(fieldTypes)) {
+                    throw new IllegalStateException("Store types " + store0.getTypes()
+                        + " do not match field types " + fieldTypes);
+                }
+
+                if (!store0.getScales().equals(fieldScales)) {
+                    throw new IllegalStateException("Store scales " + store0.getScales()
+                        + " do not match field scales " + fieldScales);
+                }
+            } else if (partitions.isEmpty()) {
+                store0 = ColumnarStore.empty(fieldTypes, fieldScales);
+            } else {
+                ColumnarStore.Builder storeBuilder = ColumnarStore.newBuilder(fieldTypes, fieldScales);
+
+                for (List<Object[]> partition : partitions) {
+                    for (Object[] row : partition) {
+                        if (row.length != fieldNames.size()) {
+                            throw new IllegalStateException("Row must have " + fieldNames.size() + " values: "
+                                + Arrays.toString(row));
+                        }
+
+                        storeBuilder.addRow(row);
+                    }
+
+                    storeBuilder.endBlock();
+                }
+
+                store0 = storeBuilder.build();
+            }
+
+            long rowCount0 = rowCount != 0L ? rowCount : store0.getRowCount();
+
+            if (rowCount0 == 0L) {
                 throw new IllegalStateException("Table must have positive row count");
             }
 
-            return new SimpleTable(tableName, fieldNames, fieldTypes, new SimpleTableStatistic(rowCount));
+            List<ColumnStatistic> columnStatistics0 = new ArrayList<>(fieldNames.size());
+            for (String fieldName : fieldNames) {
+                columnStatistics0.add(columnStatistics.get(fieldName));
+            }
+            for (String fieldName : columnStatistics.keySet()) {
+                if (!fieldNames.contains(fieldName)) {
+                    throw new IllegalStateException("Column statistic is defined for unknown field: " + fieldName);
+                }
+            }
+
+            List<ImmutableBitSet> keys0 = new ArrayList<>(keys.size());
+            for (List<String> key : keys) {
+                ImmutableBitSet.Builder key0 = ImmutableBitSet.builder();
+                for (String fieldName : key) {
+                    int index = fieldNames.indexOf(fieldName);
+                    if (index == -1) {
+                        throw new IllegalStateException("Key references unknown field: " + fieldName);
+                    }
+                    key0.set(index);
+                }
+                keys0.add(key0.build());
+            }
+
+            SimpleTableStatistic statistic = new SimpleTableStatistic(rowCount0, columnStatistics0, keys0);
+
+            return new SimpleTable(
+                tableName,
+                fieldNames,
+                fieldTypes,
+                fieldScales,
+                store0,
+                statistic
+            );
         }
     }
 }
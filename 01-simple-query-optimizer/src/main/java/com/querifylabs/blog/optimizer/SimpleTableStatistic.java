@@ -7,15 +7,24 @@ import org.apache.calcite.rel.RelReferentialConstraint;
 import org.apache.calcite.schema.Statistic;
 import org.apache.calcite.util.ImmutableBitSet;
 
+import java.util.ArrayList;
 import java.util.Collections;
 import java.util.List;
 
 public class SimpleTableStatistic implements Statistic {
 
     private final long rowCount;
+    private final List<ColumnStatistic> columnStatistics;
+    private final List<ImmutableBitSet> keys;
 
     public SimpleTableStatistic(long rowCount) {
+        this(rowCount, Collections.emptyList(), Collections.emptyList());
+    }
+
+    public SimpleTableStatistic(long rowCount, List<ColumnStatistic> columnStatistics, List<ImmutableBitSet> keys) {
         this.rowCount = rowCount;
+        this.columnStatistics = Collections.unmodifiableList(new ArrayList<>(columnStatistics));
+        this.keys = Collections.unmodifiableList(new ArrayList<>(keys));
     }
 
     @Override
@@ -23,14 +32,27 @@ public class SimpleTableStatistic implements Statistic {
         return (double) rowCount;
     }
 
+    /**
+     * Statistics of the column with the given ordinal, or {@code null} if unknown.
+     */
+    public ColumnStatistic getColumnStatistic(int ordinal) {
+        return ordinal < columnStatistics.size() ? columnStatistics.get(ordinal) : null;
+    }
+
     @Override
     public boolean isKey(ImmutableBitSet columns) {
+        for (ImmutableBitSet key : keys) {
+            if (columns.contains(key)) {
+                return true;
+            }
+        }
+
         return false;
     }
 
     @Override
     public List<ImmutableBitSet> getKeys() {
-        return Collections.emptyList();
+        return keys;
     }
 
     @Override
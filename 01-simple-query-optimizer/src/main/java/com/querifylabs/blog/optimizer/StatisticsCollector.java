@@ -0,0 +1,595 @@
+package com.querifylabs.blog.optimizer;
+
+import com.google.common.hash.Hashing;
+import com.querifylabs.blog.optimizer.storage.Block;
+import com.querifylabs.blog.optimizer.storage.ColumnChunk;
+import org.apache.calcite.sql.type.SqlTypeName;
+
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.SplittableRandom;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+
+/**
+ * Collects table statistics from the data, similarly to the {@code ANALYZE} command.
+ * <p>
+ * Every partition is processed in a single streaming pass, partitions are processed in parallel in the common
+ * fork-join pool. For every column the collector computes the exact null count and min/max values, estimates
+ * the number of distinct values with a {@link HyperLogLog} sketch, and keeps a uniform reservoir sample of rows
+ * from which the equi-depth {@link Histogram} is built. The memory footprint is therefore bounded by the
+ * sketch and sample sizes and does not depend on the number of rows. Partial results of the partitions are
+ * merged at the end.
+ * <p>
+ * Histograms are built only for the columns with the numeric representation: numbers, dates, times and timestamps.
+ * <p>
+ * The blocks of a {@link SimpleTable} are read column by column with the primitive getters of the
+ * {@link ColumnChunk}s, and the hashes of the dictionary-encoded strings are computed once per dictionary entry.
+ * <p>
+ * The collector is immutable and thread-safe.
+ */
+public class StatisticsCollector {
+
+    public static final int DEFAULT_SAMPLE_SIZE = 16_384;
+    public static final int DEFAULT_HISTOGRAM_BUCKETS = 64;
+
+    private static final double[] POWERS_OF_TEN = new double[ColumnChunk.MAX_DECIMAL_SCALE + 1];
+
+    static {
+        POWERS_OF_TEN[0] = 1.0d;
+
+        for (int i = 1; i < POWERS_OF_TEN.length; i++) {
+            POWERS_OF_TEN[i] = POWERS_OF_TEN[i - 1] * 10.0d;
+        }
+    }
+
+    private final int sampleSize;
+    private final int histogramBuckets;
+    private final int precision;
+    private final long seed;
+
+    private StatisticsCollector(int sampleSize, int histogramBuckets, int precision, long seed) {
+        this.sampleSize = sampleSize;
+        this.histogramBuckets = histogramBuckets;
+        this.precision = precision;
+        this.seed = seed;
+    }
+
+    /**
+     * Collect statistics of the table and publish the table with the new statistic in the next version of the
+     * schema, so that the plans cached against the previous versions are not reused. Snapshots pinned by the
+     * running optimizers keep the previous statistic. If the table is changed concurrently, the statistics are
+     * collected again.
+     *
+     * @return The published snapshot.
+     */
+    public SimpleSchemaSnapshot analyze(SimpleSchema schema, String tableName) {
+        while (true) {
+            SimpleSchemaSnapshot snapshot = schema.snapshot();
+            SimpleTable table = (SimpleTable) snapshot.getTableMap().get(tableName);
+
+            if (table == null) {
+                throw new IllegalArgumentException("Table is not defined: " + tableName);
+            }
+
+            SimpleSchemaSnapshot newSnapshot = snapshot.withTable(table.withStatistic(collect(table)), true);
+
+            if (schema.publish(snapshot, newSnapshot)) {
+                return newSnapshot;
+            }
+        }
+    }
+
+    /**
+     * Collect statistics of the table data. Keys declared for the table are retained. The table is not modified.
+     */
+    public SimpleTableStatistic collect(SimpleTable table) {
+        List<Block> blocks = table.getStore().getBlocks();
+        boolean[] numeric = numeric(table.getFieldTypes());
+
+        List<PartitionStatistics> partitionStatistics = IntStream.range(0, blocks.size())
+            .parallel()
+            .mapToObj(i -> collectBlock(blocks.get(i), numeric, new SplittableRandom(seed + i)))
+            .collect(Collectors.toList());
+
+        List<ColumnStatistic> columnStatistics = new ArrayList<>();
+        long rowCount = merge(partitionStatistics, numeric, columnStatistics);
+
+        return new SimpleTableStatistic(rowCount, columnStatistics, table.getStatistic().getKeys());
+    }
+
+    /**
+     * Collect statistics of the partitioned data with the given column types. Column statistics are added to
+     * the provided list, the number of rows is returned.
+     */
+    public long collect(
+        List<? extends Iterable<Object[]>> partitions,
+        List<SqlTypeName> types,
+        List<ColumnStatistic> columnStatistics
+    ) {
+        boolean[] numeric = numeric(types);
+
+        List<PartitionStatistics> partitionStatistics = IntStream.range(0, partitions.size())
+            .parallel()
+            .mapToObj(i -> collectPartition(partitions.get(i), numeric, new SplittableRandom(seed + i)))
+            .collect(Collectors.toList());
+
+        return merge(partitionStatistics, numeric, columnStatistics);
+    }
+
+    private long merge(
+        List<PartitionStatistics> partitionStatistics,
+        boolean[] numeric,
+        List<ColumnStatistic> columnStatistics
+    ) {
+        SplittableRandom random = new SplittableRandom(seed);
+        PartitionStatistics res = new PartitionStatistics(numeric, sampleSize, precision);
+
+        for (PartitionStatistics partition : partitionStatistics) {
+            res = res.merge(partition, random);
+        }
+
+        for (int i = 0; i < numeric.length; i++) {
+            columnStatistics.add(res.toColumnStatistic(i, histogramBuckets));
+        }
+
+        return res.rowCount;
+    }
+
+    private PartitionStatistics collectPartition(Iterable<Object[]> rows, boolean[] numeric, SplittableRandom random) {
+        PartitionStatistics res = new PartitionStatistics(numeric, sampleSize, precision);
+
+        for (Object[] row : rows) {
+            res.add(row, random);
+        }
+
+        return res;
+    }
+
+    private PartitionStatistics collectBlock(Block block, boolean[] numeric, SplittableRandom random) {
+        PartitionStatistics res = new PartitionStatistics(numeric, sampleSize, precision);
+
+        res.add(block, random);
+
+        return res;
+    }
+
+    private static boolean[] numeric(List<SqlTypeName> types) {
+        boolean[] res = new boolean[types.size()];
+
+        for (int i = 0; i < types.size(); i++) {
+            res[i] = isNumeric(types.get(i));
+        }
+
+        return res;
+    }
+
+    private static boolean isNumeric(SqlTypeName type) {
+        return SqlTypeName.NUMERIC_TYPES.contains(type) || SqlTypeName.DATETIME_TYPES.contains(type);
+    }
+
+    /**
+     * Numeric representation of the value, or {@code NaN} if the value is null or not a number.
+     */
+    private static double toDouble(Object value) {
+        return value instanceof Number ? ((Number) value).doubleValue() : Double.NaN;
+    }
+
+    /**
+     * 64-bit hash of the value. Equal numbers of different scales have equal hashes.
+     */
+    private static long hash(Object value) {
+        if (value instanceof Long || value instanceof Integer || value instanceof Short || value instanceof Byte) {
+            return HyperLogLog.hash(((Number) value).longValue());
+        }
+
+        if (value instanceof BigDecimal) {
+            BigDecimal decimal = ((BigDecimal) value).stripTrailingZeros();
+
+            if (decimal.unscaledValue().bitLength() < Long.SIZE) {
+                return hashDecimal(decimal.unscaledValue().longValue(), decimal.scale());
+            }
+        }
+
+        if (value instanceof Double || value instanceof Float) {
+            return HyperLogLog.hash(Double.doubleToLongBits(((Number) value).doubleValue()));
+        }
+
+        if (value instanceof String) {
+            return Hashing.murmur3_128().hashUnencodedChars((String) value).asLong();
+        }
+
+        return HyperLogLog.hash(value.hashCode());
+    }
+
+    /**
+     * 64-bit hash of the decimal with the given unscaled value and scale, equal to the hash of the
+     * {@code BigDecimal}.
+     */
+    private static long hashDecimal(long unscaled, int scale) {
+        if (unscaled == 0L) {
+            scale = 0;
+        }
+
+        while (unscaled != 0L && unscaled % 10 == 0L) {
+            unscaled /= 10;
+            scale--;
+        }
+
+        return HyperLogLog.hash(unscaled * 31 + scale);
+    }
+
+    /**
+     * Numeric representation of the decimal with the given unscaled value and scale, equal to the one of the
+     * {@code BigDecimal}. The division is exact if the unscaled value is exactly representable as a double.
+     */
+    private static double decimalToDouble(long unscaled, int scale) {
+        if (Math.abs(unscaled) <= 1L << 53) {
+            return unscaled / POWERS_OF_TEN[scale];
+        }
+
+        return BigDecimal.valueOf(unscaled, scale).doubleValue();
+    }
+
+    public static Builder newBuilder() {
+        return new Builder();
+    }
+
+    /**
+     * Statistics of a single partition, or of several merged partitions.
+     */
+    private static final class PartitionStatistics {
+        private final boolean[] numeric;
+        private final int maxSampleSize;
+        private final long[] nullCounts;
+        private final double[] mins;
+        private final double[] maxs;
+        private final HyperLogLog[] sketches;
+
+        /** Sampled values, column-major. Only numeric columns are sampled. */
+        private final double[][] sample;
+
+        private long rowCount;
+        private int sampleSize;
+
+        private PartitionStatistics(boolean[] numeric, int maxSampleSize, int precision) {
+            this.numeric = numeric;
+            this.maxSampleSize = maxSampleSize;
+
+            int columnCount = numeric.length;
+
+            nullCounts = new long[columnCount];
+            mins = new double[columnCount];
+            maxs = new double[columnCount];
+            sketches = new HyperLogLog[columnCount];
+            sample = new double[columnCount][];
+
+            for (int i = 0; i < columnCount; i++) {
+                mins[i] = Double.POSITIVE_INFINITY;
+                maxs[i] = Double.NEGATIVE_INFINITY;
+                sketches[i] = new HyperLogLog(precision);
+                sample[i] = numeric[i] ? new double[maxSampleSize] : null;
+            }
+        }
+
+        private void add(Object[] row, SplittableRandom random) {
+            int sampleIndex = nextSampleIndex(random);
+
+            for (int i = 0; i < row.length; i++) {
+                Object value = row[i];
+
+                if (value == null) {
+                    addNull(i, sampleIndex);
+                } else {
+                    add(i, hash(value), toDouble(value), sampleIndex);
+                }
+            }
+        }
+
+        /**
+         * Add the rows of the block column by column. The result is the same as if the rows were added one by one.
+         */
+        private void add(Block block, SplittableRandom random) {
+            int count = block.getRowCount();
+            int[] sampleIndexes = new int[count];
+
+            for (int row = 0; row < count; row++) {
+                sampleIndexes[row] = nextSampleIndex(random);
+            }
+
+            boolean[] nulls = new boolean[count];
+            long[] longs = null;
+            double[] doubles = null;
+            int[] codes = null;
+
+            for (int i = 0; i < numeric.length; i++) {
+                ColumnChunk column = block.getColumn(i);
+                column.getNulls(0, nulls, 0, count);
+
+                switch (column.getType()) {
+                    case DOUBLE: {
+                        doubles = doubles != null ? doubles : new double[count];
+                        column.getDoubles(0, doubles, 0, count);
+
+                        boolean real = column.getTypeName() == SqlTypeName.REAL;
+
+                        for (int row = 0; row < count; row++) {
+                            if (nulls[row]) {
+                                addNull(i, sampleIndexes[row]);
+                            } else {
+                                double value = real ? (float) doubles[row] : doubles[row];
+
+                                add(i, HyperLogLog.hash(Double.doubleToLongBits(value)), value, sampleIndexes[row]);
+                            }
+                        }
+
+                        break;
+                    }
+
+                    case STRING: {
+                        List<String> dictionary = column.getDictionary();
+                        long[] hashes = new long[dictionary.size()];
+
+                        for (int code = 0; code < hashes.length; code++) {
+                            hashes[code] = hash(dictionary.get(code));
+                        }
+
+                        codes = codes != null ? codes : new int[count];
+                        column.getInts(0, codes, 0, count);
+
+                        for (int row = 0; row < count; row++) {
+                            if (nulls[row]) {
+                                addNull(i, sampleIndexes[row]);
+                            } else {
+                                add(i, hashes[codes[row]], Double.NaN, sampleIndexes[row]);
+                            }
+                        }
+
+                        break;
+                    }
+
+                    default: {
+                        longs = longs != null ? longs : new long[count];
+                        column.getLongs(0, longs, 0, count);
+
+                        SqlTypeName typeName = column.getTypeName();
+                        int scale = column.getScale();
+
+                        for (int row = 0; row < count; row++) {
+                            long value = longs[row];
+
+                            if (nulls[row]) {
+                                addNull(i, sampleIndexes[row]);
+                            } else if (typeName == SqlTypeName.DECIMAL) {
+                                add(i, hashDecimal(value, scale), decimalToDouble(value, scale), sampleIndexes[row]);
+                            } else if (typeName == SqlTypeName.BOOLEAN) {
+                                add(i, HyperLogLog.hash(Boolean.hashCode(value != 0L)), Double.NaN, sampleIndexes[row]);
+                            } else {
+                                add(i, HyperLogLog.hash(value), value, sampleIndexes[row]);
+                            }
+                        }
+                    }
+                }
+            }
+        }
+
+        /**
+         * Reservoir sampling: the n-th row replaces a random sampled row with probability size/n. Returns the index
+         * of the row in the sample, or -1 if the row is not sampled.
+         */
+        private int nextSampleIndex(SplittableRandom random) {
+            int res;
+
+            if (rowCount < maxSampleSize) {
+                res = sampleSize++;
+            } else {
+                long index = random.nextLong(rowCount + 1);
+                res = index < maxSampleSize ? (int) index : -1;
+            }
+
+            rowCount++;
+
+            return res;
+        }
+
+        private void addNull(int column, int sampleIndex) {
+            nullCounts[column]++;
+
+            if (numeric[column] && sampleIndex >= 0) {
+                sample[column][sampleIndex] = Double.NaN;
+            }
+        }
+
+        private void add(int column, long hash, double value, int sampleIndex) {
+            sketches[column].add(hash);
+
+            if (numeric[column]) {
+                if (!Double.isNaN(value)) {
+                    mins[column] = Math.min(mins[column], value);
+                    maxs[column] = Math.max(maxs[column], value);
+                }
+
+                if (sampleIndex >= 0) {
+                    sample[column][sampleIndex] = value;
+                }
+            }
+        }
+
+        /**
+         * Merge two partitions into a new one. The merged sample is drawn from both samples, so that it remains
+         * a uniform sample of the union of partitions.
+         */
+        private PartitionStatistics merge(PartitionStatistics other, SplittableRandom random) {
+            PartitionStatistics res = new PartitionStatistics(numeric, maxSampleSize, sketches[0].getPrecision());
+
+            res.rowCount = rowCount + other.rowCount;
+
+            for (int i = 0; i < numeric.length; i++) {
+                res.nullCounts[i] = nullCounts[i] + other.nullCounts[i];
+                res.mins[i] = Math.min(mins[i], other.mins[i]);
+                res.maxs[i] = Math.max(maxs[i], other.maxs[i]);
+                res.sketches[i].merge(sketches[i]);
+                res.sketches[i].merge(other.sketches[i]);
+            }
+
+            int[] order = shuffledIndexes(sampleSize, random);
+            int[] otherOrder = shuffledIndexes(other.sampleSize, random);
+
+            // Every sampled row stands for the rows of its partition that were not sampled yet, so the next
+            // row is taken from a partition with the probability proportional to its remaining rows.
+            long remaining = rowCount;
+            long otherRemaining = other.rowCount;
+            int position = 0;
+            int otherPosition = 0;
+
+            while (res.sampleSize < maxSampleSize && (position < sampleSize || otherPosition < other.sampleSize)) {
+                boolean fromThis;
+
+                if (position == sampleSize) {
+                    fromThis = false;
+                } else if (otherPosition == other.sampleSize) {
+                    fromThis = true;
+                } else {
+                    fromThis = random.nextLong(remaining + otherRemaining) < remaining;
+                }
+
+                for (int i = 0; i < numeric.length; i++) {
+                    if (numeric[i]) {
+                        res.sample[i][res.sampleSize] = fromThis
+                            ? sample[i][order[position]]
+                            : other.sample[i][otherOrder[otherPosition]];
+                    }
+                }
+
+                if (fromThis) {
+                    position++;
+                    remaining--;
+                } else {
+                    otherPosition++;
+                    otherRemaining--;
+                }
+
+                res.sampleSize++;
+            }
+
+            return res;
+        }
+
+        private ColumnStatistic toColumnStatistic(int column, int histogramBuckets) {
+            long nonNullCount = rowCount - nullCounts[column];
+
+            ColumnStatistic.Builder builder = ColumnStatistic.newBuilder()
+                .withDistinctCount(Math.min(Math.round(sketches[column].estimate()), nonNullCount))
+                .withNullFraction(rowCount == 0L ? 0.0d : (double) nullCounts[column] / rowCount);
+
+            if (numeric[column] && mins[column] <= maxs[column]) {
+                builder.withMinMax(mins[column], maxs[column]);
+
+                double[] values = new double[sampleSize];
+                int valueCount = 0;
+
+                for (int i = 0; i < sampleSize; i++) {
+                    double value = sample[column][i];
+
+                    if (!Double.isNaN(value)) {
+                        values[valueCount++] = value;
+                    }
+                }
+
+                if (valueCount > 0) {
+                    values = Arrays.copyOf(values, valueCount);
+                    Arrays.sort(values);
+
+                    // The sample may miss the extreme values, while min and max are exact.
+                    values[0] = mins[column];
+                    values[valueCount - 1] = maxs[column];
+
+                    builder.withHistogram(Histogram.equiDepth(values, histogramBuckets));
+                }
+            }
+
+            return builder.build();
+        }
+
+        private static int[] shuffledIndexes(int size, SplittableRandom random) {
+            int[] res = new int[size];
+
+            for (int i = 0; i < size; i++) {
+                res[i] = i;
+            }
+
+            for (int i = size - 1; i > 0; i--) {
+                int j = random.nextInt(i + 1);
+                int tmp = res[i];
+                res[i] = res[j];
+                res[j] = tmp;
+            }
+
+            return res;
+        }
+    }
+
+    public static final class Builder {
+
+        private int sampleSize = DEFAULT_SAMPLE_SIZE;
+        private int histogramBuckets = DEFAULT_HISTOGRAM_BUCKETS;
+        private int precision = HyperLogLog.DEFAULT_PRECISION;
+        private long seed;
+
+        private Builder() {
+            // No-op.
+        }
+
+        /**
+         * Maximum number of rows sampled to build histograms.
+         */
+        public Builder withSampleSize(int sampleSize) {
+            if (sampleSize <= 0) {
+                throw new IllegalArgumentException("Sample size must be positive: " + sampleSize);
+            }
+
+            this.sampleSize = sampleSize;
+
+            return this;
+        }
+
+        public Builder withHistogramBuckets(int histogramBuckets) {
+            if (histogramBuckets <= 0) {
+                throw new IllegalArgumentException("Number of histogram buckets must be positive: " + histogramBuckets);
+            }
+
+            this.histogramBuckets = histogramBuckets;
+
+            return this;
+        }
+
+        /**
+         * Precision of the {@link HyperLogLog} sketches used to estimate the number of distinct values.
+         */
+        public Builder withPrecision(int precision) {
+            if (precision < HyperLogLog.MIN_PRECISION || precision > HyperLogLog.MAX_PRECISION) {
+                throw new IllegalArgumentException("Precision must be between " + HyperLogLog.MIN_PRECISION
+                    + " and " + HyperLogLog.MAX_PRECISION + ": " + precision);
+            }
+
+            this.precision = precision;
+
+            return this;
+        }
+
+        /**
+         * Seed of the sampling, so that the same data produces the same statistics.
+         */
+        public Builder withSeed(long seed) {
+            this.seed = seed;
+
+            return this;
+        }
+
+        public StatisticsCollector build() {
+            return new StatisticsCollector(sampleSize, histogramBuckets, precision, seed);
+        }
+    }
+}
@@ -0,0 +1,107 @@
+package com.querifylabs.blog.optimizer.storage;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+
+/**
+ * Horizontal partition of a table: a set of column chunks with the same number of rows.
+ */
+public final class Block {
+
+    private final int rowCount;
+    private final List<ColumnChunk> columns;
+
+    public Block(List<ColumnChunk> columns) {
+        if (columns.isEmpty()) {
+            throw new IllegalArgumentException("Block must have at least one column");
+        }
+
+        int rowCount = columns.get(0).getRowCount();
+
+        for (ColumnChunk column : columns) {
+            if (column.getRowCount() != rowCount) {
+                throw new IllegalArgumentException("Columns of the block must have the same number of rows: "
+                    + rowCount + " and " + column.getRowCount());
+            }
+        }
+
+        this.rowCount = rowCount;
+        this.columns = Collections.unmodifiableList(new ArrayList<>(columns));
+    }
+
+    public int getRowCount() {
+        return rowCount;
+    }
+
+    public int getColumnCount() {
+        return columns.size();
+    }
+
+    public ColumnChunk getColumn(int index) {
+        return columns.get(index);
+    }
+
+    public long getSizeInBytes() {
+        long res = 0L;
+
+        for (ColumnChunk column : columns) {
+            res += column.getSizeInBytes();
+        }
+
+        return res;
+    }
+
+    /**
+     * Rows of the block in the internal Calcite representation. Every row is a new array, so this path is
+     * intended only for the row-oriented consumers.
+     */
+    public Iterable<Object[]> rows() {
+        int[] projects = new int[columns.size()];
+
+        for (int i = 0; i < projects.length; i++) {
+            projects[i] = i;
+        }
+
+        return rows(projects);
+    }
+
+    /**
+     * Rows that contain only the given columns of the block.
+     */
+    public Iterable<Object[]> rows(int[] projects) {
+        ColumnChunk[] projectedColumns = new ColumnChunk[projects.length];
+
+        for (int i = 0; i < projects.length; i++) {
+            projectedColumns[i] = columns.get(projects[i]);
+        }
+
+        return () -> new Iterator<Object[]>() {
+            private int next;
+
+            @Override
+            public boolean hasNext() {
+                return next < rowCount;
+            }
+
+            @Override
+            public Object[] next() {
+                if (next == rowCount) {
+                    throw new NoSuchElementException();
+                }
+
+                Object[] row = new Object[projectedColumns.length];
+
+                for (int i = 0; i < row.length; i++) {
+                    row[i] = projectedColumns[i].getObject(next);
+                }
+
+                next++;
+
+                return row;
+            }
+        };
+    }
+}
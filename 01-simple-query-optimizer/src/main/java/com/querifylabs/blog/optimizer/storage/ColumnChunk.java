@@ -0,0 +1,745 @@
+package com.querifylabs.blog.optimizer.storage;
+
+import org.apache.calcite.sql.type.SqlTypeName;
+
+import java.math.BigDecimal;
+import java.math.RoundingMode;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Immutable values of a single column in a {@link Block}.
+ * <p>
+ * Values are stored off-heap in a direct buffer as fixed-width primitives, see {@link ColumnType}. Strings are
+ * dictionary-encoded: the buffer contains codes, and the dictionary is kept on-heap. {@code DECIMAL} values are
+ * stored exactly as unscaled longs with the scale declared for the column. Nulls are tracked in
+ * a separate validity bitmap where a set bit denotes a non-null value. The bitmap is absent if the column has
+ * no nulls. The value of a null slot in the data buffer is zero.
+ * <p>
+ * Every chunk carries a {@link ZoneMap} with the minimum and maximum values, computed when the chunk is built.
+ * <p>
+ * Chunks created by the {@link Builder} are {@link ColumnEncoding#PLAIN}. Chunks read from a {@link ColumnarFile}
+ * may be encoded, in which case the values are decoded on access directly from the memory-mapped buffer.
+ */
+public final class ColumnChunk {
+
+    /** Maximum scale of {@code DECIMAL} columns: unscaled values must fit into a {@code long}. */
+    public static final int MAX_DECIMAL_SCALE = 18;
+
+    private final SqlTypeName typeName;
+    private final ColumnType type;
+    private final int scale;
+    private final int rowCount;
+    private final ByteBuffer data;
+    private final ByteBuffer validity;
+    private final List<String> dictionary;
+    private final ColumnEncoding encoding;
+
+    /** Base value of the {@link ColumnEncoding#FRAME_OF_REFERENCE} encoding. */
+    private final long base;
+
+    /** Width of the encoded values. */
+    private final int valueWidth;
+
+    /** Number of runs of the {@link ColumnEncoding#RUN_LENGTH} encoding. */
+    private final int runCount;
+
+    private final ZoneMap zoneMap;
+
+    private ColumnChunk(
+        SqlTypeName typeName,
+        int scale,
+        int rowCount,
+        ColumnEncoding encoding,
+        long base,
+        int valueWidth,
+        int runCount,
+        ByteBuffer data,
+        ByteBuffer validity,
+        List<String> dictionary,
+        ZoneMap zoneMap
+    ) {
+        this.typeName = typeName;
+        this.type = ColumnType.of(typeName);
+        this.scale = scale;
+        this.rowCount = rowCount;
+        this.encoding = encoding;
+        this.base = base;
+        this.valueWidth = valueWidth;
+        this.runCount = runCount;
+        this.data = data;
+        this.validity = validity;
+        this.dictionary = dictionary;
+        this.zoneMap = zoneMap != null ? zoneMap : computeZoneMap();
+    }
+
+    /**
+     * Create the chunk over the existing buffers, e.g. the slices of a memory-mapped file.
+     */
+    static ColumnChunk wrap(
+        SqlTypeName typeName,
+        int scale,
+        int rowCount,
+        ColumnEncoding encoding,
+        long base,
+        int valueWidth,
+        int runCount,
+        ByteBuffer data,
+        ByteBuffer validity,
+        List<String> dictionary,
+        ZoneMap zoneMap
+    ) {
+        return new ColumnChunk(
+            typeName,
+            scale,
+            rowCount,
+            encoding,
+            base,
+            valueWidth,
+            runCount,
+            data,
+            validity,
+            dictionary,
+            zoneMap
+        );
+    }
+
+    public SqlTypeName getTypeName() {
+        return typeName;
+    }
+
+    public ColumnType getType() {
+        return type;
+    }
+
+    /**
+     * Declared scale of a {@code DECIMAL} column: the value is the stored long multiplied by ten to the power of
+     * the negated scale. Zero for other types.
+     */
+    public int getScale() {
+        return scale;
+    }
+
+    public int getRowCount() {
+        return rowCount;
+    }
+
+    public ColumnEncoding getEncoding() {
+        return encoding;
+    }
+
+    public boolean hasNulls() {
+        return validity != null;
+    }
+
+    public boolean isNull(int row) {
+        return validity != null && (validity.get(row >>> 3) & (1 << (row & 7))) == 0;
+    }
+
+    public int getInt(int row) {
+        return encoding == ColumnEncoding.PLAIN ? data.getInt(row << 2) : (int) decode(row);
+    }
+
+    public long getLong(int row) {
+        return encoding == ColumnEncoding.PLAIN ? data.getLong(row << 3) : decode(row);
+    }
+
+    public double getDouble(int row) {
+        return data.getDouble(row << 3);
+    }
+
+    public BigDecimal getDecimal(int row) {
+        return isNull(row) ? null : BigDecimal.valueOf(getLong(row), scale);
+    }
+
+    /**
+     * Dictionary code of the string. Codes are dense and start with zero.
+     */
+    public int getCode(int row) {
+        return getInt(row);
+    }
+
+    public String getString(int row) {
+        return isNull(row) ? null : dictionary.get(getCode(row));
+    }
+
+    public List<String> getDictionary() {
+        return dictionary;
+    }
+
+    public ZoneMap getZoneMap() {
+        return zoneMap;
+    }
+
+    /**
+     * Copy {@code count} values starting from the {@code row} to the array. Applicable to the {@link ColumnType#INT}
+     * and {@link ColumnType#STRING} columns.
+     */
+    public void getInts(int row, int[] dst, int offset, int count) {
+        switch (encoding) {
+            case PLAIN:
+                for (int i = 0; i < count; i++) {
+                    dst[offset + i] = data.getInt((row + i) << 2);
+                }
+
+                break;
+
+            case FRAME_OF_REFERENCE:
+                for (int i = 0; i < count; i++) {
+                    dst[offset + i] = (int) (base + unsigned((row + i) * valueWidth));
+                }
+
+                break;
+
+            default: {
+                int run = findRun(row);
+                int runEnd = runEnd(run);
+                int value = (int) runValue(run);
+
+                for (int i = 0; i < count; i++) {
+                    if (row + i == runEnd) {
+                        run++;
+                        runEnd = runEnd(run);
+                        value = (int) runValue(run);
+                    }
+
+                    dst[offset + i] = value;
+                }
+            }
+        }
+    }
+
+    /**
+     * Copy {@code count} values starting from the {@code row} to the array. Applicable to the
+     * {@link ColumnType#INT} and {@link ColumnType#LONG} columns, the former are widened to longs. Values of
+     * {@code DECIMAL} columns are unscaled, see {@link #getScale()}.
+     */
+    public void getLongs(int row, long[] dst, int offset, int count) {
+        switch (encoding) {
+            case PLAIN:
+                if (type == ColumnType.LONG) {
+                    for (int i = 0; i < count; i++) {
+                        dst[offset + i] = data.getLong((row + i) << 3);
+                    }
+                } else {
+                    for (int i = 0; i < count; i++) {
+                        dst[offset + i] = data.getInt((row + i) << 2);
+                    }
+                }
+
+                break;
+
+            case FRAME_OF_REFERENCE:
+                for (int i = 0; i < count; i++) {
+                    dst[offset + i] = base + unsigned((row + i) * valueWidth);
+                }
+
+                break;
+
+            default: {
+                int run = findRun(row);
+                int runEnd = runEnd(run);
+                long value = runValue(run);
+
+                for (int i = 0; i < count; i++) {
+                    if (row + i == runEnd) {
+                        run++;
+                        runEnd = runEnd(run);
+                        value = runValue(run);
+                    }
+
+                    dst[offset + i] = value;
+                }
+            }
+        }
+    }
+
+    /**
+     * Copy {@code count} values starting from the {@code row} to the array. Applicable to the
+     * {@link ColumnType#DOUBLE} columns.
+     */
+    public void getDoubles(int row, double[] dst, int offset, int count) {
+        for (int i = 0; i < count; i++) {
+            dst[offset + i] = data.getDouble((row + i) << 3);
+        }
+    }
+
+    /**
+     * Copy {@code count} null flags starting from the {@code row} to the array.
+     */
+    public void getNulls(int row, boolean[] dst, int offset, int count) {
+        for (int i = 0; i < count; i++) {
+            dst[offset + i] = isNull(row + i);
+        }
+    }
+
+    /**
+     * Value in the internal Calcite representation that is expected by the generated code of the Enumerable
+     * convention: e.g. {@code DATE} is an {@code Integer} number of days, {@code DECIMAL} is a {@code BigDecimal}.
+     */
+    public Object getObject(int row) {
+        if (isNull(row)) {
+            return null;
+        }
+
+        switch (typeName) {
+            case TINYINT:
+                return (byte) getInt(row);
+
+            case SMALLINT:
+                return (short) getInt(row);
+
+            case INTEGER:
+            case DATE:
+            case TIME:
+                return getInt(row);
+
+            case BOOLEAN:
+                return getInt(row) != 0;
+
+            case BIGINT:
+            case TIMESTAMP:
+                return getLong(row);
+
+            case REAL:
+                return (float) getDouble(row);
+
+            case FLOAT:
+            case DOUBLE:
+                return getDouble(row);
+
+            case DECIMAL:
+                return getDecimal(row);
+
+            default:
+                return getString(row);
+        }
+    }
+
+    private long decode(int row) {
+        if (encoding == ColumnEncoding.FRAME_OF_REFERENCE) {
+            return base + unsigned(row * valueWidth);
+        }
+
+        return runValue(findRun(row));
+    }
+
+    private long unsigned(int offset) {
+        switch (valueWidth) {
+            case 1:
+                return data.get(offset) & 0xFFL;
+
+            case 2:
+                return data.getShort(offset) & 0xFFFFL;
+
+            default:
+                return data.getInt(offset) & 0xFFFF_FFFFL;
+        }
+    }
+
+    /**
+     * Index of the run that contains the row: the first run with the end greater than the row.
+     */
+    private int findRun(int row) {
+        int low = 0;
+        int high = runCount - 1;
+
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+
+            if (runEnd(mid) > row) {
+                high = mid;
+            } else {
+                low = mid + 1;
+            }
+        }
+
+        return low;
+    }
+
+    private int runEnd(int run) {
+        return data.getInt(run << 2);
+    }
+
+    private long runValue(int run) {
+        int offset = (runCount << 2) + run * valueWidth;
+
+        return valueWidth == Integer.BYTES ? data.getInt(offset) : data.getLong(offset);
+    }
+
+    /**
+     * Off-heap memory occupied by the chunk.
+     */
+    public long getSizeInBytes() {
+        return data.capacity() + (validity != null ? validity.capacity() : 0);
+    }
+
+    private ZoneMap computeZoneMap() {
+        int nullCount = 0;
+        int first = -1;
+
+        for (int i = 0; i < rowCount; i++) {
+            if (isNull(i)) {
+                nullCount++;
+            } else if (first == -1) {
+                first = i;
+            }
+        }
+
+        if (first == -1) {
+            return new ZoneMap(null, null, nullCount);
+        }
+
+        switch (type) {
+            case INT:
+            case LONG: {
+                long min = type == ColumnType.INT ? getInt(first) : getLong(first);
+                long max = min;
+
+                for (int i = first + 1; i < rowCount; i++) {
+                    if (!isNull(i)) {
+                        long value = type == ColumnType.INT ? getInt(i) : getLong(i);
+                        min = Math.min(min, value);
+                        max = Math.max(max, value);
+                    }
+                }
+
+                return new ZoneMap(min, max, nullCount);
+            }
+
+            case DOUBLE: {
+                double min = getDouble(first);
+                double max = min;
+
+                for (int i = first + 1; i < rowCount; i++) {
+                    if (!isNull(i)) {
+                        double value = getDouble(i);
+                        min = Math.min(min, value);
+                        max = Math.max(max, value);
+                    }
+                }
+
+                return new ZoneMap(min, max, nullCount);
+            }
+
+            default: {
+                // Dictionary contains only the values of the chunk.
+                String min = dictionary.get(0);
+                String max = min;
+
+                for (String value : dictionary) {
+                    min = value.compareTo(min) < 0 ? value : min;
+                    max = value.compareTo(max) > 0 ? value : max;
+                }
+
+                return new ZoneMap(min, max, nullCount);
+            }
+        }
+    }
+
+    public static Builder newBuilder(SqlTypeName typeName) {
+        return new Builder(typeName, 0, 1024);
+    }
+
+    public static Builder newBuilder(SqlTypeName typeName, int expectedRowCount) {
+        return new Builder(typeName, 0, expectedRowCount);
+    }
+
+    /**
+     * Builder of the {@code DECIMAL} chunk with the given scale.
+     */
+    public static Builder newDecimalBuilder(int scale, int expectedRowCount) {
+        return new Builder(SqlTypeName.DECIMAL, scale, expectedRowCount);
+    }
+
+    static Builder newBuilder(SqlTypeName typeName, int scale, int expectedRowCount) {
+        return new Builder(typeName, scale, expectedRowCount);
+    }
+
+    static void validateScale(SqlTypeName typeName, int scale) {
+        if (typeName == SqlTypeName.DECIMAL) {
+            if (scale < 0 || scale > MAX_DECIMAL_SCALE) {
+                throw new IllegalArgumentException("Scale of DECIMAL must be between 0 and " + MAX_DECIMAL_SCALE
+                    + ": " + scale);
+            }
+        } else if (scale != 0) {
+            throw new IllegalArgumentException("Scale is applicable only to DECIMAL: " + typeName);
+        }
+    }
+
+    /**
+     * Appends values to the on-heap buffer that grows as needed. On {@link #build()}, the values are copied once to
+     * the off-heap buffer of the exact size, so that the growth does not churn the off-heap memory.
+     */
+    public static final class Builder {
+
+        private final SqlTypeName typeName;
+        private final ColumnType type;
+        private final int scale;
+        private final BitSet nulls = new BitSet();
+        private final Map<String, Integer> codes;
+        private final List<String> dictionary;
+
+        private ByteBuffer data;
+        private int rowCount;
+
+        private Builder(SqlTypeName typeName, int scale, int expectedRowCount) {
+            if (expectedRowCount < 0) {
+                throw new IllegalArgumentException("Expected row count cannot be negative: " + expectedRowCount);
+            }
+
+            validateScale(typeName, scale);
+
+            this.typeName = typeName;
+            this.type = ColumnType.of(typeName);
+            this.scale = scale;
+            this.data = allocateHeap(Math.max(expectedRowCount, 1) * type.getWidth());
+
+            if (type == ColumnType.STRING) {
+                codes = new HashMap<>();
+                dictionary = new ArrayList<>();
+            } else {
+                codes = null;
+                dictionary = null;
+            }
+        }
+
+        public int getRowCount() {
+            return rowCount;
+        }
+
+        public Builder appendNull() {
+            nulls.set(rowCount);
+            ensureCapacity();
+
+            rowCount++;
+
+            return this;
+        }
+
+        public Builder appendInt(int value) {
+            if (typeName == SqlTypeName.DECIMAL) {
+                return appendDecimal(BigDecimal.valueOf(value));
+            }
+
+            switch (type) {
+                case INT:
+                    ensureCapacity();
+                    data.putInt(rowCount++ << 2, value);
+
+                    return this;
+
+                case LONG:
+                    return appendLong(value);
+
+                case DOUBLE:
+                    return appendDouble(value);
+
+                default:
+                    throw new IllegalStateException("Cannot append int to " + typeName);
+            }
+        }
+
+        public Builder appendLong(long value) {
+            if (typeName == SqlTypeName.DECIMAL) {
+                return appendDecimal(BigDecimal.valueOf(value));
+            }
+
+            switch (type) {
+                case LONG:
+                    ensureCapacity();
+                    data.putLong(rowCount++ << 3, value);
+
+                    return this;
+
+                case DOUBLE:
+                    return appendDouble(value);
+
+                default:
+                    throw new IllegalStateException("Cannot append long to " + typeName);
+            }
+        }
+
+        /**
+         * Append the floating point value. The value is rounded to the scale of a {@code DECIMAL} column.
+         */
+        public Builder appendDouble(double value) {
+            if (typeName == SqlTypeName.DECIMAL) {
+                if (!Double.isFinite(value)) {
+                    throw new IllegalArgumentException("Value does not fit DECIMAL with scale " + scale + ": "
+                        + value);
+                }
+
+                return appendDecimal(BigDecimal.valueOf(value).setScale(scale, RoundingMode.HALF_UP));
+            }
+
+            if (type != ColumnType.DOUBLE) {
+                throw new IllegalStateException("Cannot append double to " + typeName);
+            }
+
+            ensureCapacity();
+            data.putDouble(rowCount++ << 3, value);
+
+            return this;
+        }
+
+        /**
+         * Append the exact value to the {@code DECIMAL} column. The value must be representable with the scale of
+         * the column without rounding, and its unscaled value must fit into a {@code long}.
+         */
+        public Builder appendDecimal(BigDecimal value) {
+            if (typeName != SqlTypeName.DECIMAL) {
+                throw new IllegalStateException("Cannot append decimal to " + typeName);
+            }
+
+            if (value == null) {
+                return appendNull();
+            }
+
+            long unscaled;
+
+            try {
+                unscaled = value.setScale(scale, RoundingMode.UNNECESSARY).unscaledValue().longValueExact();
+            } catch (ArithmeticException e) {
+                throw new IllegalArgumentException("Value does not fit DECIMAL with scale " + scale + ": " + value);
+            }
+
+            ensureCapacity();
+            data.putLong(rowCount++ << 3, unscaled);
+
+            return this;
+        }
+
+        public Builder appendString(String value) {
+            if (type != ColumnType.STRING) {
+                throw new IllegalStateException("Cannot append string to " + typeName);
+            }
+
+            if (value == null) {
+                return appendNull();
+            }
+
+            Integer code = codes.get(value);
+
+            if (code == null) {
+                code = dictionary.size();
+                codes.put(value, code);
+                dictionary.add(value);
+            }
+
+            ensureCapacity();
+            data.putInt(rowCount++ << 2, code);
+
+            return this;
+        }
+
+        /**
+         * Append the value in the internal Calcite representation, see {@link ColumnChunk#getObject(int)}.
+         */
+        public Builder append(Object value) {
+            if (value == null) {
+                return appendNull();
+            }
+
+            if (value instanceof Boolean) {
+                return appendInt((Boolean) value ? 1 : 0);
+            }
+
+            if (value instanceof String) {
+                return appendString((String) value);
+            }
+
+            if (!(value instanceof Number)) {
+                throw new IllegalArgumentException("Unsupported value of " + typeName + ": " + value);
+            }
+
+            Number number = (Number) value;
+
+            if (typeName == SqlTypeName.DECIMAL) {
+                if (number instanceof BigDecimal) {
+                    return appendDecimal((BigDecimal) number);
+                }
+
+                if (number instanceof Double || number instanceof Float) {
+                    return appendDouble(number.doubleValue());
+                }
+
+                return appendLong(number.longValue());
+            }
+
+            switch (type) {
+                case INT:
+                    return appendInt(number.intValue());
+
+                case LONG:
+                    return appendLong(number.longValue());
+
+                case DOUBLE:
+                    return appendDouble(number.doubleValue());
+
+                default:
+                    throw new IllegalArgumentException("Unsupported value of " + typeName + ": " + value);
+            }
+        }
+
+        public ColumnChunk build() {
+            ByteBuffer data0 = allocate(rowCount * type.getWidth());
+            ByteBuffer src = data.duplicate();
+            src.position(0).limit(rowCount * type.getWidth());
+            data0.put(src);
+
+            ByteBuffer validity = null;
+
+            if (!nulls.isEmpty()) {
+                validity = allocate((rowCount + 7) >>> 3);
+
+                for (int i = 0; i < rowCount; i++) {
+                    if (!nulls.get(i)) {
+                        validity.put(i >>> 3, (byte) (validity.get(i >>> 3) | (1 << (i & 7))));
+                    }
+                }
+            }
+
+            return new ColumnChunk(
+                typeName,
+                scale,
+                rowCount,
+                ColumnEncoding.PLAIN,
+                0L,
+                type.getWidth(),
+                0,
+                data0,
+                validity,
+                dictionary != null ? Collections.unmodifiableList(new ArrayList<>(dictionary)) : null,
+                null
+            );
+        }
+
+        private void ensureCapacity() {
+            int required = (rowCount + 1) * type.getWidth();
+
+            if (required > data.capacity()) {
+                ByteBuffer newData = allocateHeap(Math.max(required, data.capacity() * 2));
+                ByteBuffer src = data.duplicate();
+                src.position(0).limit(rowCount * type.getWidth());
+                newData.put(src);
+
+                data = newData;
+            }
+        }
+
+        private static ByteBuffer allocate(int capacity) {
+            return ByteBuffer.allocateDirect(capacity).order(ByteOrder.nativeOrder());
+        }
+
+        private static ByteBuffer allocateHeap(int capacity) {
+            return ByteBuffer.allocate(capacity).order(ByteOrder.nativeOrder());
+        }
+    }
+}
@@ -0,0 +1,24 @@
+package com.querifylabs.blog.optimizer.storage;
+
+/**
+ * Encoding of the values of a {@link ColumnChunk}.
+ * <p>
+ * Strings are always dictionary-encoded, the encoding applies to their codes. The values are decoded on access,
+ * so the encoded chunks could be read directly from the memory-mapped file.
+ */
+public enum ColumnEncoding {
+    /** Fixed-width values, see {@link ColumnType#getWidth()}. */
+    PLAIN,
+
+    /**
+     * Runs of equal values: the exclusive 4-byte end positions of the runs, followed by the fixed-width values of
+     * the runs. Applicable to {@link ColumnType#INT}, {@link ColumnType#LONG} and {@link ColumnType#STRING}.
+     */
+    RUN_LENGTH,
+
+    /**
+     * Unsigned 1, 2 or 4-byte differences from the base value, which is the minimum value of the chunk. Applicable
+     * to {@link ColumnType#INT}, {@link ColumnType#LONG} and {@link ColumnType#STRING}.
+     */
+    FRAME_OF_REFERENCE
+}
@@ -0,0 +1,78 @@
+package com.querifylabs.blog.optimizer.storage;
+
+import org.apache.calcite.sql.type.SqlTypeName;
+
+/**
+ * Physical type of the column values in the columnar storage.
+ */
+public enum ColumnType {
+    /** 4-byte integers: {@code TINYINT}, {@code SMALLINT}, {@code INTEGER}, {@code BOOLEAN}, {@code DATE}, {@code TIME}. */
+    INT(Integer.BYTES),
+
+    /**
+     * 8-byte integers: {@code BIGINT}, {@code TIMESTAMP}, and the unscaled values of {@code DECIMAL}, see
+     * {@link ColumnChunk#getScale()}.
+     */
+    LONG(Long.BYTES),
+
+    /** 8-byte floating point numbers: {@code REAL}, {@code FLOAT}, {@code DOUBLE}. */
+    DOUBLE(Double.BYTES),
+
+    /** Dictionary-encoded strings, 4-byte codes: {@code CHAR}, {@code VARCHAR}. */
+    STRING(Integer.BYTES);
+
+    private final int width;
+
+    ColumnType(int width) {
+        this.width = width;
+    }
+
+    /** Number of bytes per value. */
+    public int getWidth() {
+        return width;
+    }
+
+    public static ColumnType of(SqlTypeName typeName) {
+        ColumnType res = find(typeName);
+
+        if (res == null) {
+            throw new IllegalArgumentException("Unsupported type: " + typeName);
+        }
+
+        return res;
+    }
+
+    /** Whether the values of the type could be stored in the columnar storage. */
+    public static boolean isSupported(SqlTypeName typeName) {
+        return find(typeName) != null;
+    }
+
+    private static ColumnType find(SqlTypeName typeName) {
+        switch (typeName) {
+            case TINYINT:
+            case SMALLINT:
+            case INTEGER:
+            case BOOLEAN:
+            case DATE:
+            case TIME:
+                return INT;
+
+            case BIGINT:
+            case TIMESTAMP:
+            case DECIMAL:
+                return LONG;
+
+            case REAL:
+            case FLOAT:
+            case DOUBLE:
+                return DOUBLE;
+
+            case CHAR:
+            case VARCHAR:
+                return STRING;
+
+            default:
+                return null;
+        }
+    }
+}
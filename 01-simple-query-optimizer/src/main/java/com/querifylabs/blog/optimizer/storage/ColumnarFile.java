@@ -0,0 +1,586 @@
+package com.querifylabs.blog.optimizer.storage;
+
+import org.apache.calcite.sql.type.SqlTypeName;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * On-disk columnar file that could be opened as a {@link ColumnarStore} without reading the data.
+ * <p>
+ * The file consists of the header, the data of the blocks, the footer and the trailer:
+ * <pre>
+ * header:  magic (4 bytes), version (4 bytes)
+ * blocks:  for every column of the block: values and validity bitmap, each aligned to 8 bytes
+ * footer:  field names, types and scales; for every block: row count, position and length;
+ *          for every column chunk of the block: encoding, offsets of the values and the validity bitmap,
+ *          zone map and dictionary
+ * trailer: position of the footer (8 bytes), magic (4 bytes)
+ * </pre>
+ * All numbers in the header, the blocks and the trailer are little-endian.
+ * <p>
+ * {@link #open(Path)} reads only the footer and maps every block with {@link FileChannel#map}. Column chunks are
+ * the slices of the mapped buffers, so scans read the pages directly, and the OS page cache decides which
+ * of them stay in memory. The mapping is released when the store becomes unreachable.
+ * <p>
+ * The writer may encode the chunks of integer, decimal and string columns with the {@link ColumnEncoding#RUN_LENGTH}
+ * or {@link ColumnEncoding#FRAME_OF_REFERENCE} encodings, whichever is smaller, if it is smaller than the plain
+ * values.
+ */
+public final class ColumnarFile {
+
+    /** "SQOC" in ASCII. */
+    private static final int MAGIC = 0x434F5153;
+    private static final int VERSION = 2;
+    private static final int HEADER_SIZE = 8;
+    private static final int TRAILER_SIZE = 12;
+    private static final int ALIGNMENT = 8;
+
+    private static final byte ZONE_MAP_EMPTY = 0;
+    private static final byte ZONE_MAP_LONG = 1;
+    private static final byte ZONE_MAP_DOUBLE = 2;
+    private static final byte ZONE_MAP_STRING = 3;
+
+    private final List<String> fieldNames;
+    private final ColumnarStore store;
+
+    private ColumnarFile(List<String> fieldNames, ColumnarStore store) {
+        this.fieldNames = fieldNames;
+        this.store = store;
+    }
+
+    public List<String> getFieldNames() {
+        return fieldNames;
+    }
+
+    public ColumnarStore getStore() {
+        return store;
+    }
+
+    /**
+     * Open the file, reading only the footer and mapping the blocks.
+     */
+    public static ColumnarFile open(Path path) throws IOException {
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            long size = channel.size();
+
+            if (size < HEADER_SIZE + TRAILER_SIZE) {
+                throw new IOException("Not a columnar file: " + path);
+            }
+
+            ByteBuffer header = read(channel, 0L, HEADER_SIZE);
+            ByteBuffer trailer = read(channel, size - TRAILER_SIZE, TRAILER_SIZE);
+
+            if (header.getInt(0) != MAGIC || trailer.getInt(8) != MAGIC) {
+                throw new IOException("Not a columnar file: " + path);
+            }
+
+            if (header.getInt(4) != VERSION) {
+                throw new IOException("Unsupported version of the columnar file " + path + ": " + header.getInt(4));
+            }
+
+            long footerPosition = trailer.getLong(0);
+
+            if (footerPosition < HEADER_SIZE || footerPosition > size - TRAILER_SIZE) {
+                throw new IOException("Corrupted columnar file: " + path);
+            }
+
+            ByteBuffer footerBuffer = read(channel, footerPosition, (int) (size - TRAILER_SIZE - footerPosition));
+            DataInputStream footer = new DataInputStream(
+                new ByteArrayInputStream(footerBuffer.array(), 0, footerBuffer.limit())
+            );
+
+            int columnCount = footer.readInt();
+            List<String> fieldNames = new ArrayList<>(columnCount);
+            List<SqlTypeName> types = new ArrayList<>(columnCount);
+            List<Integer> scales = new ArrayList<>(columnCount);
+
+            for (int i = 0; i < columnCount; i++) {
+                fieldNames.add(readString(footer));
+                types.add(SqlTypeName.valueOf(readString(footer)));
+                scales.add(footer.readInt());
+            }
+
+            ColumnarStore.Builder store = ColumnarStore.newBuilder(types, scales);
+            int blockCount = footer.readInt();
+
+            for (int i = 0; i < blockCount; i++) {
+                int rowCount = footer.readInt();
+                long position = footer.readLong();
+                long length = footer.readLong();
+
+                if (length > Integer.MAX_VALUE) {
+                    throw new IOException("Block is too large: " + length);
+                }
+
+                MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, position, length);
+                List<ColumnChunk> columns = new ArrayList<>(columnCount);
+
+                for (int j = 0; j < columnCount; j++) {
+                    columns.add(readChunk(footer, types.get(j), scales.get(j), rowCount, buffer));
+                }
+
+                store.addBlock(new Block(columns));
+            }
+
+            return new ColumnarFile(Collections.unmodifiableList(fieldNames), store.build());
+        }
+    }
+
+    private static ColumnChunk readChunk(
+        DataInputStream footer,
+        SqlTypeName type,
+        int scale,
+        int rowCount,
+        ByteBuffer block
+    ) throws IOException {
+        ColumnEncoding encoding = ColumnEncoding.values()[footer.readByte()];
+        long base = footer.readLong();
+        int valueWidth = footer.readInt();
+        int runCount = footer.readInt();
+        int dataOffset = footer.readInt();
+        int dataLength = footer.readInt();
+        int validityOffset = footer.readInt();
+        int validityLength = footer.readInt();
+
+        ZoneMap zoneMap = readZoneMap(footer);
+
+        List<String> dictionary = null;
+        int dictionarySize = footer.readInt();
+
+        if (dictionarySize >= 0) {
+            dictionary = new ArrayList<>(dictionarySize);
+
+            for (int i = 0; i < dictionarySize; i++) {
+                dictionary.add(readString(footer));
+            }
+
+            dictionary = Collections.unmodifiableList(dictionary);
+        }
+
+        return ColumnChunk.wrap(
+            type,
+            scale,
+            rowCount,
+            encoding,
+            base,
+            valueWidth,
+            runCount,
+            slice(block, dataOffset, dataLength),
+            validityOffset >= 0 ? slice(block, validityOffset, validityLength) : null,
+            dictionary,
+            zoneMap
+        );
+    }
+
+    private static ZoneMap readZoneMap(DataInputStream footer) throws IOException {
+        int nullCount = footer.readInt();
+
+        switch (footer.readByte()) {
+            case ZONE_MAP_LONG:
+                return new ZoneMap(footer.readLong(), footer.readLong(), nullCount);
+
+            case ZONE_MAP_DOUBLE:
+                return new ZoneMap(footer.readDouble(), footer.readDouble(), nullCount);
+
+            case ZONE_MAP_STRING:
+                return new ZoneMap(readString(footer), readString(footer), nullCount);
+
+            default:
+                return new ZoneMap(null, null, nullCount);
+        }
+    }
+
+    private static ByteBuffer slice(ByteBuffer buffer, int offset, int length) {
+        ByteBuffer res = buffer.duplicate();
+        res.position(offset).limit(offset + length);
+
+        return res.slice().order(ByteOrder.LITTLE_ENDIAN);
+    }
+
+    private static ByteBuffer read(FileChannel channel, long position, int length) throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate(length).order(ByteOrder.LITTLE_ENDIAN);
+
+        while (buffer.hasRemaining()) {
+            if (channel.read(buffer, position + buffer.position()) < 0) {
+                throw new IOException("Unexpected end of file");
+            }
+        }
+
+        buffer.flip();
+
+        return buffer;
+    }
+
+    private static String readString(DataInputStream in) throws IOException {
+        byte[] bytes = new byte[in.readInt()];
+        in.readFully(bytes);
+
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    private static void writeString(DataOutputStream out, String value) throws IOException {
+        byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+
+    public static Writer newWriter(Path path) {
+        return new Writer(path);
+    }
+
+    /**
+     * Writes the store to the file, replacing the existing one.
+     */
+    public static final class Writer {
+
+        private final Path path;
+        private boolean encodings = true;
+
+        private Writer(Path path) {
+            this.path = path;
+        }
+
+        /**
+         * Whether to encode the chunks with the lightweight encodings. Enabled by default.
+         */
+        public Writer withEncodings(boolean encodings) {
+            this.encodings = encodings;
+
+            return this;
+        }
+
+        public void write(List<String> fieldNames, ColumnarStore store) throws IOException {
+            if (fieldNames.size() != store.getTypes().size()) {
+                throw new IllegalArgumentException("Store must have " + fieldNames.size() + " columns: "
+                    + store.getTypes().size());
+            }
+
+            ByteArrayOutputStream footerBytes = new ByteArrayOutputStream();
+            DataOutputStream footer = new DataOutputStream(footerBytes);
+
+            footer.writeInt(fieldNames.size());
+
+            for (int i = 0; i < fieldNames.size(); i++) {
+                writeString(footer, fieldNames.get(i));
+                writeString(footer, store.getTypes().get(i).name());
+                footer.writeInt(store.getScales().get(i));
+            }
+
+            footer.writeInt(store.getBlocks().size());
+
+            try (FileChannel channel = FileChannel.open(
+                path,
+                StandardOpenOption.CREATE,
+                StandardOpenOption.TRUNCATE_EXISTING,
+                StandardOpenOption.WRITE
+            )) {
+                ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+                header.putInt(MAGIC).putInt(VERSION).flip();
+                write(channel, 0L, header);
+
+                long position = HEADER_SIZE;
+
+                for (Block block : store.getBlocks()) {
+                    ByteArrayOutputStream chunkMetadata = new ByteArrayOutputStream();
+                    DataOutputStream chunkFooter = new DataOutputStream(chunkMetadata);
+                    int blockLength = 0;
+
+                    for (int i = 0; i < block.getColumnCount(); i++) {
+                        blockLength += writeChunk(channel, position + blockLength, block.getColumn(i), blockLength,
+                            chunkFooter);
+                    }
+
+                    footer.writeInt(block.getRowCount());
+                    footer.writeLong(position);
+                    footer.writeLong(blockLength);
+                    chunkFooter.flush();
+                    chunkMetadata.writeTo(footer);
+
+                    position += blockLength;
+                }
+
+                footer.flush();
+                write(channel, position, ByteBuffer.wrap(footerBytes.toByteArray()));
+
+                ByteBuffer trailer = ByteBuffer.allocate(TRAILER_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+                trailer.putLong(position).putInt(MAGIC).flip();
+                write(channel, position + footerBytes.size(), trailer);
+            }
+        }
+
+        /**
+         * Write the values and the validity bitmap of the chunk, and its metadata to the footer. Returns the
+         * number of written bytes including the alignment padding. The padding is not written explicitly: the
+         * gaps between the written regions of a file are filled with zeros.
+         */
+        private int writeChunk(
+            FileChannel channel,
+            long position,
+            ColumnChunk chunk,
+            int blockOffset,
+            DataOutputStream footer
+        ) throws IOException {
+            EncodedChunk encoded = encode(chunk);
+
+            int dataLength = encoded.data.remaining();
+            int validityOffset = -1;
+            int validityLength = 0;
+            int length = align(dataLength);
+
+            write(channel, position, encoded.data);
+
+            if (chunk.hasNulls()) {
+                ByteBuffer validity = ByteBuffer.allocate((chunk.getRowCount() + 7) >>> 3);
+
+                for (int i = 0; i < chunk.getRowCount(); i++) {
+                    if (!chunk.isNull(i)) {
+                        validity.put(i >>> 3, (byte) (validity.get(i >>> 3) | (1 << (i & 7))));
+                    }
+                }
+
+                validityOffset = blockOffset + length;
+                validityLength = validity.capacity();
+
+                write(channel, position + length, validity);
+                length += align(validityLength);
+            }
+
+            footer.writeByte(encoded.encoding.ordinal());
+            footer.writeLong(encoded.base);
+            footer.writeInt(encoded.valueWidth);
+            footer.writeInt(encoded.runCount);
+            footer.writeInt(blockOffset);
+            footer.writeInt(dataLength);
+            footer.writeInt(validityOffset);
+            footer.writeInt(validityLength);
+
+            ZoneMap zoneMap = chunk.getZoneMap();
+            footer.writeInt(zoneMap.getNullCount());
+
+            if (!zoneMap.hasValues()) {
+                footer.writeByte(ZONE_MAP_EMPTY);
+            } else if (zoneMap.getMin() instanceof Long) {
+                footer.writeByte(ZONE_MAP_LONG);
+                footer.writeLong((Long) zoneMap.getMin());
+                footer.writeLong((Long) zoneMap.getMax());
+            } else if (zoneMap.getMin() instanceof Double) {
+                footer.writeByte(ZONE_MAP_DOUBLE);
+                footer.writeDouble((Double) zoneMap.getMin());
+                footer.writeDouble((Double) zoneMap.getMax());
+            } else {
+                footer.writeByte(ZONE_MAP_STRING);
+                writeString(footer, (String) zoneMap.getMin());
+                writeString(footer, (String) zoneMap.getMax());
+            }
+
+            if (chunk.getDictionary() != null) {
+                footer.writeInt(chunk.getDictionary().size());
+
+                for (String value : chunk.getDictionary()) {
+                    writeString(footer, value);
+                }
+            } else {
+                footer.writeInt(-1);
+            }
+
+            return length;
+        }
+
+        /**
+         * Encode the values of the chunk with the smallest of the applicable encodings.
+         */
+        private EncodedChunk encode(ColumnChunk chunk) {
+            ColumnType type = chunk.getType();
+            int rowCount = chunk.getRowCount();
+            int width = type.getWidth();
+
+            if (type == ColumnType.DOUBLE) {
+                ByteBuffer data = allocate(rowCount * width);
+
+                for (int i = 0; i < rowCount; i++) {
+                    data.putDouble(i * width, chunk.getDouble(i));
+                }
+
+                return new EncodedChunk(ColumnEncoding.PLAIN, 0L, width, 0, data);
+            }
+
+            long[] values = new long[rowCount];
+
+            if (type == ColumnType.STRING) {
+                int[] codes = new int[rowCount];
+                chunk.getInts(0, codes, 0, rowCount);
+
+                for (int i = 0; i < rowCount; i++) {
+                    values[i] = codes[i];
+                }
+            } else {
+                chunk.getLongs(0, values, 0, rowCount);
+            }
+
+            // Null slots repeat the previous value, so that they do not break the runs.
+            long min = Long.MAX_VALUE;
+            long max = Long.MIN_VALUE;
+            int runCount = 0;
+
+            for (int i = 0; i < rowCount; i++) {
+                if (chunk.isNull(i)) {
+                    values[i] = i > 0 ? values[i - 1] : 0L;
+                } else {
+                    min = Math.min(min, values[i]);
+                    max = Math.max(max, values[i]);
+                }
+
+                if (i == 0 || values[i] != values[i - 1]) {
+                    runCount++;
+                }
+            }
+
+            if (min > max) {
+                // All nulls.
+                min = 0L;
+                max = 0L;
+            }
+
+            long plainSize = (long) rowCount * width;
+            long runLengthSize = (long) runCount * (Integer.BYTES + width);
+            int forWidth = frameOfReferenceWidth(min, max);
+            long forSize = (long) rowCount * forWidth;
+
+            ColumnEncoding encoding = ColumnEncoding.PLAIN;
+
+            if (encodings) {
+                if (runLengthSize < plainSize && runLengthSize <= forSize) {
+                    encoding = ColumnEncoding.RUN_LENGTH;
+                } else if (forSize < plainSize) {
+                    encoding = ColumnEncoding.FRAME_OF_REFERENCE;
+                }
+            }
+
+            switch (encoding) {
+                case RUN_LENGTH: {
+                    ByteBuffer data = allocate((int) runLengthSize);
+                    int run = 0;
+
+                    for (int i = 1; i <= rowCount; i++) {
+                        if (i == rowCount || values[i] != values[i - 1]) {
+                            data.putInt(run << 2, i);
+                            putValue(data, (runCount << 2) + run * width, width, values[i - 1]);
+                            run++;
+                        }
+                    }
+
+                    return new EncodedChunk(encoding, 0L, width, runCount, data);
+                }
+
+                case FRAME_OF_REFERENCE: {
+                    ByteBuffer data = allocate((int) forSize);
+
+                    for (int i = 0; i < rowCount; i++) {
+                        long delta = chunk.isNull(i) ? 0L : values[i] - min;
+
+                        switch (forWidth) {
+                            case 1:
+                                data.put(i, (byte) delta);
+
+                                break;
+
+                            case 2:
+                                data.putShort(i * 2, (short) delta);
+
+                                break;
+
+                            default:
+                                data.putInt(i * 4, (int) delta);
+                        }
+                    }
+
+                    return new EncodedChunk(encoding, min, forWidth, 0, data);
+                }
+
+                default: {
+                    ByteBuffer data = allocate((int) plainSize);
+
+                    for (int i = 0; i < rowCount; i++) {
+                        putValue(data, i * width, width, chunk.isNull(i) ? 0L : values[i]);
+                    }
+
+                    return new EncodedChunk(encoding, 0L, width, 0, data);
+                }
+            }
+        }
+
+        private static int frameOfReferenceWidth(long min, long max) {
+            long range = max - min;
+
+            if (range < 0L) {
+                // Overflow.
+                return Long.BYTES;
+            }
+
+            if (range < (1L << 8)) {
+                return 1;
+            } else if (range < (1L << 16)) {
+                return 2;
+            } else if (range < (1L << 32)) {
+                return 4;
+            } else {
+                return Long.BYTES;
+            }
+        }
+
+        private static void putValue(ByteBuffer data, int offset, int width, long value) {
+            if (width == Integer.BYTES) {
+                data.putInt(offset, (int) value);
+            } else {
+                data.putLong(offset, value);
+            }
+        }
+
+        private static ByteBuffer allocate(int capacity) {
+            return ByteBuffer.allocate(capacity).order(ByteOrder.LITTLE_ENDIAN);
+        }
+
+        private static int align(int length) {
+            return (length + ALIGNMENT - 1) & -ALIGNMENT;
+        }
+
+        private static void write(FileChannel channel, long position, ByteBuffer buffer) throws IOException {
+            long offset = position;
+
+            while (buffer.hasRemaining()) {
+                offset += channel.write(buffer, offset);
+            }
+        }
+    }
+
+    private static final class EncodedChunk {
+        private final ColumnEncoding encoding;
+        private final long base;
+        private final int valueWidth;
+        private final int runCount;
+        private final ByteBuffer data;
+
+        private EncodedChunk(ColumnEncoding encoding, long base, int valueWidth, int runCount, ByteBuffer data) {
+            this.encoding = encoding;
+            this.base = base;
+            this.valueWidth = valueWidth;
+            this.runCount = runCount;
+            this.data = data;
+        }
+    }
+}
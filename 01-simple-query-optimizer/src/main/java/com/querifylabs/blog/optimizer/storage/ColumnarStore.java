@@ -0,0 +1,200 @@
+package com.querifylabs.blog.optimizer.storage;
+
+import org.apache.calcite.sql.type.SqlTypeName;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Immutable columnar storage of a table: a list of {@link Block}s with the same column types and scales. Scales
+ * are declared only for {@code DECIMAL} columns, and are zeros for other types, see {@link ColumnChunk#getScale()}.
+ * <p>
+ * Blocks are the units of parallelism and data skipping. Rows loaded through the {@link Builder} are split into
+ * blocks of at most {@link #DEFAULT_BLOCK_SIZE} rows by default.
+ */
+public final class ColumnarStore {
+
+    public static final int DEFAULT_BLOCK_SIZE = 65_536;
+
+    private final List<SqlTypeName> types;
+    private final List<Integer> scales;
+    private final List<Block> blocks;
+    private final long rowCount;
+
+    private ColumnarStore(List<SqlTypeName> types, List<Integer> scales, List<Block> blocks) {
+        this.types = types;
+        this.scales = scales;
+        this.blocks = blocks;
+
+        long rowCount = 0L;
+        for (Block block : blocks) {
+            rowCount += block.getRowCount();
+        }
+
+        this.rowCount = rowCount;
+    }
+
+    public static ColumnarStore empty(List<SqlTypeName> types, List<Integer> scales) {
+        return newBuilder(types, scales).build();
+    }
+
+    public List<SqlTypeName> getTypes() {
+        return types;
+    }
+
+    public List<Integer> getScales() {
+        return scales;
+    }
+
+    public List<Block> getBlocks() {
+        return blocks;
+    }
+
+    public long getRowCount() {
+        return rowCount;
+    }
+
+    public long getSizeInBytes() {
+        long res = 0L;
+
+        for (Block block : blocks) {
+            res += block.getSizeInBytes();
+        }
+
+        return res;
+    }
+
+    public static Builder newBuilder(List<SqlTypeName> types) {
+        return new Builder(types, Collections.nCopies(types.size(), 0));
+    }
+
+    public static Builder newBuilder(List<SqlTypeName> types, List<Integer> scales) {
+        return new Builder(types, scales);
+    }
+
+    public static final class Builder {
+
+        private final List<SqlTypeName> types;
+        private final List<Integer> scales;
+        private final List<Block> blocks = new ArrayList<>();
+        private int blockSize = DEFAULT_BLOCK_SIZE;
+        private List<ColumnChunk.Builder> columns;
+
+        private Builder(List<SqlTypeName> types, List<Integer> scales) {
+            if (types.isEmpty()) {
+                throw new IllegalArgumentException("Store must have at least one column");
+            }
+
+            if (scales.size() != types.size()) {
+                throw new IllegalArgumentException("Store must have " + types.size() + " scales: " + scales.size());
+            }
+
+            for (int i = 0; i < types.size(); i++) {
+                // Fail fast on unsupported types.
+                ColumnType.of(types.get(i));
+                ColumnChunk.validateScale(types.get(i), scales.get(i));
+            }
+
+            this.types = Collections.unmodifiableList(new ArrayList<>(types));
+            this.scales = Collections.unmodifiableList(new ArrayList<>(scales));
+        }
+
+        public Builder withBlockSize(int blockSize) {
+            if (blockSize <= 0) {
+                throw new IllegalArgumentException("Block size must be positive: " + blockSize);
+            }
+
+            this.blockSize = blockSize;
+
+            return this;
+        }
+
+        /**
+         * Append the row in the internal Calcite representation to the current block.
+         */
+        public Builder addRow(Object[] row) {
+            if (row.length != types.size()) {
+                throw new IllegalArgumentException("Row must have " + types.size() + " values: " + row.length);
+            }
+
+            if (columns == null) {
+                columns = new ArrayList<>(types.size());
+
+                for (int i = 0; i < types.size(); i++) {
+                    columns.add(ColumnChunk.newBuilder(types.get(i), scales.get(i), blockSize));
+                }
+            }
+
+            for (int i = 0; i < row.length; i++) {
+                columns.get(i).append(row[i]);
+            }
+
+            if (columns.get(0).getRowCount() == blockSize) {
+                endBlock();
+            }
+
+            return this;
+        }
+
+        public Builder addRows(Iterable<Object[]> rows) {
+            for (Object[] row : rows) {
+                addRow(row);
+            }
+
+            return this;
+        }
+
+        /**
+         * Add a block built from the column chunks directly, bypassing the row-oriented path.
+         */
+        public Builder addBlock(Block block) {
+            if (block.getColumnCount() != types.size()) {
+                throw new IllegalArgumentException("Block must have " + types.size() + " columns: "
+                    + block.getColumnCount());
+            }
+
+            for (int i = 0; i < types.size(); i++) {
+                if (block.getColumn(i).getTypeName() != types.get(i)) {
+                    throw new IllegalArgumentException("Column " + i + " of the block must be " + types.get(i)
+                        + ": " + block.getColumn(i).getTypeName());
+                }
+
+                if (block.getColumn(i).getScale() != scales.get(i)) {
+                    throw new IllegalArgumentException("Column " + i + " of the block must have scale "
+                        + scales.get(i) + ": " + block.getColumn(i).getScale());
+                }
+            }
+
+            endBlock();
+            blocks.add(block);
+
+            return this;
+        }
+
+        /**
+         * Complete the current block, so that the subsequent rows go to a new block.
+         */
+        public Builder endBlock() {
+            if (columns != null && columns.get(0).getRowCount() > 0) {
+                List<ColumnChunk> chunks = new ArrayList<>(columns.size());
+
+                for (ColumnChunk.Builder column : columns) {
+                    chunks.add(column.build());
+                }
+
+                blocks.add(new Block(chunks));
+            }
+
+            columns = null;
+
+            return this;
+        }
+
+        public ColumnarStore build() {
+            endBlock();
+
+            return new ColumnarStore(types, scales, Collections.unmodifiableList(new ArrayList<>(blocks)));
+        }
+    }
+}
@@ -0,0 +1,54 @@
+package com.querifylabs.blog.optimizer.storage;
+
+/**
+ * Minimum and maximum non-null values of a {@link ColumnChunk}, and the number of nulls.
+ * <p>
+ * Values use the storage representation of the {@link ColumnType}: {@code Long} for {@link ColumnType#INT} and
+ * {@link ColumnType#LONG} (unscaled for {@code DECIMAL}), {@code Double} for {@link ColumnType#DOUBLE}, and
+ * {@code String} for {@link ColumnType#STRING}. The minimum and maximum are {@code null} if all values of
+ * the chunk are nulls.
+ */
+public final class ZoneMap {
+
+    private final Comparable<?> min;
+    private final Comparable<?> max;
+    private final int nullCount;
+
+    public ZoneMap(Comparable<?> min, Comparable<?> max, int nullCount) {
+        if ((min == null) != (max == null)) {
+            throw new IllegalArgumentException("Minimum and maximum must be either both null or both non-null");
+        }
+
+        if (nullCount < 0) {
+            throw new IllegalArgumentException("Null count cannot be negative: " + nullCount);
+        }
+
+        this.min = min;
+        this.max = max;
+        this.nullCount = nullCount;
+    }
+
+    public Comparable<?> getMin() {
+        return min;
+    }
+
+    public Comparable<?> getMax() {
+        return max;
+    }
+
+    public int getNullCount() {
+        return nullCount;
+    }
+
+    /**
+     * Whether the chunk has at least one non-null value.
+     */
+    public boolean hasValues() {
+        return min != null;
+    }
+
+    @Override
+    public String toString() {
+        return "ZoneMap{min=" + min + ", max=" + max + ", nullCount=" + nullCount + '}';
+    }
+}
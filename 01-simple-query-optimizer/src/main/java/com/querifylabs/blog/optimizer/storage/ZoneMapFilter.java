@@ -0,0 +1,352 @@
+package com.querifylabs.blog.optimizer.storage;
+
+import org.apache.calcite.plan.RelOptUtil;
+import org.apache.calcite.rex.RexCall;
+import org.apache.calcite.rex.RexDynamicParam;
+import org.apache.calcite.rex.RexInputRef;
+import org.apache.calcite.rex.RexLiteral;
+import org.apache.calcite.rex.RexNode;
+import org.apache.calcite.sql.SqlKind;
+import org.apache.calcite.sql.type.SqlTypeFamily;
+import org.apache.calcite.sql.type.SqlTypeName;
+
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.function.IntFunction;
+
+/**
+ * Conservative filter of {@link Block}s by the {@link ZoneMap}s of their columns.
+ * <p>
+ * The filter is created from the conjuncts that reference the columns of the store. Only the comparisons of
+ * a column with a constant expression are used: {@code =}, {@code <}, {@code <=}, {@code >}, {@code >=},
+ * {@code IS NULL} and {@code IS NOT NULL}. A constant expression is a literal, a dynamic parameter, or an
+ * arithmetic over them, so the filter must be created for the concrete parameter values. Other conjuncts are
+ * ignored. A block is skipped only if one of the comparisons cannot be true for any row of the block, so the
+ * caller must still evaluate all conjuncts on the rows of the blocks that were not skipped.
+ * <p>
+ * Zone maps of {@code DECIMAL} columns hold the exact unscaled values. Values of the {@link ColumnType#DOUBLE}
+ * columns are compared with the decimal constants rounded to doubles, so the range of their zone maps is widened
+ * by the relative {@link #DOUBLE_TOLERANCE}.
+ */
+public final class ZoneMapFilter {
+
+    /** Relative tolerance of comparisons with the zone maps of double columns. */
+    public static final double DOUBLE_TOLERANCE = 1e-9d;
+
+    /** Filter that does not skip any blocks. */
+    public static final ZoneMapFilter ALL = new ZoneMapFilter(Collections.emptyList());
+
+    private final List<Predicate> predicates;
+
+    private ZoneMapFilter(List<Predicate> predicates) {
+        this.predicates = predicates;
+    }
+
+    /**
+     * Create the filter from the conjuncts over the columns of the store.
+     *
+     * @param filters Conjuncts that reference the columns of the store.
+     * @param parameters Values of the dynamic parameters in the internal Calcite representation.
+     */
+    public static ZoneMapFilter create(List<RexNode> filters, IntFunction<Object> parameters) {
+        List<Predicate> predicates = new ArrayList<>();
+
+        for (RexNode filter : filters) {
+            for (RexNode conjunct : RelOptUtil.conjunctions(filter)) {
+                Predicate predicate = predicate(conjunct, parameters);
+
+                if (predicate != null) {
+                    predicates.add(predicate);
+                }
+            }
+        }
+
+        return predicates.isEmpty() ? ALL : new ZoneMapFilter(predicates);
+    }
+
+    /**
+     * Whether the filter never skips blocks.
+     */
+    public boolean isAll() {
+        return predicates.isEmpty();
+    }
+
+    /**
+     * Whether some rows of the block may satisfy the filter.
+     */
+    public boolean mayMatch(Block block) {
+        for (Predicate predicate : predicates) {
+            if (!predicate.mayMatch(block.getColumn(predicate.column))) {
+                return false;
+            }
+        }
+
+        return true;
+    }
+
+    private static Predicate predicate(RexNode node, IntFunction<Object> parameters) {
+        switch (node.getKind()) {
+            case IS_NULL:
+            case IS_NOT_NULL: {
+                RexNode operand = ((RexCall) node).getOperands().get(0);
+
+                if (operand instanceof RexInputRef) {
+                    return new Predicate(((RexInputRef) operand).getIndex(), node.getKind(), null);
+                }
+
+                return null;
+            }
+
+            case EQUALS:
+            case LESS_THAN:
+            case LESS_THAN_OR_EQUAL:
+            case GREATER_THAN:
+            case GREATER_THAN_OR_EQUAL: {
+                RexNode operand0 = ((RexCall) node).getOperands().get(0);
+                RexNode operand1 = ((RexCall) node).getOperands().get(1);
+
+                if (operand0 instanceof RexInputRef) {
+                    return comparison((RexInputRef) operand0, node.getKind(), operand1, parameters);
+                } else if (operand1 instanceof RexInputRef) {
+                    return comparison((RexInputRef) operand1, node.getKind().reverse(), operand0, parameters);
+                }
+
+                return null;
+            }
+
+            default:
+                return null;
+        }
+    }
+
+    private static Predicate comparison(
+        RexInputRef column,
+        SqlKind kind,
+        RexNode constant,
+        IntFunction<Object> parameters
+    ) {
+        Comparable<?> value;
+
+        if (column.getType().getSqlTypeName().getFamily() == SqlTypeFamily.CHARACTER) {
+            value = stringValue(constant, parameters);
+        } else {
+            value = numericValue(constant, parameters);
+        }
+
+        return value != null ? new Predicate(column.getIndex(), kind, value) : null;
+    }
+
+    private static String stringValue(RexNode node, IntFunction<Object> parameters) {
+        Object value;
+
+        if (node instanceof RexLiteral) {
+            value = ((RexLiteral) node).getValueAs(String.class);
+        } else if (node instanceof RexDynamicParam) {
+            value = parameters.apply(((RexDynamicParam) node).getIndex());
+        } else {
+            return null;
+        }
+
+        return value instanceof String ? (String) value : null;
+    }
+
+    /**
+     * Value of the constant numeric expression, or {@code null} if the expression is not constant or not
+     * supported.
+     */
+    private static BigDecimal numericValue(RexNode node, IntFunction<Object> parameters) {
+        if (node instanceof RexLiteral) {
+            RexLiteral literal = (RexLiteral) node;
+
+            SqlTypeFamily family = literal.getTypeName().getFamily();
+
+            if (literal.isNull() || family == null) {
+                return null;
+            }
+
+            switch (family) {
+                case NUMERIC:
+                    return literal.getValueAs(BigDecimal.class);
+
+                case DATE:
+                case TIME:
+                    return BigDecimal.valueOf(literal.getValueAs(Integer.class));
+
+                case TIMESTAMP:
+                    return BigDecimal.valueOf(literal.getValueAs(Long.class));
+
+                default:
+                    return null;
+            }
+        }
+
+        if (node instanceof RexDynamicParam) {
+            return toBigDecimal(parameters.apply(((RexDynamicParam) node).getIndex()));
+        }
+
+        if (!(node instanceof RexCall)) {
+            return null;
+        }
+
+        RexCall call = (RexCall) node;
+
+        switch (call.getKind()) {
+            case PLUS:
+            case MINUS:
+            case TIMES: {
+                if (call.getOperands().size() != 2) {
+                    return null;
+                }
+
+                BigDecimal left = numericValue(call.getOperands().get(0), parameters);
+                BigDecimal right = numericValue(call.getOperands().get(1), parameters);
+
+                if (left == null || right == null) {
+                    return null;
+                }
+
+                return call.getKind() == SqlKind.PLUS ? left.add(right)
+                    : call.getKind() == SqlKind.MINUS ? left.subtract(right)
+                    : left.multiply(right);
+            }
+
+            case CAST: {
+                // Only the casts that preserve the value.
+                SqlTypeName targetType = call.getType().getSqlTypeName();
+                SqlTypeName sourceType = call.getOperands().get(0).getType().getSqlTypeName();
+
+                if (targetType == sourceType
+                    || targetType == SqlTypeName.DECIMAL
+                    || targetType == SqlTypeName.DOUBLE) {
+                    return numericValue(call.getOperands().get(0), parameters);
+                }
+
+                return null;
+            }
+
+            default:
+                return null;
+        }
+    }
+
+    private static BigDecimal toBigDecimal(Object value) {
+        if (value instanceof BigDecimal) {
+            return (BigDecimal) value;
+        }
+
+        if (value instanceof Double || value instanceof Float) {
+            double doubleValue = ((Number) value).doubleValue();
+
+            return Double.isFinite(doubleValue) ? BigDecimal.valueOf(doubleValue) : null;
+        }
+
+        if (value instanceof Number) {
+            return BigDecimal.valueOf(((Number) value).longValue());
+        }
+
+        return null;
+    }
+
+    /**
+     * Comparison of a column with a constant.
+     */
+    private static final class Predicate {
+        private final int column;
+        private final SqlKind kind;
+        private final Comparable<?> value;
+
+        private Predicate(int column, SqlKind kind, Comparable<?> value) {
+            this.column = column;
+            this.kind = kind;
+            this.value = value;
+        }
+
+        private boolean mayMatch(ColumnChunk chunk) {
+            ZoneMap zoneMap = chunk.getZoneMap();
+
+            switch (kind) {
+                case IS_NULL:
+                    return zoneMap.getNullCount() > 0;
+
+                case IS_NOT_NULL:
+                    return zoneMap.hasValues();
+
+                default:
+                    break;
+            }
+
+            if (!zoneMap.hasValues()) {
+                // Comparison with null is never true.
+                return false;
+            }
+
+            int minCmp;
+            int maxCmp;
+
+            if (value instanceof String) {
+                if (!(zoneMap.getMin() instanceof String)) {
+                    return true;
+                }
+
+                minCmp = ((String) zoneMap.getMin()).compareTo((String) value);
+                maxCmp = ((String) zoneMap.getMax()).compareTo((String) value);
+            } else {
+                BigDecimal min = lowerBound(zoneMap.getMin(), chunk.getScale());
+                BigDecimal max = upperBound(zoneMap.getMax(), chunk.getScale());
+
+                if (min == null || max == null) {
+                    return true;
+                }
+
+                minCmp = min.compareTo((BigDecimal) value);
+                maxCmp = max.compareTo((BigDecimal) value);
+            }
+
+            switch (kind) {
+                case EQUALS:
+                    return minCmp <= 0 && maxCmp >= 0;
+
+                case LESS_THAN:
+                    return minCmp < 0;
+
+                case LESS_THAN_OR_EQUAL:
+                    return minCmp <= 0;
+
+                case GREATER_THAN:
+                    return maxCmp > 0;
+
+                case GREATER_THAN_OR_EQUAL:
+                    return maxCmp >= 0;
+
+                default:
+                    return true;
+            }
+        }
+
+        private static BigDecimal lowerBound(Object value, int scale) {
+            if (value instanceof Double) {
+                double doubleValue = (Double) value;
+
+                return bound(doubleValue - Math.abs(doubleValue) * DOUBLE_TOLERANCE);
+            }
+
+            return value instanceof Long ? BigDecimal.valueOf((Long) value, scale) : null;
+        }
+
+        private static BigDecimal upperBound(Object value, int scale) {
+            if (value instanceof Double) {
+                double doubleValue = (Double) value;
+
+                return bound(doubleValue + Math.abs(doubleValue) * DOUBLE_TOLERANCE);
+            }
+
+            return value instanceof Long ? BigDecimal.valueOf((Long) value, scale) : null;
+        }
+
+        private static BigDecimal bound(double value) {
+            return Double.isFinite(value) ? new BigDecimal(value) : null;
+        }
+    }
+}
@@ -0,0 +1,69 @@
+package com.querifylabs.blog.optimizer.vectorized;
+
+/**
+ * Batch of rows in the columnar format.
+ * <p>
+ * Filters do not copy the data. Instead, they set the selection vector: the ascending positions of the rows that
+ * passed the filter. Downstream operators process only the selected positions. If the selection vector is
+ * {@code null}, the first {@link #getSelectedCount()} positions are selected.
+ * <p>
+ * Operators may reuse the vectors of the returned batch, so the batch is valid only until the next call to
+ * {@link BatchIterator#next()}.
+ */
+public final class Batch {
+
+    private final Vector[] columns;
+    private int size;
+    private int[] selection;
+    private int selectedCount;
+
+    public Batch(Vector[] columns, int size) {
+        this.columns = columns;
+        this.size = size;
+        this.selectedCount = size;
+    }
+
+    public int getColumnCount() {
+        return columns.length;
+    }
+
+    public Vector getColumn(int index) {
+        return columns[index];
+    }
+
+    public void setColumn(int index, Vector column) {
+        columns[index] = column;
+    }
+
+    /** Number of positions in the batch, including the positions of filtered out rows. */
+    public int getSize() {
+        return size;
+    }
+
+    public void setSize(int size) {
+        this.size = size;
+        this.selection = null;
+        this.selectedCount = size;
+    }
+
+    /** Ascending positions of the selected rows, or {@code null} if all positions are selected. */
+    public int[] getSelection() {
+        return selection;
+    }
+
+    public int getSelectedCount() {
+        return selectedCount;
+    }
+
+    public void setSelection(int[] selection, int selectedCount) {
+        this.selection = selection;
+        this.selectedCount = selectedCount;
+    }
+
+    /**
+     * Position of the j-th selected row.
+     */
+    public int position(int j) {
+        return selection == null ? j : selection[j];
+    }
+}
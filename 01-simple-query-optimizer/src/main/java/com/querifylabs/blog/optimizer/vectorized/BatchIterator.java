@@ -0,0 +1,11 @@
+package com.querifylabs.blog.optimizer.vectorized;
+
+/**
+ * Pull-based iterator over the batches produced by an operator.
+ */
+public interface BatchIterator {
+    /**
+     * Next batch with at least one selected row, or {@code null} if there are no more rows.
+     */
+    Batch next();
+}
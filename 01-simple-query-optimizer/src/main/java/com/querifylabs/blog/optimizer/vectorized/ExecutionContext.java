@@ -0,0 +1,150 @@
+package com.querifylabs.blog.optimizer.vectorized;
+
+import org.apache.calcite.rel.RelNode;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * State shared by the operators of a single query execution.
+ * <p>
+ * In the parallel execution every worker has its own context that shares the parameters and the counters with
+ * the query context, but has its own {@link MorselSource}, see {@link #forWorker(MorselSource)}.
+ * <p>
+ * In the batch execution the contexts of the statements share the {@link SharedResults}, and operators open their
+ * inputs with {@link #open(RelNode)}, so that the shared inputs are executed once.
+ */
+public final class ExecutionContext {
+
+    private final List<Object> parameters;
+    private final int batchSize;
+    private final MorselSource morselSource;
+    private final LongAdder blocksScanned;
+    private final LongAdder blocksSkipped;
+    private final LongAdder rowsScanned;
+    private final SharedResults sharedResults;
+
+    public ExecutionContext(List<Object> parameters, int batchSize) {
+        this(parameters, batchSize, null);
+    }
+
+    /**
+     * Context of a statement of the batch, which shares the results of the operators with the other statements.
+     */
+    public ExecutionContext(List<Object> parameters, int batchSize, SharedResults sharedResults) {
+        this(
+            Collections.unmodifiableList(new ArrayList<>(parameters)),
+            batchSize,
+            null,
+            new LongAdder(),
+            new LongAdder(),
+            new LongAdder(),
+            sharedResults
+        );
+    }
+
+    private ExecutionContext(
+        List<Object> parameters,
+        int batchSize,
+        MorselSource morselSource,
+        LongAdder blocksScanned,
+        LongAdder blocksSkipped,
+        LongAdder rowsScanned,
+        SharedResults sharedResults
+    ) {
+        if (batchSize <= 0) {
+            throw new IllegalArgumentException("Batch size must be positive: " + batchSize);
+        }
+
+        this.parameters = parameters;
+        this.batchSize = batchSize;
+        this.morselSource = morselSource;
+        this.blocksScanned = blocksScanned;
+        this.blocksSkipped = blocksSkipped;
+        this.rowsScanned = rowsScanned;
+        this.sharedResults = sharedResults;
+    }
+
+    /**
+     * Context of a parallel worker, whose scan reads the morsels of the given source.
+     */
+    public ExecutionContext forWorker(MorselSource morselSource) {
+        return new ExecutionContext(
+            parameters,
+            batchSize,
+            morselSource,
+            blocksScanned,
+            blocksSkipped,
+            rowsScanned,
+            sharedResults
+        );
+    }
+
+    /**
+     * Start the execution of the input operator. The results of the shared operators are replayed if they have
+     * already been computed.
+     */
+    public BatchIterator open(RelNode rel) {
+        if (!(rel instanceof VectorizedRel)) {
+            throw new IllegalArgumentException("Not a vectorized operator: " + rel);
+        }
+
+        if (sharedResults != null && sharedResults.isShared(rel)) {
+            return sharedResults.open((VectorizedRel) rel, this);
+        }
+
+        return ((VectorizedRel) rel).open(this);
+    }
+
+    /**
+     * Source of the morsels of the parallel worker, or {@code null} if the scan should read the whole table.
+     */
+    public MorselSource getMorselSource() {
+        return morselSource;
+    }
+
+    /**
+     * Value of the dynamic parameter in the internal Calcite representation.
+     */
+    public Object getParameter(int index) {
+        if (index >= parameters.size()) {
+            throw new IllegalStateException("Parameter " + index + " is not bound");
+        }
+
+        return parameters.get(index);
+    }
+
+    /** Maximum number of rows in a batch produced by the scan. */
+    public int getBatchSize() {
+        return batchSize;
+    }
+
+    /**
+     * Record that the scan has selected the block with the given number of rows for reading.
+     */
+    public void onBlockScanned(int rowCount) {
+        blocksScanned.increment();
+        rowsScanned.add(rowCount);
+    }
+
+    /**
+     * Record that the scan has skipped the block with the zone maps.
+     */
+    public void onBlockSkipped() {
+        blocksSkipped.increment();
+    }
+
+    public long getBlocksScanned() {
+        return blocksScanned.sum();
+    }
+
+    public long getBlocksSkipped() {
+        return blocksSkipped.sum();
+    }
+
+    public long getRowsScanned() {
+        return rowsScanned.sum();
+    }
+}
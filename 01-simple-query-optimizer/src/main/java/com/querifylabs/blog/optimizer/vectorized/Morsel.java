@@ -0,0 +1,42 @@
+package com.querifylabs.blog.optimizer.vectorized;
+
+import com.querifylabs.blog.optimizer.storage.Block;
+
+/**
+ * Contiguous range of rows of a {@link Block}: the unit of work of the scan.
+ */
+public final class Morsel {
+
+    private final Block block;
+    private final int start;
+    private final int rowCount;
+
+    public Morsel(Block block, int start, int rowCount) {
+        if (start < 0 || rowCount <= 0 || start + rowCount > block.getRowCount()) {
+            throw new IllegalArgumentException("Invalid morsel [" + start + ", " + (start + rowCount)
+                + ") of the block with " + block.getRowCount() + " rows");
+        }
+
+        this.block = block;
+        this.start = start;
+        this.rowCount = rowCount;
+    }
+
+    public Block getBlock() {
+        return block;
+    }
+
+    /** First row of the morsel in the block. */
+    public int getStart() {
+        return start;
+    }
+
+    public int getRowCount() {
+        return rowCount;
+    }
+
+    @Override
+    public String toString() {
+        return "Morsel{start=" + start + ", rowCount=" + rowCount + '}';
+    }
+}
@@ -0,0 +1,12 @@
+package com.querifylabs.blog.optimizer.vectorized;
+
+/**
+ * Source of the morsels read by the {@link VectorizedTableScan}.
+ */
+public interface MorselSource {
+    /**
+     * Next morsel, or {@code null} if there are no more morsels at the moment. The scan returns {@code null} from
+     * {@link BatchIterator#next()} as well, but may be resumed if the source produces new morsels later.
+     */
+    Morsel next();
+}
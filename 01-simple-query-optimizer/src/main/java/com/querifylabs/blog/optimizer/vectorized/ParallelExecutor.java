@@ -0,0 +1,224 @@
+package com.querifylabs.blog.optimizer.vectorized;
+
+import com.querifylabs.blog.optimizer.vectorized.VectorizedAggregate.Aggregator;
+import org.apache.calcite.rel.RelNode;
+import org.apache.calcite.sql.type.SqlTypeName;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * Morsel-driven parallel executor of the plans of the {@link VectorizedConvention}.
+ * <p>
+ * The table is split into morsels of a fixed number of rows, see {@link VectorizedTableScan#morsels}. The
+ * morsels are processed by the tasks of a {@link ForkJoinPool}: the range of morsels is split recursively, and
+ * idle threads steal the halves from the busy ones, so the load is balanced even if some morsels are filtered
+ * out much faster than others.
+ * <p>
+ * Every thread of the pool opens its own instance of the pipeline from the scan up to the aggregation, so the
+ * compiled expressions and the reused vectors are never shared. The rows produced by the pipeline are
+ * accumulated into the thread-local partial {@link Aggregator}, and the partial aggregators are merged when all
+ * morsels are processed. Plans without the aggregation collect the rows of every thread, in no particular order.
+ * <p>
+ * Only the plans with a single scan and at most one aggregation at the root are parallelized. Other plans are
+ * executed by the {@link VectorizedExecutor} in the calling thread.
+ */
+public final class ParallelExecutor {
+
+    public static final int DEFAULT_MORSEL_SIZE = 16_384;
+
+    private final ForkJoinPool pool;
+    private final int morselSize;
+    private final int batchSize;
+
+    private ParallelExecutor(ForkJoinPool pool, int morselSize, int batchSize) {
+        this.pool = pool;
+        this.morselSize = morselSize;
+        this.batchSize = batchSize;
+    }
+
+    public static Builder newBuilder() {
+        return new Builder();
+    }
+
+    public List<Object[]> execute(RelNode rel, List<Object> parameters) {
+        return execute(rel, new ExecutionContext(parameters, batchSize));
+    }
+
+    /**
+     * Execute the plan and collect the rows in the internal Calcite representation.
+     */
+    public List<Object[]> execute(RelNode rel, ExecutionContext context) {
+        VectorizedAggregate aggregate = rel instanceof VectorizedAggregate ? (VectorizedAggregate) rel : null;
+        RelNode pipeline = aggregate != null ? aggregate.getInput() : rel;
+        VectorizedTableScan scan = scan(pipeline);
+
+        if (scan == null) {
+            return VectorizedExecutor.execute(rel, context);
+        }
+
+        List<Morsel> morsels = scan.morsels(context, morselSize);
+        Map<Thread, Worker> workers = new ConcurrentHashMap<>();
+
+        pool.invoke(new MorselTask(morsels, 0, morsels.size(), () -> workers.computeIfAbsent(
+            Thread.currentThread(),
+            thread -> new Worker((VectorizedRel) pipeline, aggregate, context)
+        )));
+
+        List<Object[]> res = new ArrayList<>();
+
+        if (aggregate != null) {
+            Aggregator aggregator = aggregate.createAggregator();
+
+            for (Worker worker : workers.values()) {
+                aggregator.merge(worker.aggregator);
+            }
+
+            Batch batch = aggregator.result();
+
+            if (batch != null) {
+                VectorizedExecutor.collect(batch, VectorizedExecutor.typeNames(aggregate), res);
+            }
+        } else {
+            for (Worker worker : workers.values()) {
+                res.addAll(worker.rows);
+            }
+        }
+
+        return res;
+    }
+
+    /**
+     * The only scan of the pipeline of scans and calcs, or {@code null} if the pipeline has another shape.
+     */
+    private static VectorizedTableScan scan(RelNode rel) {
+        RelNode current = rel;
+
+        while (current instanceof VectorizedCalc) {
+            current = ((VectorizedCalc) current).getInput();
+        }
+
+        return current instanceof VectorizedTableScan ? (VectorizedTableScan) current : null;
+    }
+
+    /**
+     * Pipeline of a single thread with its partial results.
+     */
+    private static final class Worker implements MorselSource {
+        private final BatchIterator pipeline;
+        private final Aggregator aggregator;
+        private final SqlTypeName[] typeNames;
+        private final List<Object[]> rows = new ArrayList<>();
+
+        private Morsel morsel;
+
+        private Worker(VectorizedRel pipeline, VectorizedAggregate aggregate, ExecutionContext context) {
+            this.pipeline = pipeline.open(context.forWorker(this));
+            this.aggregator = aggregate != null ? aggregate.createAggregator() : null;
+            this.typeNames = VectorizedExecutor.typeNames((RelNode) pipeline);
+        }
+
+        @Override
+        public Morsel next() {
+            Morsel res = morsel;
+            morsel = null;
+
+            return res;
+        }
+
+        private void process(Morsel morsel) {
+            this.morsel = morsel;
+
+            for (Batch batch = pipeline.next(); batch != null; batch = pipeline.next()) {
+                if (aggregator != null) {
+                    aggregator.add(batch);
+                } else {
+                    VectorizedExecutor.collect(batch, typeNames, rows);
+                }
+            }
+        }
+    }
+
+    /**
+     * Supplier of the worker of the current thread.
+     */
+    private interface WorkerSupplier {
+        Worker get();
+    }
+
+    /**
+     * Processes a range of morsels, splitting it in halves until a single morsel is left.
+     */
+    private static final class MorselTask extends RecursiveAction {
+        private final List<Morsel> morsels;
+        private final int from;
+        private final int to;
+        private final WorkerSupplier workers;
+
+        private MorselTask(List<Morsel> morsels, int from, int to, WorkerSupplier workers) {
+            this.morsels = morsels;
+            this.from = from;
+            this.to = to;
+            this.workers = workers;
+        }
+
+        @Override
+        protected void compute() {
+            if (to - from > 1) {
+                int mid = (from + to) >>> 1;
+
+                invokeAll(
+                    new MorselTask(morsels, from, mid, workers),
+                    new MorselTask(morsels, mid, to, workers)
+                );
+            } else if (to - from == 1) {
+                workers.get().process(morsels.get(from));
+            }
+        }
+    }
+
+    public static final class Builder {
+
+        private ForkJoinPool pool = ForkJoinPool.commonPool();
+        private int morselSize = DEFAULT_MORSEL_SIZE;
+        private int batchSize = VectorizedExecutor.DEFAULT_BATCH_SIZE;
+
+        private Builder() {
+            // No-op.
+        }
+
+        public Builder withPool(ForkJoinPool pool) {
+            this.pool = pool;
+
+            return this;
+        }
+
+        public Builder withMorselSize(int morselSize) {
+            if (morselSize <= 0) {
+                throw new IllegalArgumentException("Morsel size must be positive: " + morselSize);
+            }
+
+            this.morselSize = morselSize;
+
+            return this;
+        }
+
+        public Builder withBatchSize(int batchSize) {
+            if (batchSize <= 0) {
+                throw new IllegalArgumentException("Batch size must be positive: " + batchSize);
+            }
+
+            this.batchSize = batchSize;
+
+            return this;
+        }
+
+        public ParallelExecutor build() {
+            return new ParallelExecutor(pool, morselSize, batchSize);
+        }
+    }
+}
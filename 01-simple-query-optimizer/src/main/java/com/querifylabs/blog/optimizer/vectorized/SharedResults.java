@@ -0,0 +1,156 @@
+package com.querifylabs.blog.optimizer.vectorized;
+
+import com.querifylabs.blog.optimizer.vectorized.Vector.DecimalVector;
+import com.querifylabs.blog.optimizer.vectorized.Vector.DoubleVector;
+import com.querifylabs.blog.optimizer.vectorized.Vector.LongVector;
+import com.querifylabs.blog.optimizer.vectorized.Vector.ObjectVector;
+import org.apache.calcite.rel.RelNode;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Results of the operators shared by several statements of a batch, see
+ * {@link com.querifylabs.blog.optimizer.BatchPlan}.
+ * <p>
+ * The first consumer of a shared operator executes it and spools the selected rows of its batches. Subsequent
+ * consumers replay the spooled batches without executing the operator and its inputs again. Spooled batches are
+ * compact copies, because operators reuse the vectors of the returned batches. The spools are held in memory until
+ * the results are discarded.
+ * <p>
+ * Shared operators must not depend on the parameters of the statement: the results are computed with the
+ * parameters of the first consumer.
+ */
+public final class SharedResults {
+
+    private final Set<RelNode> sharedNodes;
+    private final Map<RelNode, List<Batch>> spools = new IdentityHashMap<>();
+
+    public SharedResults(Set<RelNode> sharedNodes) {
+        Set<RelNode> sharedNodes0 = Collections.newSetFromMap(new IdentityHashMap<>());
+        sharedNodes0.addAll(sharedNodes);
+
+        this.sharedNodes = sharedNodes0;
+    }
+
+    public boolean isShared(RelNode rel) {
+        return sharedNodes.contains(rel);
+    }
+
+    /** Number of the shared operators that have been executed. */
+    public int getSpoolCount() {
+        return spools.size();
+    }
+
+    BatchIterator open(VectorizedRel rel, ExecutionContext context) {
+        List<Batch> spool = spools.get(rel);
+
+        if (spool == null) {
+            spool = new ArrayList<>();
+            BatchIterator iterator = rel.open(context);
+
+            for (Batch batch = iterator.next(); batch != null; batch = iterator.next()) {
+                spool.add(copy(batch));
+            }
+
+            spools.put(rel, spool);
+        }
+
+        Iterator<Batch> batches = spool.iterator();
+
+        return () -> {
+            if (!batches.hasNext()) {
+                return null;
+            }
+
+            // Filters of the previous consumer narrow the selection of the batch.
+            Batch batch = batches.next();
+            batch.setSize(batch.getSize());
+
+            return batch;
+        };
+    }
+
+    /**
+     * Copy the selected rows of the batch to the new vectors.
+     */
+    private static Batch copy(Batch batch) {
+        int count = batch.getSelectedCount();
+        Vector[] columns = new Vector[batch.getColumnCount()];
+
+        for (int k = 0; k < columns.length; k++) {
+            Vector column = batch.getColumn(k);
+            Vector res;
+
+            switch (column.getType()) {
+                case LONG: {
+                    long[] values = ((LongVector) column).getValues();
+                    LongVector res0 = new LongVector(count);
+
+                    for (int j = 0; j < count; j++) {
+                        res0.getValues()[j] = values[batch.position(j)];
+                    }
+
+                    res = res0;
+
+                    break;
+                }
+
+                case DOUBLE: {
+                    double[] values = ((DoubleVector) column).getValues();
+                    DoubleVector res0 = new DoubleVector(count);
+
+                    for (int j = 0; j < count; j++) {
+                        res0.getValues()[j] = values[batch.position(j)];
+                    }
+
+                    res = res0;
+
+                    break;
+                }
+
+                case DECIMAL: {
+                    long[] values = ((DecimalVector) column).getValues();
+                    DecimalVector res0 = new DecimalVector(count);
+                    long[] values0 = res0.reset(count, ((DecimalVector) column).getScale());
+
+                    for (int j = 0; j < count; j++) {
+                        values0[j] = values[batch.position(j)];
+                    }
+
+                    res = res0;
+
+                    break;
+                }
+
+                default: {
+                    Object[] values = ((ObjectVector) column).getValues();
+                    ObjectVector res0 = new ObjectVector(count);
+
+                    for (int j = 0; j < count; j++) {
+                        res0.getValues()[j] = values[batch.position(j)];
+                    }
+
+                    res = res0;
+                }
+            }
+
+            if (column.getNulls() != null) {
+                boolean[] nulls = res.resetNulls(count);
+
+                for (int j = 0; j < count; j++) {
+                    nulls[j] = column.isNull(batch.position(j));
+                }
+            }
+
+            columns[k] = res;
+        }
+
+        return new Batch(columns, count);
+    }
+}
@@ -0,0 +1,367 @@
+package com.querifylabs.blog.optimizer.vectorized;
+
+import org.apache.calcite.sql.type.SqlTypeName;
+
+import java.math.BigDecimal;
+import java.util.Arrays;
+
+/**
+ * Column of values in a {@link Batch}.
+ * <p>
+ * Values are stored in primitive arrays, positions are aligned with the rows of the batch. Nulls are tracked in
+ * a separate array that is {@code null} if the vector has no nulls. Only the positions of the selected rows of
+ * the batch are guaranteed to contain valid values.
+ */
+public abstract class Vector {
+
+    /** Null flags, or {@code null} if there are no nulls. */
+    protected boolean[] nulls;
+
+    public boolean[] getNulls() {
+        return nulls;
+    }
+
+    public boolean isNull(int position) {
+        return nulls != null && nulls[position];
+    }
+
+    /**
+     * Ensure that the vector has the null flags array of the given capacity, clearing it.
+     */
+    public boolean[] resetNulls(int capacity) {
+        if (nulls == null || nulls.length < capacity) {
+            nulls = new boolean[capacity];
+        } else {
+            Arrays.fill(nulls, 0, capacity, false);
+        }
+
+        return nulls;
+    }
+
+    public void clearNulls() {
+        nulls = null;
+    }
+
+    public abstract VectorType getType();
+
+    public abstract int getCapacity();
+
+    /**
+     * Value in the internal Calcite representation of the given SQL type.
+     */
+    public abstract Object getObject(int position, SqlTypeName typeName);
+
+    /**
+     * Kind of the vector.
+     */
+    public enum VectorType {
+        /** Integral numbers, dates, times, timestamps and booleans. */
+        LONG,
+
+        /** Floating point numbers. */
+        DOUBLE,
+
+        /** Exact decimal numbers: unscaled longs with a common scale. */
+        DECIMAL,
+
+        /** Strings. */
+        OBJECT;
+
+        public static VectorType of(SqlTypeName typeName) {
+            switch (typeName) {
+                case TINYINT:
+                case SMALLINT:
+                case INTEGER:
+                case BIGINT:
+                case BOOLEAN:
+                case DATE:
+                case TIME:
+                case TIMESTAMP:
+                    return LONG;
+
+                case REAL:
+                case FLOAT:
+                case DOUBLE:
+                    return DOUBLE;
+
+                case DECIMAL:
+                    return DECIMAL;
+
+                case CHAR:
+                case VARCHAR:
+                    return OBJECT;
+
+                default:
+                    return null;
+            }
+        }
+    }
+
+    /**
+     * Vector of {@code long} values.
+     */
+    public static final class LongVector extends Vector {
+        private long[] values;
+
+        public LongVector(int capacity) {
+            values = new long[capacity];
+        }
+
+        public long[] getValues() {
+            return values;
+        }
+
+        /**
+         * Ensure that the vector could hold the given number of values, the contents is not preserved.
+         */
+        public long[] reset(int capacity) {
+            if (values.length < capacity) {
+                values = new long[capacity];
+            }
+
+            nulls = null;
+
+            return values;
+        }
+
+        @Override
+        public VectorType getType() {
+            return VectorType.LONG;
+        }
+
+        @Override
+        public int getCapacity() {
+            return values.length;
+        }
+
+        @Override
+        public Object getObject(int position, SqlTypeName typeName) {
+            if (isNull(position)) {
+                return null;
+            }
+
+            long value = values[position];
+
+            switch (typeName) {
+                case TINYINT:
+                    return (byte) value;
+
+                case SMALLINT:
+                    return (short) value;
+
+                case INTEGER:
+                case DATE:
+                case TIME:
+                    return (int) value;
+
+                case BOOLEAN:
+                    return value != 0L;
+
+                case REAL:
+                    return (float) value;
+
+                case FLOAT:
+                case DOUBLE:
+                    return (double) value;
+
+                case DECIMAL:
+                    return BigDecimal.valueOf(value);
+
+                default:
+                    return value;
+            }
+        }
+    }
+
+    /**
+     * Vector of {@code double} values.
+     */
+    public static final class DoubleVector extends Vector {
+        private double[] values;
+
+        public DoubleVector(int capacity) {
+            values = new double[capacity];
+        }
+
+        public double[] getValues() {
+            return values;
+        }
+
+        /**
+         * Ensure that the vector could hold the given number of values, the contents is not preserved.
+         */
+        public double[] reset(int capacity) {
+            if (values.length < capacity) {
+                values = new double[capacity];
+            }
+
+            nulls = null;
+
+            return values;
+        }
+
+        @Override
+        public VectorType getType() {
+            return VectorType.DOUBLE;
+        }
+
+        @Override
+        public int getCapacity() {
+            return values.length;
+        }
+
+        @Override
+        public Object getObject(int position, SqlTypeName typeName) {
+            if (isNull(position)) {
+                return null;
+            }
+
+            double value = values[position];
+
+            switch (typeName) {
+                case REAL:
+                    return (float) value;
+
+                case DECIMAL:
+                    return BigDecimal.valueOf(value);
+
+                case TINYINT:
+                    return (byte) value;
+
+                case SMALLINT:
+                    return (short) value;
+
+                case INTEGER:
+                    return (int) value;
+
+                case BIGINT:
+                    return (long) value;
+
+                default:
+                    return value;
+            }
+        }
+    }
+
+    /**
+     * Vector of exact decimal values: {@code long} unscaled values with the scale that is common for all positions.
+     * The scale is defined by the producer of the vector, and may change between batches.
+     */
+    public static final class DecimalVector extends Vector {
+        private long[] values;
+        private int scale;
+
+        public DecimalVector(int capacity) {
+            values = new long[capacity];
+        }
+
+        public long[] getValues() {
+            return values;
+        }
+
+        public int getScale() {
+            return scale;
+        }
+
+        /**
+         * Ensure that the vector could hold the given number of values with the given scale, the contents is not
+         * preserved.
+         */
+        public long[] reset(int capacity, int scale) {
+            if (values.length < capacity) {
+                values = new long[capacity];
+            }
+
+            this.scale = scale;
+            nulls = null;
+
+            return values;
+        }
+
+        @Override
+        public VectorType getType() {
+            return VectorType.DECIMAL;
+        }
+
+        @Override
+        public int getCapacity() {
+            return values.length;
+        }
+
+        @Override
+        public Object getObject(int position, SqlTypeName typeName) {
+            if (isNull(position)) {
+                return null;
+            }
+
+            BigDecimal value = BigDecimal.valueOf(values[position], scale);
+
+            switch (typeName) {
+                case REAL:
+                    return value.floatValue();
+
+                case FLOAT:
+                case DOUBLE:
+                    return value.doubleValue();
+
+                case TINYINT:
+                    return value.byteValue();
+
+                case SMALLINT:
+                    return value.shortValue();
+
+                case INTEGER:
+                    return value.intValue();
+
+                case BIGINT:
+                    return value.longValue();
+
+                default:
+                    return value;
+            }
+        }
+    }
+
+    /**
+     * Vector of object values, e.g. strings.
+     */
+    public static final class ObjectVector extends Vector {
+        private Object[] values;
+
+        public ObjectVector(int capacity) {
+            values = new Object[capacity];
+        }
+
+        public Object[] getValues() {
+            return values;
+        }
+
+        /**
+         * Ensure that the vector could hold the given number of values, the contents is not preserved.
+         */
+        public Object[] reset(int capacity) {
+            if (values.length < capacity) {
+                values = new Object[capacity];
+            }
+
+            nulls = null;
+
+            return values;
+        }
+
+        @Override
+        public VectorType getType() {
+            return VectorType.OBJECT;
+        }
+
+        @Override
+        public int getCapacity() {
+            return values.length;
+        }
+
+        @Override
+        public Object getObject(int position, SqlTypeName typeName) {
+            return isNull(position) ? null : values[position];
+        }
+    }
+}
@@ -0,0 +1,1124 @@
+package com.querifylabs.blog.optimizer.vectorized;
+
+import com.querifylabs.blog.optimizer.storage.ColumnChunk;
+import com.querifylabs.blog.optimizer.vectorized.Vector.DecimalVector;
+import com.querifylabs.blog.optimizer.vectorized.Vector.DoubleVector;
+import com.querifylabs.blog.optimizer.vectorized.Vector.LongVector;
+import com.querifylabs.blog.optimizer.vectorized.Vector.ObjectVector;
+import com.querifylabs.blog.optimizer.vectorized.Vector.VectorType;
+import org.apache.calcite.rex.RexCall;
+import org.apache.calcite.rex.RexDynamicParam;
+import org.apache.calcite.rex.RexInputRef;
+import org.apache.calcite.rex.RexLiteral;
+import org.apache.calcite.rex.RexNode;
+import org.apache.calcite.sql.SqlKind;
+import org.apache.calcite.sql.type.SqlTypeName;
+
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Expression evaluated over a batch at once.
+ * <p>
+ * Every expression is evaluated with a tight loop over the selected positions of the batch that operates on
+ * primitive arrays. Vectors of the results are reused between batches, so an expression instance must not be
+ * shared between threads.
+ * <p>
+ * {@code DECIMAL} values are evaluated exactly as unscaled longs, see {@link DecimalVector}. As with
+ * {@code BigDecimal}, the scale of a sum or a difference is the larger scale of the operands, and the scale of
+ * a product is the sum of their scales. Comparisons align the scales of the operands. An unscaled value that
+ * overflows a {@code long} fails the evaluation with {@link IllegalStateException}. {@code DECIMAL} division is
+ * not supported.
+ */
+public abstract class VectorExpression {
+
+    private static final long[] POWERS_OF_TEN = new long[ColumnChunk.MAX_DECIMAL_SCALE + 1];
+
+    static {
+        POWERS_OF_TEN[0] = 1L;
+
+        for (int i = 1; i < POWERS_OF_TEN.length; i++) {
+            POWERS_OF_TEN[i] = POWERS_OF_TEN[i - 1] * 10L;
+        }
+    }
+
+    private final VectorType type;
+
+    protected VectorExpression(VectorType type) {
+        this.type = type;
+    }
+
+    public VectorType getType() {
+        return type;
+    }
+
+    public abstract Vector evaluate(Batch batch);
+
+    /**
+     * Whether the expression could be evaluated by the vectorized engine.
+     */
+    public static boolean isSupported(RexNode node) {
+        return compile(node, null) != null;
+    }
+
+    /**
+     * Compile the expression. Dynamic parameters are replaced with their values from the context.
+     *
+     * @return Compiled expression, or {@code null} if the expression is not supported.
+     */
+    public static VectorExpression compile(RexNode node, ExecutionContext context) {
+        VectorType type = VectorType.of(node.getType().getSqlTypeName());
+
+        if (type == null) {
+            return null;
+        }
+
+        if (node instanceof RexInputRef) {
+            return new InputRefExpression(type, ((RexInputRef) node).getIndex());
+        }
+
+        if (node instanceof RexLiteral) {
+            Object value = literalValue((RexLiteral) node, type);
+
+            if (type == VectorType.DECIMAL && value != null && !isDecimal((BigDecimal) value)) {
+                return null;
+            }
+
+            return new ConstantExpression(type, value);
+        }
+
+        if (node instanceof RexDynamicParam) {
+            Object value = context != null ? context.getParameter(((RexDynamicParam) node).getIndex()) : null;
+
+            return new ConstantExpression(type, value);
+        }
+
+        if (!(node instanceof RexCall)) {
+            return null;
+        }
+
+        RexCall call = (RexCall) node;
+        List<VectorExpression> operands = new ArrayList<>(call.getOperands().size());
+
+        for (RexNode operand : call.getOperands()) {
+            VectorExpression operand0 = compile(operand, context);
+
+            if (operand0 == null) {
+                return null;
+            }
+
+            operands.add(operand0);
+        }
+
+        switch (call.getKind()) {
+            case PLUS:
+            case MINUS:
+            case TIMES:
+            case DIVIDE:
+                if (type == VectorType.OBJECT || !isNumeric(operands)
+                    || (type == VectorType.LONG && !isLong(operands))
+                    || (type == VectorType.DECIMAL && (call.getKind() == SqlKind.DIVIDE || !isExact(operands)))) {
+                    return null;
+                }
+
+                return new ArithmeticExpression(type, call.getKind(), operands.get(0), operands.get(1));
+
+            case MINUS_PREFIX:
+                if (type == VectorType.OBJECT || !isNumeric(operands)
+                    || (type == VectorType.DECIMAL && !isExact(operands))) {
+                    return null;
+                }
+
+                return new ArithmeticExpression(
+                    type,
+                    SqlKind.MINUS,
+                    new ConstantExpression(type, 0L),
+                    operands.get(0)
+                );
+
+            case EQUALS:
+            case NOT_EQUALS:
+            case LESS_THAN:
+            case LESS_THAN_OR_EQUAL:
+            case GREATER_THAN:
+            case GREATER_THAN_OR_EQUAL:
+                if (isNumeric(operands) || isObject(operands)) {
+                    return new ComparisonExpression(call.getKind(), operands.get(0), operands.get(1));
+                }
+
+                return null;
+
+            case AND:
+            case OR:
+                if (!isLong(operands)) {
+                    return null;
+                }
+
+                return new LogicalExpression(call.getKind() == SqlKind.AND, operands);
+
+            case NOT:
+                return new ComparisonExpression(SqlKind.EQUALS, operands.get(0), new ConstantExpression(type, 0L));
+
+            case IS_NULL:
+            case IS_NOT_NULL:
+                return new IsNullExpression(call.getKind() == SqlKind.IS_NULL, operands.get(0));
+
+            case CAST:
+                return cast(call, operands.get(0), type);
+
+            case CASE:
+                for (int i = 0; i < operands.size() - 1; i += 2) {
+                    if (operands.get(i).getType() != VectorType.LONG || operands.get(i + 1).getType() != type) {
+                        return null;
+                    }
+                }
+
+                if (operands.get(operands.size() - 1).getType() != type) {
+                    return null;
+                }
+
+                return new CaseExpression(type, operands);
+
+            default:
+                return null;
+        }
+    }
+
+    private static VectorExpression cast(RexCall call, VectorExpression operand, VectorType type) {
+        SqlTypeName from = call.getOperands().get(0).getType().getSqlTypeName();
+        SqlTypeName to = call.getType().getSqlTypeName();
+
+        if (from == to) {
+            return operand;
+        }
+
+        boolean fromNumeric = SqlTypeName.NUMERIC_TYPES.contains(from);
+        boolean toNumeric = SqlTypeName.NUMERIC_TYPES.contains(to);
+
+        if (fromNumeric && toNumeric) {
+            if (type == VectorType.DECIMAL && operand.getType() == VectorType.DOUBLE) {
+                // Rounding of doubles to the target scale is not supported.
+                return null;
+            }
+
+            return operand.getType() == type ? operand : new CastExpression(type, operand);
+        }
+
+        if (SqlTypeName.CHAR_TYPES.contains(from) && SqlTypeName.CHAR_TYPES.contains(to)) {
+            return operand;
+        }
+
+        return null;
+    }
+
+    private static Object literalValue(RexLiteral literal, VectorType type) {
+        if (literal.isNull()) {
+            return null;
+        }
+
+        SqlTypeName typeName = literal.getType().getSqlTypeName();
+
+        switch (type) {
+            case LONG:
+                switch (typeName) {
+                    case BOOLEAN:
+                        return literal.getValueAs(Boolean.class);
+
+                    case DATE:
+                    case TIME:
+                        return literal.getValueAs(Integer.class);
+
+                    case TIMESTAMP:
+                        return literal.getValueAs(Long.class);
+
+                    default:
+                        return literal.getValueAs(BigDecimal.class).longValue();
+                }
+
+            case DOUBLE:
+                return literal.getValueAs(Double.class);
+
+            case DECIMAL:
+                return toDecimal(literal.getValueAs(BigDecimal.class));
+
+            default:
+                return literal.getValueAs(String.class);
+        }
+    }
+
+    private static boolean isNumeric(List<VectorExpression> operands) {
+        for (VectorExpression operand : operands) {
+            if (operand.getType() == VectorType.OBJECT) {
+                return false;
+            }
+        }
+
+        return true;
+    }
+
+    private static boolean isLong(List<VectorExpression> operands) {
+        for (VectorExpression operand : operands) {
+            if (operand.getType() != VectorType.LONG) {
+                return false;
+            }
+        }
+
+        return true;
+    }
+
+    private static boolean isExact(List<VectorExpression> operands) {
+        for (VectorExpression operand : operands) {
+            if (operand.getType() != VectorType.LONG && operand.getType() != VectorType.DECIMAL) {
+                return false;
+            }
+        }
+
+        return true;
+    }
+
+    private static boolean isObject(List<VectorExpression> operands) {
+        for (VectorExpression operand : operands) {
+            if (operand.getType() != VectorType.OBJECT) {
+                return false;
+            }
+        }
+
+        return true;
+    }
+
+    /**
+     * Values of the numeric vector as doubles. Long and decimal vectors are converted at the selected positions.
+     */
+    static double[] asDoubles(Vector vector, Batch batch, DoubleVector buffer) {
+        if (vector instanceof DoubleVector) {
+            return ((DoubleVector) vector).getValues();
+        }
+
+        long[] values = unscaled(vector);
+        double divisor = POWERS_OF_TEN[scale(vector)];
+        double[] res = buffer.reset(batch.getSize());
+        int count = batch.getSelectedCount();
+
+        for (int j = 0; j < count; j++) {
+            int i = batch.position(j);
+            res[i] = values[i] / divisor;
+        }
+
+        return res;
+    }
+
+    /**
+     * Unscaled values of the long or decimal vector.
+     */
+    static long[] unscaled(Vector vector) {
+        return vector instanceof DecimalVector
+            ? ((DecimalVector) vector).getValues()
+            : ((LongVector) vector).getValues();
+    }
+
+    /**
+     * Scale of the decimal vector, zero for other vectors.
+     */
+    static int scale(Vector vector) {
+        return vector instanceof DecimalVector ? ((DecimalVector) vector).getScale() : 0;
+    }
+
+    /**
+     * Unscaled value with the scale increased by the given number of digits.
+     *
+     * @throws ArithmeticException If the result overflows a {@code long}.
+     */
+    static long rescale(long value, int digits) {
+        return digits == 0 ? value : Math.multiplyExact(value, POWERS_OF_TEN[digits]);
+    }
+
+    /**
+     * Compare the decimals given by their unscaled values and scales. Unlike the rescaling, never overflows.
+     */
+    static int compareDecimals(long a, int aScale, long b, int bScale) {
+        if (aScale < bScale) {
+            return -compareDecimals(b, bScale, a, aScale);
+        }
+
+        long factor = POWERS_OF_TEN[aScale - bScale];
+        long limit = Long.MAX_VALUE / factor;
+
+        if (b > limit || b < -limit) {
+            // The rescaled b is out of the range of the unscaled values.
+            return b > 0L ? -1 : 1;
+        }
+
+        return Long.compare(a, b * factor);
+    }
+
+    /**
+     * Decimal value of the number with the non-negative scale.
+     */
+    static BigDecimal toDecimal(Object value) {
+        BigDecimal res;
+
+        if (value instanceof BigDecimal) {
+            res = (BigDecimal) value;
+        } else if (value instanceof Double || value instanceof Float) {
+            res = BigDecimal.valueOf(((Number) value).doubleValue());
+        } else {
+            res = BigDecimal.valueOf(((Number) value).longValue());
+        }
+
+        return res.scale() < 0 ? res.setScale(0) : res;
+    }
+
+    /**
+     * Whether the decimal could be represented by an unscaled long.
+     */
+    private static boolean isDecimal(BigDecimal value) {
+        return value.scale() <= ColumnChunk.MAX_DECIMAL_SCALE && value.unscaledValue().bitLength() < Long.SIZE;
+    }
+
+    /**
+     * Set the nulls of the result to the union of the nulls of the inputs at the selected positions.
+     */
+    static void propagateNulls(Vector result, Batch batch, Vector... inputs) {
+        boolean hasNulls = false;
+
+        for (Vector input : inputs) {
+            hasNulls |= input.getNulls() != null;
+        }
+
+        if (!hasNulls) {
+            result.clearNulls();
+
+            return;
+        }
+
+        boolean[] nulls = result.resetNulls(batch.getSize());
+        int count = batch.getSelectedCount();
+
+        for (Vector input : inputs) {
+            boolean[] inputNulls = input.getNulls();
+
+            if (inputNulls == null) {
+                continue;
+            }
+
+            for (int j = 0; j < count; j++) {
+                int i = batch.position(j);
+                nulls[i] |= inputNulls[i];
+            }
+        }
+    }
+
+    private static final class InputRefExpression extends VectorExpression {
+        private final int index;
+
+        private InputRefExpression(VectorType type, int index) {
+            super(type);
+            this.index = index;
+        }
+
+        @Override
+        public Vector evaluate(Batch batch) {
+            return batch.getColumn(index);
+        }
+    }
+
+    /**
+     * Literal or dynamic parameter. The vector is filled once and reused for all batches.
+     */
+    private static final class ConstantExpression extends VectorExpression {
+        private final Object value;
+        private Vector vector;
+
+        private ConstantExpression(VectorType type, Object value) {
+            super(type);
+
+            if (type == VectorType.DECIMAL && value != null) {
+                BigDecimal decimal = toDecimal(value);
+
+                if (!isDecimal(decimal)) {
+                    throw new IllegalArgumentException("Value does not fit DECIMAL: " + value);
+                }
+
+                this.value = decimal;
+            } else {
+                this.value = value;
+            }
+        }
+
+        @Override
+        public Vector evaluate(Batch batch) {
+            if (vector == null || vector.getCapacity() < batch.getSize()) {
+                vector = fill(batch.getSize());
+            }
+
+            return vector;
+        }
+
+        private Vector fill(int capacity) {
+            Vector res;
+
+            switch (getType()) {
+                case LONG:
+                    LongVector longVector = new LongVector(capacity);
+
+                    if (value != null) {
+                        long value0 = value instanceof Boolean
+                            ? ((Boolean) value ? 1L : 0L)
+                            : ((Number) value).longValue();
+                        Arrays.fill(longVector.getValues(), value0);
+                    }
+
+                    res = longVector;
+
+                    break;
+
+                case DOUBLE:
+                    DoubleVector doubleVector = new DoubleVector(capacity);
+
+                    if (value != null) {
+                        Arrays.fill(doubleVector.getValues(), ((Number) value).doubleValue());
+                    }
+
+                    res = doubleVector;
+
+                    break;
+
+                case DECIMAL:
+                    DecimalVector decimalVector = new DecimalVector(capacity);
+
+                    if (value != null) {
+                        BigDecimal decimal = (BigDecimal) value;
+                        long[] values = decimalVector.reset(capacity, decimal.scale());
+                        Arrays.fill(values, decimal.unscaledValue().longValue());
+                    }
+
+                    res = decimalVector;
+
+                    break;
+
+                default:
+                    ObjectVector objectVector = new ObjectVector(capacity);
+                    Arrays.fill(objectVector.getValues(), value);
+                    res = objectVector;
+            }
+
+            if (value == null) {
+                Arrays.fill(res.resetNulls(capacity), true);
+            }
+
+            return res;
+        }
+    }
+
+    private static final class ArithmeticExpression extends VectorExpression {
+        private final SqlKind kind;
+        private final VectorExpression left;
+        private final VectorExpression right;
+        private final LongVector longResult = new LongVector(0);
+        private final DoubleVector doubleResult = new DoubleVector(0);
+        private final DecimalVector decimalResult = new DecimalVector(0);
+        private final DoubleVector leftBuffer = new DoubleVector(0);
+        private final DoubleVector rightBuffer = new DoubleVector(0);
+
+        private ArithmeticExpression(VectorType type, SqlKind kind, VectorExpression left, VectorExpression right) {
+            super(type);
+            this.kind = kind;
+            this.left = left;
+            this.right = right;
+        }
+
+        @Override
+        public Vector evaluate(Batch batch) {
+            Vector leftVector = left.evaluate(batch);
+            Vector rightVector = right.evaluate(batch);
+            int count = batch.getSelectedCount();
+
+            if (getType() == VectorType.LONG) {
+                long[] a = ((LongVector) leftVector).getValues();
+                long[] b = ((LongVector) rightVector).getValues();
+                long[] r = longResult.reset(batch.getSize());
+
+                propagateNulls(longResult, batch, leftVector, rightVector);
+                boolean[] nulls = longResult.getNulls();
+
+                switch (kind) {
+                    case PLUS:
+                        for (int j = 0; j < count; j++) {
+                            int i = batch.position(j);
+                            r[i] = a[i] + b[i];
+                        }
+
+                        break;
+
+                    case MINUS:
+                        for (int j = 0; j < count; j++) {
+                            int i = batch.position(j);
+                            r[i] = a[i] - b[i];
+                        }
+
+                        break;
+
+                    case TIMES:
+                        for (int j = 0; j < count; j++) {
+                            int i = batch.position(j);
+                            r[i] = a[i] * b[i];
+                        }
+
+                        break;
+
+                    default:
+                        for (int j = 0; j < count; j++) {
+                            int i = batch.position(j);
+
+                            if (nulls == null || !nulls[i]) {
+                                r[i] = a[i] / b[i];
+                            }
+                        }
+                }
+
+                return longResult;
+            }
+
+            if (getType() == VectorType.DECIMAL) {
+                return evaluateDecimal(batch, leftVector, rightVector);
+            }
+
+            double[] a = asDoubles(leftVector, batch, leftBuffer);
+            double[] b = asDoubles(rightVector, batch, rightBuffer);
+            double[] r = doubleResult.reset(batch.getSize());
+
+            propagateNulls(doubleResult, batch, leftVector, rightVector);
+
+            switch (kind) {
+                case PLUS:
+                    for (int j = 0; j < count; j++) {
+                        int i = batch.position(j);
+                        r[i] = a[i] + b[i];
+                    }
+
+                    break;
+
+                case MINUS:
+                    for (int j = 0; j < count; j++) {
+                        int i = batch.position(j);
+                        r[i] = a[i] - b[i];
+                    }
+
+                    break;
+
+                case TIMES:
+                    for (int j = 0; j < count; j++) {
+                        int i = batch.position(j);
+                        r[i] = a[i] * b[i];
+                    }
+
+                    break;
+
+                default:
+                    for (int j = 0; j < count; j++) {
+                        int i = batch.position(j);
+                        r[i] = a[i] / b[i];
+                    }
+            }
+
+            return doubleResult;
+        }
+
+        private Vector evaluateDecimal(Batch batch, Vector leftVector, Vector rightVector) {
+            long[] a = unscaled(leftVector);
+            long[] b = unscaled(rightVector);
+            int leftScale = scale(leftVector);
+            int rightScale = scale(rightVector);
+            int scale = kind == SqlKind.TIMES ? leftScale + rightScale : Math.max(leftScale, rightScale);
+
+            if (scale > ColumnChunk.MAX_DECIMAL_SCALE) {
+                throw new IllegalStateException("Scale of the DECIMAL result is too large: " + scale);
+            }
+
+            long[] r = decimalResult.reset(batch.getSize(), scale);
+            propagateNulls(decimalResult, batch, leftVector, rightVector);
+            boolean[] nulls = decimalResult.getNulls();
+            int count = batch.getSelectedCount();
+            int leftDigits = scale - leftScale;
+            int rightDigits = scale - rightScale;
+
+            try {
+                switch (kind) {
+                    case PLUS:
+                        for (int j = 0; j < count; j++) {
+                            int i = batch.position(j);
+
+                            if (nulls == null || !nulls[i]) {
+                                r[i] = Math.addExact(rescale(a[i], leftDigits), rescale(b[i], rightDigits));
+                            }
+                        }
+
+                        break;
+
+                    case MINUS:
+                        for (int j = 0; j < count; j++) {
+                            int i = batch.position(j);
+
+                            if (nulls == null || !nulls[i]) {
+                                r[i] = Math.subtractExact(rescale(a[i], leftDigits), rescale(b[i], rightDigits));
+                            }
+                        }
+
+                        break;
+
+                    default:
+                        for (int j = 0; j < count; j++) {
+                            int i = batch.position(j);
+
+                            if (nulls == null || !nulls[i]) {
+                                r[i] = Math.multiplyExact(a[i], b[i]);
+                            }
+                        }
+                }
+            } catch (ArithmeticException e) {
+                throw new IllegalStateException("DECIMAL overflow in " + kind, e);
+            }
+
+            return decimalResult;
+        }
+    }
+
+    private static final class CastExpression extends VectorExpression {
+        private final VectorExpression operand;
+        private final LongVector longResult = new LongVector(0);
+        private final DoubleVector doubleResult = new DoubleVector(0);
+        private final DecimalVector decimalResult = new DecimalVector(0);
+
+        private CastExpression(VectorType type, VectorExpression operand) {
+            super(type);
+            this.operand = operand;
+        }
+
+        @Override
+        public Vector evaluate(Batch batch) {
+            Vector vector = operand.evaluate(batch);
+            int count = batch.getSelectedCount();
+
+            if (getType() == VectorType.DOUBLE) {
+                asDoubles(vector, batch, doubleResult);
+                propagateNulls(doubleResult, batch, vector);
+
+                return doubleResult;
+            }
+
+            if (getType() == VectorType.DECIMAL) {
+                // Integers are decimals with the zero scale.
+                long[] values = ((LongVector) vector).getValues();
+                long[] r = decimalResult.reset(batch.getSize(), 0);
+                propagateNulls(decimalResult, batch, vector);
+
+                for (int j = 0; j < count; j++) {
+                    int i = batch.position(j);
+                    r[i] = values[i];
+                }
+
+                return decimalResult;
+            }
+
+            long[] r = longResult.reset(batch.getSize());
+            propagateNulls(longResult, batch, vector);
+
+            if (vector instanceof DecimalVector) {
+                // Truncate the fraction, as BigDecimal.longValue() does.
+                long[] values = ((DecimalVector) vector).getValues();
+                long divisor = POWERS_OF_TEN[((DecimalVector) vector).getScale()];
+
+                for (int j = 0; j < count; j++) {
+                    int i = batch.position(j);
+                    r[i] = values[i] / divisor;
+                }
+
+                return longResult;
+            }
+
+            double[] values = ((DoubleVector) vector).getValues();
+
+            for (int j = 0; j < count; j++) {
+                int i = batch.position(j);
+                r[i] = (long) values[i];
+            }
+
+            return longResult;
+        }
+    }
+
+    /**
+     * Comparison that produces a boolean vector.
+     */
+    private static final class ComparisonExpression extends VectorExpression {
+        private final SqlKind kind;
+        private final VectorExpression left;
+        private final VectorExpression right;
+        private final LongVector result = new LongVector(0);
+        private final DoubleVector leftBuffer = new DoubleVector(0);
+        private final DoubleVector rightBuffer = new DoubleVector(0);
+
+        private ComparisonExpression(SqlKind kind, VectorExpression left, VectorExpression right) {
+            super(VectorType.LONG);
+            this.kind = kind;
+            this.left = left;
+            this.right = right;
+        }
+
+        @Override
+        public Vector evaluate(Batch batch) {
+            Vector leftVector = left.evaluate(batch);
+            Vector rightVector = right.evaluate(batch);
+            int count = batch.getSelectedCount();
+            long[] r = result.reset(batch.getSize());
+
+            propagateNulls(result, batch, leftVector, rightVector);
+
+            if (leftVector instanceof ObjectVector) {
+                Object[] a = ((ObjectVector) leftVector).getValues();
+                Object[] b = ((ObjectVector) rightVector).getValues();
+                boolean[] nulls = result.getNulls();
+
+                for (int j = 0; j < count; j++) {
+                    int i = batch.position(j);
+
+                    if (nulls == null || !nulls[i]) {
+                        @SuppressWarnings("unchecked")
+                        int cmp = ((Comparable<Object>) a[i]).compareTo(b[i]);
+                        r[i] = compare(cmp) ? 1L : 0L;
+                    }
+                }
+            } else if (isExact(leftVector) && isExact(rightVector)
+                && scale(leftVector) != scale(rightVector)) {
+                long[] a = unscaled(leftVector);
+                long[] b = unscaled(rightVector);
+                int leftScale = scale(leftVector);
+                int rightScale = scale(rightVector);
+
+                for (int j = 0; j < count; j++) {
+                    int i = batch.position(j);
+                    r[i] = compare(compareDecimals(a[i], leftScale, b[i], rightScale)) ? 1L : 0L;
+                }
+            } else if (isExact(leftVector) && isExact(rightVector)) {
+                // Unscaled values with the same scale.
+                long[] a = unscaled(leftVector);
+                long[] b = unscaled(rightVector);
+
+                switch (kind) {
+                    case EQUALS:
+                        for (int j = 0; j < count; j++) {
+                            int i = batch.position(j);
+                            r[i] = a[i] == b[i] ? 1L : 0L;
+                        }
+
+                        break;
+
+                    case NOT_EQUALS:
+                        for (int j = 0; j < count; j++) {
+                            int i = batch.position(j);
+                            r[i] = a[i] != b[i] ? 1L : 0L;
+                        }
+
+                        break;
+
+                    case LESS_THAN:
+                        for (int j = 0; j < count; j++) {
+                            int i = batch.position(j);
+                            r[i] = a[i] < b[i] ? 1L : 0L;
+                        }
+
+                        break;
+
+                    case LESS_THAN_OR_EQUAL:
+                        for (int j = 0; j < count; j++) {
+                            int i = batch.position(j);
+                            r[i] = a[i] <= b[i] ? 1L : 0L;
+                        }
+
+                        break;
+
+                    case GREATER_THAN:
+                        for (int j = 0; j < count; j++) {
+                            int i = batch.position(j);
+                            r[i] = a[i] > b[i] ? 1L : 0L;
+                        }
+
+                        break;
+
+                    default:
+                        for (int j = 0; j < count; j++) {
+                            int i = batch.position(j);
+                            r[i] = a[i] >= b[i] ? 1L : 0L;
+                        }
+                }
+            } else {
+                double[] a = asDoubles(leftVector, batch, leftBuffer);
+                double[] b = asDoubles(rightVector, batch, rightBuffer);
+
+                switch (kind) {
+                    case EQUALS:
+                        for (int j = 0; j < count; j++) {
+                            int i = batch.position(j);
+                            r[i] = a[i] == b[i] ? 1L : 0L;
+                        }
+
+                        break;
+
+                    case NOT_EQUALS:
+                        for (int j = 0; j < count; j++) {
+                            int i = batch.position(j);
+                            r[i] = a[i] != b[i] ? 1L : 0L;
+                        }
+
+                        break;
+
+                    case LESS_THAN:
+                        for (int j = 0; j < count; j++) {
+                            int i = batch.position(j);
+                            r[i] = a[i] < b[i] ? 1L : 0L;
+                        }
+
+                        break;
+
+                    case LESS_THAN_OR_EQUAL:
+                        for (int j = 0; j < count; j++) {
+                            int i = batch.position(j);
+                            r[i] = a[i] <= b[i] ? 1L : 0L;
+                        }
+
+                        break;
+
+                    case GREATER_THAN:
+                        for (int j = 0; j < count; j++) {
+                            int i = batch.position(j);
+                            r[i] = a[i] > b[i] ? 1L : 0L;
+                        }
+
+                        break;
+
+                    default:
+                        for (int j = 0; j < count; j++) {
+                            int i = batch.position(j);
+                            r[i] = a[i] >= b[i] ? 1L : 0L;
+                        }
+                }
+            }
+
+            return result;
+        }
+
+        private static boolean isExact(Vector vector) {
+            return vector instanceof LongVector || vector instanceof DecimalVector;
+        }
+
+        private boolean compare(int cmp) {
+            switch (kind) {
+                case EQUALS:
+                    return cmp == 0;
+
+                case NOT_EQUALS:
+                    return cmp != 0;
+
+                case LESS_THAN:
+                    return cmp < 0;
+
+                case LESS_THAN_OR_EQUAL:
+                    return cmp <= 0;
+
+                case GREATER_THAN:
+                    return cmp > 0;
+
+                default:
+                    return cmp >= 0;
+            }
+        }
+    }
+
+    /**
+     * AND or OR with the three-valued logic.
+     */
+    private static final class LogicalExpression extends VectorExpression {
+        private final boolean and;
+        private final List<VectorExpression> operands;
+        private final LongVector result = new LongVector(0);
+
+        private LogicalExpression(boolean and, List<VectorExpression> operands) {
+            super(VectorType.LONG);
+            this.and = and;
+            this.operands = operands;
+        }
+
+        @Override
+        public Vector evaluate(Batch batch) {
+            int count = batch.getSelectedCount();
+            long[] r = result.reset(batch.getSize());
+            boolean[] nulls = result.resetNulls(batch.getSize());
+
+            // The value that determines the result regardless of the other operands.
+            long dominant = and ? 0L : 1L;
+
+            for (int j = 0; j < count; j++) {
+                r[batch.position(j)] = 1L - dominant;
+            }
+
+            for (VectorExpression operand : operands) {
+                Vector vector = operand.evaluate(batch);
+                long[] values = ((LongVector) vector).getValues();
+                boolean[] operandNulls = vector.getNulls();
+
+                for (int j = 0; j < count; j++) {
+                    int i = batch.position(j);
+
+                    if (operandNulls != null && operandNulls[i]) {
+                        nulls[i] = true;
+                    } else if ((values[i] != 0L ? 1L : 0L) == dominant) {
+                        r[i] = dominant;
+                    }
+                }
+            }
+
+            // The dominant value wins over nulls.
+            for (int j = 0; j < count; j++) {
+                int i = batch.position(j);
+
+                if (r[i] == dominant) {
+                    nulls[i] = false;
+                }
+            }
+
+            return result;
+        }
+    }
+
+    private static final class IsNullExpression extends VectorExpression {
+        private final boolean isNull;
+        private final VectorExpression operand;
+        private final LongVector result = new LongVector(0);
+
+        private IsNullExpression(boolean isNull, VectorExpression operand) {
+            super(VectorType.LONG);
+            this.isNull = isNull;
+            this.operand = operand;
+        }
+
+        @Override
+        public Vector evaluate(Batch batch) {
+            Vector vector = operand.evaluate(batch);
+            boolean[] nulls = vector.getNulls();
+            int count = batch.getSelectedCount();
+            long[] r = result.reset(batch.getSize());
+
+            for (int j = 0; j < count; j++) {
+                int i = batch.position(j);
+                r[i] = (nulls != null && nulls[i]) == isNull ? 1L : 0L;
+            }
+
+            return result;
+        }
+    }
+
+    /**
+     * {@code CASE WHEN c1 THEN v1 ... ELSE e END}. All branches are evaluated for all selected rows.
+     */
+    private static final class CaseExpression extends VectorExpression {
+        private final List<VectorExpression> operands;
+        private final Vector result;
+
+        private CaseExpression(VectorType type, List<VectorExpression> operands) {
+            super(type);
+            this.operands = operands;
+
+            switch (type) {
+                case LONG:
+                    result = new LongVector(0);
+                    break;
+
+                case DOUBLE:
+                    result = new DoubleVector(0);
+                    break;
+
+                case DECIMAL:
+                    result = new DecimalVector(0);
+                    break;
+
+                default:
+                    result = new ObjectVector(0);
+            }
+        }
+
+        @Override
+        public Vector evaluate(Batch batch) {
+            int size = batch.getSize();
+            int count = batch.getSelectedCount();
+            boolean[] done = new boolean[size];
+
+            // Values are evaluated first, so that the decimal result gets the largest scale of the branches.
+            Vector[] values = new Vector[operands.size() / 2 + 1];
+            int scale = 0;
+
+            for (int k = 0; k < values.length; k++) {
+                values[k] = operands.get(Math.min(2 * k + 1, operands.size() - 1)).evaluate(batch);
+                scale = Math.max(scale, scale(values[k]));
+            }
+
+            if (result instanceof LongVector) {
+                ((LongVector) result).reset(size);
+            } else if (result instanceof DoubleVector) {
+                ((DoubleVector) result).reset(size);
+            } else if (result instanceof DecimalVector) {
+                ((DecimalVector) result).reset(size, scale);
+            } else {
+                ((ObjectVector) result).reset(size);
+            }
+
+            boolean[] nulls = result.resetNulls(size);
+
+            for (int k = 0; k < operands.size(); k += 2) {
+                boolean otherwise = k == operands.size() - 1;
+                Vector condition = otherwise ? null : operands.get(k).evaluate(batch);
+                Vector value = values[k / 2];
+
+                for (int j = 0; j < count; j++) {
+                    int i = batch.position(j);
+
+                    if (done[i]) {
+                        continue;
+                    }
+
+                    if (condition != null
+                        && (condition.isNull(i) || ((LongVector) condition).getValues()[i] == 0L)) {
+                        continue;
+                    }
+
+                    done[i] = true;
+                    nulls[i] = value.isNull(i);
+
+                    if (result instanceof LongVector) {
+                        ((LongVector) result).getValues()[i] = ((LongVector) value).getValues()[i];
+                    } else if (result instanceof DoubleVector) {
+                        ((DoubleVector) result).getValues()[i] = ((DoubleVector) value).getValues()[i];
+                    } else if (result instanceof DecimalVector) {
+                        if (!nulls[i]) {
+                            long unscaled = unscaled(value)[i];
+                            ((DecimalVector) result).getValues()[i] = rescaleValue(unscaled, scale - scale(value));
+                        }
+                    } else {
+                        ((ObjectVector) result).getValues()[i] = ((ObjectVector) value).getValues()[i];
+                    }
+                }
+            }
+
+            return result;
+        }
+
+        private static long rescaleValue(long value, int digits) {
+            try {
+                return rescale(value, digits);
+            } catch (ArithmeticException e) {
+                throw new IllegalStateException("DECIMAL overflow in CASE", e);
+            }
+        }
+    }
+}
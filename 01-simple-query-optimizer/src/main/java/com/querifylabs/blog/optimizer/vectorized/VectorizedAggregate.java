@@ -0,0 +1,978 @@
+package com.querifylabs.blog.optimizer.vectorized;
+
+import com.querifylabs.blog.optimizer.vectorized.Vector.DecimalVector;
+import com.querifylabs.blog.optimizer.vectorized.Vector.DoubleVector;
+import com.querifylabs.blog.optimizer.vectorized.Vector.LongVector;
+import com.querifylabs.blog.optimizer.vectorized.Vector.ObjectVector;
+import com.querifylabs.blog.optimizer.vectorized.Vector.VectorType;
+import org.apache.calcite.plan.RelOptCluster;
+import org.apache.calcite.plan.RelTraitSet;
+import org.apache.calcite.rel.RelNode;
+import org.apache.calcite.rel.core.Aggregate;
+import org.apache.calcite.rel.core.AggregateCall;
+import org.apache.calcite.rel.type.RelDataType;
+import org.apache.calcite.sql.SqlKind;
+import org.apache.calcite.util.ImmutableBitSet;
+
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Hash aggregation over batches.
+ * <p>
+ * For every input batch the operator first maps the selected rows to group ids, and then updates the
+ * accumulators of every aggregate function in a separate tight loop over primitive arrays indexed by the group
+ * id. Aggregation without grouping skips the hash table altogether.
+ * <p>
+ * The state of the aggregation is kept in an {@link Aggregator}. Partial aggregators built by parallel workers
+ * over disjoint subsets of the input could be merged, see {@link ParallelExecutor}.
+ * <p>
+ * Supported functions: {@code COUNT}, {@code SUM}, {@code $SUM0}, {@code MIN}, {@code MAX} and {@code AVG},
+ * without {@code DISTINCT} and {@code FILTER}.
+ */
+public class VectorizedAggregate extends Aggregate implements VectorizedRel {
+
+    public VectorizedAggregate(
+        RelOptCluster cluster,
+        RelTraitSet traitSet,
+        RelNode input,
+        ImmutableBitSet groupSet,
+        List<ImmutableBitSet> groupSets,
+        List<AggregateCall> aggCalls
+    ) {
+        super(cluster, traitSet, Collections.emptyList(), input, groupSet, groupSets, aggCalls);
+    }
+
+    @Override
+    public Aggregate copy(
+        RelTraitSet traitSet,
+        RelNode input,
+        ImmutableBitSet groupSet,
+        List<ImmutableBitSet> groupSets,
+        List<AggregateCall> aggCalls
+    ) {
+        return new VectorizedAggregate(getCluster(), traitSet, input, groupSet, groupSets, aggCalls);
+    }
+
+    public static boolean isSupported(Aggregate aggregate) {
+        if (aggregate.getGroupType() != Group.SIMPLE) {
+            return false;
+        }
+
+        RelDataType inputRowType = aggregate.getInput().getRowType();
+
+        for (int key : aggregate.getGroupSet()) {
+            if (VectorType.of(inputRowType.getFieldList().get(key).getType().getSqlTypeName()) == null) {
+                return false;
+            }
+        }
+
+        for (AggregateCall aggCall : aggregate.getAggCallList()) {
+            if (aggCall.isDistinct() || aggCall.hasFilter() || aggCall.getArgList().size() > 1) {
+                return false;
+            }
+
+            if (VectorType.of(aggCall.getType().getSqlTypeName()) == null) {
+                return false;
+            }
+
+            VectorType argType = aggCall.getArgList().isEmpty()
+                ? null
+                : VectorType.of(inputRowType.getFieldList().get(aggCall.getArgList().get(0)).getType().getSqlTypeName());
+
+            VectorType resultType = VectorType.of(aggCall.getType().getSqlTypeName());
+
+            switch (aggCall.getAggregation().getKind()) {
+                case COUNT:
+                    break;
+
+                case SUM:
+                case SUM0:
+                    if (argType == null || argType == VectorType.OBJECT
+                        || (argType == VectorType.DECIMAL) != (resultType == VectorType.DECIMAL)) {
+                        return false;
+                    }
+
+                    break;
+
+                case AVG:
+                    // Decimal division is not supported.
+                    if (argType == null || argType == VectorType.OBJECT
+                        || argType == VectorType.DECIMAL || resultType == VectorType.DECIMAL) {
+                        return false;
+                    }
+
+                    break;
+
+                case MIN:
+                case MAX:
+                    if (argType == null) {
+                        return false;
+                    }
+
+                    break;
+
+                default:
+                    return false;
+            }
+        }
+
+        return true;
+    }
+
+    @Override
+    public BatchIterator open(ExecutionContext context) {
+        BatchIterator input = context.open(getInput());
+
+        return new AggregateIterator(input, createAggregator());
+    }
+
+    /**
+     * Create an empty state of the aggregation.
+     */
+    Aggregator createAggregator() {
+        RelDataType inputRowType = getInput().getRowType();
+
+        List<Accumulator> accumulators = new ArrayList<>(getAggCallList().size());
+
+        for (AggregateCall aggCall : getAggCallList()) {
+            int arg = aggCall.getArgList().isEmpty() ? -1 : aggCall.getArgList().get(0);
+            VectorType argType = arg == -1
+                ? null
+                : VectorType.of(inputRowType.getFieldList().get(arg).getType().getSqlTypeName());
+            VectorType resultType = VectorType.of(aggCall.getType().getSqlTypeName());
+
+            switch (aggCall.getAggregation().getKind()) {
+                case COUNT:
+                    accumulators.add(new CountAccumulator(arg));
+                    break;
+
+                case SUM:
+                case SUM0:
+                    accumulators.add(new SumAccumulator(
+                        arg,
+                        argType == VectorType.LONG && resultType == VectorType.LONG,
+                        resultType == VectorType.DECIMAL,
+                        aggCall.getAggregation().getKind() == SqlKind.SUM0,
+                        false
+                    ));
+                    break;
+
+                case AVG:
+                    accumulators.add(new SumAccumulator(
+                        arg,
+                        argType == VectorType.LONG && resultType == VectorType.LONG,
+                        false,
+                        false,
+                        true
+                    ));
+                    break;
+
+                default:
+                    accumulators.add(new MinMaxAccumulator(
+                        arg,
+                        argType,
+                        aggCall.getAggregation().getKind() == SqlKind.MIN
+                    ));
+            }
+        }
+
+        return new Aggregator(getGroupSet().asList(), accumulators);
+    }
+
+    private static final class AggregateIterator implements BatchIterator {
+        private final BatchIterator input;
+        private final Aggregator aggregator;
+        private boolean done;
+
+        private AggregateIterator(BatchIterator input, Aggregator aggregator) {
+            this.input = input;
+            this.aggregator = aggregator;
+        }
+
+        @Override
+        public Batch next() {
+            if (done) {
+                return null;
+            }
+
+            done = true;
+
+            for (Batch batch = input.next(); batch != null; batch = input.next()) {
+                aggregator.add(batch);
+            }
+
+            return aggregator.result();
+        }
+    }
+
+    /**
+     * Groups and the states of the aggregate functions for every group. Not thread-safe.
+     */
+    static final class Aggregator {
+        private final List<Integer> keys;
+        private final List<Accumulator> accumulators;
+        private final Map<Object, Integer> groups = new HashMap<>();
+        private final List<Object[]> groupKeys = new ArrayList<>();
+        private final Vector[] keyVectors;
+
+        private int[] groupIds = new int[0];
+        private int groupCount;
+
+        private Aggregator(List<Integer> keys, List<Accumulator> accumulators) {
+            this.keys = keys;
+            this.accumulators = accumulators;
+            this.keyVectors = new Vector[keys.size()];
+
+            // Aggregation without grouping always produces a single group.
+            groupCount = keys.isEmpty() ? 1 : 0;
+
+            for (Accumulator accumulator : accumulators) {
+                accumulator.ensureCapacity(groupCount);
+            }
+        }
+
+        /**
+         * Update the state with the selected rows of the batch.
+         */
+        void add(Batch batch) {
+            int[] groupIds0 = null;
+
+            if (!keys.isEmpty()) {
+                groupIds0 = assignGroups(batch);
+                ensureCapacity();
+            }
+
+            for (Accumulator accumulator : accumulators) {
+                accumulator.accumulate(batch, groupIds0);
+            }
+        }
+
+        /**
+         * Merge the state of another aggregator created by the same operator.
+         */
+        void merge(Aggregator other) {
+            int[] mapping = new int[other.groupCount];
+
+            if (keys.isEmpty()) {
+                mapping[0] = 0;
+            } else {
+                for (int g = 0; g < other.groupCount; g++) {
+                    mapping[g] = groupId(other.groupKeys.get(g));
+                }
+
+                ensureCapacity();
+            }
+
+            for (int i = 0; i < accumulators.size(); i++) {
+                accumulators.get(i).merge(other.accumulators.get(i), mapping, other.groupCount);
+            }
+        }
+
+        /**
+         * Batch with a row per group, or {@code null} if there are no groups.
+         */
+        Batch result() {
+            if (groupCount == 0) {
+                return null;
+            }
+
+            Vector[] vectors = new Vector[keys.size() + accumulators.size()];
+
+            for (int i = 0; i < keys.size(); i++) {
+                vectors[i] = keyVector(i, groupCount);
+            }
+
+            for (int i = 0; i < accumulators.size(); i++) {
+                vectors[keys.size() + i] = accumulators.get(i).result(groupCount);
+            }
+
+            return new Batch(vectors, groupCount);
+        }
+
+        private void ensureCapacity() {
+            groupCount = groupKeys.size();
+
+            for (Accumulator accumulator : accumulators) {
+                accumulator.ensureCapacity(groupCount);
+            }
+        }
+
+        /**
+         * Map the selected rows of the batch to group ids, registering new groups.
+         *
+         * @return Group ids of the selected rows, indexed by the ordinal of the row in the selection.
+         */
+        private int[] assignGroups(Batch batch) {
+            int count = batch.getSelectedCount();
+
+            if (groupIds.length < count) {
+                groupIds = new int[batch.getSize()];
+            }
+
+            for (int k = 0; k < keys.size(); k++) {
+                keyVectors[k] = batch.getColumn(keys.get(k));
+            }
+
+            for (int j = 0; j < count; j++) {
+                int i = batch.position(j);
+                Object[] keyValues = new Object[keyVectors.length];
+
+                for (int k = 0; k < keyVectors.length; k++) {
+                    keyValues[k] = rawValue(keyVectors[k], i);
+                }
+
+                groupIds[j] = groupId(keyValues);
+            }
+
+            return groupIds;
+        }
+
+        /**
+         * Id of the group with the given key values, registering a new group if needed.
+         */
+        private int groupId(Object[] keyValues) {
+            Object key = keyValues.length == 1 ? keyValues[0] : Arrays.asList(keyValues);
+
+            // HashMap doesn't support null keys well enough for our purposes, so wrap them.
+            Integer groupId = groups.get(key == null ? NullKey.INSTANCE : key);
+
+            if (groupId == null) {
+                groupId = groupKeys.size();
+                groups.put(key == null ? NullKey.INSTANCE : key, groupId);
+                groupKeys.add(keyValues);
+            }
+
+            return groupId;
+        }
+
+        private Vector keyVector(int key, int groupCount) {
+            Vector res;
+            Object sample = null;
+
+            for (Object[] groupKey : groupKeys) {
+                if (groupKey[key] != null) {
+                    sample = groupKey[key];
+                    break;
+                }
+            }
+
+            if (sample instanceof Long) {
+                LongVector vector = new LongVector(groupCount);
+
+                for (int g = 0; g < groupCount; g++) {
+                    Object value = groupKeys.get(g)[key];
+                    vector.getValues()[g] = value != null ? (Long) value : 0L;
+                }
+
+                res = vector;
+            } else if (sample instanceof Double) {
+                DoubleVector vector = new DoubleVector(groupCount);
+
+                for (int g = 0; g < groupCount; g++) {
+                    Object value = groupKeys.get(g)[key];
+                    vector.getValues()[g] = value != null ? (Double) value : 0.0d;
+                }
+
+                res = vector;
+            } else if (sample instanceof BigDecimal) {
+                // Keys are normalized by rawValue(), so the vector gets the largest scale of the keys.
+                int scale = 0;
+
+                for (int g = 0; g < groupCount; g++) {
+                    Object value = groupKeys.get(g)[key];
+                    scale = value != null ? Math.max(scale, ((BigDecimal) value).scale()) : scale;
+                }
+
+                DecimalVector vector = new DecimalVector(groupCount);
+                long[] values = vector.reset(groupCount, scale);
+
+                for (int g = 0; g < groupCount; g++) {
+                    Object value = groupKeys.get(g)[key];
+
+                    try {
+                        values[g] = value != null
+                            ? ((BigDecimal) value).setScale(scale).unscaledValue().longValueExact()
+                            : 0L;
+                    } catch (ArithmeticException e) {
+                        throw new IllegalStateException("DECIMAL overflow in the group key", e);
+                    }
+                }
+
+                res = vector;
+            } else {
+                ObjectVector vector = new ObjectVector(groupCount);
+
+                for (int g = 0; g < groupCount; g++) {
+                    vector.getValues()[g] = groupKeys.get(g)[key];
+                }
+
+                res = vector;
+            }
+
+            boolean[] nulls = res.resetNulls(groupCount);
+            boolean hasNulls = false;
+
+            for (int g = 0; g < groupCount; g++) {
+                nulls[g] = groupKeys.get(g)[key] == null;
+                hasNulls |= nulls[g];
+            }
+
+            if (!hasNulls) {
+                res.clearNulls();
+            }
+
+            return res;
+        }
+
+        private static Object rawValue(Vector vector, int position) {
+            if (vector.isNull(position)) {
+                return null;
+            }
+
+            if (vector instanceof LongVector) {
+                return ((LongVector) vector).getValues()[position];
+            }
+
+            if (vector instanceof DoubleVector) {
+                return ((DoubleVector) vector).getValues()[position];
+            }
+
+            if (vector instanceof DecimalVector) {
+                // Equal decimals of different scales must fall into the same group.
+                DecimalVector decimalVector = (DecimalVector) vector;
+                BigDecimal value = BigDecimal.valueOf(decimalVector.getValues()[position], decimalVector.getScale());
+                value = value.stripTrailingZeros();
+
+                return value.scale() < 0 ? value.setScale(0) : value;
+            }
+
+            return ((ObjectVector) vector).getValues()[position];
+        }
+    }
+
+    private enum NullKey {
+        INSTANCE
+    }
+
+    /**
+     * State of an aggregate function for all groups.
+     */
+    private abstract static class Accumulator {
+        protected final int arg;
+
+        private Accumulator(int arg) {
+            this.arg = arg;
+        }
+
+        abstract void ensureCapacity(int groupCount);
+
+        /**
+         * Update the state with the selected rows of the batch.
+         *
+         * @param groupIds Group ids of the selected rows, or {@code null} if there is a single group.
+         */
+        abstract void accumulate(Batch batch, int[] groupIds);
+
+        /**
+         * Merge the state of the accumulator of the same function.
+         *
+         * @param mapping Group ids of this accumulator, indexed by the group ids of the other one.
+         */
+        abstract void merge(Accumulator other, int[] mapping, int otherGroupCount);
+
+        abstract Vector result(int groupCount);
+
+        static int newCapacity(int current, int required) {
+            return Math.max(required, Math.max(16, current * 2));
+        }
+
+        /**
+         * Increase the scale of the unscaled decimal values by the given number of digits.
+         */
+        static void rescale(long[] values, int digits) {
+            for (int i = 0; i < values.length; i++) {
+                values[i] = rescale(values[i], digits);
+            }
+        }
+
+        static long rescale(long value, int digits) {
+            try {
+                return VectorExpression.rescale(value, digits);
+            } catch (ArithmeticException e) {
+                throw new IllegalStateException("DECIMAL overflow in the aggregate", e);
+            }
+        }
+    }
+
+    private static final class CountAccumulator extends Accumulator {
+        private long[] counts = new long[0];
+
+        private CountAccumulator(int arg) {
+            super(arg);
+        }
+
+        @Override
+        void ensureCapacity(int groupCount) {
+            if (counts.length < groupCount) {
+                counts = Arrays.copyOf(counts, newCapacity(counts.length, groupCount));
+            }
+        }
+
+        @Override
+        void accumulate(Batch batch, int[] groupIds) {
+            int count = batch.getSelectedCount();
+            boolean[] nulls = arg == -1 ? null : batch.getColumn(arg).getNulls();
+
+            if (groupIds == null && nulls == null) {
+                counts[0] += count;
+
+                return;
+            }
+
+            for (int j = 0; j < count; j++) {
+                if (nulls == null || !nulls[batch.position(j)]) {
+                    counts[groupIds == null ? 0 : groupIds[j]]++;
+                }
+            }
+        }
+
+        @Override
+        void merge(Accumulator other, int[] mapping, int otherGroupCount) {
+            long[] otherCounts = ((CountAccumulator) other).counts;
+
+            for (int g = 0; g < otherGroupCount; g++) {
+                counts[mapping[g]] += otherCounts[g];
+            }
+        }
+
+        @Override
+        Vector result(int groupCount) {
+            LongVector res = new LongVector(groupCount);
+            System.arraycopy(counts, 0, res.getValues(), 0, groupCount);
+
+            return res;
+        }
+    }
+
+    /**
+     * {@code SUM}, {@code $SUM0} and {@code AVG}. Decimal sums are exact unscaled longs with the largest scale of
+     * the accumulated vectors.
+     */
+    private static final class SumAccumulator extends Accumulator {
+        private final boolean integral;
+        private final boolean decimal;
+        private final boolean zeroIfEmpty;
+        private final boolean average;
+        private long[] longSums = new long[0];
+        private double[] doubleSums = new double[0];
+        private long[] counts = new long[0];
+        private int scale;
+
+        private SumAccumulator(int arg, boolean integral, boolean decimal, boolean zeroIfEmpty, boolean average) {
+            super(arg);
+            this.integral = integral;
+            this.decimal = decimal;
+            this.zeroIfEmpty = zeroIfEmpty;
+            this.average = average;
+        }
+
+        @Override
+        void ensureCapacity(int groupCount) {
+            if (counts.length < groupCount) {
+                int capacity = newCapacity(counts.length, groupCount);
+
+                counts = Arrays.copyOf(counts, capacity);
+
+                if (integral || decimal) {
+                    longSums = Arrays.copyOf(longSums, capacity);
+                } else {
+                    doubleSums = Arrays.copyOf(doubleSums, capacity);
+                }
+            }
+        }
+
+        @Override
+        void accumulate(Batch batch, int[] groupIds) {
+            Vector vector = batch.getColumn(arg);
+            boolean[] nulls = vector.getNulls();
+            int count = batch.getSelectedCount();
+
+            if (decimal) {
+                long[] values = VectorExpression.unscaled(vector);
+                int digits = alignScale(VectorExpression.scale(vector));
+
+                try {
+                    for (int j = 0; j < count; j++) {
+                        int i = batch.position(j);
+
+                        if (nulls == null || !nulls[i]) {
+                            int g = groupIds == null ? 0 : groupIds[j];
+                            longSums[g] = Math.addExact(longSums[g], rescale(values[i], digits));
+                            counts[g]++;
+                        }
+                    }
+                } catch (ArithmeticException e) {
+                    throw new IllegalStateException("DECIMAL overflow in SUM", e);
+                }
+
+                return;
+            }
+
+            if (integral) {
+                long[] values = ((LongVector) vector).getValues();
+
+                if (groupIds == null && nulls == null) {
+                    long sum = 0L;
+
+                    for (int j = 0; j < count; j++) {
+                        sum += values[batch.position(j)];
+                    }
+
+                    longSums[0] += sum;
+                    counts[0] += count;
+
+                    return;
+                }
+
+                for (int j = 0; j < count; j++) {
+                    int i = batch.position(j);
+
+                    if (nulls == null || !nulls[i]) {
+                        int g = groupIds == null ? 0 : groupIds[j];
+                        longSums[g] += values[i];
+                        counts[g]++;
+                    }
+                }
+
+                return;
+            }
+
+            if (vector instanceof LongVector) {
+                long[] values = ((LongVector) vector).getValues();
+
+                for (int j = 0; j < count; j++) {
+                    int i = batch.position(j);
+
+                    if (nulls == null || !nulls[i]) {
+                        int g = groupIds == null ? 0 : groupIds[j];
+                        doubleSums[g] += values[i];
+                        counts[g]++;
+                    }
+                }
+
+                return;
+            }
+
+            double[] values = ((DoubleVector) vector).getValues();
+
+            if (groupIds == null && nulls == null) {
+                double sum = 0.0d;
+
+                for (int j = 0; j < count; j++) {
+                    sum += values[batch.position(j)];
+                }
+
+                doubleSums[0] += sum;
+                counts[0] += count;
+
+                return;
+            }
+
+            for (int j = 0; j < count; j++) {
+                int i = batch.position(j);
+
+                if (nulls == null || !nulls[i]) {
+                    int g = groupIds == null ? 0 : groupIds[j];
+                    doubleSums[g] += values[i];
+                    counts[g]++;
+                }
+            }
+        }
+
+        @Override
+        void merge(Accumulator other, int[] mapping, int otherGroupCount) {
+            SumAccumulator other0 = (SumAccumulator) other;
+
+            if (decimal) {
+                int digits = alignScale(other0.scale);
+
+                try {
+                    for (int g = 0; g < otherGroupCount; g++) {
+                        int target = mapping[g];
+                        longSums[target] = Math.addExact(longSums[target], rescale(other0.longSums[g], digits));
+                        counts[target] += other0.counts[g];
+                    }
+                } catch (ArithmeticException e) {
+                    throw new IllegalStateException("DECIMAL overflow in SUM", e);
+                }
+
+                return;
+            }
+
+            for (int g = 0; g < otherGroupCount; g++) {
+                int target = mapping[g];
+
+                if (integral) {
+                    longSums[target] += other0.longSums[g];
+                } else {
+                    doubleSums[target] += other0.doubleSums[g];
+                }
+
+                counts[target] += other0.counts[g];
+            }
+        }
+
+        /**
+         * Align the scale of the sums with the scale of the added values.
+         *
+         * @return Number of digits to increase the scale of the added values by.
+         */
+        private int alignScale(int valueScale) {
+            if (scale < valueScale) {
+                rescale(longSums, valueScale - scale);
+                scale = valueScale;
+            }
+
+            return scale - valueScale;
+        }
+
+        @Override
+        Vector result(int groupCount) {
+            Vector res;
+
+            if (decimal) {
+                DecimalVector vector = new DecimalVector(groupCount);
+                System.arraycopy(longSums, 0, vector.reset(groupCount, scale), 0, groupCount);
+                res = vector;
+            } else if (integral) {
+                LongVector vector = new LongVector(groupCount);
+
+                for (int g = 0; g < groupCount; g++) {
+                    vector.getValues()[g] = average && counts[g] > 0 ? longSums[g] / counts[g] : longSums[g];
+                }
+
+                res = vector;
+            } else {
+                DoubleVector vector = new DoubleVector(groupCount);
+
+                for (int g = 0; g < groupCount; g++) {
+                    vector.getValues()[g] = average && counts[g] > 0 ? doubleSums[g] / counts[g] : doubleSums[g];
+                }
+
+                res = vector;
+            }
+
+            if (!zeroIfEmpty) {
+                boolean[] nulls = res.resetNulls(groupCount);
+
+                for (int g = 0; g < groupCount; g++) {
+                    nulls[g] = counts[g] == 0L;
+                }
+            }
+
+            return res;
+        }
+    }
+
+    private static final class MinMaxAccumulator extends Accumulator {
+        private final VectorType type;
+        private final boolean min;
+        private boolean[] seen = new boolean[0];
+        private long[] longs = new long[0];
+        private double[] doubles = new double[0];
+        private Object[] objects = new Object[0];
+        private int scale;
+
+        private MinMaxAccumulator(int arg, VectorType type, boolean min) {
+            super(arg);
+            this.type = type;
+            this.min = min;
+        }
+
+        @Override
+        void ensureCapacity(int groupCount) {
+            if (seen.length < groupCount) {
+                int capacity = newCapacity(seen.length, groupCount);
+
+                seen = Arrays.copyOf(seen, capacity);
+
+                switch (type) {
+                    case LONG:
+                    case DECIMAL:
+                        longs = Arrays.copyOf(longs, capacity);
+                        break;
+
+                    case DOUBLE:
+                        doubles = Arrays.copyOf(doubles, capacity);
+                        break;
+
+                    default:
+                        objects = Arrays.copyOf(objects, capacity);
+                }
+            }
+        }
+
+        @Override
+        @SuppressWarnings("unchecked")
+        void accumulate(Batch batch, int[] groupIds) {
+            Vector vector = batch.getColumn(arg);
+            boolean[] nulls = vector.getNulls();
+            int count = batch.getSelectedCount();
+            boolean exact = type == VectorType.LONG || type == VectorType.DECIMAL;
+            long[] longValues = exact ? VectorExpression.unscaled(vector) : null;
+            int digits = type == VectorType.DECIMAL ? alignScale(VectorExpression.scale(vector)) : 0;
+
+            for (int j = 0; j < count; j++) {
+                int i = batch.position(j);
+
+                if (nulls != null && nulls[i]) {
+                    continue;
+                }
+
+                int g = groupIds == null ? 0 : groupIds[j];
+
+                switch (type) {
+                    case LONG:
+                    case DECIMAL:
+                        long longValue = rescale(longValues[i], digits);
+
+                        if (!seen[g] || (min ? longValue < longs[g] : longValue > longs[g])) {
+                            longs[g] = longValue;
+                        }
+
+                        break;
+
+                    case DOUBLE:
+                        double doubleValue = ((DoubleVector) vector).getValues()[i];
+
+                        if (!seen[g] || (min ? doubleValue < doubles[g] : doubleValue > doubles[g])) {
+                            doubles[g] = doubleValue;
+                        }
+
+                        break;
+
+                    default:
+                        Object value = ((ObjectVector) vector).getValues()[i];
+
+                        if (!seen[g]) {
+                            objects[g] = value;
+                        } else {
+                            int cmp = ((Comparable<Object>) value).compareTo(objects[g]);
+
+                            if (min ? cmp < 0 : cmp > 0) {
+                                objects[g] = value;
+                            }
+                        }
+                }
+
+                seen[g] = true;
+            }
+        }
+
+        @Override
+        @SuppressWarnings("unchecked")
+        void merge(Accumulator other, int[] mapping, int otherGroupCount) {
+            MinMaxAccumulator other0 = (MinMaxAccumulator) other;
+            int digits = type == VectorType.DECIMAL ? alignScale(other0.scale) : 0;
+
+            for (int g = 0; g < otherGroupCount; g++) {
+                if (!other0.seen[g]) {
+                    continue;
+                }
+
+                int target = mapping[g];
+
+                switch (type) {
+                    case LONG:
+                    case DECIMAL:
+                        long longValue = rescale(other0.longs[g], digits);
+
+                        if (!seen[target] || (min ? longValue < longs[target] : longValue > longs[target])) {
+                            longs[target] = longValue;
+                        }
+
+                        break;
+
+                    case DOUBLE:
+                        if (!seen[target]
+                            || (min ? other0.doubles[g] < doubles[target] : other0.doubles[g] > doubles[target])) {
+                            doubles[target] = other0.doubles[g];
+                        }
+
+                        break;
+
+                    default:
+                        if (!seen[target]) {
+                            objects[target] = other0.objects[g];
+                        } else {
+                            int cmp = ((Comparable<Object>) other0.objects[g]).compareTo(objects[target]);
+
+                            if (min ? cmp < 0 : cmp > 0) {
+                                objects[target] = other0.objects[g];
+                            }
+                        }
+                }
+
+                seen[target] = true;
+            }
+        }
+
+        @Override
+        Vector result(int groupCount) {
+            Vector res;
+
+            switch (type) {
+                case LONG:
+                    LongVector longVector = new LongVector(groupCount);
+                    System.arraycopy(longs, 0, longVector.getValues(), 0, groupCount);
+                    res = longVector;
+                    break;
+
+                case DECIMAL:
+                    DecimalVector decimalVector = new DecimalVector(groupCount);
+                    System.arraycopy(longs, 0, decimalVector.reset(groupCount, scale), 0, groupCount);
+                    res = decimalVector;
+                    break;
+
+                case DOUBLE:
+                    DoubleVector doubleVector = new DoubleVector(groupCount);
+                    System.arraycopy(doubles, 0, doubleVector.getValues(), 0, groupCount);
+                    res = doubleVector;
+                    break;
+
+                default:
+                    ObjectVector objectVector = new ObjectVector(groupCount);
+                    System.arraycopy(objects, 0, objectVector.getValues(), 0, groupCount);
+                    res = objectVector;
+            }
+
+            boolean[] nulls = res.resetNulls(groupCount);
+
+            for (int g = 0; g < groupCount; g++) {
+                nulls[g] = !seen[g];
+            }
+
+            return res;
+        }
+
+        /**
+         * Align the scale of the decimal extremes with the scale of the added values.
+         *
+         * @return Number of digits to increase the scale of the added values by.
+         */
+        private int alignScale(int valueScale) {
+            if (scale < valueScale) {
+                rescale(longs, valueScale - scale);
+                scale = valueScale;
+            }
+
+            return scale - valueScale;
+        }
+    }
+}
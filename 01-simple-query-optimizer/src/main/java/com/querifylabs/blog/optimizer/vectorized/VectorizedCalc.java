@@ -0,0 +1,179 @@
+package com.querifylabs.blog.optimizer.vectorized;
+
+import com.querifylabs.blog.optimizer.vectorized.Vector.LongVector;
+import org.apache.calcite.plan.RelOptCluster;
+import org.apache.calcite.plan.RelOptCost;
+import org.apache.calcite.plan.RelOptPlanner;
+import org.apache.calcite.plan.RelOptUtil;
+import org.apache.calcite.plan.RelTraitSet;
+import org.apache.calcite.rel.RelNode;
+import org.apache.calcite.rel.core.Calc;
+import org.apache.calcite.rel.metadata.RelMetadataQuery;
+import org.apache.calcite.rex.RexLocalRef;
+import org.apache.calcite.rex.RexNode;
+import org.apache.calcite.rex.RexProgram;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Filter and projection over batches.
+ * <p>
+ * The condition is split into conjuncts that are evaluated one after another, each conjunct narrowing the
+ * selection vector of the batch, so the subsequent conjuncts and projections are evaluated only for the rows
+ * that passed the previous ones. Batches without selected rows are skipped.
+ */
+public class VectorizedCalc extends Calc implements VectorizedRel {
+
+    public VectorizedCalc(RelOptCluster cluster, RelTraitSet traits, RelNode input, RexProgram program) {
+        super(cluster, traits, Collections.emptyList(), input, program);
+    }
+
+    @Override
+    public Calc copy(RelTraitSet traitSet, RelNode child, RexProgram program) {
+        return new VectorizedCalc(getCluster(), traitSet, child, program);
+    }
+
+    @Override
+    public RelOptCost computeSelfCost(RelOptPlanner planner, RelMetadataQuery mq) {
+        // Batch processing amortizes the per-row overhead.
+        return super.computeSelfCost(planner, mq).multiplyBy(0.5d);
+    }
+
+    /**
+     * Whether all expressions of the program could be evaluated by the vectorized engine.
+     */
+    public static boolean isSupported(RexProgram program) {
+        for (RexNode node : expand(program)) {
+            if (!VectorExpression.isSupported(node)) {
+                return false;
+            }
+        }
+
+        return true;
+    }
+
+    @Override
+    public BatchIterator open(ExecutionContext context) {
+        RexProgram program = getProgram();
+        BatchIterator input = context.open(getInput());
+
+        List<VectorExpression> conditions = new ArrayList<>();
+        if (program.getCondition() != null) {
+            for (RexNode conjunct : RelOptUtil.conjunctions(program.expandLocalRef(program.getCondition()))) {
+                conditions.add(VectorExpression.compile(conjunct, context));
+            }
+        }
+
+        List<VectorExpression> projects = new ArrayList<>();
+        for (RexLocalRef project : program.getProjectList()) {
+            projects.add(VectorExpression.compile(program.expandLocalRef(project), context));
+        }
+
+        return new CalcIterator(input, conditions, projects);
+    }
+
+    private static List<RexNode> expand(RexProgram program) {
+        List<RexNode> res = new ArrayList<>();
+
+        if (program.getCondition() != null) {
+            res.add(program.expandLocalRef(program.getCondition()));
+        }
+
+        for (RexLocalRef project : program.getProjectList()) {
+            res.add(program.expandLocalRef(project));
+        }
+
+        return res;
+    }
+
+    private static final class CalcIterator implements BatchIterator {
+        private final BatchIterator input;
+        private final List<VectorExpression> conditions;
+        private final List<VectorExpression> projects;
+        private final Batch output;
+
+        /** Two selection buffers, so that the new selection could be built from the current one. */
+        private int[] selection = new int[0];
+        private int[] nextSelection = new int[0];
+
+        private CalcIterator(BatchIterator input, List<VectorExpression> conditions, List<VectorExpression> projects) {
+            this.input = input;
+            this.conditions = conditions;
+            this.projects = projects;
+            this.output = new Batch(new Vector[projects.size()], 0);
+        }
+
+        @Override
+        public Batch next() {
+            while (true) {
+                Batch batch = input.next();
+
+                if (batch == null) {
+                    return null;
+                }
+
+                if (!filter(batch)) {
+                    continue;
+                }
+
+                for (int i = 0; i < projects.size(); i++) {
+                    output.setColumn(i, projects.get(i).evaluate(batch));
+                }
+
+                output.setSize(batch.getSize());
+                output.setSelection(batch.getSelection(), batch.getSelectedCount());
+
+                return output;
+            }
+        }
+
+        /**
+         * Apply the conditions to the batch, narrowing its selection.
+         *
+         * @return {@code true} if at least one row is selected.
+         */
+        private boolean filter(Batch batch) {
+            for (VectorExpression condition : conditions) {
+                Vector vector = condition.evaluate(batch);
+                long[] values = ((LongVector) vector).getValues();
+                boolean[] nulls = vector.getNulls();
+                int count = batch.getSelectedCount();
+
+                if (nextSelection.length < batch.getSize()) {
+                    nextSelection = new int[batch.getSize()];
+                }
+
+                int[] res = nextSelection;
+                int resCount = 0;
+
+                if (nulls == null) {
+                    for (int j = 0; j < count; j++) {
+                        int i = batch.position(j);
+                        res[resCount] = i;
+                        resCount += (int) values[i];
+                    }
+                } else {
+                    for (int j = 0; j < count; j++) {
+                        int i = batch.position(j);
+
+                        if (!nulls[i] && values[i] != 0L) {
+                            res[resCount++] = i;
+                        }
+                    }
+                }
+
+                nextSelection = selection;
+                selection = res;
+                batch.setSelection(res, resCount);
+
+                if (resCount == 0) {
+                    return false;
+                }
+            }
+
+            return true;
+        }
+    }
+}
@@ -0,0 +1,57 @@
+package com.querifylabs.blog.optimizer.vectorized;
+
+import org.apache.calcite.plan.Convention;
+import org.apache.calcite.plan.ConventionTraitDef;
+import org.apache.calcite.plan.RelOptPlanner;
+import org.apache.calcite.plan.RelTrait;
+import org.apache.calcite.plan.RelTraitDef;
+import org.apache.calcite.plan.RelTraitSet;
+
+/**
+ * Calling convention of the operators that are executed by the vectorized engine.
+ */
+public enum VectorizedConvention implements Convention {
+    INSTANCE;
+
+    @Override
+    public String toString() {
+        return getName();
+    }
+
+    @SuppressWarnings("rawtypes")
+    @Override
+    public Class getInterface() {
+        return VectorizedRel.class;
+    }
+
+    @Override
+    public String getName() {
+        return "VECTORIZED";
+    }
+
+    @SuppressWarnings("rawtypes")
+    @Override
+    public RelTraitDef getTraitDef() {
+        return ConventionTraitDef.INSTANCE;
+    }
+
+    @Override
+    public boolean satisfies(RelTrait trait) {
+        return this == trait;
+    }
+
+    @Override
+    public void register(RelOptPlanner planner) {
+        // No-op.
+    }
+
+    @Override
+    public boolean canConvertConvention(Convention toConvention) {
+        return false;
+    }
+
+    @Override
+    public boolean useAbstractConvertersForConversion(RelTraitSet fromTraits, RelTraitSet toTraits) {
+        return false;
+    }
+}
@@ -0,0 +1,95 @@
+package com.querifylabs.blog.optimizer.vectorized;
+
+import com.querifylabs.blog.optimizer.BatchPlan;
+import org.apache.calcite.rel.RelNode;
+import org.apache.calcite.rel.type.RelDataTypeField;
+import org.apache.calcite.sql.type.SqlTypeName;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Executes plans of the {@link VectorizedConvention}.
+ */
+public final class VectorizedExecutor {
+
+    public static final int DEFAULT_BATCH_SIZE = 2048;
+
+    private VectorizedExecutor() {
+        // No-op.
+    }
+
+    public static List<Object[]> execute(RelNode rel, List<Object> parameters) {
+        return execute(rel, new ExecutionContext(parameters, DEFAULT_BATCH_SIZE));
+    }
+
+    /**
+     * Execute the plan and collect the rows in the internal Calcite representation.
+     */
+    public static List<Object[]> execute(RelNode rel, ExecutionContext context) {
+        if (!(rel instanceof VectorizedRel)) {
+            throw new IllegalArgumentException("Not a vectorized plan: " + rel);
+        }
+
+        SqlTypeName[] typeNames = typeNames(rel);
+        BatchIterator iterator = context.open(rel);
+        List<Object[]> res = new ArrayList<>();
+
+        for (Batch batch = iterator.next(); batch != null; batch = iterator.next()) {
+            collect(batch, typeNames, res);
+        }
+
+        return res;
+    }
+
+    /**
+     * Execute the plans of the batch, computing the results of the shared operators once. Every statement is
+     * executed with its own parameters.
+     *
+     * @return Rows of every statement, in the order of the statements.
+     */
+    public static List<List<Object[]>> execute(BatchPlan batchPlan, List<List<Object>> parameters) {
+        List<RelNode> plans = batchPlan.getPlans();
+
+        if (parameters.size() != plans.size()) {
+            throw new IllegalArgumentException("Parameters must be provided for " + plans.size() + " statements: "
+                + parameters.size());
+        }
+
+        SharedResults sharedResults = new SharedResults(batchPlan.getSharedNodes());
+        List<List<Object[]>> res = new ArrayList<>(plans.size());
+
+        for (int i = 0; i < plans.size(); i++) {
+            res.add(execute(plans.get(i), new ExecutionContext(parameters.get(i), DEFAULT_BATCH_SIZE, sharedResults)));
+        }
+
+        return res;
+    }
+
+    static SqlTypeName[] typeNames(RelNode rel) {
+        List<RelDataTypeField> fields = rel.getRowType().getFieldList();
+        SqlTypeName[] res = new SqlTypeName[fields.size()];
+
+        for (int i = 0; i < res.length; i++) {
+            res[i] = fields.get(i).getType().getSqlTypeName();
+        }
+
+        return res;
+    }
+
+    /**
+     * Convert the selected rows of the batch to the internal Calcite representation.
+     */
+    static void collect(Batch batch, SqlTypeName[] typeNames, List<Object[]> res) {
+        for (int j = 0; j < batch.getSelectedCount(); j++) {
+            int i = batch.position(j);
+            Object[] row = new Object[typeNames.length];
+
+            for (int k = 0; k < row.length; k++) {
+                row[k] = batch.getColumn(k).getObject(i, typeNames[k]);
+            }
+
+            res.add(row);
+        }
+    }
+}
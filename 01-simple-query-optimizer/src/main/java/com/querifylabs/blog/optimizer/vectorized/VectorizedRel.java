@@ -0,0 +1,13 @@
+package com.querifylabs.blog.optimizer.vectorized;
+
+import org.apache.calcite.rel.RelNode;
+
+/**
+ * Operator of the {@link VectorizedConvention} that produces batches of rows.
+ */
+public interface VectorizedRel extends RelNode {
+    /**
+     * Start the execution of the operator and its inputs.
+     */
+    BatchIterator open(ExecutionContext context);
+}
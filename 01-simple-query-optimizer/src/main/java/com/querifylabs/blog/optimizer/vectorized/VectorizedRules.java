@@ -0,0 +1,131 @@
+package com.querifylabs.blog.optimizer.vectorized;
+
+import com.google.common.collect.ImmutableList;
+import com.querifylabs.blog.optimizer.SimpleTable;
+import org.apache.calcite.plan.Convention;
+import org.apache.calcite.plan.RelOptRule;
+import org.apache.calcite.rel.RelNode;
+import org.apache.calcite.rel.convert.ConverterRule;
+import org.apache.calcite.rel.logical.LogicalAggregate;
+import org.apache.calcite.rel.logical.LogicalCalc;
+import org.apache.calcite.rel.logical.LogicalTableScan;
+import org.apache.calcite.rel.rules.CoreRules;
+
+import java.util.List;
+
+/**
+ * Rules that convert logical operators to the {@link VectorizedConvention}. Filters and projections must be
+ * converted to {@link LogicalCalc} first, see {@link #RULES}.
+ */
+public final class VectorizedRules {
+
+    public static final ConverterRule TABLE_SCAN_RULE = ConverterRule.Config.INSTANCE
+        .withConversion(
+            LogicalTableScan.class,
+            (LogicalTableScan scan) -> scan.getTable().unwrap(SimpleTable.class) != null,
+            Convention.NONE,
+            VectorizedConvention.INSTANCE,
+            "VectorizedTableScanRule"
+        )
+        .withRuleFactory(TableScanRule::new)
+        .toRule(ConverterRule.class);
+
+    public static final ConverterRule CALC_RULE = ConverterRule.Config.INSTANCE
+        .withConversion(
+            LogicalCalc.class,
+            (LogicalCalc calc) -> VectorizedCalc.isSupported(calc.getProgram()),
+            Convention.NONE,
+            VectorizedConvention.INSTANCE,
+            "VectorizedCalcRule"
+        )
+        .withRuleFactory(CalcRule::new)
+        .toRule(ConverterRule.class);
+
+    public static final ConverterRule AGGREGATE_RULE = ConverterRule.Config.INSTANCE
+        .withConversion(
+            LogicalAggregate.class,
+            VectorizedAggregate::isSupported,
+            Convention.NONE,
+            VectorizedConvention.INSTANCE,
+            "VectorizedAggregateRule"
+        )
+        .withRuleFactory(AggregateRule::new)
+        .toRule(ConverterRule.class);
+
+    /**
+     * Rules that convert filters and projections to calcs, and all supported operators to vectorized ones.
+     * Projections and filters over the scans are pushed down to the scans.
+     */
+    public static final List<RelOptRule> RULES = ImmutableList.of(
+        CoreRules.FILTER_TO_CALC,
+        CoreRules.PROJECT_TO_CALC,
+        CoreRules.FILTER_CALC_MERGE,
+        CoreRules.PROJECT_CALC_MERGE,
+        CoreRules.CALC_MERGE,
+        TABLE_SCAN_RULE,
+        CALC_RULE,
+        AGGREGATE_RULE,
+        VectorizedScanPushdownRule.INSTANCE
+    );
+
+    private VectorizedRules() {
+        // No-op.
+    }
+
+    private static final class TableScanRule extends ConverterRule {
+        private TableScanRule(Config config) {
+            super(config);
+        }
+
+        @Override
+        public RelNode convert(RelNode rel) {
+            LogicalTableScan scan = (LogicalTableScan) rel;
+
+            return new VectorizedTableScan(
+                scan.getCluster(),
+                scan.getTraitSet().replace(VectorizedConvention.INSTANCE),
+                scan.getTable()
+            );
+        }
+    }
+
+    private static final class CalcRule extends ConverterRule {
+        private CalcRule(Config config) {
+            super(config);
+        }
+
+        @Override
+        public RelNode convert(RelNode rel) {
+            LogicalCalc calc = (LogicalCalc) rel;
+            RelNode input = calc.getInput();
+
+            return new VectorizedCalc(
+                calc.getCluster(),
+                calc.getTraitSet().replace(VectorizedConvention.INSTANCE),
+                convert(input, input.getTraitSet().replace(VectorizedConvention.INSTANCE)),
+                calc.getProgram()
+            );
+        }
+    }
+
+    private static final class AggregateRule extends ConverterRule {
+        private AggregateRule(Config config) {
+            super(config);
+        }
+
+        @Override
+        public RelNode convert(RelNode rel) {
+            LogicalAggregate aggregate = (LogicalAggregate) rel;
+            RelNode input = aggregate.getInput();
+
+            return new VectorizedAggregate(
+                aggregate.getCluster(),
+                aggregate.getTraitSet().replace(VectorizedConvention.INSTANCE),
+                convert(input, input.getTraitSet().replace(VectorizedConvention.INSTANCE)),
+                aggregate.getGroupSet(),
+                aggregate.getGroupSets(),
+                aggregate.getAggCallList()
+            );
+        }
+    }
+}
@@ -0,0 +1,109 @@
+package com.querifylabs.blog.optimizer.vectorized;
+
+import org.apache.calcite.plan.RelOptRuleCall;
+import org.apache.calcite.plan.RelOptUtil;
+import org.apache.calcite.plan.RelRule;
+import org.apache.calcite.rex.RexInputRef;
+import org.apache.calcite.rex.RexLocalRef;
+import org.apache.calcite.rex.RexNode;
+import org.apache.calcite.rex.RexProgram;
+import org.apache.calcite.rex.RexShuttle;
+import org.apache.calcite.util.ImmutableBitSet;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Rule that pushes the projection and the filter of a {@link VectorizedCalc} into the underlying
+ * {@link VectorizedTableScan}.
+ * <p>
+ * The scan is restricted to the columns referenced by the calc. The conjuncts of the calc condition are copied
+ * to the scan, which uses them to skip blocks with the zone maps. The calc keeps the condition, because the scan
+ * does not filter individual rows.
+ */
+public class VectorizedScanPushdownRule extends RelRule<VectorizedScanPushdownRule.Config> {
+
+    public static final VectorizedScanPushdownRule INSTANCE = Config.DEFAULT.toRule();
+
+    private VectorizedScanPushdownRule(Config config) {
+        super(config);
+    }
+
+    @Override
+    public void onMatch(RelOptRuleCall call) {
+        VectorizedCalc calc = call.rel(0);
+        VectorizedTableScan scan = call.rel(1);
+        RexProgram program = calc.getProgram();
+
+        RexNode condition = program.getCondition() != null ? program.expandLocalRef(program.getCondition()) : null;
+
+        List<RexNode> projects = new ArrayList<>(program.getProjectList().size());
+        for (RexLocalRef project : program.getProjectList()) {
+            projects.add(program.expandLocalRef(project));
+        }
+
+        ImmutableBitSet.Builder usedBuilder = ImmutableBitSet.builder();
+        usedBuilder.addAll(RelOptUtil.InputFinder.bits(projects, condition));
+        ImmutableBitSet used = usedBuilder.build();
+
+        List<RexNode> filters = condition != null
+            ? RelOptUtil.conjunctions(condition)
+            : new ArrayList<>();
+
+        if (used.cardinality() == scan.getRowType().getFieldCount() && filters.isEmpty()) {
+            // Nothing to push down.
+            return;
+        }
+
+        int[] mapping = new int[scan.getRowType().getFieldCount()];
+        List<Integer> scanProjects = new ArrayList<>(used.cardinality());
+
+        for (int field : used) {
+            mapping[field] = scanProjects.size();
+            scanProjects.add(field);
+        }
+
+        VectorizedTableScan newScan = new VectorizedTableScan(
+            scan.getCluster(),
+            scan.getTraitSet(),
+            scan.getTable(),
+            scanProjects,
+            filters
+        );
+
+        RexShuttle shuttle = new RexShuttle() {
+            @Override
+            public RexNode visitInputRef(RexInputRef inputRef) {
+                return new RexInputRef(mapping[inputRef.getIndex()], inputRef.getType());
+            }
+        };
+
+        RexProgram newProgram = RexProgram.create(
+            newScan.getRowType(),
+            shuttle.apply(projects),
+            condition != null ? condition.accept(shuttle) : null,
+            calc.getRowType(),
+            calc.getCluster().getRexBuilder()
+        );
+
+        if (newProgram.isTrivial() && RelOptUtil.areRowTypesEqual(newScan.getRowType(), calc.getRowType(), false)) {
+            call.transformTo(newScan);
+        } else {
+            call.transformTo(calc.copy(calc.getTraitSet(), newScan, newProgram));
+        }
+    }
+
+    public interface Config extends RelRule.Config {
+        Config DEFAULT = EMPTY
+            .withOperandSupplier(b0 -> b0.operand(VectorizedCalc.class).oneInput(b1 -> b1
+                .operand(VectorizedTableScan.class)
+                .predicate(VectorizedTableScan::isFullScan)
+                .noInputs()))
+            .as(Config.class);
+
+        @Override
+        default VectorizedScanPushdownRule toRule() {
+            return new VectorizedScanPushdownRule(this);
+        }
+    }
+}
@@ -0,0 +1,286 @@
+package com.querifylabs.blog.optimizer.vectorized;
+
+import com.querifylabs.blog.optimizer.SimpleTable;
+import com.querifylabs.blog.optimizer.storage.Block;
+import com.querifylabs.blog.optimizer.storage.ColumnChunk;
+import com.querifylabs.blog.optimizer.storage.ZoneMapFilter;
+import com.querifylabs.blog.optimizer.vectorized.Vector.DecimalVector;
+import com.querifylabs.blog.optimizer.vectorized.Vector.DoubleVector;
+import com.querifylabs.blog.optimizer.vectorized.Vector.LongVector;
+import com.querifylabs.blog.optimizer.vectorized.Vector.ObjectVector;
+import com.google.common.collect.ImmutableList;
+import org.apache.calcite.plan.RelOptCluster;
+import org.apache.calcite.plan.RelOptCost;
+import org.apache.calcite.plan.RelOptPlanner;
+import org.apache.calcite.plan.RelOptTable;
+import org.apache.calcite.plan.RelTraitSet;
+import org.apache.calcite.rel.RelNode;
+import org.apache.calcite.rel.RelWriter;
+import org.apache.calcite.rel.core.TableScan;
+import org.apache.calcite.rel.metadata.RelMetadataQuery;
+import org.apache.calcite.rel.type.RelDataType;
+import org.apache.calcite.rel.type.RelDataTypeField;
+import org.apache.calcite.rex.RexNode;
+import org.apache.calcite.rex.RexShuttle;
+import org.apache.calcite.sql.type.SqlTypeName;
+import org.apache.calcite.util.ImmutableIntList;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+
+/**
+ * Scan of the {@link SimpleTable} columnar storage that produces batches of at most
+ * {@link ExecutionContext#getBatchSize()} rows. Batches never span several morsels, and therefore blocks.
+ * <p>
+ * By default the scan reads all blocks of the table. In the parallel execution it reads only the morsels
+ * assigned to the worker, see {@link ExecutionContext#getMorselSource()}.
+ * <p>
+ * The scan reads only the projected columns. The filters reference the columns of the table and are used only to
+ * skip the blocks with the zone maps, see {@link ZoneMapFilter}: the rows of the remaining blocks must still be
+ * filtered by the parent operator. Both are set by the {@link VectorizedScanPushdownRule}.
+ */
+public class VectorizedTableScan extends TableScan implements VectorizedRel {
+
+    private final ImmutableIntList projects;
+    private final ImmutableList<RexNode> filters;
+
+    public VectorizedTableScan(RelOptCluster cluster, RelTraitSet traitSet, RelOptTable table) {
+        this(
+            cluster,
+            traitSet,
+            table,
+            ImmutableIntList.identity(table.getRowType().getFieldCount()),
+            ImmutableList.of()
+        );
+    }
+
+    public VectorizedTableScan(
+        RelOptCluster cluster,
+        RelTraitSet traitSet,
+        RelOptTable table,
+        List<Integer> projects,
+        List<RexNode> filters
+    ) {
+        super(cluster, traitSet, Collections.emptyList(), table);
+
+        this.projects = ImmutableIntList.copyOf(projects);
+        this.filters = ImmutableList.copyOf(filters);
+    }
+
+    @Override
+    public RelNode copy(RelTraitSet traitSet, List<RelNode> inputs) {
+        return new VectorizedTableScan(getCluster(), traitSet, getTable(), projects, filters);
+    }
+
+    @Override
+    public RelNode accept(RexShuttle shuttle) {
+        List<RexNode> newFilters = new ArrayList<>(filters.size());
+
+        for (RexNode filter : filters) {
+            newFilters.add(filter.accept(shuttle));
+        }
+
+        if (newFilters.equals(filters)) {
+            return this;
+        }
+
+        return new VectorizedTableScan(getCluster(), traitSet, getTable(), projects, newFilters);
+    }
+
+    /** Ordinals of the table columns produced by the scan. */
+    public ImmutableIntList getProjects() {
+        return projects;
+    }
+
+    /** Conjuncts over the table columns used to skip blocks. */
+    public ImmutableList<RexNode> getFilters() {
+        return filters;
+    }
+
+    /**
+     * Whether the scan reads all columns of the table and does not skip blocks.
+     */
+    public boolean isFullScan() {
+        return filters.isEmpty() && projects.equals(ImmutableIntList.identity(table.getRowType().getFieldCount()));
+    }
+
+    @Override
+    public RelDataType deriveRowType() {
+        List<RelDataTypeField> fields = table.getRowType().getFieldList();
+        List<RelDataTypeField> projectedFields = new ArrayList<>(projects.size());
+
+        for (int project : projects) {
+            projectedFields.add(fields.get(project));
+        }
+
+        return getCluster().getTypeFactory().createStructType(projectedFields);
+    }
+
+    @Override
+    public RelWriter explainTerms(RelWriter pw) {
+        return super.explainTerms(pw)
+            .itemIf("projects", projects, !isFullScan())
+            .itemIf("filters", filters, !filters.isEmpty());
+    }
+
+    @Override
+    public RelOptCost computeSelfCost(RelOptPlanner planner, RelMetadataQuery mq) {
+        if (isFullScan()) {
+            return super.computeSelfCost(planner, mq);
+        }
+
+        // Same factors as in the Calcite's BindableTableScan.
+        double filterFactor = filters.isEmpty() ? 1.0d : 0.5d;
+        double projectFactor = (projects.size() + 2.0d) / (table.getRowType().getFieldCount() + 2.0d);
+
+        return super.computeSelfCost(planner, mq).multiplyBy(filterFactor * projectFactor);
+    }
+
+    @Override
+    public BatchIterator open(ExecutionContext context) {
+        MorselSource morselSource = context.getMorselSource();
+
+        if (morselSource == null) {
+            Iterator<Morsel> morsels = morsels(context, Integer.MAX_VALUE).iterator();
+            morselSource = () -> morsels.hasNext() ? morsels.next() : null;
+        }
+
+        return new ScanIterator(morselSource, projects.toIntArray(), context.getBatchSize());
+    }
+
+    /**
+     * Split the blocks that may contain matching rows into morsels of at most the given number of rows. Blocks
+     * are filtered with the zone maps for the parameters of the context.
+     */
+    public List<Morsel> morsels(ExecutionContext context, int morselSize) {
+        if (morselSize <= 0) {
+            throw new IllegalArgumentException("Morsel size must be positive: " + morselSize);
+        }
+
+        SimpleTable table = getTable().unwrap(SimpleTable.class);
+        ZoneMapFilter filter = ZoneMapFilter.create(filters, context::getParameter);
+        List<Morsel> res = new ArrayList<>();
+
+        for (Block block : table.getStore().getBlocks()) {
+            if (!filter.mayMatch(block)) {
+                context.onBlockSkipped();
+
+                continue;
+            }
+
+            context.onBlockScanned(block.getRowCount());
+
+            for (int start = 0; start < block.getRowCount(); start += morselSize) {
+                res.add(new Morsel(block, start, Math.min(morselSize, block.getRowCount() - start)));
+            }
+        }
+
+        return res;
+    }
+
+    static Vector createVector(ColumnChunk column, int capacity) {
+        switch (column.getType()) {
+            case INT:
+            case LONG:
+                return column.getTypeName() == SqlTypeName.DECIMAL
+                    ? new DecimalVector(capacity)
+                    : new LongVector(capacity);
+
+            case DOUBLE:
+                return new DoubleVector(capacity);
+
+            default:
+                return new ObjectVector(capacity);
+        }
+    }
+
+    /**
+     * Copy the rows of the column chunk to the vector.
+     */
+    static void load(ColumnChunk column, int row, int count, Vector vector) {
+        switch (column.getType()) {
+            case INT:
+            case LONG:
+                if (column.getTypeName() == SqlTypeName.DECIMAL) {
+                    column.getLongs(row, ((DecimalVector) vector).reset(count, column.getScale()), 0, count);
+                } else {
+                    column.getLongs(row, ((LongVector) vector).reset(count), 0, count);
+                }
+
+                break;
+
+            case DOUBLE:
+                column.getDoubles(row, ((DoubleVector) vector).reset(count), 0, count);
+
+                break;
+
+            default:
+                Object[] objects = ((ObjectVector) vector).reset(count);
+                List<String> dictionary = column.getDictionary();
+
+                for (int i = 0; i < count; i++) {
+                    objects[i] = dictionary.isEmpty() ? null : dictionary.get(column.getCode(row + i));
+                }
+        }
+
+        if (column.hasNulls()) {
+            column.getNulls(row, vector.resetNulls(count), 0, count);
+        }
+    }
+
+    private static final class ScanIterator implements BatchIterator {
+        private final MorselSource morselSource;
+        private final int[] projects;
+        private final int batchSize;
+
+        private Batch batch;
+        private Morsel morsel;
+        private int row;
+        private int end;
+
+        private ScanIterator(MorselSource morselSource, int[] projects, int batchSize) {
+            this.morselSource = morselSource;
+            this.projects = projects;
+            this.batchSize = batchSize;
+        }
+
+        @Override
+        public Batch next() {
+            if (row == end) {
+                morsel = morselSource.next();
+
+                if (morsel == null) {
+                    return null;
+                }
+
+                row = morsel.getStart();
+                end = row + morsel.getRowCount();
+            }
+
+            Block block = morsel.getBlock();
+
+            if (batch == null) {
+                Vector[] vectors = new Vector[projects.length];
+
+                for (int i = 0; i < vectors.length; i++) {
+                    vectors[i] = createVector(block.getColumn(projects[i]), batchSize);
+                }
+
+                batch = new Batch(vectors, 0);
+            }
+
+            int count = Math.min(batchSize, end - row);
+
+            for (int i = 0; i < projects.length; i++) {
+                load(block.getColumn(projects[i]), row, count, batch.getColumn(i));
+            }
+
+            batch.setSize(count);
+            row += count;
+
+            return batch;
+        }
+    }
+}
@@ -0,0 +1,216 @@
+package com.querifylabs.blog.optimizer;
+
+import org.apache.calcite.adapter.enumerable.EnumerableConvention;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.lang.management.ManagementFactory;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import java.util.jar.JarEntry;
+import java.util.jar.JarOutputStream;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+/**
+ * Measures the time to the first TPC-H Q6 plan in a fresh JVM: without the warm-up, with the
+ * {@link OptimizerWarmup}, and with both modes on top of the application class data sharing archive, if the JVM
+ * supports it (JDK 13+).
+ * <p>
+ * Every measurement runs in a separate JVM. The classes of the project are packed into a temporary JAR, because
+ * the archive ignores classes loaded from directories.
+ * <p>
+ * Usage: {@code ColdStartBenchmark [runs]}
+ */
+public class ColdStartBenchmark {
+
+    private static final String CHILD = "child";
+    private static final String RESULT = "RESULT ";
+
+    public static void main(String[] args) throws Exception {
+        if (args.length > 0 && args[0].equals(CHILD)) {
+            child(args[1].equals("warm"));
+
+            return;
+        }
+
+        int runs = args.length > 0 ? Integer.parseInt(args[0]) : 5;
+
+        Path directory = Files.createTempDirectory("cold-start");
+
+        try {
+            String classPath = jarClassPath(directory);
+
+            measure("cold", classPath, Collections.emptyList(), runs);
+            measure("warm", classPath, Collections.emptyList(), runs);
+
+            if (javaVersion() >= 13) {
+                Path archive = directory.resolve("optimizer.jsa");
+
+                run(classPath, Collections.singletonList("-XX:ArchiveClassesAtExit=" + archive), "warm");
+
+                List<String> archiveOptions = Collections.singletonList("-XX:SharedArchiveFile=" + archive);
+                measure("cold+appcds", classPath, archiveOptions, runs);
+                measure("warm+appcds", classPath, archiveOptions, runs);
+            } else {
+                System.out.println("AppCDS requires JDK 13+, skipped");
+            }
+        } finally {
+            try (Stream<Path> paths = Files.walk(directory)) {
+                for (Path path : paths.sorted(Collections.reverseOrder()).collect(Collectors.toList())) {
+                    Files.deleteIfExists(path);
+                }
+            }
+        }
+    }
+
+    /**
+     * Plan the query in the current JVM and print the time spent in the warm-up, the latency of the first plan, and
+     * the time from the JVM start to the first plan.
+     */
+    private static void child(boolean warm) throws Exception {
+        OptimizerFactory factory = OptimizerFactory.create(OptimizerTest.createTpchQ6Schema());
+
+        long warmupNanos = 0L;
+
+        if (warm) {
+            warmupNanos = OptimizerWarmup.newBuilder()
+                .withRules(OptimizerTest.TPCH_Q6_RULES, EnumerableConvention.INSTANCE)
+                .build()
+                .run(factory);
+        }
+
+        long start = System.nanoTime();
+        factory.newOptimizer().plan(
+            OptimizerTest.TPCH_Q6,
+            OptimizerTest.TPCH_Q6_RULES,
+            EnumerableConvention.INSTANCE
+        );
+        long firstPlanNanos = System.nanoTime() - start;
+
+        System.out.println(
+            RESULT
+                + TimeUnit.NANOSECONDS.toMillis(warmupNanos) + " "
+                + TimeUnit.NANOSECONDS.toMillis(firstPlanNanos) + " "
+                + ManagementFactory.getRuntimeMXBean().getUptime()
+        );
+    }
+
+    private static void measure(String name, String classPath, List<String> options, int runs) throws Exception {
+        long[][] results = new long[3][runs];
+
+        for (int i = 0; i < runs; i++) {
+            long[] result = run(classPath, options, name.startsWith("warm") ? "warm" : "cold");
+
+            for (int j = 0; j < result.length; j++) {
+                results[j][i] = result[j];
+            }
+        }
+
+        System.out.printf(
+            "%s: warm-up=%d ms, first plan=%d ms, JVM start to first plan=%d ms (medians of %d runs)%n",
+            name,
+            median(results[0]),
+            median(results[1]),
+            median(results[2]),
+            runs
+        );
+    }
+
+    private static long[] run(String classPath, List<String> options, String mode) throws Exception {
+        List<String> command = new ArrayList<>();
+        command.add(Paths.get(System.getProperty("java.home"), "bin", "java").toString());
+        command.addAll(options);
+        command.addAll(Arrays.asList("-cp", classPath, ColdStartBenchmark.class.getName(), CHILD, mode));
+
+        Process process = new ProcessBuilder(command).redirectErrorStream(true).start();
+
+        // The JVM may print warnings, e.g. about the classes that could not be archived.
+        StringBuilder output = new StringBuilder();
+        String result = null;
+
+        try (BufferedReader reader = new BufferedReader(
+            new InputStreamReader(process.getInputStream(), StandardCharsets.UTF_8)
+        )) {
+            for (String line = reader.readLine(); line != null; line = reader.readLine()) {
+                if (line.startsWith(RESULT)) {
+                    result = line.substring(RESULT.length());
+                } else {
+                    output.append(line).append(System.lineSeparator());
+                }
+            }
+        }
+
+        if (process.waitFor() != 0 || result == null) {
+            throw new IllegalStateException("Child JVM failed: " + command + ", output: " + output);
+        }
+
+        String[] parts = result.trim().split(" ");
+
+        return new long[] { Long.parseLong(parts[0]), Long.parseLong(parts[1]), Long.parseLong(parts[2]) };
+    }
+
+    /**
+     * The class path of the current JVM, with the directories replaced by a single JAR.
+     */
+    private static String jarClassPath(Path directory) throws IOException {
+        Path jar = directory.resolve("classes.jar");
+        List<String> res = new ArrayList<>();
+        res.add(jar.toString());
+
+        try (JarOutputStream out = new JarOutputStream(Files.newOutputStream(jar))) {
+            Set<String> entries = new HashSet<>();
+
+            for (String element : System.getProperty("java.class.path").split(File.pathSeparator)) {
+                Path path = Paths.get(element);
+
+                if (!Files.isDirectory(path)) {
+                    res.add(element);
+
+                    continue;
+                }
+
+                try (Stream<Path> files = Files.walk(path)) {
+                    for (Path file : files.filter(Files::isRegularFile).collect(Collectors.toList())) {
+                        String name = path.relativize(file).toString().replace(File.separatorChar, '/');
+
+                        // Test and main resources might overlap.
+                        if (!entries.add(name)) {
+                            continue;
+                        }
+
+                        out.putNextEntry(new JarEntry(name));
+                        Files.copy(file, out);
+                        out.closeEntry();
+                    }
+                }
+            }
+        }
+
+        return String.join(File.pathSeparator, res);
+    }
+
+    private static int javaVersion() {
+        String version = System.getProperty("java.specification.version");
+
+        return Integer.parseInt(version.startsWith("1.") ? version.substring(2) : version);
+    }
+
+    private static long median(long[] values) {
+        long[] sorted = values.clone();
+        Arrays.sort(sorted);
+
+        return sorted[sorted.length / 2];
+    }
+}
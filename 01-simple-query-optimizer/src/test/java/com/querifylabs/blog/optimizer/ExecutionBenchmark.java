@@ -0,0 +1,177 @@
+package com.querifylabs.blog.optimizer;
+
+import com.querifylabs.blog.optimizer.storage.ColumnarFile;
+import com.querifylabs.blog.optimizer.storage.ColumnarStore;
+import com.querifylabs.blog.optimizer.vectorized.ParallelExecutor;
+import com.querifylabs.blog.optimizer.vectorized.VectorizedConvention;
+import com.querifylabs.blog.optimizer.vectorized.VectorizedExecutor;
+import com.querifylabs.blog.optimizer.vectorized.VectorizedRules;
+import com.querifylabs.blog.optimizer.vectorized.VectorizedScanPushdownRule;
+import org.apache.calcite.adapter.enumerable.EnumerableConvention;
+import org.apache.calcite.plan.RelOptRule;
+import org.apache.calcite.rel.RelNode;
+import org.apache.calcite.tools.RuleSets;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.math.BigDecimal;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * JMH benchmarks of the TPC-H Q6 execution over the generated lineitem table: in the Enumerable convention, in the
+ * vectorized convention with and without the projection and filter pushdown into the scan, over the memory-mapped
+ * columnar file, and with the morsel-driven parallel execution.
+ * <p>
+ * If the table is clustered, ship dates ascend over the table, so that the zone maps skip the blocks outside of the
+ * requested year.
+ * <p>
+ * Usage: {@code mvn -Pjmh test-compile exec:exec -Djmh.args="ExecutionBenchmark -p rows=1000000"}
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 5)
+@Measurement(iterations = 5, time = 5)
+@Fork(value = 1, jvmArgs = { "-Xms4g", "-Xmx4g" })
+public class ExecutionBenchmark {
+
+    /** 1994-01-01, 1995-01-01, 0.06, 0.06, 24 */
+    static final List<Object> Q6_PARAMETERS = Arrays.asList(
+        8766,
+        9131,
+        new BigDecimal("0.06"),
+        new BigDecimal("0.06"),
+        new BigDecimal("24")
+    );
+
+    @Benchmark
+    public List<Object[]> enumerable(Lineitem lineitem) {
+        return OptimizerTest.executeEnumerable(lineitem.schema, lineitem.enumerablePlan, Q6_PARAMETERS);
+    }
+
+    @Benchmark
+    public List<Object[]> vectorized(Lineitem lineitem) {
+        return VectorizedExecutor.execute(lineitem.vectorizedPlan, Q6_PARAMETERS);
+    }
+
+    @Benchmark
+    public List<Object[]> vectorizedFullScan(Lineitem lineitem) {
+        return VectorizedExecutor.execute(lineitem.fullScanPlan, Q6_PARAMETERS);
+    }
+
+    @Benchmark
+    public List<Object[]> vectorizedMappedFile(MappedFile file) {
+        return VectorizedExecutor.execute(file.plan, Q6_PARAMETERS);
+    }
+
+    @Benchmark
+    public List<Object[]> parallel(Lineitem lineitem, Parallel parallel) {
+        return parallel.executor.execute(lineitem.vectorizedPlan, Q6_PARAMETERS);
+    }
+
+    @State(Scope.Benchmark)
+    public static class Lineitem {
+        @Param({ "10000000" })
+        public int rows;
+
+        @Param({ "false", "true" })
+        public boolean clustered;
+
+        SimpleTable table;
+        SimpleSchema schema;
+        RelNode enumerablePlan;
+        RelNode vectorizedPlan;
+        RelNode fullScanPlan;
+
+        @Setup(Level.Trial)
+        public void setup() throws Exception {
+            table = OptimizerTest.createTpchLineitem(rows, ColumnarStore.DEFAULT_BLOCK_SIZE, clustered);
+            schema = SimpleSchema.newBuilder("tpch").addTable(table).build();
+
+            enumerablePlan = OptimizerTest.optimize(
+                Optimizer.create(schema),
+                OptimizerTest.TPCH_Q6,
+                EnumerableConvention.INSTANCE
+            );
+            vectorizedPlan = OptimizerTest.optimize(
+                Optimizer.create(schema),
+                OptimizerTest.TPCH_Q6,
+                VectorizedConvention.INSTANCE
+            );
+
+            List<RelOptRule> fullScanRules = new ArrayList<>(VectorizedRules.RULES);
+            fullScanRules.remove(VectorizedScanPushdownRule.INSTANCE);
+
+            Optimizer optimizer = Optimizer.create(schema);
+            RelNode rel = optimizer.convert(optimizer.validate(optimizer.parse(OptimizerTest.TPCH_Q6)));
+            fullScanPlan = optimizer.optimize(
+                rel,
+                rel.getTraitSet().plus(VectorizedConvention.INSTANCE),
+                RuleSets.ofList(fullScanRules)
+            );
+        }
+    }
+
+    @State(Scope.Benchmark)
+    public static class MappedFile {
+        Path path;
+        RelNode plan;
+
+        @Setup(Level.Trial)
+        public void setup(Lineitem lineitem) throws Exception {
+            path = Files.createTempFile("lineitem", ".col");
+            ColumnarFile.newWriter(path).write(lineitem.table.getFieldNames(), lineitem.table.getStore());
+
+            SimpleSchema schema = SimpleSchema.newBuilder("tpch")
+                .addTable(SimpleTable.newBuilder("lineitem").withFile(ColumnarFile.open(path)).build())
+                .build();
+
+            plan = OptimizerTest.optimize(
+                Optimizer.create(schema),
+                OptimizerTest.TPCH_Q6,
+                VectorizedConvention.INSTANCE
+            );
+        }
+
+        @TearDown(Level.Trial)
+        public void tearDown() throws Exception {
+            Files.deleteIfExists(path);
+        }
+    }
+
+    @State(Scope.Benchmark)
+    public static class Parallel {
+        @Param({ "1", "2", "4", "8" })
+        public int parallelism;
+
+        ForkJoinPool pool;
+        ParallelExecutor executor;
+
+        @Setup(Level.Trial)
+        public void setup() {
+            pool = new ForkJoinPool(parallelism);
+            executor = ParallelExecutor.newBuilder().withPool(pool).build();
+        }
+
+        @TearDown(Level.Trial)
+        public void tearDown() {
+            pool.shutdown();
+        }
+    }
+}
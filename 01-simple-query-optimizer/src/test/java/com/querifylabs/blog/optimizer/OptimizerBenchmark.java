@@ -0,0 +1,418 @@
+package com.querifylabs.blog.optimizer;
+
+import org.apache.calcite.adapter.enumerable.EnumerableConvention;
+import org.apache.calcite.adapter.enumerable.EnumerableRules;
+import org.apache.calcite.rel.RelNode;
+import org.apache.calcite.rel.rules.CoreRules;
+import org.apache.calcite.sql.SqlNode;
+import org.apache.calcite.sql.type.SqlTypeName;
+import org.apache.calcite.tools.RuleSet;
+import org.apache.calcite.tools.RuleSets;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * JMH benchmarks of every {@link Optimizer} phase and of the whole pipeline, for TPC-H Q3, Q5, Q6, Q10 and TPC-DS
+ * Q7 against the schemas with the scale factor 1 statistics.
+ * <p>
+ * Every phase is measured on a fresh optimizer, prepared outside of the measurement. The sample time mode reports
+ * the latency percentiles, the GC profiler reports the allocation per query ({@code gc.alloc.rate.norm}).
+ * <p>
+ * The optimizers of {@link #endToEnd} are created from the shared factory, so the concurrent planning throughput
+ * is measured with the JMH options, e.g. {@code OptimizerBenchmark.endToEnd -bm thrpt -t 4}.
+ * <p>
+ * Usage: {@code OptimizerBenchmark [JMH options]}, or {@code mvn -Pjmh test-compile exec:exec}
+ */
+@BenchmarkMode(Mode.SampleTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgs = { "-Xms1g", "-Xmx1g" })
+public class OptimizerBenchmark {
+
+    static final RuleSet RULES = RuleSets.ofList(
+        CoreRules.JOIN_TO_MULTI_JOIN,
+        CoreRules.FILTER_MULTI_JOIN_MERGE,
+        CoreRules.PROJECT_MULTI_JOIN_MERGE,
+        JoinEnumeratorRule.INSTANCE,
+        CoreRules.AGGREGATE_REDUCE_FUNCTIONS,
+        CoreRules.FILTER_TO_CALC,
+        CoreRules.PROJECT_TO_CALC,
+        CoreRules.FILTER_CALC_MERGE,
+        CoreRules.PROJECT_CALC_MERGE,
+        EnumerableRules.ENUMERABLE_TABLE_SCAN_RULE,
+        EnumerableRules.ENUMERABLE_PROJECT_RULE,
+        EnumerableRules.ENUMERABLE_FILTER_RULE,
+        EnumerableRules.ENUMERABLE_CALC_RULE,
+        EnumerableRules.ENUMERABLE_JOIN_RULE,
+        EnumerableRules.ENUMERABLE_AGGREGATE_RULE,
+        EnumerableRules.ENUMERABLE_SORT_RULE,
+        EnumerableRules.ENUMERABLE_LIMIT_RULE
+    );
+
+    static final String TPCH_Q3 =
+        "select\n" +
+        "    l_orderkey,\n" +
+        "    sum(l_extendedprice * (1 - l_discount)) as revenue,\n" +
+        "    o_orderdate,\n" +
+        "    o_shippriority\n" +
+        "from\n" +
+        "    customer, orders, lineitem\n" +
+        "where\n" +
+        "    c_mktsegment = 'BUILDING'\n" +
+        "    and c_custkey = o_custkey\n" +
+        "    and l_orderkey = o_orderkey\n" +
+        "    and o_orderdate < date '1995-03-15'\n" +
+        "    and l_shipdate > date '1995-03-15'\n" +
+        "group by\n" +
+        "    l_orderkey, o_orderdate, o_shippriority\n" +
+        "order by\n" +
+        "    revenue desc, o_orderdate\n" +
+        "limit 10";
+
+    static final String TPCH_Q5 =
+        "select\n" +
+        "    n_name,\n" +
+        "    sum(l_extendedprice * (1 - l_discount)) as revenue\n" +
+        "from\n" +
+        "    customer, orders, lineitem, supplier, nation, region\n" +
+        "where\n" +
+        "    c_custkey = o_custkey\n" +
+        "    and l_orderkey = o_orderkey\n" +
+        "    and l_suppkey = s_suppkey\n" +
+        "    and c_nationkey = s_nationkey\n" +
+        "    and s_nationkey = n_nationkey\n" +
+        "    and n_regionkey = r_regionkey\n" +
+        "    and r_name = 'ASIA'\n" +
+        "    and o_orderdate >= date '1994-01-01'\n" +
+        "    and o_orderdate < date '1995-01-01'\n" +
+        "group by\n" +
+        "    n_name\n" +
+        "order by\n" +
+        "    revenue desc";
+
+    static final String TPCH_Q10 =
+        "select\n" +
+        "    c_custkey, c_name,\n" +
+        "    sum(l_extendedprice * (1 - l_discount)) as revenue,\n" +
+        "    c_acctbal, n_name, c_address, c_phone, c_comment\n" +
+        "from\n" +
+        "    customer, orders, lineitem, nation\n" +
+        "where\n" +
+        "    c_custkey = o_custkey\n" +
+        "    and l_orderkey = o_orderkey\n" +
+        "    and o_orderdate >= date '1993-10-01'\n" +
+        "    and o_orderdate < date '1994-01-01'\n" +
+        "    and l_returnflag = 'R'\n" +
+        "    and c_nationkey = n_nationkey\n" +
+        "group by\n" +
+        "    c_custkey, c_name, c_acctbal, c_phone, n_name, c_address, c_comment\n" +
+        "order by\n" +
+        "    revenue desc\n" +
+        "limit 20";
+
+    static final String TPCDS_Q7 =
+        "select\n" +
+        "    i_item_id,\n" +
+        "    avg(ss_quantity) agg1, avg(ss_list_price) agg2, avg(ss_coupon_amt) agg3, avg(ss_sales_price) agg4\n" +
+        "from\n" +
+        "    store_sales, customer_demographics, date_dim, item, promotion\n" +
+        "where\n" +
+        "    ss_sold_date_sk = d_date_sk\n" +
+        "    and ss_item_sk = i_item_sk\n" +
+        "    and ss_cdemo_sk = cd_demo_sk\n" +
+        "    and ss_promo_sk = p_promo_sk\n" +
+        "    and cd_gender = 'M'\n" +
+        "    and cd_marital_status = 'S'\n" +
+        "    and cd_education_status = 'College'\n" +
+        "    and (p_channel_email = 'N' or p_channel_event = 'N')\n" +
+        "    and d_year = 2000\n" +
+        "group by\n" +
+        "    i_item_id\n" +
+        "order by\n" +
+        "    i_item_id\n" +
+        "limit 100";
+
+    public static void main(String[] args) throws Exception {
+        new Runner(new OptionsBuilder()
+            .include(OptimizerBenchmark.class.getSimpleName())
+            .addProfiler(GCProfiler.class)
+            .build()
+        ).run();
+    }
+
+    @Benchmark
+    public SqlNode parse(ParseState state) throws Exception {
+        return state.optimizer.parse(state.sql);
+    }
+
+    @Benchmark
+    public SqlNode validate(ValidateState state) {
+        return state.optimizer.validate(state.node);
+    }
+
+    @Benchmark
+    public RelNode convert(ConvertState state) {
+        return state.optimizer.convert(state.node);
+    }
+
+    @Benchmark
+    public RelNode optimize(OptimizeState state) {
+        RelNode rel = state.rel;
+
+        return state.optimizer.optimize(rel, rel.getTraitSet().plus(EnumerableConvention.INSTANCE), RULES);
+    }
+
+    @Benchmark
+    public RelNode endToEnd(Workload workload) throws Exception {
+        Optimizer optimizer = workload.factory.newOptimizer();
+        RelNode rel = optimizer.convert(optimizer.validate(optimizer.parse(workload.sql)));
+
+        return optimizer.optimize(rel, rel.getTraitSet().plus(EnumerableConvention.INSTANCE), RULES);
+    }
+
+    /**
+     * The query and the factory of the optimizers for its schema.
+     */
+    @State(Scope.Benchmark)
+    public static class Workload {
+        @Param({ "TPCH_Q3", "TPCH_Q5", "TPCH_Q6", "TPCH_Q10", "TPCDS_Q7" })
+        public String query;
+
+        OptimizerFactory factory;
+        String sql;
+
+        @Setup(Level.Trial)
+        public void setup() {
+            switch (query) {
+                case "TPCH_Q3":
+                    sql = TPCH_Q3;
+                    break;
+
+                case "TPCH_Q5":
+                    sql = TPCH_Q5;
+                    break;
+
+                case "TPCH_Q6":
+                    sql = OptimizerTest.TPCH_Q6;
+                    break;
+
+                case "TPCH_Q10":
+                    sql = TPCH_Q10;
+                    break;
+
+                case "TPCDS_Q7":
+                    sql = TPCDS_Q7;
+                    break;
+
+                default:
+                    throw new IllegalArgumentException("Unknown query: " + query);
+            }
+
+            factory = OptimizerFactory.create(query.startsWith("TPCH") ? createTpchSchema() : createTpcdsSchema());
+        }
+    }
+
+    @State(Scope.Thread)
+    public static class ParseState {
+        Optimizer optimizer;
+        String sql;
+
+        @Setup(Level.Trial)
+        public void setup(Workload workload) {
+            optimizer = workload.factory.newOptimizer();
+            sql = workload.sql;
+        }
+    }
+
+    @State(Scope.Thread)
+    public static class ValidateState {
+        Optimizer optimizer;
+        SqlNode node;
+
+        @Setup(Level.Invocation)
+        public void setup(Workload workload) throws Exception {
+            optimizer = workload.factory.newOptimizer();
+            node = optimizer.parse(workload.sql);
+        }
+    }
+
+    @State(Scope.Thread)
+    public static class ConvertState {
+        Optimizer optimizer;
+        SqlNode node;
+
+        @Setup(Level.Invocation)
+        public void setup(Workload workload) throws Exception {
+            optimizer = workload.factory.newOptimizer();
+            node = optimizer.validate(optimizer.parse(workload.sql));
+        }
+    }
+
+    @State(Scope.Thread)
+    public static class OptimizeState {
+        Optimizer optimizer;
+        RelNode rel;
+
+        @Setup(Level.Invocation)
+        public void setup(Workload workload) throws Exception {
+            optimizer = workload.factory.newOptimizer();
+            rel = optimizer.convert(optimizer.validate(optimizer.parse(workload.sql)));
+        }
+    }
+
+    /**
+     * TPC-H tables used by the benchmarked queries, with the scale factor 1 statistics.
+     */
+    static SimpleSchema createTpchSchema() {
+        return SimpleSchema.newBuilder("tpch")
+            .addTable(SimpleTable.newBuilder("region")
+                .addField("r_regionkey", SqlTypeName.BIGINT)
+                .addField("r_name", SqlTypeName.VARCHAR)
+                .withRowCount(5L)
+                .withKey("r_regionkey")
+                .withColumnStatistic("r_name", distinct(5))
+                .build())
+            .addTable(SimpleTable.newBuilder("nation")
+                .addField("n_nationkey", SqlTypeName.BIGINT)
+                .addField("n_name", SqlTypeName.VARCHAR)
+                .addField("n_regionkey", SqlTypeName.BIGINT)
+                .withRowCount(25L)
+                .withKey("n_nationkey")
+                .withColumnStatistic("n_name", distinct(25))
+                .withColumnStatistic("n_regionkey", range(5, 0, 4))
+                .build())
+            .addTable(SimpleTable.newBuilder("supplier")
+                .addField("s_suppkey", SqlTypeName.BIGINT)
+                .addField("s_nationkey", SqlTypeName.BIGINT)
+                .withRowCount(10_000L)
+                .withKey("s_suppkey")
+                .withColumnStatistic("s_nationkey", range(25, 0, 24))
+                .build())
+            .addTable(SimpleTable.newBuilder("customer")
+                .addField("c_custkey", SqlTypeName.BIGINT)
+                .addField("c_name", SqlTypeName.VARCHAR)
+                .addField("c_address", SqlTypeName.VARCHAR)
+                .addField("c_nationkey", SqlTypeName.BIGINT)
+                .addField("c_phone", SqlTypeName.VARCHAR)
+                .addField("c_acctbal", SqlTypeName.DECIMAL)
+                .addField("c_mktsegment", SqlTypeName.VARCHAR)
+                .addField("c_comment", SqlTypeName.VARCHAR)
+                .withRowCount(150_000L)
+                .withKey("c_custkey")
+                .withColumnStatistic("c_nationkey", range(25, 0, 24))
+                .withColumnStatistic("c_mktsegment", distinct(5))
+                .build())
+            .addTable(SimpleTable.newBuilder("orders")
+                .addField("o_orderkey", SqlTypeName.BIGINT)
+                .addField("o_custkey", SqlTypeName.BIGINT)
+                .addField("o_orderdate", SqlTypeName.DATE)
+                .addField("o_shippriority", SqlTypeName.INTEGER)
+                .withRowCount(1_500_000L)
+                .withKey("o_orderkey")
+                .withColumnStatistic("o_custkey", range(99_996, 1, 149_999))
+                .withColumnStatistic("o_orderdate", range(2_406, 8_035, 10_440))
+                .withColumnStatistic("o_shippriority", range(1, 0, 0))
+                .build())
+            .addTable(SimpleTable.newBuilder("lineitem")
+                .addField("l_orderkey", SqlTypeName.BIGINT)
+                .addField("l_suppkey", SqlTypeName.BIGINT)
+                .addField("l_linenumber", SqlTypeName.INTEGER)
+                .addField("l_quantity", SqlTypeName.DECIMAL)
+                .addField("l_extendedprice", SqlTypeName.DECIMAL)
+                .addField("l_discount", SqlTypeName.DECIMAL)
+                .addField("l_returnflag", SqlTypeName.VARCHAR)
+                .addField("l_shipdate", SqlTypeName.DATE)
+                .withRowCount(6_001_215L)
+                .withKey("l_orderkey", "l_linenumber")
+                .withColumnStatistic("l_orderkey", range(1_500_000, 1, 6_000_000))
+                .withColumnStatistic("l_suppkey", range(10_000, 1, 10_000))
+                .withColumnStatistic("l_quantity", range(50, 1, 50))
+                .withColumnStatistic("l_discount", range(11, 0.0d, 0.1d))
+                .withColumnStatistic("l_returnflag", distinct(3))
+                .withColumnStatistic("l_shipdate", range(2_526, 8_036, 10_561))
+                .build())
+            .build();
+    }
+
+    /**
+     * TPC-DS tables used by the benchmarked queries, with the scale factor 1 statistics.
+     */
+    static SimpleSchema createTpcdsSchema() {
+        return SimpleSchema.newBuilder("tpcds")
+            .addTable(SimpleTable.newBuilder("store_sales")
+                .addField("ss_sold_date_sk", SqlTypeName.BIGINT)
+                .addField("ss_item_sk", SqlTypeName.BIGINT)
+                .addField("ss_cdemo_sk", SqlTypeName.BIGINT)
+                .addField("ss_promo_sk", SqlTypeName.BIGINT)
+                .addField("ss_quantity", SqlTypeName.INTEGER)
+                .addField("ss_list_price", SqlTypeName.DECIMAL)
+                .addField("ss_coupon_amt", SqlTypeName.DECIMAL)
+                .addField("ss_sales_price", SqlTypeName.DECIMAL)
+                .withRowCount(2_880_404L)
+                .withColumnStatistic("ss_sold_date_sk", range(1_823, 2_450_816, 2_452_642))
+                .withColumnStatistic("ss_item_sk", range(18_000, 1, 18_000))
+                .withColumnStatistic("ss_cdemo_sk", range(1_920_800, 1, 1_920_800))
+                .withColumnStatistic("ss_promo_sk", range(300, 1, 300))
+                .withColumnStatistic("ss_quantity", range(100, 1, 100))
+                .build())
+            .addTable(SimpleTable.newBuilder("customer_demographics")
+                .addField("cd_demo_sk", SqlTypeName.BIGINT)
+                .addField("cd_gender", SqlTypeName.VARCHAR)
+                .addField("cd_marital_status", SqlTypeName.VARCHAR)
+                .addField("cd_education_status", SqlTypeName.VARCHAR)
+                .withRowCount(1_920_800L)
+                .withKey("cd_demo_sk")
+                .withColumnStatistic("cd_gender", distinct(2))
+                .withColumnStatistic("cd_marital_status", distinct(5))
+                .withColumnStatistic("cd_education_status", distinct(7))
+                .build())
+            .addTable(SimpleTable.newBuilder("date_dim")
+                .addField("d_date_sk", SqlTypeName.BIGINT)
+                .addField("d_year", SqlTypeName.INTEGER)
+                .withRowCount(73_049L)
+                .withKey("d_date_sk")
+                .withColumnStatistic("d_year", range(201, 1_900, 2_100))
+                .build())
+            .addTable(SimpleTable.newBuilder("item")
+                .addField("i_item_sk", SqlTypeName.BIGINT)
+                .addField("i_item_id", SqlTypeName.VARCHAR)
+                .withRowCount(18_000L)
+                .withKey("i_item_sk")
+                .withColumnStatistic("i_item_id", distinct(9_000))
+                .build())
+            .addTable(SimpleTable.newBuilder("promotion")
+                .addField("p_promo_sk", SqlTypeName.BIGINT)
+                .addField("p_channel_email", SqlTypeName.VARCHAR)
+                .addField("p_channel_event", SqlTypeName.VARCHAR)
+                .withRowCount(300L)
+                .withKey("p_promo_sk")
+                .withColumnStatistic("p_channel_email", distinct(2))
+                .withColumnStatistic("p_channel_event", distinct(2))
+                .build())
+            .build();
+    }
+
+    private static ColumnStatistic distinct(double distinctCount) {
+        return ColumnStatistic.newBuilder().withDistinctCount(distinctCount).build();
+    }
+
+    private static ColumnStatistic range(double distinctCount, double min, double max) {
+        return ColumnStatistic.newBuilder().withDistinctCount(distinctCount).withMinMax(min, max).build();
+    }
+}
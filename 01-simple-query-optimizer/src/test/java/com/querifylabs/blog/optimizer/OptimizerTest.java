@@ -1,21 +1,113 @@
 package com.querifylabs.blog.optimizer;
 
+import com.google.common.collect.Iterables;
+import com.querifylabs.blog.optimizer.storage.Block;
+import com.querifylabs.blog.optimizer.storage.ColumnChunk;
+import com.querifylabs.blog.optimizer.storage.ColumnEncoding;
+import com.querifylabs.blog.optimizer.storage.ColumnType;
+import com.querifylabs.blog.optimizer.storage.ColumnarFile;
+import com.querifylabs.blog.optimizer.storage.ColumnarStore;
+import com.querifylabs.blog.optimizer.vectorized.ExecutionContext;
+import com.querifylabs.blog.optimizer.vectorized.ParallelExecutor;
+import com.querifylabs.blog.optimizer.vectorized.VectorizedConvention;
+import com.querifylabs.blog.optimizer.vectorized.VectorizedExecutor;
+import com.querifylabs.blog.optimizer.vectorized.VectorizedRules;
+import org.apache.calcite.DataContext;
 import org.apache.calcite.adapter.enumerable.EnumerableConvention;
+import org.apache.calcite.adapter.enumerable.EnumerableInterpretable;
+import org.apache.calcite.adapter.enumerable.EnumerableRel;
 import org.apache.calcite.adapter.enumerable.EnumerableRules;
+import org.apache.calcite.adapter.java.JavaTypeFactory;
+import org.apache.calcite.jdbc.CalciteSchema;
+import org.apache.calcite.jdbc.JavaTypeFactoryImpl;
+import org.apache.calcite.linq4j.QueryProvider;
+import org.apache.calcite.plan.Convention;
+import org.apache.calcite.plan.RelOptCluster;
+import org.apache.calcite.plan.RelOptUtil;
 import org.apache.calcite.rel.RelNode;
+import org.apache.calcite.rel.RelVisitor;
+import org.apache.calcite.rel.core.Join;
+import org.apache.calcite.rel.core.TableScan;
 import org.apache.calcite.rel.externalize.RelWriterImpl;
+import org.apache.calcite.rel.metadata.JaninoRelMetadataProvider;
+import org.apache.calcite.rel.metadata.RelMetadataQuery;
 import org.apache.calcite.rel.rules.CoreRules;
+import org.apache.calcite.rex.RexBuilder;
+import org.apache.calcite.rex.RexNode;
+import org.apache.calcite.runtime.Bindable;
+import org.apache.calcite.schema.SchemaPlus;
 import org.apache.calcite.sql.SqlExplainLevel;
 import org.apache.calcite.sql.SqlNode;
+import org.apache.calcite.sql.fun.SqlStdOperatorTable;
 import org.apache.calcite.sql.type.SqlTypeName;
 import org.apache.calcite.tools.RuleSet;
 import org.apache.calcite.tools.RuleSets;
+import org.apache.calcite.util.DateString;
+import org.apache.calcite.util.ImmutableBitSet;
+import org.junit.Rule;
 import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
 
 import java.io.PrintWriter;
 import java.io.StringWriter;
+import java.lang.management.ManagementFactory;
+import java.math.BigDecimal;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
 
 public class OptimizerTest {
+
+    @Rule
+    public TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+    static final String TPCH_Q6 =
+        "select\n" +
+        "    sum(l.l_extendedprice * l.l_discount) as revenue\n" +
+        "from\n" +
+        "    lineitem l\n" +
+        "where\n" +
+        "    l.l_shipdate >= ?\n" +
+        "    and l.l_shipdate < ?\n" +
+        "    and l.l_discount between (? - 0.01) AND (? + 0.01)\n" +
+        "    and l.l_quantity < ?";
+
+    static final RuleSet TPCH_Q6_RULES = RuleSets.ofList(
+        CoreRules.FILTER_TO_CALC,
+        CoreRules.PROJECT_TO_CALC,
+        CoreRules.FILTER_CALC_MERGE,
+        CoreRules.PROJECT_CALC_MERGE,
+        EnumerableRules.ENUMERABLE_TABLE_SCAN_RULE,
+        EnumerableRules.ENUMERABLE_PROJECT_RULE,
+        EnumerableRules.ENUMERABLE_FILTER_RULE,
+        EnumerableRules.ENUMERABLE_CALC_RULE,
+        EnumerableRules.ENUMERABLE_AGGREGATE_RULE
+    );
+
     @Test
     public void test_tpch_q6() throws Exception {
         SimpleTable lineitem = SimpleTable.newBuilder("lineitem")
@@ -68,6 +160,1576 @@ public class OptimizerTest {
         print("AFTER OPTIMIZATION", optimizerRelTree);
     }
 
+    @Test
+    public void test_tpch_q5_join_order() throws Exception {
+        SimpleSchema schema = SimpleSchema.newBuilder("tpch")
+            .addTable(SimpleTable.newBuilder("customer")
+                .addField("c_custkey", SqlTypeName.BIGINT)
+                .addField("c_nationkey", SqlTypeName.BIGINT)
+                .withRowCount(150_000L)
+                .build())
+            .addTable(SimpleTable.newBuilder("orders")
+                .addField("o_orderkey", SqlTypeName.BIGINT)
+                .addField("o_custkey", SqlTypeName.BIGINT)
+                .addField("o_orderdate", SqlTypeName.DATE)
+                .withRowCount(1_500_000L)
+                .build())
+            .addTable(SimpleTable.newBuilder("lineitem")
+                .addField("l_orderkey", SqlTypeName.BIGINT)
+                .addField("l_suppkey", SqlTypeName.BIGINT)
+                .addField("l_extendedprice", SqlTypeName.DECIMAL)
+                .addField("l_discount", SqlTypeName.DECIMAL)
+                .withRowCount(6_000_000L)
+                .build())
+            .addTable(SimpleTable.newBuilder("supplier")
+                .addField("s_suppkey", SqlTypeName.BIGINT)
+                .addField("s_nationkey", SqlTypeName.BIGINT)
+                .withRowCount(10_000L)
+                .build())
+            .addTable(SimpleTable.newBuilder("nation")
+                .addField("n_nationkey", SqlTypeName.BIGINT)
+                .addField("n_name", SqlTypeName.VARCHAR)
+                .addField("n_regionkey", SqlTypeName.BIGINT)
+                .withRowCount(25L)
+                .build())
+            .addTable(SimpleTable.newBuilder("region")
+                .addField("r_regionkey", SqlTypeName.BIGINT)
+                .addField("r_name", SqlTypeName.VARCHAR)
+                .withRowCount(5L)
+                .build())
+            .build();
+
+        Optimizer optimizer = Optimizer.create(schema);
+
+        String sql =
+            "select\n" +
+            "    n_name,\n" +
+            "    sum(l_extendedprice * (1 - l_discount)) as revenue\n" +
+            "from\n" +
+            "    customer, orders, lineitem, supplier, nation, region\n" +
+            "where\n" +
+            "    c_custkey = o_custkey\n" +
+            "    and l_orderkey = o_orderkey\n" +
+            "    and l_suppkey = s_suppkey\n" +
+            "    and c_nationkey = s_nationkey\n" +
+            "    and s_nationkey = n_nationkey\n" +
+            "    and n_regionkey = r_regionkey\n" +
+            "    and r_name = ?\n" +
+            "    and o_orderdate >= ?\n" +
+            "    and o_orderdate < ?\n" +
+            "group by\n" +
+            "    n_name";
+
+        RelNode relTree = optimizer.convert(optimizer.validate(optimizer.parse(sql)));
+
+        print("AFTER CONVERSION", relTree);
+
+        // No join commute/associate rules: the join order is decided by the JoinEnumeratorRule alone.
+        RuleSet rules = RuleSets.ofList(
+            CoreRules.JOIN_TO_MULTI_JOIN,
+            CoreRules.FILTER_MULTI_JOIN_MERGE,
+            CoreRules.PROJECT_MULTI_JOIN_MERGE,
+            JoinEnumeratorRule.INSTANCE,
+            CoreRules.FILTER_TO_CALC,
+            CoreRules.PROJECT_TO_CALC,
+            CoreRules.FILTER_CALC_MERGE,
+            CoreRules.PROJECT_CALC_MERGE,
+            EnumerableRules.ENUMERABLE_TABLE_SCAN_RULE,
+            EnumerableRules.ENUMERABLE_PROJECT_RULE,
+            EnumerableRules.ENUMERABLE_FILTER_RULE,
+            EnumerableRules.ENUMERABLE_CALC_RULE,
+            EnumerableRules.ENUMERABLE_JOIN_RULE,
+            EnumerableRules.ENUMERABLE_AGGREGATE_RULE
+        );
+
+        RelNode optimizerRelTree = optimizer.optimize(
+            relTree,
+            relTree.getTraitSet().plus(EnumerableConvention.INSTANCE),
+            rules
+        );
+
+        print("AFTER OPTIMIZATION", optimizerRelTree);
+
+        // All six tables are joined, and none of the joins is a cross-product.
+        int[] joinCount = new int[1];
+        new RelVisitor() {
+            @Override
+            public void visit(RelNode node, int ordinal, RelNode parent) {
+                if (node instanceof Join) {
+                    assertFalse(((Join) node).getCondition().isAlwaysTrue());
+                    joinCount[0]++;
+                }
+                super.visit(node, ordinal, parent);
+            }
+        }.go(optimizerRelTree);
+
+        assertEquals(5, joinCount[0]);
+    }
+
+    @Test
+    public void test_tpch_q6_two_phase() throws Exception {
+        Optimizer optimizer = Optimizer.create(createTpchQ6Schema());
+
+        RelNode relTree = optimizer.convert(optimizer.validate(optimizer.parse(TPCH_Q6)));
+
+        // Merging and constant reduction do not need costs, so they are applied by the HepPlanner.
+        RuleSet heuristicRules = RuleSets.ofList(
+            Iterables.concat(
+                Optimizer.HEURISTIC_RULES,
+                RuleSets.ofList(
+                    CoreRules.FILTER_TO_CALC,
+                    CoreRules.PROJECT_TO_CALC,
+                    CoreRules.FILTER_CALC_MERGE,
+                    CoreRules.PROJECT_CALC_MERGE,
+                    CoreRules.CALC_MERGE
+                )
+            )
+        );
+
+        RuleSet costBasedRules = RuleSets.ofList(
+            EnumerableRules.ENUMERABLE_TABLE_SCAN_RULE,
+            EnumerableRules.ENUMERABLE_CALC_RULE,
+            EnumerableRules.ENUMERABLE_AGGREGATE_RULE
+        );
+
+        OptimizerResult result = optimizer.optimize(
+            relTree,
+            relTree.getTraitSet().plus(EnumerableConvention.INSTANCE),
+            heuristicRules,
+            costBasedRules
+        );
+
+        print("AFTER TWO-PHASE OPTIMIZATION", result.getRel());
+
+        assertTrue(result.isExhaustive());
+        assertTrue(result.getHeuristicPhaseNanos() > 0L);
+        assertTrue(result.getCostBasedPhaseNanos() > 0L);
+
+        assertEquals(
+            RelOptUtil.toString(optimizer.optimize(
+                relTree,
+                relTree.getTraitSet().plus(EnumerableConvention.INSTANCE),
+                TPCH_Q6_RULES
+            )),
+            RelOptUtil.toString(result.getRel())
+        );
+    }
+
+    @Test
+    public void test_planning_budget() throws Exception {
+        // Chain of joins: t0 - t1 - ... - t9.
+        int tableCount = 10;
+        SimpleSchema.Builder schemaBuilder = SimpleSchema.newBuilder("chain");
+        StringBuilder sql = new StringBuilder("select t0.id from t0");
+
+        for (int i = 0; i < tableCount; i++) {
+            schemaBuilder.addTable(SimpleTable.newBuilder("t" + i)
+                .addField("id", SqlTypeName.BIGINT)
+                .addField("fk", SqlTypeName.BIGINT)
+                .withRowCount(1_000L * (i + 1))
+                .build());
+
+            if (i > 0) {
+                sql.append(" join t").append(i).append(" on t").append(i - 1).append(".fk = t").append(i).append(".id");
+            }
+        }
+
+        Optimizer optimizer = Optimizer.create(schemaBuilder.build());
+        RelNode relTree = optimizer.convert(optimizer.validate(optimizer.parse(sql.toString())));
+
+        // Exhaustive commute/associate search over ten joins takes too long.
+        RuleSet rules = RuleSets.ofList(
+            CoreRules.JOIN_COMMUTE,
+            CoreRules.JOIN_ASSOCIATE,
+            EnumerableRules.ENUMERABLE_TABLE_SCAN_RULE,
+            EnumerableRules.ENUMERABLE_PROJECT_RULE,
+            EnumerableRules.ENUMERABLE_JOIN_RULE
+        );
+
+        OptimizerResult result = optimizer.optimize(
+            relTree,
+            relTree.getTraitSet().plus(EnumerableConvention.INSTANCE),
+            rules,
+            PlanningBudget.of(5, TimeUnit.SECONDS, 1_000L)
+        );
+
+        print("AFTER BUDGETED OPTIMIZATION", result.getRel());
+
+        assertFalse(result.isExhaustive());
+        assertEquals(0L, result.getHeuristicPhaseNanos());
+        assertTrue(result.getCostBasedPhaseNanos() > 0L);
+        assertSame(EnumerableConvention.INSTANCE, result.getRel().getConvention());
+
+        // The budget is reset for the next optimization, that completes without the join reordering rules.
+        RuleSet implementationRules = RuleSets.ofList(
+            EnumerableRules.ENUMERABLE_TABLE_SCAN_RULE,
+            EnumerableRules.ENUMERABLE_PROJECT_RULE,
+            EnumerableRules.ENUMERABLE_JOIN_RULE
+        );
+        OptimizerResult implementationResult = optimizer.optimize(
+            relTree,
+            relTree.getTraitSet().plus(EnumerableConvention.INSTANCE),
+            implementationRules,
+            PlanningBudget.ofTime(1, TimeUnit.MINUTES)
+        );
+        assertTrue(implementationResult.isExhaustive());
+    }
+
+    @Test
+    public void test_plan_cache() throws Exception {
+        PlannerInstrumentation instrumentation = new PlannerInstrumentation();
+        Optimizer optimizer = OptimizerFactory.create(createTpchQ6Schema()).newOptimizer(instrumentation);
+
+        RelNode plan = optimizer.plan(TPCH_Q6, TPCH_Q6_RULES, EnumerableConvention.INSTANCE);
+        print("PLANNED", plan);
+
+        // The plan is cached by the statement text and by the validated statement.
+        assertEquals(2, optimizer.getPlanCache().size());
+
+        // Same statement with different whitespace is found by its text, without parsing. The cached plan is copied
+        // to the cluster of the optimizer.
+        instrumentation.reset();
+        String indentedSql = "  " + TPCH_Q6.replace("\n", "\n  ");
+        RelNode cachedPlan = optimizer.plan(indentedSql, TPCH_Q6_RULES, EnumerableConvention.INSTANCE);
+        assertNotSame(plan, cachedPlan);
+        assertSame(plan.getCluster(), cachedPlan.getCluster());
+        assertEquals(RelOptUtil.toString(plan), RelOptUtil.toString(cachedPlan));
+        assertEquals(1, optimizer.getPlanCache().stats().hitCount());
+        assertEquals(0L, instrumentation.getParseNanos());
+        assertEquals(0L, instrumentation.getValidateNanos());
+
+        // Same statement with different keyword casing is found after validation, without optimization.
+        String reformattedSql = TPCH_Q6.replace("select", "SELECT").replace("where", "WHERE");
+        cachedPlan = optimizer.plan(reformattedSql, TPCH_Q6_RULES, EnumerableConvention.INSTANCE);
+        assertEquals(RelOptUtil.toString(plan), RelOptUtil.toString(cachedPlan));
+        assertEquals(2, optimizer.getPlanCache().stats().hitCount());
+        assertTrue(instrumentation.getValidateNanos() > 0L);
+        assertEquals(0L, instrumentation.getConvertNanos());
+        assertEquals(0L, instrumentation.getOptimizeNanos());
+        assertEquals(3, optimizer.getPlanCache().size());
+
+        // Different rules produce a different plan.
+        RuleSet noCalcRules = RuleSets.ofList(
+            EnumerableRules.ENUMERABLE_TABLE_SCAN_RULE,
+            EnumerableRules.ENUMERABLE_PROJECT_RULE,
+            EnumerableRules.ENUMERABLE_FILTER_RULE,
+            EnumerableRules.ENUMERABLE_AGGREGATE_RULE
+        );
+        RelNode noCalcPlan = optimizer.plan(TPCH_Q6, noCalcRules, EnumerableConvention.INSTANCE);
+        assertNotEquals(RelOptUtil.toString(plan), RelOptUtil.toString(noCalcPlan));
+        assertEquals(5, optimizer.getPlanCache().size());
+    }
+
+    @Test
+    public void test_shared_plan_cache() throws Exception {
+        SimpleSchema schema = createTpchQ6Schema();
+        OptimizerFactory factory = OptimizerFactory.create(schema);
+
+        Optimizer optimizer = factory.newOptimizer();
+        RelNode plan = optimizer.plan(TPCH_Q6, TPCH_Q6_RULES, EnumerableConvention.INSTANCE);
+        assertSame(factory.getPlanCache(), optimizer.getPlanCache());
+        assertEquals(0, factory.getPlanCache().stats().hitCount());
+
+        // Another optimizer of the factory gets the plan copied to its own cluster.
+        Optimizer newOptimizer = factory.newOptimizer();
+        RelNode newPlan = newOptimizer.plan(TPCH_Q6, TPCH_Q6_RULES, EnumerableConvention.INSTANCE);
+        assertEquals(1, factory.getPlanCache().stats().hitCount());
+        assertNotSame(plan.getCluster(), newPlan.getCluster());
+        assertEquals(RelOptUtil.toString(plan), RelOptUtil.toString(newPlan));
+
+        List<Object> parameters = Arrays.asList(
+            8766,
+            9131,
+            new BigDecimal("0.06"),
+            new BigDecimal("0.06"),
+            new BigDecimal("24")
+        );
+        assertEquals(
+            executeEnumerable(schema, plan, parameters).get(0)[0],
+            executeEnumerable(schema, newPlan, parameters).get(0)[0]
+        );
+
+        // A new snapshot of the schema invalidates the cache.
+        schema.addTable(SimpleTable.newBuilder("orders")
+            .addField("o_orderkey", SqlTypeName.BIGINT)
+            .withRowCount(15_000L)
+            .build());
+
+        factory.newOptimizer().plan(TPCH_Q6, TPCH_Q6_RULES, EnumerableConvention.INSTANCE);
+        assertEquals(1, factory.getPlanCache().stats().hitCount());
+        assertEquals(2, factory.getPlanCache().size());
+
+        factory.newOptimizer().plan(TPCH_Q6, TPCH_Q6_RULES, EnumerableConvention.INSTANCE);
+        assertEquals(2, factory.getPlanCache().stats().hitCount());
+
+        // The optimizer pinned to the outdated snapshot neither finds nor caches plans.
+        optimizer.plan(TPCH_Q6, TPCH_Q6_RULES, EnumerableConvention.INSTANCE);
+        assertEquals(2, factory.getPlanCache().stats().hitCount());
+        assertEquals(2, factory.getPlanCache().size());
+    }
+
+    @Test
+    public void test_schema_snapshots() throws Exception {
+        SimpleSchema schema = createTpchQ6Schema();
+        OptimizerFactory factory = OptimizerFactory.create(schema);
+        SimpleTable lineitem = (SimpleTable) schema.getTableMap().get("lineitem");
+
+        SimpleSchemaSnapshot snapshot = schema.snapshot();
+        assertEquals(0L, snapshot.getVersion());
+        assertSame(snapshot, schema.snapshot());
+
+        Optimizer pinnedOptimizer = factory.newOptimizer();
+        assertSame(snapshot, pinnedOptimizer.getSchema());
+
+        // DDL publishes new versions, the pinned snapshot is not affected.
+        SimpleTable orders = SimpleTable.newBuilder("orders")
+            .addField("o_orderkey", SqlTypeName.BIGINT)
+            .withRowCount(15_000L)
+            .build();
+        assertEquals(1L, schema.addTable(orders).getVersion());
+        assertEquals(2L, schema.dropTable("lineitem").getVersion());
+        assertEquals(Collections.singleton("lineitem"), snapshot.getTableMap().keySet());
+        assertEquals(Collections.singleton("orders"), schema.getTableMap().keySet());
+
+        try {
+            schema.dropTable("lineitem");
+            fail();
+        } catch (IllegalArgumentException e) {
+            // Expected.
+        }
+
+        try {
+            schema.replaceTable(lineitem);
+            fail();
+        } catch (IllegalArgumentException e) {
+            // Expected.
+        }
+
+        // The pinned optimizer still plans against the dropped table, the new one does not see it.
+        RelNode plan = pinnedOptimizer.plan(TPCH_Q6, TPCH_Q6_RULES, EnumerableConvention.INSTANCE);
+        assertTrue(RelOptUtil.toString(plan).contains("lineitem"));
+
+        try {
+            factory.newOptimizer().plan(TPCH_Q6, TPCH_Q6_RULES, EnumerableConvention.INSTANCE);
+            fail();
+        } catch (Exception e) {
+            assertTrue(e.getMessage(), e.getMessage().contains("Object 'lineitem' not found"));
+        }
+
+        // Concurrent DDL operations are not lost.
+        int threadCount = 4;
+        int tablesPerThread = 25;
+        ExecutorService executor = Executors.newFixedThreadPool(threadCount);
+
+        try {
+            List<Future<?>> futures = new ArrayList<>();
+
+            for (int i = 0; i < threadCount; i++) {
+                int thread = i;
+
+                futures.add(executor.submit(() -> {
+                    for (int j = 0; j < tablesPerThread; j++) {
+                        schema.addTable(SimpleTable.newBuilder("t" + thread + "_" + j)
+                            .addField("a", SqlTypeName.INTEGER)
+                            .withRowCount(1L)
+                            .build());
+                    }
+                }));
+            }
+
+            for (Future<?> future : futures) {
+                future.get();
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+
+        schema.replaceTable(orders);
+        assertEquals(3L + threadCount * tablesPerThread, schema.getVersion());
+        assertEquals(1 + threadCount * tablesPerThread, schema.getTableMap().size());
+    }
+
+    @Test
+    public void test_concurrent_planning() throws Exception {
+        OptimizerFactory factory = OptimizerFactory.create(createTpchQ6Schema());
+
+        int threadCount = 4;
+        ExecutorService executor = Executors.newFixedThreadPool(threadCount);
+
+        try {
+            List<Future<String>> futures = new ArrayList<>();
+
+            for (int i = 0; i < threadCount * 4; i++) {
+                futures.add(executor.submit(() -> {
+                    Optimizer optimizer = factory.newOptimizer();
+                    RelNode relTree = optimizer.convert(optimizer.validate(optimizer.parse(TPCH_Q6)));
+                    RelNode optimizedRelTree = optimizer.optimize(
+                        relTree,
+                        relTree.getTraitSet().plus(EnumerableConvention.INSTANCE),
+                        TPCH_Q6_RULES
+                    );
+                    return RelOptUtil.toString(optimizedRelTree);
+                }));
+            }
+
+            String expectedPlan = futures.get(0).get();
+            for (Future<String> future : futures) {
+                assertEquals(expectedPlan, future.get());
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    @Test
+    public void test_concurrent_plan_cache() throws Exception {
+        OptimizerFactory factory = OptimizerFactory.create(createTpchQ6Schema());
+        String filter = "select l_quantity from lineitem where l_discount > 0.05";
+
+        int threadCount = 4;
+        ExecutorService executor = Executors.newFixedThreadPool(threadCount);
+
+        try {
+            List<Future<RelNode>> futures = new ArrayList<>();
+
+            for (int i = 0; i < threadCount * 4; i++) {
+                futures.add(executor.submit(() -> {
+                    Optimizer optimizer = factory.newOptimizer();
+                    RelNode plan = optimizer.plan(filter, TPCH_Q6_RULES, EnumerableConvention.INSTANCE);
+
+                    // The repeated statements of the batch are taken from the shared cache and copied to the
+                    // cluster of the optimizer, and the metadata of the plans is requested concurrently with the
+                    // other threads.
+                    BatchPlan batchPlan = optimizer.planBatch(
+                        Arrays.asList(filter, TPCH_Q6, filter),
+                        TPCH_Q6_RULES,
+                        EnumerableConvention.INSTANCE
+                    );
+                    for (RelNode batchPlanNode : batchPlan.getPlans()) {
+                        assertSame(plan.getCluster(), batchPlanNode.getCluster());
+                    }
+                    assertEquals(RelOptUtil.toString(plan), RelOptUtil.toString(batchPlan.getPlans().get(0)));
+                    assertSame(batchPlan.getPlans().get(0), batchPlan.getPlans().get(2));
+                    assertTrue(batchPlan.getSharedCost().isLt(batchPlan.getCost()));
+
+                    return plan;
+                }));
+            }
+
+            // Every optimizer returns the plans bound to its own cluster.
+            Set<RelOptCluster> clusters = Collections.newSetFromMap(new IdentityHashMap<>());
+            String expectedPlan = RelOptUtil.toString(futures.get(0).get());
+
+            for (Future<RelNode> future : futures) {
+                RelNode plan = future.get();
+
+                assertEquals(expectedPlan, RelOptUtil.toString(plan));
+                assertTrue(clusters.add(plan.getCluster()));
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    @Test
+    public void test_planner_instrumentation() throws Exception {
+        OptimizerFactory factory = OptimizerFactory.create(createTpchQ6Schema());
+        PlannerInstrumentation instrumentation = new PlannerInstrumentation();
+
+        Optimizer optimizer = factory.newOptimizer(instrumentation);
+        RelNode relTree = optimizer.convert(optimizer.validate(optimizer.parse(TPCH_Q6)));
+        optimizer.optimize(
+            relTree,
+            relTree.getTraitSet().plus(EnumerableConvention.INSTANCE),
+            Optimizer.HEURISTIC_RULES,
+            TPCH_Q6_RULES
+        );
+
+        PlannerReport report = instrumentation.report();
+
+        for (PlannerPhase phase : PlannerPhase.values()) {
+            assertTrue(phase.name(), report.getPhaseNanos(phase) > 0);
+        }
+
+        PlannerReport.RuleReport calcRule = report.getRule(String.valueOf(EnumerableRules.ENUMERABLE_CALC_RULE));
+        assertTrue(calcRule.getAttempts() > 0);
+        assertTrue(calcRule.getSuccesses() > 0);
+        assertTrue(calcRule.getSuccesses() <= calcRule.getAttempts());
+
+        String reportString = report.toString();
+        assertTrue(reportString, reportString.contains("setsCreated=" + report.getSetsCreated()));
+        assertTrue(reportString, reportString.contains(calcRule.getRuleName() + "{attempts=" + calcRule.getAttempts()));
+        assertTrue(report.getRuleSuccesses() < report.getRuleAttempts());
+
+        // The heuristic phase is instrumented as well.
+        assertTrue(report.getRule(String.valueOf(CoreRules.FILTER_REDUCE_EXPRESSIONS)).getAttempts() > 0);
+
+        assertTrue(report.getSetsCreated() > 0);
+        assertTrue(report.getSetsCreated() < report.getRelsRegistered());
+
+        // The optimizer without the instrumentation is not reported.
+        Optimizer plainOptimizer = factory.newOptimizer();
+        plainOptimizer.optimize(
+            plainOptimizer.convert(plainOptimizer.validate(plainOptimizer.parse(TPCH_Q6))),
+            relTree.getTraitSet().plus(EnumerableConvention.INSTANCE),
+            TPCH_Q6_RULES
+        );
+        assertEquals(report.getRuleAttempts(), instrumentation.report().getRuleAttempts());
+
+        // JMX exposes the same counters.
+        ObjectName name = new ObjectName("com.querifylabs.blog.optimizer:type=PlannerInstrumentation,name=test");
+        instrumentation.register(name);
+
+        try {
+            MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+
+            assertEquals(report.getRuleAttempts(), server.getAttribute(name, "RuleAttempts"));
+            assertEquals(report.getRelsRegistered(), server.getAttribute(name, "RelsRegistered"));
+            assertEquals(report.getPhaseNanos(PlannerPhase.OPTIMIZE), server.getAttribute(name, "OptimizeNanos"));
+
+            server.invoke(name, "reset", new Object[0], new String[0]);
+            assertEquals(0L, instrumentation.report().getRuleAttempts());
+        } finally {
+            instrumentation.unregister(name);
+        }
+    }
+
+    @Test
+    public void test_optimizer_warmup() throws Exception {
+        OptimizerFactory factory = OptimizerFactory.create(createTpchQ6Schema());
+
+        assertEquals(
+            Arrays.asList(
+                "select * from \"lineitem\" where \"l_quantity\" = ?",
+                "select \"l_quantity\", count(*) from \"lineitem\" group by \"l_quantity\""
+            ),
+            OptimizerWarmup.defaultQueries(factory.getSchema())
+        );
+
+        // Workload derived from the schema.
+        long nanos = OptimizerWarmup.newBuilder()
+            .withRules(TPCH_Q6_RULES, EnumerableConvention.INSTANCE)
+            .withIterations(2)
+            .build()
+            .run(factory);
+        assertTrue(nanos > 0);
+
+        // Explicit workload.
+        OptimizerWarmup.newBuilder()
+            .addQuery(TPCH_Q6)
+            .withRules(TPCH_Q6_RULES, EnumerableConvention.INSTANCE)
+            .build()
+            .run(factory);
+
+        RelNode plan = factory.newOptimizer().plan(TPCH_Q6, TPCH_Q6_RULES, EnumerableConvention.INSTANCE);
+        assertTrue(RelOptUtil.toString(plan).contains("EnumerableAggregate"));
+    }
+
+    @Test
+    public void test_multi_dimensional_cost() throws Exception {
+        SimpleSchema schema = SimpleSchema.newBuilder("tpch")
+            .addTable((SimpleTable) createTpchQ6Schema().getTableMap().get("lineitem"))
+            .addTable(SimpleTable.newBuilder("orders")
+                .addField("o_orderkey", SqlTypeName.BIGINT)
+                .addField("o_orderdate", SqlTypeName.DATE)
+                .withRowCount(15_000L)
+                .build())
+            .addTable(SimpleTable.newBuilder("customer")
+                .addField("c_custkey", SqlTypeName.BIGINT)
+                .addField("c_name", SqlTypeName.VARCHAR)
+                .withRowCount(1_500L)
+                .build())
+            .build();
+
+        OptimizerFactory factory = OptimizerFactory.create(schema);
+        assertSame(SimpleCostFactory.DEFAULT, factory.getCostFactory());
+
+        // Scan reads the storage width of every column: 3 decimals and a date.
+        RelNode plan = factory.newOptimizer().plan(TPCH_Q6, TPCH_Q6_RULES, EnumerableConvention.INSTANCE);
+        RelMetadataQuery mq = plan.getCluster().getMetadataQuery();
+        SimpleCost scanCost = (SimpleCost) mq.getNonCumulativeCost(findNode(plan, TableScan.class));
+        assertEquals(60_000.0d * (3 * Double.BYTES + Integer.BYTES), scanCost.getIo(), 0.0d);
+        assertEquals(60_000.0d * 4, scanCost.getCpu(), 0.0d);
+        assertEquals(0.0d, scanCost.getMemory(), 0.0d);
+        assertTrue(mq.getCumulativeCost(plan) instanceof SimpleCost);
+
+        // Vectorized scan reads only the projected columns, and skips blocks with the zone maps.
+        RelNode vectorizedPlan = optimize(factory.newOptimizer(), TPCH_Q6, VectorizedConvention.INSTANCE);
+        SimpleCost vectorizedScanCost = (SimpleCost) vectorizedPlan.getCluster().getMetadataQuery()
+            .getNonCumulativeCost(findNode(vectorizedPlan, TableScan.class));
+        assertTrue(vectorizedScanCost.getIo() < scanCost.getIo());
+        assertTrue(vectorizedScanCost.isLt(scanCost));
+
+        // Hash join holds the build side in memory.
+        String joinSql = "select o_orderkey, c_name from orders join customer on o_orderkey = c_custkey";
+        RuleSet joinRules = RuleSets.ofList(
+            EnumerableRules.ENUMERABLE_TABLE_SCAN_RULE,
+            EnumerableRules.ENUMERABLE_PROJECT_RULE,
+            EnumerableRules.ENUMERABLE_JOIN_RULE
+        );
+        RelNode joinPlan = factory.newOptimizer().plan(joinSql, joinRules, EnumerableConvention.INSTANCE);
+        Join join = findNode(joinPlan, Join.class);
+        SimpleCost joinCost = (SimpleCost) joinPlan.getCluster().getMetadataQuery().getNonCumulativeCost(join);
+        assertTrue(joinCost.getMemory() > 0.0d);
+        assertEquals(0.0d, joinCost.getIo(), 0.0d);
+
+        // Weights change the value of the same cost.
+        OptimizerFactory cpuOnlyFactory = OptimizerFactory.create(
+            schema,
+            SimpleCostFactory.newBuilder().withIoWeight(0.0d).withMemoryWeight(0.0d).build()
+        );
+        RelNode cpuOnlyPlan = cpuOnlyFactory.newOptimizer().plan(TPCH_Q6, TPCH_Q6_RULES, EnumerableConvention.INSTANCE);
+        SimpleCost cpuOnlyScanCost = (SimpleCost) cpuOnlyPlan.getCluster().getMetadataQuery()
+            .getNonCumulativeCost(findNode(cpuOnlyPlan, TableScan.class));
+        assertEquals(cpuOnlyScanCost.getCpu(), cpuOnlyScanCost.getValue(), 0.0d);
+        assertTrue(cpuOnlyScanCost.getValue() < scanCost.getValue());
+
+        try {
+            SimpleCostFactory.newBuilder().withNetworkWeight(-1.0d);
+            fail();
+        } catch (IllegalArgumentException e) {
+            // Expected.
+        }
+    }
+
+    @Test
+    public void test_column_statistics() throws Exception {
+        double[] quantities = new double[50];
+        for (int i = 0; i < quantities.length; i++) {
+            quantities[i] = i + 1;
+        }
+
+        SimpleTable orders = SimpleTable.newBuilder("orders")
+            .addField("o_orderkey", SqlTypeName.INTEGER)
+            .addField("o_orderstatus", SqlTypeName.CHAR)
+            .withRowCount(15_000L)
+            .withKey("o_orderkey")
+            .withColumnStatistic("o_orderstatus", ColumnStatistic.newBuilder().withDistinctCount(3).build())
+            .build();
+
+        SimpleTable lineitem = SimpleTable.newBuilder("lineitem")
+            .addField("l_orderkey", SqlTypeName.INTEGER)
+            .addField("l_quantity", SqlTypeName.INTEGER)
+            .addField("l_discount", SqlTypeName.DECIMAL)
+            .withRowCount(60_000L)
+            .withColumnStatistic("l_orderkey", ColumnStatistic.newBuilder().withDistinctCount(15_000).build())
+            .withColumnStatistic("l_quantity", ColumnStatistic.newBuilder()
+                .withDistinctCount(50)
+                .withHistogram(Histogram.equiDepth(quantities, 10))
+                .build())
+            .withColumnStatistic("l_discount", ColumnStatistic.newBuilder()
+                .withDistinctCount(11)
+                .withMinMax(0.0d, 0.1d)
+                .withNullFraction(0.1d)
+                .build())
+            .build();
+
+        Optimizer optimizer = Optimizer.create(SimpleSchema.newBuilder("tpch").addTable(orders).addTable(lineitem).build());
+
+        // Range predicates use the histogram and min/max values, equality uses the number of distinct values.
+        RelNode rangeFilter = optimizer.convert(optimizer.validate(optimizer.parse(
+            "select l_orderkey from lineitem where l_quantity < 11 and l_discount > 0.05"
+        )));
+        RelMetadataQuery mq = rangeFilter.getCluster().getMetadataQuery();
+        assertEquals(60_000d * 0.2d * 0.9d * 0.5d, mq.getRowCount(rangeFilter), 60_000d * 0.02d);
+
+        RelNode equalityFilter = optimizer.convert(optimizer.validate(optimizer.parse(
+            "select l_orderkey from lineitem where l_quantity = ?"
+        )));
+        assertEquals(60_000d / 50, equalityFilter.getCluster().getMetadataQuery().getRowCount(equalityFilter), 1.0d);
+
+        // Distinct values and uniqueness come from the column statistics and keys.
+        RelNode scan = optimizer.convert(optimizer.validate(optimizer.parse("select * from orders")));
+        mq = scan.getCluster().getMetadataQuery();
+        assertEquals(15_000d, mq.getDistinctRowCount(scan, ImmutableBitSet.of(0), null), 0.0d);
+        assertEquals(3d, mq.getDistinctRowCount(scan, ImmutableBitSet.of(1), null), 0.0d);
+        assertTrue(mq.areColumnsUnique(scan, ImmutableBitSet.of(0)));
+        assertFalse(mq.areColumnsUnique(scan, ImmutableBitSet.of(1)));
+
+        RelNode aggregate = optimizer.convert(optimizer.validate(optimizer.parse(
+            "select l_discount, count(*) from lineitem group by l_discount"
+        )));
+        assertEquals(12d, aggregate.getCluster().getMetadataQuery().getRowCount(aggregate), 0.5d);
+
+        // The provider is not leaked to the metadata queries of the other clusters of the thread.
+        JaninoRelMetadataProvider threadProvider = RelMetadataQuery.THREAD_PROVIDERS.get();
+        scan.getCluster().invalidateMetadataQuery();
+        mq = scan.getCluster().getMetadataQuery();
+        assertEquals(3d, mq.getDistinctRowCount(scan, ImmutableBitSet.of(1), null), 0.0d);
+        assertSame(threadProvider, RelMetadataQuery.THREAD_PROVIDERS.get());
+        assertNotEquals(3d, RelMetadataQuery.instance().getDistinctRowCount(scan, ImmutableBitSet.of(1), null));
+    }
+
+    @Test
+    public void test_statistics_collection() throws Exception {
+        SimpleTable.Builder builder = SimpleTable.newBuilder("lineitem")
+            .addField("l_orderkey", SqlTypeName.INTEGER)
+            .addField("l_quantity", SqlTypeName.INTEGER)
+            .addField("l_discount", SqlTypeName.DECIMAL, 2)
+            .addField("l_comment", SqlTypeName.VARCHAR);
+
+        int partitionCount = 4;
+        int partitionSize = 50_000;
+
+        for (int i = 0; i < partitionCount; i++) {
+            List<Object[]> rows = new ArrayList<>(partitionSize);
+
+            for (int j = 0; j < partitionSize; j++) {
+                int row = i * partitionSize + j;
+
+                rows.add(new Object[] {
+                    row / 4,
+                    1 + row % 50,
+                    row % 10 == 0 ? null : BigDecimal.valueOf(row % 11, 2),
+                    "comment " + row % 1000
+                });
+            }
+
+            builder.addPartition(rows);
+        }
+
+        SimpleTable lineitem = builder.build();
+        SimpleSchema schema = SimpleSchema.newBuilder("tpch").addTable(lineitem).build();
+        OptimizerFactory factory = OptimizerFactory.create(schema);
+        Optimizer pinnedOptimizer = factory.newOptimizer();
+
+        // The table with the new statistic is published in the next version of the schema.
+        SimpleSchemaSnapshot snapshot = StatisticsCollector.newBuilder().build().analyze(schema, "lineitem");
+        SimpleTable analyzedLineitem = (SimpleTable) snapshot.getTableMap().get("lineitem");
+        SimpleTableStatistic statistic = (SimpleTableStatistic) analyzedLineitem.getStatistic();
+
+        assertEquals(1L, snapshot.getVersion());
+        assertSame(snapshot, schema.snapshot());
+        assertSame(lineitem.getStore(), analyzedLineitem.getStore());
+        assertNull(((SimpleTableStatistic) lineitem.getStatistic()).getColumnStatistic(1));
+        assertEquals(200_000d, statistic.getRowCount(), 0.0d);
+
+        ColumnStatistic orderKey = statistic.getColumnStatistic(0);
+        assertEquals(50_000d, orderKey.getDistinctCount(), 50_000d * 0.03d);
+        assertEquals(0.0d, orderKey.getMin(), 0.0d);
+        assertEquals(49_999d, orderKey.getMax(), 0.0d);
+        assertEquals(0.5d, orderKey.fractionLessThan(25_000d), 0.02d);
+
+        ColumnStatistic quantity = statistic.getColumnStatistic(1);
+        assertEquals(50d, quantity.getDistinctCount(), 0.0d);
+        assertEquals(0.2d, quantity.fractionLessThan(11d), 0.02d);
+
+        ColumnStatistic discount = statistic.getColumnStatistic(2);
+        assertEquals(11d, discount.getDistinctCount(), 0.0d);
+        assertEquals(0.1d, discount.getNullFraction(), 0.0d);
+        assertEquals(0.1d, discount.getMax(), 0.0d);
+
+        ColumnStatistic comment = statistic.getColumnStatistic(3);
+        assertEquals(1000d, comment.getDistinctCount(), 1000d * 0.03d);
+        assertNull(comment.getHistogram());
+
+        // Reading the column chunks produces exactly the statistics of the boxed rows added one by one.
+        List<Iterable<Object[]>> partitions = new ArrayList<>();
+        for (Block block : lineitem.getStore().getBlocks()) {
+            partitions.add(block.rows());
+        }
+
+        List<ColumnStatistic> rowStatistics = new ArrayList<>();
+        StatisticsCollector.newBuilder().build().collect(partitions, lineitem.getFieldTypes(), rowStatistics);
+        for (int i = 0; i < rowStatistics.size(); i++) {
+            assertEquals(rowStatistics.get(i).toString(), statistic.getColumnStatistic(i).toString());
+        }
+
+        // New statistics are used by the subsequent planning, the pinned snapshot keeps the previous statistic.
+        String sql = "select l_orderkey from lineitem where l_quantity < 11";
+        Optimizer optimizer = factory.newOptimizer();
+        RelNode filter = optimizer.convert(optimizer.validate(optimizer.parse(sql)));
+        assertEquals(200_000d * 0.2d, filter.getCluster().getMetadataQuery().getRowCount(filter), 200_000d * 0.02d);
+
+        RelNode pinnedFilter = pinnedOptimizer.convert(pinnedOptimizer.validate(pinnedOptimizer.parse(sql)));
+        assertEquals(200_000d * 0.5d, pinnedFilter.getCluster().getMetadataQuery().getRowCount(pinnedFilter), 1.0d);
+
+        assertEquals(200_000, lineitem.scan(null).count());
+    }
+
+    @Test
+    public void test_columnar_storage() {
+        List<SqlTypeName> types = Arrays.asList(
+            SqlTypeName.INTEGER,
+            SqlTypeName.BIGINT,
+            SqlTypeName.DECIMAL,
+            SqlTypeName.DATE,
+            SqlTypeName.VARCHAR
+        );
+
+        ColumnarStore store = ColumnarStore.newBuilder(types, Arrays.asList(0, 0, 2, 0, 0))
+            .withBlockSize(2)
+            .addRow(new Object[] { 1, 10L, new BigDecimal("0.05"), 9000, "a" })
+            .addRow(new Object[] { 2, null, new BigDecimal("0.07"), 9001, "b" })
+            .addRow(new Object[] { null, 30L, null, 9002, "a" })
+            .build();
+
+        assertEquals(3L, store.getRowCount());
+        assertEquals(2, store.getBlocks().size());
+
+        SimpleTable table = SimpleTable.newBuilder("t")
+            .addField("i", SqlTypeName.INTEGER)
+            .addField("l", SqlTypeName.BIGINT)
+            .addField("d", SqlTypeName.DECIMAL, 2)
+            .addField("dt", SqlTypeName.DATE)
+            .addField("s", SqlTypeName.VARCHAR)
+            .withStore(store)
+            .build();
+
+        assertEquals(3d, table.getStatistic().getRowCount(), 0.0d);
+
+        // Row-oriented path returns values in the internal Calcite representation.
+        List<Object[]> rows = table.scan(null).toList();
+        assertEquals(3, rows.size());
+        assertEquals(Arrays.asList(2, null, new BigDecimal("0.07"), 9001, "b"), Arrays.asList(rows.get(1)));
+        assertEquals(Arrays.asList(null, 30L, null, 9002, "a"), Arrays.asList(rows.get(2)));
+
+        // Batch path reads primitives without boxing, decimals are unscaled.
+        Block block = store.getBlocks().get(0);
+        long[] decimals = new long[2];
+        block.getColumn(2).getLongs(0, decimals, 0, 2);
+        assertEquals(7L, decimals[1]);
+        assertEquals(2, block.getColumn(2).getScale());
+        assertTrue(block.getColumn(1).isNull(1));
+        assertFalse(block.getColumn(0).hasNulls());
+        assertEquals(Arrays.asList("a", "b"), block.getColumn(4).getDictionary());
+        assertEquals(0, store.getBlocks().get(1).getColumn(4).getCode(0));
+    }
+
+    @Test
+    public void test_columnar_file() throws Exception {
+        List<SqlTypeName> types = Arrays.asList(
+            SqlTypeName.INTEGER,
+            SqlTypeName.BIGINT,
+            SqlTypeName.DATE,
+            SqlTypeName.DECIMAL,
+            SqlTypeName.VARCHAR
+        );
+
+        List<Integer> scales = Arrays.asList(0, 0, 0, 2, 0);
+        ColumnarStore.Builder storeBuilder = ColumnarStore.newBuilder(types, scales).withBlockSize(1_000);
+
+        for (int i = 0; i < 2_500; i++) {
+            storeBuilder.addRow(new Object[] {
+                i / 100,                                      // Runs of 100 equal values.
+                i % 7 == 0 ? null : 1_000_000L + i % 200,     // Narrow range with nulls.
+                i * 100_000,                                  // Wide range.
+                i % 5 == 0 ? null : new BigDecimal(i).movePointLeft(2),
+                i % 3 == 0 ? "AIR" : "SHIP"
+            });
+        }
+
+        ColumnarStore store = storeBuilder.build();
+        List<String> fieldNames = Arrays.asList("runs", "narrow", "wide", "price", "mode");
+
+        Path path = temporaryFolder.newFile("t.col").toPath();
+        ColumnarFile.newWriter(path).write(fieldNames, store);
+        ColumnarFile file = ColumnarFile.open(path);
+
+        assertEquals(fieldNames, file.getFieldNames());
+        assertEquals(types, file.getStore().getTypes());
+        assertEquals(scales, file.getStore().getScales());
+        assertEquals(3, file.getStore().getBlocks().size());
+
+        Block block = file.getStore().getBlocks().get(2);
+        assertEquals(500, block.getRowCount());
+        assertEquals(ColumnEncoding.RUN_LENGTH, block.getColumn(0).getEncoding());
+        assertEquals(ColumnEncoding.FRAME_OF_REFERENCE, block.getColumn(1).getEncoding());
+        assertEquals(ColumnEncoding.PLAIN, block.getColumn(2).getEncoding());
+        assertEquals(ColumnEncoding.FRAME_OF_REFERENCE, block.getColumn(3).getEncoding());
+        assertEquals(ColumnEncoding.FRAME_OF_REFERENCE, block.getColumn(4).getEncoding());
+        assertEquals(20L, block.getColumn(0).getZoneMap().getMin());
+        assertEquals(24L, block.getColumn(0).getZoneMap().getMax());
+        assertEquals(72, block.getColumn(1).getZoneMap().getNullCount());
+
+        // Encoded values are decoded on access.
+        for (int i = 0; i < store.getBlocks().size(); i++) {
+            Block expectedBlock = store.getBlocks().get(i);
+            Block actualBlock = file.getStore().getBlocks().get(i);
+
+            for (int j = 0; j < expectedBlock.getColumnCount(); j++) {
+                ColumnChunk expected = expectedBlock.getColumn(j);
+                ColumnChunk actual = actualBlock.getColumn(j);
+
+                for (int k = 0; k < expected.getRowCount(); k++) {
+                    assertEquals(expected.getObject(k), actual.getObject(k));
+                }
+
+                if (expected.getType() == ColumnType.INT || expected.getType() == ColumnType.LONG) {
+                    long[] expectedLongs = new long[300];
+                    long[] actualLongs = new long[300];
+                    expected.getLongs(150, expectedLongs, 0, 300);
+                    actual.getLongs(150, actualLongs, 0, 300);
+
+                    for (int k = 0; k < 300; k++) {
+                        if (!expected.isNull(150 + k)) {
+                            assertEquals(expectedLongs[k], actualLongs[k]);
+                        }
+                    }
+                }
+            }
+        }
+
+        // Encodings are optional.
+        Path plainPath = temporaryFolder.newFile("t-plain.col").toPath();
+        ColumnarFile.newWriter(plainPath).withEncodings(false).write(fieldNames, store);
+        assertTrue(Files.size(plainPath) > Files.size(path));
+        assertEquals(
+            ColumnEncoding.PLAIN,
+            ColumnarFile.open(plainPath).getStore().getBlocks().get(0).getColumn(0).getEncoding()
+        );
+
+        // The same query over the memory-mapped table.
+        SimpleTable table = SimpleTable.newBuilder("t").withFile(file).build();
+        SimpleSchema schema = SimpleSchema.newBuilder("s").addTable(table).build();
+        String sql = "select count(*), sum(runs), max(wide) from t where wide >= ? and mode = 'AIR'";
+        List<Object> parameters = Collections.singletonList(100_000_000);
+
+        List<Object[]> expected = executeEnumerable(
+            schema,
+            optimize(Optimizer.create(schema), sql, EnumerableConvention.INSTANCE),
+            parameters
+        );
+        List<Object[]> actual = VectorizedExecutor.execute(
+            optimize(Optimizer.create(schema), sql, VectorizedConvention.INSTANCE),
+            parameters
+        );
+
+        assertEquals(Arrays.asList(500L, 8505, 249_900_000), Arrays.asList(expected.get(0)));
+        assertEquals(Arrays.asList(expected.get(0)), Arrays.asList(actual.get(0)));
+    }
+
+    @Test
+    public void test_decimal_storage() throws Exception {
+        // 19 significant digits, not representable as a double.
+        BigDecimal large = new BigDecimal("12345678901234567.89");
+        BigDecimal small = new BigDecimal("-0.01");
+
+        SimpleTable table = SimpleTable.newBuilder("t")
+            .addField("id", SqlTypeName.INTEGER)
+            .addField("d", SqlTypeName.DECIMAL, 2)
+            .addPartition(Arrays.asList(
+                new Object[] { 1, large },
+                new Object[] { 2, small },
+                new Object[] { 3, null }
+            ))
+            .build();
+
+        ColumnChunk column = table.getStore().getBlocks().get(0).getColumn(1);
+        assertEquals(1234567890123456789L, column.getLong(0));
+        assertEquals(large, column.getDecimal(0));
+        assertEquals(1234567890123456789L, column.getZoneMap().getMax());
+
+        // Exact values through the Enumerable path.
+        SimpleSchema schema = SimpleSchema.newBuilder("s").addTable(table).build();
+        List<Object[]> rows = executeEnumerable(
+            schema,
+            optimize(Optimizer.create(schema), "select d from t where d > ?", EnumerableConvention.INSTANCE),
+            Collections.singletonList(new BigDecimal("12345678901234567.88"))
+        );
+        assertEquals(1, rows.size());
+        assertEquals(large, rows.get(0)[0]);
+
+        // Exact values through the file.
+        Path path = temporaryFolder.newFile("d.col").toPath();
+        ColumnarFile.newWriter(path).write(table.getFieldNames(), table.getStore());
+        SimpleTable fileTable = SimpleTable.newBuilder("t").withFile(ColumnarFile.open(path)).build();
+        assertEquals(Arrays.asList(0, 2), fileTable.getFieldScales());
+        assertEquals(toString(table.scan(null).toList()), toString(fileTable.scan(null).toList()));
+
+        // Values that do not fit the scale or the unscaled long are rejected.
+        for (BigDecimal value : Arrays.asList(new BigDecimal("0.001"), new BigDecimal("123456789012345678.9"))) {
+            try {
+                SimpleTable.newBuilder("t")
+                    .addField("d", SqlTypeName.DECIMAL, 2)
+                    .addPartition(Collections.singletonList(new Object[] { value }))
+                    .build();
+                fail();
+            } catch (IllegalArgumentException e) {
+                assertTrue(e.getMessage(), e.getMessage().contains("does not fit DECIMAL"));
+            }
+        }
+    }
+
+    @Test
+    public void test_vectorized_execution() throws Exception {
+        SimpleSchema schema = SimpleSchema.newBuilder("tpch").addTable(createTpchLineitem(50_000)).build();
+
+        // 1994-01-01, 1995-01-01, 0.065, 0.065, 24
+        List<Object> q6Parameters = Arrays.asList(
+            8766,
+            9131,
+            new BigDecimal("0.065"),
+            new BigDecimal("0.065"),
+            new BigDecimal("24")
+        );
+
+        RelNode vectorizedPlan = optimize(Optimizer.create(schema), TPCH_Q6, VectorizedConvention.INSTANCE);
+        print("VECTORIZED", vectorizedPlan);
+
+        List<Object[]> expected = executeEnumerable(
+            schema,
+            optimize(Optimizer.create(schema), TPCH_Q6, EnumerableConvention.INSTANCE),
+            q6Parameters
+        );
+        List<Object[]> actual = VectorizedExecutor.execute(vectorizedPlan, q6Parameters);
+
+        assertEquals(1, actual.size());
+        assertEquals(expected.get(0)[0], actual.get(0)[0]);
+
+        // Decimals are exact at the boundaries: a value that differs in the 14th digit is not equal.
+        String boundaries =
+            "select count(*) from lineitem\n" +
+            "where l_discount + 0.01 = ? or l_discount between ? and ? or l_extendedprice * l_discount < ?";
+
+        for (String value : Arrays.asList("0.07", "0.07000000000001")) {
+            List<Object> boundaryParameters = Arrays.asList(
+                new BigDecimal(value),
+                new BigDecimal(value),
+                new BigDecimal(value),
+                new BigDecimal(value)
+            );
+
+            expected = executeEnumerable(
+                schema,
+                optimize(Optimizer.create(schema), boundaries, EnumerableConvention.INSTANCE),
+                boundaryParameters
+            );
+            actual = VectorizedExecutor.execute(
+                optimize(Optimizer.create(schema), boundaries, VectorizedConvention.INSTANCE),
+                boundaryParameters
+            );
+
+            assertEquals(expected.get(0)[0], actual.get(0)[0]);
+        }
+
+        String groupBy =
+            "select l_returnflag, sum(l_quantity), count(*), min(l_shipdate), max(l_extendedprice)\n" +
+            "from lineitem\n" +
+            "where l_shipdate <= ? and l_returnflag <> 'N'\n" +
+            "group by l_returnflag";
+        List<Object> groupByParameters = Collections.singletonList(10_000);
+
+        expected = executeEnumerable(
+            schema,
+            optimize(Optimizer.create(schema), groupBy, EnumerableConvention.INSTANCE),
+            groupByParameters
+        );
+        actual = VectorizedExecutor.execute(
+            optimize(Optimizer.create(schema), groupBy, VectorizedConvention.INSTANCE),
+            groupByParameters
+        );
+
+        expected.sort(Comparator.comparing(row -> (String) row[0]));
+        actual.sort(Comparator.comparing(row -> (String) row[0]));
+
+        assertEquals(2, actual.size());
+        assertEquals(expected.size(), actual.size());
+
+        for (int i = 0; i < expected.size(); i++) {
+            assertEquals(expected.get(i)[0], actual.get(i)[0]);
+            assertEquals(expected.get(i)[1], actual.get(i)[1]);
+            assertEquals(expected.get(i)[2], actual.get(i)[2]);
+            assertEquals(expected.get(i)[3], actual.get(i)[3]);
+            assertEquals(expected.get(i)[4], actual.get(i)[4]);
+        }
+    }
+
+    @Test
+    public void test_zone_map_pushdown() throws Exception {
+        // 10 blocks, every block covers ~250 days.
+        SimpleTable lineitem = createTpchLineitem(50_000, 5_000, true);
+        SimpleSchema schema = SimpleSchema.newBuilder("tpch").addTable(lineitem).build();
+
+        List<Block> blocks = lineitem.getStore().getBlocks();
+        assertEquals(10, blocks.size());
+        assertEquals(8035L, blocks.get(0).getColumn(3).getZoneMap().getMin());
+        assertEquals(8287L, blocks.get(0).getColumn(3).getZoneMap().getMax());
+        assertEquals(0L, blocks.get(0).getColumn(2).getZoneMap().getMin());
+        assertEquals(10L, blocks.get(0).getColumn(2).getZoneMap().getMax());
+        assertEquals("A", blocks.get(0).getColumn(4).getZoneMap().getMin());
+        assertEquals("R", blocks.get(0).getColumn(4).getZoneMap().getMax());
+        assertEquals(0, blocks.get(0).getColumn(4).getZoneMap().getNullCount());
+
+        // 1994-01-01, 1995-01-01, 0.06, 0.06, 24
+        List<Object> parameters = Arrays.asList(
+            8766,
+            9131,
+            new BigDecimal("0.06"),
+            new BigDecimal("0.06"),
+            new BigDecimal("24")
+        );
+
+        RelNode vectorizedPlan = optimize(Optimizer.create(schema), TPCH_Q6, VectorizedConvention.INSTANCE);
+        print("VECTORIZED", vectorizedPlan);
+        assertTrue(RelOptUtil.toString(vectorizedPlan).contains("projects=[[0, 1, 2, 3]]"));
+
+        ExecutionContext context = new ExecutionContext(parameters, VectorizedExecutor.DEFAULT_BATCH_SIZE);
+        List<Object[]> actual = VectorizedExecutor.execute(vectorizedPlan, context);
+        List<Object[]> expected = executeEnumerable(
+            schema,
+            optimize(Optimizer.create(schema), TPCH_Q6, EnumerableConvention.INSTANCE),
+            parameters
+        );
+
+        assertEquals(expected.get(0)[0], actual.get(0)[0]);
+
+        // Only the blocks 2, 3 and 4 overlap with 1994.
+        assertEquals(3L, context.getBlocksScanned());
+        assertEquals(7L, context.getBlocksSkipped());
+        assertEquals(15_000L, context.getRowsScanned());
+
+        // Pushdown into the table itself.
+        RexBuilder rexBuilder = new RexBuilder(new JavaTypeFactoryImpl());
+        RexNode filter = rexBuilder.makeCall(
+            SqlStdOperatorTable.GREATER_THAN_OR_EQUAL,
+            rexBuilder.makeInputRef(rexBuilder.getTypeFactory().createSqlType(SqlTypeName.DATE), 3),
+            rexBuilder.makeDateLiteral(DateString.fromDaysSinceEpoch(9131))
+        );
+        List<RexNode> filters = new ArrayList<>(Collections.singletonList(filter));
+
+        List<Object[]> rows = lineitem.scan(dataContext(schema, parameters), filters, new int[] { 3, 0 }).toList();
+
+        // Blocks 4..9 may contain the dates after 1995-01-01, filters are left for the caller.
+        assertEquals(30_000, rows.size());
+        assertEquals(2, rows.get(0).length);
+        assertTrue((Integer) rows.get(rows.size() - 1)[0] >= 9131);
+        assertEquals(Collections.singletonList(filter), filters);
+    }
+
+    @Test
+    public void test_parallel_execution() throws Exception {
+        // Morsels are smaller than blocks, and many of them are filtered out completely.
+        SimpleSchema schema = SimpleSchema.newBuilder("tpch")
+            .addTable(createTpchLineitem(50_000, 5_000, false))
+            .build();
+
+        ForkJoinPool pool = new ForkJoinPool(4);
+
+        try {
+            ParallelExecutor executor = ParallelExecutor.newBuilder()
+                .withPool(pool)
+                .withMorselSize(1_000)
+                .build();
+
+            // 1994-01-01, 1995-01-01, 0.06, 0.06, 24
+            List<Object> q6Parameters = Arrays.asList(
+                8766,
+                9131,
+                new BigDecimal("0.06"),
+                new BigDecimal("0.06"),
+                new BigDecimal("24")
+            );
+
+            RelNode q6Plan = optimize(Optimizer.create(schema), TPCH_Q6, VectorizedConvention.INSTANCE);
+            List<Object[]> expected = VectorizedExecutor.execute(q6Plan, q6Parameters);
+
+            ExecutionContext context = new ExecutionContext(q6Parameters, VectorizedExecutor.DEFAULT_BATCH_SIZE);
+            List<Object[]> actual = executor.execute(q6Plan, context);
+
+            assertEquals(1, actual.size());
+            assertEquals(expected.get(0)[0], actual.get(0)[0]);
+            assertEquals(10L, context.getBlocksScanned());
+            assertEquals(50_000L, context.getRowsScanned());
+
+            String groupBy =
+                "select l_returnflag, sum(l_quantity), count(*), min(l_shipdate), max(l_extendedprice)\n" +
+                "from lineitem\n" +
+                "where l_shipdate <= ?\n" +
+                "group by l_returnflag";
+            List<Object> groupByParameters = Collections.singletonList(10_000);
+            RelNode groupByPlan = optimize(Optimizer.create(schema), groupBy, VectorizedConvention.INSTANCE);
+
+            expected = VectorizedExecutor.execute(groupByPlan, groupByParameters);
+            actual = executor.execute(groupByPlan, groupByParameters);
+
+            expected.sort(Comparator.comparing(row -> (String) row[0]));
+            actual.sort(Comparator.comparing(row -> (String) row[0]));
+
+            assertEquals(3, actual.size());
+
+            for (int i = 0; i < expected.size(); i++) {
+                assertEquals(expected.get(i)[0], actual.get(i)[0]);
+                assertEquals(expected.get(i)[1], actual.get(i)[1]);
+                assertEquals(expected.get(i)[2], actual.get(i)[2]);
+                assertEquals(expected.get(i)[3], actual.get(i)[3]);
+                assertEquals(expected.get(i)[4], actual.get(i)[4]);
+            }
+
+            // No aggregation, the rows of all workers are concatenated.
+            String select = "select l_quantity, l_shipdate from lineitem where l_shipdate < ?";
+            List<Object> selectParameters = Collections.singletonList(8400);
+            RelNode selectPlan = optimize(Optimizer.create(schema), select, VectorizedConvention.INSTANCE);
+
+            expected = VectorizedExecutor.execute(selectPlan, selectParameters);
+            actual = executor.execute(selectPlan, selectParameters);
+
+            Comparator<Object[]> rowComparator = Comparator
+                .<Object[], Integer>comparing(row -> (Integer) row[1])
+                .thenComparing(row -> (BigDecimal) row[0]);
+            expected.sort(rowComparator);
+            actual.sort(rowComparator);
+
+            assertFalse(expected.isEmpty());
+            assertEquals(expected.size(), actual.size());
+
+            for (int i = 0; i < expected.size(); i++) {
+                assertEquals(Arrays.asList(expected.get(i)), Arrays.asList(actual.get(i)));
+            }
+        } finally {
+            pool.shutdown();
+        }
+    }
+
+    @Test
+    public void test_batch_optimization() throws Exception {
+        SimpleSchema schema = SimpleSchema.newBuilder("tpch")
+            .addTable(createTpchLineitem(50_000, 5_000, false))
+            .build();
+        OptimizerFactory factory = OptimizerFactory.create(schema);
+        RuleSet rules = RuleSets.ofList(VectorizedRules.RULES);
+
+        String summary =
+            "select l_returnflag, sum(l_quantity) as qty, count(*) as cnt\n" +
+            "from lineitem\n" +
+            "where l_quantity < 25\n" +
+            "group by l_returnflag";
+
+        List<String> batch = Arrays.asList(
+            summary,
+            "select l_returnflag, qty from (" + summary + ") where cnt > 100",
+            summary,
+            "select sum(l_extendedprice) from lineitem where l_shipdate < ?"
+        );
+        List<List<Object>> parameters = Arrays.asList(
+            Collections.emptyList(),
+            Collections.emptyList(),
+            Collections.emptyList(),
+            Collections.singletonList(10_000)
+        );
+
+        BatchPlan batchPlan = factory.newOptimizer().planBatch(batch, rules, VectorizedConvention.INSTANCE);
+
+        // The repeated statement is shared as a whole, the nested one shares the aggregate with it.
+        List<RelNode> plans = batchPlan.getPlans();
+        assertSame(plans.get(0), plans.get(2));
+        assertSame(plans.get(0), plans.get(1).getInput(0));
+        assertEquals(3, batchPlan.getConsumerCount(plans.get(0)));
+
+        // The statement with the dynamic parameter has its own scan.
+        assertTrue(Collections.disjoint(batchPlan.getSharedNodes(), Collections.singleton(plans.get(3))));
+        assertEquals(4, batchPlan.getScanCount());
+        assertEquals(2, batchPlan.getSharedScanCount());
+        assertTrue(((SimpleCost) batchPlan.getSavedCost()).getIo() > 0.0d);
+        assertTrue(batchPlan.toString(), batchPlan.toString().startsWith(
+            "BatchPlan{statements=4, sharedNodes=" + batchPlan.getSharedNodes().size() + ", scans=2/4, "
+        ));
+        assertTrue(batchPlan.getSharedCost().isLt(batchPlan.getCost()));
+
+        // Results match the independent execution.
+        List<List<Object[]>> results = VectorizedExecutor.execute(batchPlan, parameters);
+        assertEquals(batch.size(), results.size());
+
+        for (int i = 0; i < batch.size(); i++) {
+            RelNode plan = optimize(factory.newOptimizer(), batch.get(i), VectorizedConvention.INSTANCE);
+            List<Object[]> expected = VectorizedExecutor.execute(plan, parameters.get(i));
+            List<Object[]> actual = results.get(i);
+
+            assertEquals(toString(expected), toString(actual));
+        }
+
+        try {
+            VectorizedExecutor.execute(batchPlan, Collections.emptyList());
+            fail();
+        } catch (IllegalArgumentException e) {
+            // Expected.
+        }
+    }
+
+    @Test
+    public void test_materialized_views() throws Exception {
+        SimpleSchema schema = SimpleSchema.newBuilder("tpch")
+            .addTable(createTpchLineitem(20_000, 5_000, false))
+            .build();
+        OptimizerFactory factory = OptimizerFactory.create(schema);
+        MaterializedViews views = new MaterializedViews(factory);
+
+        MaterializedAggregateView view = views.create(
+            "lineitem_daily",
+            "select l_returnflag, l_shipdate, sum(l_quantity) as qty, count(*) as cnt\n" +
+            "from lineitem\n" +
+            "group by l_returnflag, l_shipdate"
+        );
+        assertEquals("lineitem", view.getTableName());
+        assertEquals(1L, schema.getVersion());
+        assertSame(view, schema.snapshot().getMaterializedViews().get("lineitem_daily"));
+
+        // The rollup is computed from the view instead of the base table.
+        String rollup = "select l_returnflag, sum(l_quantity), count(*) from lineitem group by l_returnflag";
+        RelNode plan = optimize(factory.newOptimizer(), rollup, VectorizedConvention.INSTANCE);
+        print("Rollup", plan);
+        assertEquals(
+            Arrays.asList("tpch", "lineitem_daily"),
+            findNode(plan, TableScan.class).getTable().getQualifiedName()
+        );
+
+        // Appended rows are merged into the view.
+        StatisticsCollector.newBuilder().build().analyze(schema, "lineitem");
+
+        List<Object[]> rows = new ArrayList<>();
+        for (int i = 0; i < 1_000; i++) {
+            rows.add(new Object[] { 1 + i % 7, 1_000, 0.05d, i % 2 == 0 ? 8035 : 20_000, i % 2 == 0 ? "A" : "X" });
+        }
+
+        int groupCount = view.getGroupCount();
+        assertTrue(views.append("lineitem", rows).getVersion() > 1L);
+        assertEquals(20_000L + 1_000L, schema.snapshot().getTableMap().get("lineitem").getStatistic().getRowCount()
+            .longValue());
+
+        // The trailing block is coalesced with the appended rows, min/max are widened to the appended values.
+        SimpleTable appended = (SimpleTable) schema.snapshot().getTableMap().get("lineitem");
+        assertEquals(4, appended.getStore().getBlocks().size());
+        assertEquals(6_000, appended.getStore().getBlocks().get(3).getRowCount());
+
+        ColumnStatistic shipdate = ((SimpleTableStatistic) appended.getStatistic()).getColumnStatistic(3);
+        assertEquals(8035.0d, shipdate.getMin(), 0.0d);
+        assertEquals(20_000.0d, shipdate.getMax(), 0.0d);
+        assertNull(shipdate.getDistinctCount());
+        assertNull(shipdate.getHistogram());
+
+        view = schema.snapshot().getMaterializedViews().get("lineitem_daily");
+        assertEquals(groupCount + 1, view.getGroupCount());
+
+        plan = optimize(factory.newOptimizer(), rollup, VectorizedConvention.INSTANCE);
+        List<Object[]> actual = VectorizedExecutor.execute(plan, Collections.emptyList());
+
+        SimpleSchema recomputed = SimpleSchema.newBuilder("tpch")
+            .addTable((SimpleTable) schema.snapshot().getTableMap().get("lineitem"))
+            .build();
+        RelNode recomputedPlan = optimize(Optimizer.create(recomputed), rollup, VectorizedConvention.INSTANCE);
+        assertEquals("lineitem", findNode(recomputedPlan, TableScan.class).getTable().getQualifiedName().get(1));
+
+        List<Object[]> expected = VectorizedExecutor.execute(recomputedPlan, Collections.emptyList());
+        assertEquals(4, expected.size());
+        assertEquals(toString(expected), toString(actual));
+
+        // Tables of the view cannot be dropped.
+        for (String tableName : Arrays.asList("lineitem", "lineitem_daily")) {
+            try {
+                schema.dropTable(tableName);
+                fail();
+            } catch (IllegalArgumentException e) {
+                // Expected.
+            }
+        }
+
+        // The data of the tables of the view cannot be replaced directly, the view would become stale.
+        SimpleTable lineitem = (SimpleTable) schema.snapshot().getTableMap().get("lineitem");
+        SimpleTable viewTable = (SimpleTable) schema.snapshot().getTableMap().get("lineitem_daily");
+        long version = schema.getVersion();
+
+        for (SimpleTable table : Arrays.asList(
+            lineitem.append(rows),
+            viewTable.append(Collections.singletonList(new Object[] { "Z", 9_000, BigDecimal.ONE, 1L }))
+        )) {
+            try {
+                schema.replaceTable(table);
+                fail();
+            } catch (IllegalArgumentException e) {
+                assertTrue(e.getMessage(), e.getMessage().contains("lineitem_daily"));
+            }
+        }
+
+        assertEquals(version, schema.getVersion());
+
+        plan = optimize(factory.newOptimizer(), rollup, VectorizedConvention.INSTANCE);
+        assertEquals("lineitem_daily", findNode(plan, TableScan.class).getTable().getQualifiedName().get(1));
+        assertEquals(toString(expected), toString(VectorizedExecutor.execute(plan, Collections.emptyList())));
+
+        // The same data with a new statistic is accepted.
+        schema.replaceTable(lineitem.withStatistic((SimpleTableStatistic) lineitem.getStatistic()));
+        assertEquals(version + 1, schema.getVersion());
+
+        try {
+            views.create("lineitem_avg", "select l_returnflag, avg(l_quantity) from lineitem group by l_returnflag");
+            fail();
+        } catch (IllegalArgumentException e) {
+            assertTrue(e.getMessage(), e.getMessage().contains("Unsupported aggregate"));
+        }
+    }
+
+    static SimpleSchema createTpchQ6Schema() {
+        SimpleTable lineitem = SimpleTable.newBuilder("lineitem")
+            .addField("l_quantity", SqlTypeName.DECIMAL)
+            .addField("l_extendedprice", SqlTypeName.DECIMAL)
+            .addField("l_discount", SqlTypeName.DECIMAL)
+            .addField("l_shipdate", SqlTypeName.DATE)
+            .withRowCount(60_000L)
+            .build();
+
+        return SimpleSchema.newBuilder("tpch").addTable(lineitem).build();
+    }
+
+    /**
+     * Lineitem table with the columns of TPC-H Q6 and a return flag, loaded directly to the columnar storage.
+     */
+    static SimpleTable createTpchLineitem(int rowCount) {
+        return createTpchLineitem(rowCount, ColumnarStore.DEFAULT_BLOCK_SIZE, false);
+    }
+
+    /**
+     * Lineitem table split into the blocks of the given size. If the table is clustered, ship dates ascend over
+     * the table, so that every block covers a narrow range of dates.
+     */
+    static SimpleTable createTpchLineitem(int rowCount, int blockSize, boolean clustered) {
+        List<SqlTypeName> types = Arrays.asList(
+            SqlTypeName.DECIMAL,
+            SqlTypeName.DECIMAL,
+            SqlTypeName.DECIMAL,
+            SqlTypeName.DATE,
+            SqlTypeName.CHAR
+        );
+
+        ColumnarStore.Builder store = ColumnarStore.newBuilder(types, Arrays.asList(2, 2, 2, 0, 0));
+
+        for (int from = 0; from < rowCount; from += blockSize) {
+            int to = Math.min(rowCount, from + blockSize);
+
+            ColumnChunk.Builder quantity = ColumnChunk.newDecimalBuilder(2, to - from);
+            ColumnChunk.Builder price = ColumnChunk.newDecimalBuilder(2, to - from);
+            ColumnChunk.Builder discount = ColumnChunk.newDecimalBuilder(2, to - from);
+            ColumnChunk.Builder shipdate = ColumnChunk.newBuilder(SqlTypeName.DATE, to - from);
+            ColumnChunk.Builder returnflag = ColumnChunk.newBuilder(SqlTypeName.CHAR, to - from);
+
+            for (int i = from; i < to; i++) {
+                quantity.appendInt(1 + i % 50);
+
+                price.appendLong(900 + (i * 7L) % 10_000);
+                discount.appendDecimal(BigDecimal.valueOf(i % 11, 2));
+                // 1992-01-01 .. 1998-12-01
+                shipdate.appendInt(8035 + (int) (clustered ? i * 2526L / rowCount : (i * 31L) % 2526));
+                returnflag.appendString(i % 3 == 0 ? "A" : i % 3 == 1 ? "R" : "N");
+            }
+
+            store.addBlock(new Block(Arrays.asList(
+                quantity.build(),
+                price.build(),
+                discount.build(),
+                shipdate.build(),
+                returnflag.build()
+            )));
+        }
+
+        return SimpleTable.newBuilder("lineitem")
+            .addField("l_quantity", SqlTypeName.DECIMAL, 2)
+            .addField("l_extendedprice", SqlTypeName.DECIMAL, 2)
+            .addField("l_discount", SqlTypeName.DECIMAL, 2)
+            .addField("l_shipdate", SqlTypeName.DATE)
+            .addField("l_returnflag", SqlTypeName.CHAR)
+            .withStore(store.build())
+            .build();
+    }
+
+    /**
+     * Parse, validate, convert and optimize the query to the given convention.
+     */
+    static RelNode optimize(Optimizer optimizer, String sql, Convention convention) throws Exception {
+        RelNode relTree = optimizer.convert(optimizer.validate(optimizer.parse(sql)));
+
+        RuleSet rules = convention == EnumerableConvention.INSTANCE
+            ? TPCH_Q6_RULES
+            : RuleSets.ofList(VectorizedRules.RULES);
+
+        return optimizer.optimize(relTree, relTree.getTraitSet().plus(convention), rules);
+    }
+
+    /**
+     * Find the first node of the given class in the depth-first order.
+     */
+    static <T extends RelNode> T findNode(RelNode rel, Class<T> nodeClass) {
+        if (nodeClass.isInstance(rel)) {
+            return nodeClass.cast(rel);
+        }
+
+        for (RelNode input : rel.getInputs()) {
+            T res = findNode(input, nodeClass);
+
+            if (res != null) {
+                return res;
+            }
+        }
+
+        return null;
+    }
+
+    /**
+     * Execute the plan of the Enumerable convention. Rows use the internal Calcite representation.
+     */
+    @SuppressWarnings("unchecked")
+    static List<Object[]> executeEnumerable(SimpleSchema schema, RelNode rel, List<Object> parameters) {
+        Bindable<Object> bindable = EnumerableInterpretable.toBindable(
+            new HashMap<>(),
+            null,
+            (EnumerableRel) rel,
+            EnumerableRel.Prefer.ARRAY
+        );
+
+        List<Object[]> res = new ArrayList<>();
+
+        for (Object row : bindable.bind(dataContext(schema, parameters))) {
+            res.add(row instanceof Object[] ? (Object[]) row : new Object[] { row });
+        }
+
+        return res;
+    }
+
+    /**
+     * Data context that resolves the dynamic parameters.
+     */
+    static DataContext dataContext(SimpleSchema schema, List<Object> parameters) {
+        SchemaPlus rootSchema = CalciteSchema.createRootSchema(false, false).plus();
+        rootSchema.add(schema.getSchemaName(), schema);
+
+        JavaTypeFactory typeFactory = new JavaTypeFactoryImpl();
+
+        return new DataContext() {
+            @Override
+            public SchemaPlus getRootSchema() {
+                return rootSchema;
+            }
+
+            @Override
+            public JavaTypeFactory getTypeFactory() {
+                return typeFactory;
+            }
+
+            @Override
+            public QueryProvider getQueryProvider() {
+                return null;
+            }
+
+            @Override
+            public Object get(String name) {
+                return name.startsWith("?") ? parameters.get(Integer.parseInt(name.substring(1))) : null;
+            }
+        };
+    }
+
+    /**
+     * Sorted string representation of the rows, to compare the results regardless of the row order.
+     */
+    private static List<String> toString(List<Object[]> rows) {
+        List<String> res = new ArrayList<>(rows.size());
+
+        for (Object[] row : rows) {
+            res.add(Arrays.toString(row));
+        }
+
+        Collections.sort(res);
+
+        return res;
+    }
+
     private void print(String header, RelNode relTree) {
         StringWriter sw = new StringWriter();
 
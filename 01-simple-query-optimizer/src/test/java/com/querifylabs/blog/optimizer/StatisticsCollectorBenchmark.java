@@ -0,0 +1,102 @@
+package com.querifylabs.blog.optimizer;
+
+import org.apache.calcite.sql.type.SqlTypeName;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * JMH benchmark of the statistics collection over a generated lineitem-like table. Rows are generated on the fly,
+ * so that the data doesn't have to fit in memory.
+ * <p>
+ * Usage: {@code mvn -Pjmh test-compile exec:exec -Djmh.args="StatisticsCollectorBenchmark -p rows=100000000"}
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 5)
+@Measurement(iterations = 5, time = 5)
+@Fork(value = 1, jvmArgs = { "-Xms1g", "-Xmx1g" })
+public class StatisticsCollectorBenchmark {
+
+    private static final List<SqlTypeName> TYPES = Arrays.asList(
+        SqlTypeName.BIGINT,
+        SqlTypeName.INTEGER,
+        SqlTypeName.DOUBLE,
+        SqlTypeName.DATE
+    );
+
+    @Benchmark
+    public List<ColumnStatistic> collect(Workload workload) {
+        List<ColumnStatistic> res = new ArrayList<>(TYPES.size());
+        workload.collector.collect(workload.partitions, TYPES, res);
+
+        return res;
+    }
+
+    @State(Scope.Benchmark)
+    public static class Workload {
+        @Param({ "10000000" })
+        public long rows;
+
+        /** Number of partitions, or 0 for four partitions per available processor. */
+        @Param({ "0" })
+        public int partitionCount;
+
+        StatisticsCollector collector;
+        List<Iterable<Object[]>> partitions;
+
+        @Setup(Level.Trial)
+        public void setup() {
+            int count = partitionCount > 0 ? partitionCount : Runtime.getRuntime().availableProcessors() * 4;
+
+            partitions = new ArrayList<>(count);
+            for (int i = 0; i < count; i++) {
+                long from = rows * i / count;
+                long to = rows * (i + 1) / count;
+
+                partitions.add(() -> rows(from, to));
+            }
+
+            collector = StatisticsCollector.newBuilder().build();
+        }
+    }
+
+    private static Iterator<Object[]> rows(long from, long to) {
+        return new Iterator<Object[]>() {
+            private final Object[] row = new Object[4];
+            private long next = from;
+
+            @Override
+            public boolean hasNext() {
+                return next < to;
+            }
+
+            @Override
+            public Object[] next() {
+                long current = next++;
+
+                row[0] = current / 4;
+                row[1] = (int) (1 + current % 50);
+                row[2] = (current % 11) / 100.0d;
+                row[3] = (int) (8035 + current % 2526);
+
+                return row;
+            }
+        };
+    }
+}
@@ -0,0 +1,100 @@
+package com.querifylabs.blog.optimizer;
+
+import com.querifylabs.blog.optimizer.storage.ColumnarFile;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * JMH benchmarks of the columnar storage: loading of the generated lineitem table into the memory, writing of the
+ * table to the columnar file with and without the encodings, and opening of the memory-mapped file.
+ * <p>
+ * Usage: {@code mvn -Pjmh test-compile exec:exec -Djmh.args="StorageBenchmark -p rows=1000000"}
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 5)
+@Measurement(iterations = 5, time = 5)
+@Fork(value = 1, jvmArgs = { "-Xms4g", "-Xmx4g" })
+public class StorageBenchmark {
+
+    @Benchmark
+    public SimpleTable load(Lineitem lineitem) {
+        return OptimizerTest.createTpchLineitem(lineitem.rows);
+    }
+
+    @Benchmark
+    public Path write(Lineitem lineitem, WriteState state) throws Exception {
+        ColumnarFile.newWriter(state.path)
+            .withEncodings(state.encodings)
+            .write(lineitem.table.getFieldNames(), lineitem.table.getStore());
+
+        return state.path;
+    }
+
+    @Benchmark
+    public ColumnarFile open(OpenState state) throws Exception {
+        return ColumnarFile.open(state.path);
+    }
+
+    @State(Scope.Benchmark)
+    public static class Lineitem {
+        @Param({ "10000000" })
+        public int rows;
+
+        SimpleTable table;
+
+        @Setup(Level.Trial)
+        public void setup() {
+            table = OptimizerTest.createTpchLineitem(rows);
+        }
+    }
+
+    @State(Scope.Thread)
+    public static class WriteState {
+        @Param({ "false", "true" })
+        public boolean encodings;
+
+        Path path;
+
+        @Setup(Level.Trial)
+        public void setup() throws Exception {
+            path = Files.createTempFile("lineitem", ".col");
+        }
+
+        @TearDown(Level.Trial)
+        public void tearDown() throws Exception {
+            Files.deleteIfExists(path);
+        }
+    }
+
+    @State(Scope.Thread)
+    public static class OpenState {
+        Path path;
+
+        @Setup(Level.Trial)
+        public void setup(Lineitem lineitem) throws Exception {
+            path = Files.createTempFile("lineitem", ".col");
+            ColumnarFile.newWriter(path).write(lineitem.table.getFieldNames(), lineitem.table.getStore());
+        }
+
+        @TearDown(Level.Trial)
+        public void tearDown() throws Exception {
+            Files.deleteIfExists(path);
+        }
+    }
+}
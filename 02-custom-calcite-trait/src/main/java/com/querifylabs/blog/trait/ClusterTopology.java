@@ -0,0 +1,46 @@
+package com.querifylabs.blog.trait;
+
+import org.apache.calcite.plan.RelOptPlanner;
+
+/**
+ * Shape of the cluster the plan is executed on, used to estimate the cost of the exchanges. Pass it in the
+ * context of the planner, otherwise the cluster of {@link #DEFAULT_NODE_COUNT} nodes is assumed.
+ */
+public final class ClusterTopology {
+
+    public static final int DEFAULT_NODE_COUNT = 4;
+
+    private static final ClusterTopology DEFAULT = new ClusterTopology(DEFAULT_NODE_COUNT);
+
+    private final int nodeCount;
+
+    private ClusterTopology(int nodeCount) {
+        this.nodeCount = nodeCount;
+    }
+
+    public static ClusterTopology of(int nodeCount) {
+        if (nodeCount <= 0) {
+            throw new IllegalArgumentException("Node count must be positive: " + nodeCount);
+        }
+
+        return new ClusterTopology(nodeCount);
+    }
+
+    /**
+     * Topology from the context of the planner.
+     */
+    public static ClusterTopology of(RelOptPlanner planner) {
+        ClusterTopology res = planner.getContext().unwrap(ClusterTopology.class);
+
+        return res != null ? res : DEFAULT;
+    }
+
+    public int getNodeCount() {
+        return nodeCount;
+    }
+
+    @Override
+    public String toString() {
+        return "ClusterTopology{nodes=" + nodeCount + '}';
+    }
+}
@@ -3,17 +3,79 @@ package com.querifylabs.blog.trait;
 import org.apache.calcite.plan.RelOptPlanner;
 import org.apache.calcite.plan.RelTrait;
 import org.apache.calcite.plan.RelTraitDef;
+import org.apache.calcite.util.ImmutableIntList;
+import org.apache.calcite.util.Util;
+import org.apache.calcite.util.mapping.Mappings;
 
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Objects;
+
+/**
+ * Distribution of the rows between the nodes of the cluster.
+ * <p>
+ * {@code HASH} and {@code RANGE} distributions are defined by the key fields: the rows with the same key values
+ * are located on the same node. {@code HASH[a]} satisfies {@code HASH[a, b]}, because the rows with the same
+ * {@code (a, b)} have the same {@code a}. {@code RANGE[a]} satisfies {@code RANGE[a, b]}, since the ranges are
+ * ordered by the leading keys. Operators that combine several inputs, such as joins, must check that the inputs
+ * are distributed on the matching keys.
+ * <p>
+ * {@code PARTITIONED} is the requirement of any partitioning: it is satisfied by the {@code HASH},
+ * {@code RANGE} and {@code RANDOM} distributions. {@code BROADCAST} means that every node has all the rows.
+ */
 public class Distribution implements RelTrait {
 
-    public static final Distribution ANY = new Distribution(Type.ANY);
-    public static final Distribution PARTITIONED = new Distribution(Type.PARTITIONED);
-    public static final Distribution SINGLETON = new Distribution(Type.SINGLETON);
+    public static final Distribution ANY = new Distribution(Type.ANY, ImmutableIntList.of());
+    public static final Distribution PARTITIONED = new Distribution(Type.PARTITIONED, ImmutableIntList.of());
+    public static final Distribution SINGLETON = new Distribution(Type.SINGLETON, ImmutableIntList.of());
+    public static final Distribution BROADCAST = new Distribution(Type.BROADCAST, ImmutableIntList.of());
+    public static final Distribution RANDOM = new Distribution(Type.RANDOM, ImmutableIntList.of());
 
     private final Type type;
+    private final ImmutableIntList keys;
 
-    private Distribution(Type type) {
+    private Distribution(Type type, ImmutableIntList keys) {
         this.type = type;
+        this.keys = keys;
+    }
+
+    public static Distribution hash(int... keys) {
+        return hash(ImmutableIntList.of(keys));
+    }
+
+    public static Distribution hash(List<Integer> keys) {
+        return of(Type.HASH, keys);
+    }
+
+    public static Distribution range(int... keys) {
+        return range(ImmutableIntList.of(keys));
+    }
+
+    public static Distribution range(List<Integer> keys) {
+        return of(Type.RANGE, keys);
+    }
+
+    private static Distribution of(Type type, List<Integer> keys) {
+        if (keys.isEmpty()) {
+            throw new IllegalArgumentException(type + " distribution must have at least one key");
+        }
+
+        if (keys.stream().distinct().count() != keys.size()) {
+            throw new IllegalArgumentException(type + " distribution keys must be unique: " + keys);
+        }
+
+        return new Distribution(type, ImmutableIntList.copyOf(keys));
+    }
+
+    public Type getType() {
+        return type;
+    }
+
+    /**
+     * Indexes of the key fields, empty unless the distribution is {@code HASH} or {@code RANGE}.
+     */
+    public ImmutableIntList getKeys() {
+        return keys;
     }
 
     @SuppressWarnings("rawtypes")
@@ -26,11 +88,49 @@ public class Distribution implements RelTrait {
     public boolean satisfies(RelTrait toTrait) {
         Distribution toTrait0 = (Distribution) toTrait;
 
-        if (toTrait0.type == Type.ANY) {
+        if (toTrait0.type == Type.ANY || this.equals(toTrait0)) {
             return true;
         }
 
-        return this.type.equals(toTrait0.type);
+        switch (toTrait0.type) {
+            case PARTITIONED:
+                return type == Type.HASH || type == Type.RANGE || type == Type.RANDOM;
+
+            case HASH:
+                return type == Type.HASH && toTrait0.keys.containsAll(keys);
+
+            case RANGE:
+                return type == Type.RANGE && Util.startsWith(toTrait0.keys, keys);
+
+            default:
+                return false;
+        }
+    }
+
+    /**
+     * Distribution of the fields after the mapping, e.g. the projection of the input fields. If some of the key
+     * fields are not mapped, the distribution of the rows is not known.
+     */
+    @SuppressWarnings("unchecked")
+    @Override
+    public <T extends RelTrait> T apply(Mappings.TargetMapping mapping) {
+        if (keys.isEmpty()) {
+            return (T) this;
+        }
+
+        List<Integer> newKeys = new ArrayList<>(keys.size());
+
+        for (int key : keys) {
+            int newKey = mapping.getTargetOpt(key);
+
+            if (newKey == -1) {
+                return (T) ANY;
+            }
+
+            newKeys.add(newKey);
+        }
+
+        return (T) DistributionTraitDef.INSTANCE.canonize(of(type, newKeys));
     }
 
     @Override
@@ -38,14 +138,38 @@ public class Distribution implements RelTrait {
         // No-op.
     }
 
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) {
+            return true;
+        }
+
+        if (o == null || getClass() != o.getClass()) {
+            return false;
+        }
+
+        Distribution that = (Distribution) o;
+
+        return type == that.type && keys.equals(that.keys);
+    }
+
+    @Override
+    public int hashCode() {
+        return Objects.hash(type, keys);
+    }
+
     @Override
     public String toString() {
-        return type.name();
+        return keys.isEmpty() ? type.name() : type.name() + keys;
     }
 
-    enum Type {
+    public enum Type {
         ANY,
         PARTITIONED,
-        SINGLETON
+        SINGLETON,
+        HASH,
+        RANGE,
+        BROADCAST,
+        RANDOM
     }
 }
@@ -1,23 +1,134 @@
 package com.querifylabs.blog.trait;
 
+import com.querifylabs.blog.trait.distributed.DistributedRel;
+import com.querifylabs.blog.trait.exchange.ExchangeMode;
+import org.apache.calcite.plan.DeriveMode;
 import org.apache.calcite.plan.RelOptCluster;
+import org.apache.calcite.plan.RelOptCost;
+import org.apache.calcite.plan.RelOptPlanner;
 import org.apache.calcite.plan.RelTraitSet;
 import org.apache.calcite.rel.RelNode;
+import org.apache.calcite.rel.RelWriter;
 import org.apache.calcite.rel.SingleRel;
+import org.apache.calcite.rel.metadata.RelMetadataQuery;
+import org.apache.calcite.rel.type.RelDataType;
+import org.apache.calcite.rel.type.RelDataTypeField;
 
 import java.util.List;
 
-public class ExchangeRel extends SingleRel {
+/**
+ * Exchange that redistributes the rows of the input between the nodes of the cluster according to the
+ * distribution of the exchange.
+ * <p>
+ * The rows of the cost are the rows received by a single node, in the same units as the per-node rows of the
+ * distributed operators: the row count of the input times the fan-out, which is the number of nodes for
+ * {@code BROADCAST} and one otherwise, spread between the receiving nodes. So gathering the rows to a single node
+ * is as expensive as broadcasting them, and shuffling is cheaper than both. The CPU of the cost is the total number
+ * of rows sent, and the IO is the number of bytes sent over the network: the rows sent times the row width.
+ */
+public class ExchangeRel extends SingleRel implements DistributedRel {
+
+    /** Width of the values, whose size is not known from the type. */
+    private static final int DEFAULT_FIELD_WIDTH = 8;
+
+    private final ExchangeMode mode;
+
     public ExchangeRel(
         RelOptCluster cluster,
         RelTraitSet traits,
         RelNode input
     ) {
         super(cluster, traits, input);
+
+        // The mode is defined by the distribution, so that copies with the same traits have the same mode.
+        this.mode = ExchangeMode.of(traits.getTrait(DistributionTraitDef.INSTANCE));
+    }
+
+    public ExchangeMode getMode() {
+        return mode;
+    }
+
+    public Distribution getDistribution() {
+        return getTraitSet().getTrait(DistributionTraitDef.INSTANCE);
     }
 
     @Override
     public RelNode copy(RelTraitSet traitSet, List<RelNode> inputs) {
         return new ExchangeRel(getCluster(), traitSet, inputs.get(0));
     }
+
+    @Override
+    public boolean isEnforcer() {
+        return true;
+    }
+
+    /**
+     * The distribution of the exchange does not depend on the distribution of the input.
+     */
+    @Override
+    public DeriveMode getDeriveMode() {
+        return DeriveMode.PROHIBITED;
+    }
+
+    @Override
+    public RelOptCost computeSelfCost(RelOptPlanner planner, RelMetadataQuery mq) {
+        double rowCount = mq.getRowCount(getInput());
+        int nodeCount = ClusterTopology.of(planner).getNodeCount();
+
+        int fanOut = mode == ExchangeMode.BROADCAST ? nodeCount : 1;
+        int receiverCount = mode == ExchangeMode.GATHER ? 1 : nodeCount;
+
+        double sentRowCount = rowCount * fanOut;
+        double bytes = sentRowCount * rowWidth(getRowType());
+
+        return planner.getCostFactory().makeCost(sentRowCount / receiverCount, sentRowCount, bytes);
+    }
+
+    @Override
+    public RelWriter explainTerms(RelWriter pw) {
+        return super.explainTerms(pw).item("mode", mode);
+    }
+
+    /**
+     * Estimated number of bytes in the row.
+     */
+    static double rowWidth(RelDataType rowType) {
+        double res = 0.0d;
+
+        for (RelDataTypeField field : rowType.getFieldList()) {
+            switch (field.getType().getSqlTypeName()) {
+                case BOOLEAN:
+                case TINYINT:
+                    res += 1;
+
+                    break;
+
+                case SMALLINT:
+                    res += 2;
+
+                    break;
+
+                case INTEGER:
+                case REAL:
+                case DATE:
+                case TIME:
+                    res += 4;
+
+                    break;
+
+                case CHAR:
+                case VARCHAR:
+                    int precision = field.getType().getPrecision();
+
+                    res += precision > 0 ? precision : DEFAULT_FIELD_WIDTH;
+
+                    break;
+
+                default:
+                    res += DEFAULT_FIELD_WIDTH;
+            }
+        }
+
+        return res;
+    }
 }
@@ -3,9 +3,13 @@ package com.querifylabs.blog.trait;
 import org.apache.calcite.schema.SchemaVersion;
 import org.apache.calcite.schema.impl.AbstractSchema;
 
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.Map;
 
+/**
+ * Immutable schema: the tables are fixed when the schema is built, so the schema is its own snapshot.
+ */
 public class Schema extends AbstractSchema {
 
     private final String schemaName;
@@ -13,7 +17,7 @@ public class Schema extends AbstractSchema {
 
     private Schema(String schemaName, Map<String, org.apache.calcite.schema.Table> tableMap) {
         this.schemaName = schemaName;
-        this.tableMap = tableMap;
+        this.tableMap = Collections.unmodifiableMap(new HashMap<>(tableMap));
     }
 
     public String getSchemaName() {
@@ -25,6 +29,11 @@ public class Schema extends AbstractSchema {
         return tableMap;
     }
 
+    @Override
+    public boolean isMutable() {
+        return false;
+    }
+
     @Override
     public org.apache.calcite.schema.Schema snapshot(SchemaVersion version) {
         return this;
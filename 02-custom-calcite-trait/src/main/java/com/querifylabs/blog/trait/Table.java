@@ -1,5 +1,6 @@
 package com.querifylabs.blog.trait;
 
+import com.google.common.collect.ImmutableList;
 import org.apache.calcite.plan.RelOptTable;
 import org.apache.calcite.plan.RelTraitSet;
 import org.apache.calcite.rel.RelNode;
@@ -10,11 +11,14 @@ import org.apache.calcite.rel.type.RelDataTypeField;
 import org.apache.calcite.rel.type.RelDataTypeFieldImpl;
 import org.apache.calcite.rel.type.RelRecordType;
 import org.apache.calcite.rel.type.StructKind;
+import org.apache.calcite.schema.Statistic;
+import org.apache.calcite.schema.Statistics;
 import org.apache.calcite.schema.TranslatableTable;
 import org.apache.calcite.schema.impl.AbstractTable;
 import org.apache.calcite.sql.type.SqlTypeName;
 
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
 
 public class Table extends AbstractTable implements TranslatableTable {
@@ -23,20 +27,32 @@ public class Table extends AbstractTable implements TranslatableTable {
     private final Distribution distribution;
     private final List<String> fieldNames;
     private final List<SqlTypeName> fieldTypes;
+    private final Statistic statistic;
 
     private RelDataType rowType;
 
-    private Table(String tableName, Distribution distribution, List<String> fieldNames, List<SqlTypeName> fieldTypes) {
+    private Table(
+        String tableName,
+        Distribution distribution,
+        List<String> fieldNames,
+        List<SqlTypeName> fieldTypes,
+        Statistic statistic
+    ) {
         this.tableName = tableName;
         this.distribution = distribution;
         this.fieldNames = fieldNames;
         this.fieldTypes = fieldTypes;
+        this.statistic = statistic;
     }
 
     public String getTableName() {
         return tableName;
     }
 
+    public Distribution getDistribution() {
+        return distribution;
+    }
+
     @Override
     public RelDataType getRowType(RelDataTypeFactory typeFactory) {
         if (rowType == null) {
@@ -54,6 +70,11 @@ public class Table extends AbstractTable implements TranslatableTable {
         return rowType;
     }
 
+    @Override
+    public Statistic getStatistic() {
+        return statistic;
+    }
+
     @Override
     public RelNode toRel(RelOptTable.ToRelContext context, RelOptTable relOptTable) {
         RelTraitSet traitSet = context.getCluster().traitSetOf(distribution);
@@ -66,6 +87,10 @@ public class Table extends AbstractTable implements TranslatableTable {
         );
     }
 
+    public static Builder newBuilder(String tableName) {
+        return new Builder(tableName, Distribution.ANY);
+    }
+
     public static Builder newBuilder(String tableName, Distribution distribution) {
         return new Builder(tableName, distribution);
     }
@@ -73,10 +98,14 @@ public class Table extends AbstractTable implements TranslatableTable {
     public static final class Builder {
 
         private final String tableName;
-        private final Distribution distribution;
         private final List<String> fieldNames = new ArrayList<>();
         private final List<SqlTypeName> fieldTypes = new ArrayList<>();
 
+        private Double rowCount;
+        private Distribution distribution;
+        private Distribution.Type distributionType;
+        private List<String> distributionFieldNames;
+
         private Builder(String tableName, Distribution distribution) {
             if (tableName == null || tableName.isEmpty()) {
                 throw new IllegalArgumentException("Table name cannot be null or empty");
@@ -101,12 +130,80 @@ public class Table extends AbstractTable implements TranslatableTable {
             return this;
         }
 
+        public Builder withRowCount(double rowCount) {
+            if (rowCount < 0.0d) {
+                throw new IllegalArgumentException("Row count cannot be negative: " + rowCount);
+            }
+
+            this.rowCount = rowCount;
+
+            return this;
+        }
+
+        public Builder withDistribution(Distribution distribution) {
+            this.distribution = distribution;
+            this.distributionType = null;
+            this.distributionFieldNames = null;
+
+            return this;
+        }
+
+        /**
+         * Hash-partition the table on the given fields, that are resolved when the table is built.
+         */
+        public Builder withHashDistribution(String... fieldNames) {
+            return withDistribution(Distribution.Type.HASH, fieldNames);
+        }
+
+        /**
+         * Range-partition the table on the given fields, that are resolved when the table is built.
+         */
+        public Builder withRangeDistribution(String... fieldNames) {
+            return withDistribution(Distribution.Type.RANGE, fieldNames);
+        }
+
+        private Builder withDistribution(Distribution.Type type, String... fieldNames) {
+            if (fieldNames.length == 0) {
+                throw new IllegalArgumentException(type + " distribution must have at least one key");
+            }
+
+            this.distribution = null;
+            this.distributionType = type;
+            this.distributionFieldNames = Arrays.asList(fieldNames);
+
+            return this;
+        }
+
         public Table build() {
             if (fieldNames.isEmpty()) {
                 throw new IllegalStateException("Table must have at least one field");
             }
 
-            return new Table(tableName, distribution, fieldNames, fieldTypes);
+            Distribution distribution0 = distribution;
+
+            if (distributionType != null) {
+                List<Integer> keys = new ArrayList<>(distributionFieldNames.size());
+
+                for (String distributionFieldName : distributionFieldNames) {
+                    int key = fieldNames.indexOf(distributionFieldName);
+
+                    if (key == -1) {
+                        throw new IllegalStateException("Distribution field is not defined: " + distributionFieldName);
+                    }
+
+                    keys.add(key);
+                }
+
+                distribution0 = distributionType == Distribution.Type.HASH
+                    ? Distribution.hash(keys)
+                    : Distribution.range(keys);
+            }
+
+            Statistic statistic = rowCount != null
+                ? Statistics.of(rowCount, ImmutableList.of())
+                : Statistics.UNKNOWN;
+
+            return new Table(tableName, distribution0, fieldNames, fieldTypes, statistic);
         }
     }
 }
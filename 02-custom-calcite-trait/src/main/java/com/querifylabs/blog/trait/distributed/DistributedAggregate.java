@@ -0,0 +1,143 @@
+package com.querifylabs.blog.trait.distributed;
+
+import com.google.common.collect.ImmutableList;
+import com.querifylabs.blog.trait.Distribution;
+import org.apache.calcite.plan.RelOptCluster;
+import org.apache.calcite.plan.RelOptCost;
+import org.apache.calcite.plan.RelOptPlanner;
+import org.apache.calcite.plan.RelTraitSet;
+import org.apache.calcite.rel.RelNode;
+import org.apache.calcite.rel.RelWriter;
+import org.apache.calcite.rel.core.Aggregate;
+import org.apache.calcite.rel.core.AggregateCall;
+import org.apache.calcite.rel.metadata.RelMetadataQuery;
+import org.apache.calcite.util.ImmutableBitSet;
+import org.apache.calcite.util.Pair;
+import org.apache.calcite.util.mapping.Mappings;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Aggregation executed on every node of the input.
+ * <p>
+ * {@link Phase#SINGLE} aggregate requires the rows of every group to be located on the same node.
+ * {@link Phase#PARTIAL} aggregate accepts any distribution and produces a row per group on every node, that are
+ * merged by the {@link Phase#FINAL} aggregate after the exchange. The metadata estimates the row count of the
+ * partial aggregate as the number of groups, although every node may produce a row for each group, see
+ * {@link DistributedRelMdRowCount}.
+ */
+public class DistributedAggregate extends Aggregate implements DistributedRel {
+
+    private final Phase phase;
+
+    public DistributedAggregate(
+        RelOptCluster cluster,
+        RelTraitSet traitSet,
+        RelNode input,
+        ImmutableBitSet groupSet,
+        List<ImmutableBitSet> groupSets,
+        List<AggregateCall> aggCalls,
+        Phase phase
+    ) {
+        super(cluster, traitSet, Collections.emptyList(), input, groupSet, groupSets, aggCalls);
+
+        this.phase = phase;
+    }
+
+    public Phase getPhase() {
+        return phase;
+    }
+
+    @Override
+    public Aggregate copy(
+        RelTraitSet traitSet,
+        RelNode input,
+        ImmutableBitSet groupSet,
+        List<ImmutableBitSet> groupSets,
+        List<AggregateCall> aggCalls
+    ) {
+        return new DistributedAggregate(getCluster(), traitSet, input, groupSet, groupSets, aggCalls, phase);
+    }
+
+    /**
+     * The required partitioning on the group keys, or the gathering on a single node, is pushed down to the input
+     * of the aggregate that merges the rows of the groups. The partial aggregate accepts any distribution.
+     */
+    @Override
+    public Pair<RelTraitSet, List<RelTraitSet>> passThroughTraits(RelTraitSet required) {
+        Distribution distribution = DistributedTraits.distribution(required);
+
+        if (phase == Phase.PARTIAL || !distribution.getKeys().isEmpty() && getGroupType() != Group.SIMPLE
+            || distribution.getKeys().isEmpty() && distribution != Distribution.SINGLETON) {
+            return null;
+        }
+
+        Distribution inputDistribution = DistributedTraits.inverse(
+            distribution,
+            key -> key < getGroupCount() ? getGroupSet().nth(key) : -1
+        );
+
+        if (inputDistribution == null) {
+            return null;
+        }
+
+        return Pair.of(required, ImmutableList.of(required.replace(inputDistribution)));
+    }
+
+    /**
+     * The aggregate that merges the rows of the groups is derived only from the input, whose rows of every group
+     * are located on the same node.
+     */
+    @Override
+    public Pair<RelTraitSet, List<RelTraitSet>> deriveTraits(RelTraitSet childTraits, int childId) {
+        Distribution childDistribution = DistributedTraits.distribution(childTraits);
+        Distribution distribution;
+
+        if (phase == Phase.PARTIAL) {
+            distribution = DistributedTraits.remap(childDistribution, groupMapping(this));
+        } else {
+            distribution = childDistribution.apply(groupMapping(this));
+
+            boolean colocated = distribution == Distribution.SINGLETON || distribution == Distribution.BROADCAST
+                || !distribution.getKeys().isEmpty() && getGroupType() == Group.SIMPLE;
+
+            if (!colocated) {
+                return null;
+            }
+        }
+
+        return Pair.of(getTraitSet().replace(distribution), ImmutableList.of(childTraits));
+    }
+
+    /**
+     * Mapping of the group keys of the input to the fields of the aggregate.
+     */
+    static Mappings.TargetMapping groupMapping(Aggregate aggregate) {
+        Map<Integer, Integer> map = new HashMap<>();
+
+        for (int key : aggregate.getGroupSet()) {
+            map.put(key, map.size());
+        }
+
+        return Mappings.target(map, aggregate.getInput().getRowType().getFieldCount(), aggregate.getGroupCount());
+    }
+
+    @Override
+    public RelOptCost computeSelfCost(RelOptPlanner planner, RelMetadataQuery mq) {
+        return DistributedCosts.cost(this, planner, mq.getRowCount(getInput()));
+    }
+
+    @Override
+    public RelWriter explainTerms(RelWriter pw) {
+        return super.explainTerms(pw).item("phase", phase);
+    }
+
+    public enum Phase {
+        SINGLE,
+        PARTIAL,
+        FINAL
+    }
+}
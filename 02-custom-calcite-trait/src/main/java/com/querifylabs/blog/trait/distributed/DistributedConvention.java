@@ -0,0 +1,85 @@
+package com.querifylabs.blog.trait.distributed;
+
+import com.querifylabs.blog.trait.Distribution;
+import com.querifylabs.blog.trait.DistributionTraitDef;
+import com.querifylabs.blog.trait.ExchangeRel;
+import org.apache.calcite.plan.Convention;
+import org.apache.calcite.plan.ConventionTraitDef;
+import org.apache.calcite.plan.RelOptPlanner;
+import org.apache.calcite.plan.RelTrait;
+import org.apache.calcite.plan.RelTraitDef;
+import org.apache.calcite.plan.RelTraitSet;
+import org.apache.calcite.rel.RelNode;
+
+/**
+ * Calling convention of the operators that are executed on the nodes of the cluster, and therefore have a known
+ * {@link com.querifylabs.blog.trait.Distribution}.
+ */
+public enum DistributedConvention implements Convention {
+    INSTANCE;
+
+    @Override
+    public String toString() {
+        return getName();
+    }
+
+    @SuppressWarnings("rawtypes")
+    @Override
+    public Class getInterface() {
+        return DistributedRel.class;
+    }
+
+    @Override
+    public String getName() {
+        return "DISTRIBUTED";
+    }
+
+    @SuppressWarnings("rawtypes")
+    @Override
+    public RelTraitDef getTraitDef() {
+        return ConventionTraitDef.INSTANCE;
+    }
+
+    @Override
+    public boolean satisfies(RelTrait trait) {
+        return this == trait;
+    }
+
+    @Override
+    public void register(RelOptPlanner planner) {
+        // No-op.
+    }
+
+    @Override
+    public boolean canConvertConvention(Convention toConvention) {
+        return false;
+    }
+
+    /**
+     * Exchange that enforces the required distribution with the top-down optimization. Any partitioning is
+     * enforced by spreading the rows randomly.
+     */
+    @Override
+    public RelNode enforce(RelNode input, RelTraitSet required) {
+        Distribution distribution = required.getTrait(DistributionTraitDef.INSTANCE);
+
+        if (distribution == null || distribution == Distribution.ANY) {
+            return null;
+        }
+
+        if (distribution == Distribution.PARTITIONED) {
+            distribution = Distribution.RANDOM;
+        }
+
+        return new ExchangeRel(input.getCluster(), required.replace(distribution), input);
+    }
+
+    /**
+     * Without the top-down optimization, the exchanges are created by the abstract converters, that convert the
+     * inputs to the required distribution.
+     */
+    @Override
+    public boolean useAbstractConvertersForConversion(RelTraitSet fromTraits, RelTraitSet toTraits) {
+        return true;
+    }
+}
@@ -0,0 +1,66 @@
+package com.querifylabs.blog.trait.distributed;
+
+import com.querifylabs.blog.trait.ClusterTopology;
+import com.querifylabs.blog.trait.Distribution;
+import com.querifylabs.blog.trait.DistributionTraitDef;
+import org.apache.calcite.plan.RelOptCost;
+import org.apache.calcite.plan.RelOptPlanner;
+import org.apache.calcite.rel.RelNode;
+import org.apache.calcite.rel.metadata.RelMetadataQuery;
+
+/**
+ * Cost of the work of the distributed operators. The rows of the cost are the rows processed by a single node, so
+ * that they could be compared with the rows received by a single node in the cost of the
+ * {@link com.querifylabs.blog.trait.ExchangeRel}. The operators do not use the network, so their IO is zero.
+ */
+final class DistributedCosts {
+
+    private DistributedCosts() {
+        // No-op.
+    }
+
+    /**
+     * Cost of processing the given number of rows by the operator.
+     */
+    static RelOptCost cost(RelNode rel, RelOptPlanner planner, double rowCount) {
+        return planner.getCostFactory().makeCost(rowCount / parallelism(rel, planner), rowCount, 0.0d);
+    }
+
+    /**
+     * Cost of processing all the rows of the inputs, every input is processed with its own parallelism.
+     */
+    static RelOptCost cost(RelOptPlanner planner, RelMetadataQuery mq, RelNode... inputs) {
+        double work = 0.0d;
+        double rowCount = 0.0d;
+
+        for (RelNode input : inputs) {
+            double inputRowCount = mq.getRowCount(input);
+
+            work += inputRowCount / parallelism(input, planner);
+            rowCount += inputRowCount;
+        }
+
+        return planner.getCostFactory().makeCost(work, rowCount, 0.0d);
+    }
+
+    /**
+     * Number of nodes that share the work of the operator: the rows of a single node and the rows copied to every
+     * node are processed by every node as a whole.
+     */
+    static int parallelism(RelNode rel, RelOptPlanner planner) {
+        Distribution distribution = rel.getTraitSet().getTrait(DistributionTraitDef.INSTANCE);
+
+        if (distribution == null) {
+            return 1;
+        }
+
+        switch (distribution.getType()) {
+            case SINGLETON:
+            case BROADCAST:
+                return 1;
+
+            default:
+                return ClusterTopology.of(planner).getNodeCount();
+        }
+    }
+}
@@ -0,0 +1,172 @@
+package com.querifylabs.blog.trait.distributed;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableSet;
+import com.querifylabs.blog.trait.Distribution;
+import org.apache.calcite.plan.DeriveMode;
+import org.apache.calcite.plan.RelOptCluster;
+import org.apache.calcite.plan.RelOptCost;
+import org.apache.calcite.plan.RelOptPlanner;
+import org.apache.calcite.plan.RelTraitSet;
+import org.apache.calcite.rel.RelNode;
+import org.apache.calcite.rel.RelWriter;
+import org.apache.calcite.rel.core.Join;
+import org.apache.calcite.rel.core.JoinRelType;
+import org.apache.calcite.rel.metadata.RelMetadataQuery;
+import org.apache.calcite.rex.RexNode;
+import org.apache.calcite.util.Pair;
+import org.apache.calcite.util.mapping.Mappings;
+
+import java.util.List;
+
+/**
+ * Hash join executed on every node of the inputs. The {@link Strategy} defines how the rows of the inputs are
+ * brought together: the inputs are never exchanged by the join itself, the required distributions of the inputs
+ * are enforced by the exchanges below the join.
+ */
+public class DistributedJoin extends Join implements DistributedRel {
+
+    private final Strategy strategy;
+
+    public DistributedJoin(
+        RelOptCluster cluster,
+        RelTraitSet traitSet,
+        RelNode left,
+        RelNode right,
+        RexNode condition,
+        JoinRelType joinType,
+        Strategy strategy
+    ) {
+        super(cluster, traitSet, ImmutableList.of(), left, right, condition, ImmutableSet.of(), joinType);
+
+        this.strategy = strategy;
+    }
+
+    public Strategy getStrategy() {
+        return strategy;
+    }
+
+    @Override
+    public Join copy(
+        RelTraitSet traitSet,
+        RexNode conditionExpr,
+        RelNode left,
+        RelNode right,
+        JoinRelType joinType,
+        boolean semiJoinDone
+    ) {
+        return new DistributedJoin(getCluster(), traitSet, left, right, conditionExpr, joinType, strategy);
+    }
+
+    /**
+     * The broadcast join pushes the required partitioning down to the input, whose rows are not copied, if the
+     * keys are the fields of that input.
+     */
+    @Override
+    public Pair<RelTraitSet, List<RelTraitSet>> passThroughTraits(RelTraitSet required) {
+        Distribution distribution = DistributedTraits.distribution(required);
+
+        if (distribution.getKeys().isEmpty()) {
+            return null;
+        }
+
+        int leftCount = getLeft().getRowType().getFieldCount();
+        int rightCount = getRight().getRowType().getFieldCount();
+
+        switch (strategy) {
+            case BROADCAST_RIGHT:
+                Distribution leftDistribution = DistributedTraits.inverse(
+                    distribution,
+                    key -> key < leftCount ? key : -1
+                );
+
+                return leftDistribution == null ? null : Pair.of(
+                    required,
+                    ImmutableList.of(getLeft().getTraitSet().replace(leftDistribution), getRight().getTraitSet())
+                );
+
+            case BROADCAST_LEFT:
+                Distribution rightDistribution = DistributedTraits.inverse(
+                    distribution,
+                    key -> key >= leftCount && key < leftCount + rightCount ? key - leftCount : -1
+                );
+
+                return rightDistribution == null ? null : Pair.of(
+                    required,
+                    ImmutableList.of(getLeft().getTraitSet(), getRight().getTraitSet().replace(rightDistribution))
+                );
+
+            default:
+                return null;
+        }
+    }
+
+    /**
+     * The broadcast join is derived from any partitioning of the input, whose rows are not copied.
+     */
+    @Override
+    public Pair<RelTraitSet, List<RelTraitSet>> deriveTraits(RelTraitSet childTraits, int childId) {
+        Distribution distribution = DistributedTraits.distribution(childTraits);
+
+        if (distribution.getType() == Distribution.Type.PARTITIONED
+            || !distribution.satisfies(Distribution.PARTITIONED)) {
+            return null;
+        }
+
+        if (strategy == Strategy.BROADCAST_RIGHT && childId == 0) {
+            return Pair.of(
+                getTraitSet().replace(distribution),
+                ImmutableList.of(childTraits, getRight().getTraitSet())
+            );
+        }
+
+        if (strategy == Strategy.BROADCAST_LEFT && childId == 1) {
+            int leftCount = getLeft().getRowType().getFieldCount();
+            int rightCount = getRight().getRowType().getFieldCount();
+
+            Distribution shifted = distribution.apply(
+                Mappings.offsetTarget(Mappings.createIdentity(rightCount), leftCount)
+            );
+
+            return Pair.of(getTraitSet().replace(shifted), ImmutableList.of(getLeft().getTraitSet(), childTraits));
+        }
+
+        return null;
+    }
+
+    @Override
+    public DeriveMode getDeriveMode() {
+        return DeriveMode.BOTH;
+    }
+
+    /**
+     * Every node builds the hash table from its rows of the right input and probes it with its rows of the left
+     * input. A broadcast input is processed as a whole by every node.
+     */
+    @Override
+    public RelOptCost computeSelfCost(RelOptPlanner planner, RelMetadataQuery mq) {
+        return DistributedCosts.cost(planner, mq, getLeft(), getRight());
+    }
+
+    @Override
+    public RelWriter explainTerms(RelWriter pw) {
+        return super.explainTerms(pw).item("strategy", strategy);
+    }
+
+    public enum Strategy {
+        /**
+         * Both inputs are hash-partitioned on the same pair of the join keys. The inputs that are already
+         * partitioned this way are joined in place, the other inputs are repartitioned.
+         */
+        HASH,
+
+        /** The right input is copied to every node of the left input. */
+        BROADCAST_RIGHT,
+
+        /** The left input is copied to every node of the right input. */
+        BROADCAST_LEFT,
+
+        /** Both inputs are gathered on a single node. */
+        SINGLETON
+    }
+}
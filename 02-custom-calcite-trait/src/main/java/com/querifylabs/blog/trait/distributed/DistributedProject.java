@@ -0,0 +1,71 @@
+package com.querifylabs.blog.trait.distributed;
+
+import com.google.common.collect.ImmutableList;
+import com.querifylabs.blog.trait.Distribution;
+import org.apache.calcite.plan.RelOptCluster;
+import org.apache.calcite.plan.RelOptCost;
+import org.apache.calcite.plan.RelOptPlanner;
+import org.apache.calcite.plan.RelTraitSet;
+import org.apache.calcite.rel.RelNode;
+import org.apache.calcite.rel.core.Project;
+import org.apache.calcite.rel.metadata.RelMetadataQuery;
+import org.apache.calcite.rel.type.RelDataType;
+import org.apache.calcite.rex.RexInputRef;
+import org.apache.calcite.rex.RexNode;
+import org.apache.calcite.util.Pair;
+
+import java.util.List;
+
+/**
+ * Projection executed on every node of the input. The distribution keys are remapped to the projected fields.
+ */
+public class DistributedProject extends Project implements DistributedRel {
+
+    public DistributedProject(
+        RelOptCluster cluster,
+        RelTraitSet traitSet,
+        RelNode input,
+        List<? extends RexNode> projects,
+        RelDataType rowType
+    ) {
+        super(cluster, traitSet, ImmutableList.of(), input, projects, rowType);
+    }
+
+    @Override
+    public Project copy(RelTraitSet traitSet, RelNode input, List<RexNode> projects, RelDataType rowType) {
+        return new DistributedProject(getCluster(), traitSet, input, projects, rowType);
+    }
+
+    /**
+     * The required keys are pushed down if they are projected from the input fields.
+     */
+    @Override
+    public Pair<RelTraitSet, List<RelTraitSet>> passThroughTraits(RelTraitSet required) {
+        Distribution inputDistribution = DistributedTraits.inverse(DistributedTraits.distribution(required), key -> {
+            RexNode project = getProjects().get(key);
+
+            return project instanceof RexInputRef ? ((RexInputRef) project).getIndex() : -1;
+        });
+
+        if (inputDistribution == null) {
+            return null;
+        }
+
+        return Pair.of(required, ImmutableList.of(required.replace(inputDistribution)));
+    }
+
+    @Override
+    public Pair<RelTraitSet, List<RelTraitSet>> deriveTraits(RelTraitSet childTraits, int childId) {
+        Distribution distribution = DistributedTraits.remap(
+            DistributedTraits.distribution(childTraits),
+            DistributedTraits.projectMapping(getInput().getRowType().getFieldCount(), getProjects())
+        );
+
+        return Pair.of(getTraitSet().replace(distribution), ImmutableList.of(childTraits));
+    }
+
+    @Override
+    public RelOptCost computeSelfCost(RelOptPlanner planner, RelMetadataQuery mq) {
+        return DistributedCosts.cost(this, planner, mq.getRowCount(getInput()) * getProjects().size());
+    }
+}
@@ -0,0 +1,27 @@
+package com.querifylabs.blog.trait.distributed;
+
+import org.apache.calcite.plan.RelTraitSet;
+import org.apache.calcite.rel.PhysicalNode;
+import org.apache.calcite.util.Pair;
+
+import java.util.List;
+
+/**
+ * Operator of the {@link DistributedConvention}. Every instance of the operator is executed on the nodes that
+ * hold its input, according to the distribution of the operator.
+ * <p>
+ * With the top-down optimization the operators push the required distribution down to the inputs, and derive
+ * the distribution from the distributions delivered by the inputs. By default, the operator does neither.
+ */
+public interface DistributedRel extends PhysicalNode {
+
+    @Override
+    default Pair<RelTraitSet, List<RelTraitSet>> passThroughTraits(RelTraitSet required) {
+        return null;
+    }
+
+    @Override
+    default Pair<RelTraitSet, List<RelTraitSet>> deriveTraits(RelTraitSet childTraits, int childId) {
+        return null;
+    }
+}
@@ -0,0 +1,35 @@
+package com.querifylabs.blog.trait.distributed;
+
+import org.apache.calcite.rel.core.Aggregate;
+import org.apache.calcite.rel.metadata.ReflectiveRelMetadataProvider;
+import org.apache.calcite.rel.metadata.RelMdRowCount;
+import org.apache.calcite.rel.metadata.RelMetadataProvider;
+import org.apache.calcite.rel.metadata.RelMetadataQuery;
+import org.apache.calcite.util.BuiltInMethod;
+
+/**
+ * Row count of the distributed operators.
+ * <p>
+ * The final aggregate produces a row per group of the partial aggregate, so the number of groups is estimated
+ * once, by the partial aggregate. Otherwise, the two-phase aggregate would be estimated to produce fewer rows
+ * than the equivalent single-phase aggregate, and the plans above them would not be comparable.
+ */
+public class DistributedRelMdRowCount extends RelMdRowCount {
+
+    public static final RelMetadataProvider SOURCE = ReflectiveRelMetadataProvider.reflectiveSource(
+        BuiltInMethod.ROW_COUNT.method,
+        new DistributedRelMdRowCount()
+    );
+
+    private DistributedRelMdRowCount() {
+        // No-op.
+    }
+
+    public Double getRowCount(DistributedAggregate rel, RelMetadataQuery mq) {
+        if (rel.getPhase() == DistributedAggregate.Phase.FINAL && !rel.getGroupSet().isEmpty()) {
+            return mq.getRowCount(rel.getInput());
+        }
+
+        return super.getRowCount((Aggregate) rel, mq);
+    }
+}
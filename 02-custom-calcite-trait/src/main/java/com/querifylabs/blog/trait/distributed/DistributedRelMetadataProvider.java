@@ -0,0 +1,75 @@
+package com.querifylabs.blog.trait.distributed;
+
+import com.google.common.collect.ImmutableList;
+import org.apache.calcite.plan.RelOptCluster;
+import org.apache.calcite.rel.metadata.ChainedRelMetadataProvider;
+import org.apache.calcite.rel.metadata.DefaultRelMetadataProvider;
+import org.apache.calcite.rel.metadata.JaninoRelMetadataProvider;
+import org.apache.calcite.rel.metadata.RelMetadataProvider;
+import org.apache.calcite.rel.metadata.RelMetadataQuery;
+
+import java.util.function.Supplier;
+
+/**
+ * Metadata provider of the distributed operators, that delegates everything else to the default Calcite provider.
+ * <p>
+ * The installation of the provider works around the thread-local provider of the metadata queries in the same way
+ * as the {@code SimpleRelMetadataProvider} of the {@code 01-simple-query-optimizer} sample. The code is not shared:
+ * every sample of the repository is a standalone Maven project without dependencies on the other samples. Within
+ * this class, the workaround is confined to {@link #withThreadProvider(JaninoRelMetadataProvider, Supplier)}.
+ */
+public final class DistributedRelMetadataProvider {
+
+    public static final RelMetadataProvider INSTANCE = ChainedRelMetadataProvider.of(ImmutableList.of(
+        DistributedRelMdRowCount.SOURCE,
+        DefaultRelMetadataProvider.INSTANCE
+    ));
+
+    private static final JaninoRelMetadataProvider JANINO_INSTANCE = JaninoRelMetadataProvider.of(INSTANCE);
+
+    private DistributedRelMetadataProvider() {
+        // No-op.
+    }
+
+    /**
+     * Make the cluster use this provider, see {@link #metadataQuery()}.
+     */
+    public static void install(RelOptCluster cluster) {
+        // The cluster sets the provider of the thread as a side effect.
+        withThreadProvider(JANINO_INSTANCE, () -> {
+            cluster.setMetadataProvider(INSTANCE);
+            cluster.setMetadataQuerySupplier(DistributedRelMetadataProvider::metadataQuery);
+
+            return null;
+        });
+    }
+
+    /**
+     * Create a metadata query that uses this provider. Intended to be used as a metadata query supplier of
+     * the cluster.
+     */
+    public static RelMetadataQuery metadataQuery() {
+        // The only way to pass a custom provider to the metadata query in this version of Calcite.
+        return withThreadProvider(JANINO_INSTANCE, RelMetadataQuery::instance);
+    }
+
+    /**
+     * Run the action with the given provider of the thread. The previous provider of the thread is restored, so that
+     * the metadata queries of the other clusters are not affected.
+     */
+    private static <T> T withThreadProvider(JaninoRelMetadataProvider provider, Supplier<T> action) {
+        JaninoRelMetadataProvider threadProvider = RelMetadataQuery.THREAD_PROVIDERS.get();
+
+        RelMetadataQuery.THREAD_PROVIDERS.set(provider);
+
+        try {
+            return action.get();
+        } finally {
+            if (threadProvider == null) {
+                RelMetadataQuery.THREAD_PROVIDERS.remove();
+            } else {
+                RelMetadataQuery.THREAD_PROVIDERS.set(threadProvider);
+            }
+        }
+    }
+}
@@ -0,0 +1,591 @@
+package com.querifylabs.blog.trait.distributed;
+
+import com.google.common.collect.ImmutableList;
+import com.querifylabs.blog.trait.Distribution;
+import com.querifylabs.blog.trait.DistributionTraitDef;
+import org.apache.calcite.plan.Convention;
+import org.apache.calcite.plan.RelOptRule;
+import org.apache.calcite.plan.RelOptRuleCall;
+import org.apache.calcite.plan.RelOptUtil;
+import org.apache.calcite.plan.RelRule;
+import org.apache.calcite.plan.RelTraitSet;
+import org.apache.calcite.plan.volcano.AbstractConverter;
+import org.apache.calcite.rel.RelCollations;
+import org.apache.calcite.rel.RelNode;
+import org.apache.calcite.rel.convert.ConverterRule;
+import org.apache.calcite.rel.core.Aggregate;
+import org.apache.calcite.rel.core.AggregateCall;
+import org.apache.calcite.rel.core.JoinInfo;
+import org.apache.calcite.rel.core.JoinRelType;
+import org.apache.calcite.rel.logical.LogicalAggregate;
+import org.apache.calcite.rel.logical.LogicalJoin;
+import org.apache.calcite.rel.logical.LogicalProject;
+import org.apache.calcite.rel.logical.LogicalTableScan;
+import org.apache.calcite.rel.type.RelDataType;
+import org.apache.calcite.rex.RexBuilder;
+import org.apache.calcite.rex.RexInputRef;
+import org.apache.calcite.rex.RexNode;
+import org.apache.calcite.sql.SqlAggFunction;
+import org.apache.calcite.sql.SqlKind;
+import org.apache.calcite.sql.fun.SqlStdOperatorTable;
+import org.apache.calcite.util.ImmutableBitSet;
+import org.apache.calcite.util.mapping.Mappings;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Rules that convert logical operators to the {@link DistributedConvention}. The distributions that are not
+ * delivered by the inputs are enforced with the {@link com.querifylabs.blog.trait.ExchangeRel}s, that are
+ * created by the convention with the top-down optimization, see {@link #RULES}, or by the abstract converters
+ * otherwise, see {@link #ABSTRACT_CONVERTER_RULES}.
+ */
+public final class DistributedRules {
+
+    public static final ConverterRule TABLE_SCAN_RULE = ConverterRule.Config.INSTANCE
+        .withConversion(
+            LogicalTableScan.class,
+            Convention.NONE,
+            DistributedConvention.INSTANCE,
+            "DistributedTableScanRule"
+        )
+        .withRuleFactory(TableScanRule::new)
+        .toRule(ConverterRule.class);
+
+    public static final ProjectRule PROJECT_RULE = ProjectRule.Config.DEFAULT.toRule();
+
+    public static final AggregateRule AGGREGATE_RULE = AggregateRule.Config.DEFAULT.toRule();
+
+    public static final JoinRule JOIN_RULE = JoinRule.Config.DEFAULT.toRule();
+
+    /**
+     * Rules that convert the supported operators to the distributed ones, for the top-down optimization: the
+     * required distributions are pushed down to the inputs, and the missing ones are enforced by the
+     * {@link DistributedConvention}.
+     */
+    public static final List<RelOptRule> RULES = ImmutableList.of(
+        TABLE_SCAN_RULE,
+        PROJECT_RULE,
+        AGGREGATE_RULE,
+        JOIN_RULE
+    );
+
+    /**
+     * Rules that convert the supported operators to the distributed ones, and expand the abstract converters to
+     * the exchanges, for the optimization without the top-down trait propagation. The abstract converters are
+     * created between all the distributions of an equivalence set, so the search space grows with every
+     * distribution.
+     */
+    public static final List<RelOptRule> ABSTRACT_CONVERTER_RULES = ImmutableList.<RelOptRule>builder()
+        .addAll(RULES)
+        .add(AbstractConverter.ExpandConversionRule.INSTANCE)
+        .build();
+
+    private DistributedRules() {
+        // No-op.
+    }
+
+    private static final class TableScanRule extends ConverterRule {
+        private TableScanRule(Config config) {
+            super(config);
+        }
+
+        @Override
+        public RelNode convert(RelNode rel) {
+            LogicalTableScan scan = (LogicalTableScan) rel;
+
+            return new DistributedTableScan(
+                scan.getCluster(),
+                scan.getTraitSet().replace(DistributedConvention.INSTANCE),
+                scan.getTable()
+            );
+        }
+    }
+
+    /**
+     * Rule that converts the projection, remapping the distribution of the input to the projected fields.
+     */
+    public static final class ProjectRule extends RelRule<ProjectRule.Config> {
+
+        private ProjectRule(Config config) {
+            super(config);
+        }
+
+        @Override
+        public void onMatch(RelOptRuleCall call) {
+            LogicalProject project = call.rel(0);
+            RelNode input = project.getInput();
+
+            Distribution distribution = DistributedTraits.remap(
+                DistributedTraits.distribution(input.getTraitSet()),
+                DistributedTraits.projectMapping(input.getRowType().getFieldCount(), project.getProjects())
+            );
+
+            call.transformTo(new DistributedProject(
+                project.getCluster(),
+                project.getTraitSet().replace(DistributedConvention.INSTANCE).replace(distribution),
+                convert(input, input.getTraitSet().replace(DistributedConvention.INSTANCE)),
+                project.getProjects(),
+                project.getRowType()
+            ));
+        }
+
+        public interface Config extends RelRule.Config {
+            Config DEFAULT = EMPTY
+                .withOperandSupplier(b0 -> b0.operand(LogicalProject.class).anyInputs())
+                .as(Config.class);
+
+            @Override
+            default ProjectRule toRule() {
+                return new ProjectRule(this);
+            }
+        }
+    }
+
+    /**
+     * Rule that converts the aggregate to the distributed alternatives.
+     * <p>
+     * The single-phase aggregate requires the input to be gathered on a single node, or to be hash-partitioned
+     * on the group keys. The latter needs no exchange if the input is already partitioned on some of the group
+     * keys.
+     * <p>
+     * The two-phase aggregate computes the partial aggregates on every node of the input, exchanges them, and
+     * merges them with the final aggregate. Only one row per group per node is sent over the network. The
+     * functions are decomposed as follows: {@code SUM} to {@code SUM} of the partial sums, {@code COUNT} to
+     * {@code $SUM0} of the partial counts, {@code MIN} and {@code MAX} to themselves, and {@code AVG} to the
+     * division of the merged sum by the merged count. Grouping sets, {@code DISTINCT} and {@code FILTER} are
+     * aggregated in a single phase.
+     */
+    public static final class AggregateRule extends RelRule<AggregateRule.Config> {
+
+        private AggregateRule(Config config) {
+            super(config);
+        }
+
+        @Override
+        public void onMatch(RelOptRuleCall call) {
+            LogicalAggregate aggregate = call.rel(0);
+            RelNode input = aggregate.getInput();
+            RelTraitSet traitSet = aggregate.getTraitSet().replace(DistributedConvention.INSTANCE);
+
+            // Single phase over the gathered input.
+            call.transformTo(aggregate(
+                aggregate,
+                traitSet.replace(Distribution.SINGLETON),
+                convert(input, input.getTraitSet().replace(DistributedConvention.INSTANCE)
+                    .replace(Distribution.SINGLETON)),
+                DistributedAggregate.Phase.SINGLE
+            ));
+
+            if (aggregate.getGroupType() == Aggregate.Group.SIMPLE && !aggregate.getGroupSet().isEmpty()) {
+                // Single phase over the input co-located by the group keys.
+                call.transformTo(aggregate(
+                    aggregate,
+                    traitSet.replace(groupDistribution(aggregate)),
+                    convert(input, input.getTraitSet().replace(DistributedConvention.INSTANCE)
+                        .replace(Distribution.hash(aggregate.getGroupSet().asList()))),
+                    DistributedAggregate.Phase.SINGLE
+                ));
+            }
+
+            if (isDecomposable(aggregate)) {
+                RelNode partial = partialAggregate(aggregate);
+
+                call.transformTo(finalAggregate(aggregate, partial, Distribution.SINGLETON));
+
+                if (!aggregate.getGroupSet().isEmpty()) {
+                    call.transformTo(finalAggregate(aggregate, partial, groupDistribution(aggregate)));
+                }
+            }
+        }
+
+        private static DistributedAggregate aggregate(
+            LogicalAggregate aggregate,
+            RelTraitSet traitSet,
+            RelNode input,
+            DistributedAggregate.Phase phase
+        ) {
+            return new DistributedAggregate(
+                aggregate.getCluster(),
+                traitSet,
+                input,
+                aggregate.getGroupSet(),
+                aggregate.getGroupSets(),
+                aggregate.getAggCallList(),
+                phase
+            );
+        }
+
+        /**
+         * Distribution of the aggregate, whose input is partitioned by the group keys.
+         */
+        private static Distribution groupDistribution(Aggregate aggregate) {
+            return Distribution.hash(ImmutableBitSet.range(aggregate.getGroupCount()).asList());
+        }
+
+        private static boolean isDecomposable(Aggregate aggregate) {
+            if (aggregate.getGroupType() != Aggregate.Group.SIMPLE) {
+                return false;
+            }
+
+            for (AggregateCall aggCall : aggregate.getAggCallList()) {
+                if (aggCall.isDistinct() || aggCall.hasFilter()) {
+                    return false;
+                }
+
+                switch (aggCall.getAggregation().getKind()) {
+                    case SUM:
+                    case SUM0:
+                    case COUNT:
+                    case MIN:
+                    case MAX:
+                    case AVG:
+                        break;
+
+                    default:
+                        return false;
+                }
+            }
+
+            return true;
+        }
+
+        /**
+         * Partial aggregate on every node of the input. {@code AVG} is computed as the sum and the count.
+         */
+        private static RelNode partialAggregate(LogicalAggregate aggregate) {
+            RelNode input = convert(
+                aggregate.getInput(),
+                aggregate.getInput().getTraitSet().replace(DistributedConvention.INSTANCE)
+            );
+
+            List<AggregateCall> partialCalls = new ArrayList<>();
+
+            for (AggregateCall aggCall : aggregate.getAggCallList()) {
+                switch (aggCall.getAggregation().getKind()) {
+                    case COUNT:
+                        partialCalls.add(aggCall);
+
+                        break;
+
+                    case AVG:
+                        partialCalls.add(call(SqlStdOperatorTable.SUM, aggCall.getArgList(), aggregate, input));
+                        partialCalls.add(call(SqlStdOperatorTable.COUNT, aggCall.getArgList(), aggregate, input));
+
+                        break;
+
+                    default:
+                        partialCalls.add(aggCall);
+                }
+            }
+
+            return new DistributedAggregate(
+                aggregate.getCluster(),
+                input.getTraitSet().replace(partialDistribution(aggregate, input)),
+                input,
+                aggregate.getGroupSet(),
+                null,
+                partialCalls,
+                DistributedAggregate.Phase.PARTIAL
+            );
+        }
+
+        /**
+         * Distribution of the partial aggregate: the distribution of the input remapped to the group keys. If the
+         * input is partitioned on the other fields, the partial groups are spread randomly between the nodes.
+         */
+        private static Distribution partialDistribution(Aggregate aggregate, RelNode input) {
+            return DistributedTraits.remap(
+                DistributedTraits.distribution(input.getTraitSet()),
+                DistributedAggregate.groupMapping(aggregate)
+            );
+        }
+
+        /**
+         * Final aggregate that merges the partial aggregates exchanged to the given distribution. The result is
+         * cast to the row type of the original aggregate if needed.
+         */
+        private static RelNode finalAggregate(LogicalAggregate aggregate, RelNode partial, Distribution distribution) {
+            RelTraitSet traitSet = partial.getTraitSet().replace(distribution);
+            RelNode input = convert(partial, traitSet);
+            int groupCount = aggregate.getGroupCount();
+
+            List<AggregateCall> finalCalls = new ArrayList<>();
+            List<Integer> sumArgs = new ArrayList<>();
+
+            int arg = groupCount;
+
+            for (AggregateCall aggCall : aggregate.getAggCallList()) {
+                switch (aggCall.getAggregation().getKind()) {
+                    case COUNT:
+                    case SUM0:
+                        finalCalls.add(call(SqlStdOperatorTable.SUM0, arg++, groupCount, input, aggCall.getName()));
+
+                        break;
+
+                    case AVG:
+                        sumArgs.add(finalCalls.size());
+                        finalCalls.add(call(SqlStdOperatorTable.SUM, arg++, groupCount, input, null));
+                        finalCalls.add(call(SqlStdOperatorTable.SUM0, arg++, groupCount, input, null));
+
+                        break;
+
+                    default:
+                        finalCalls.add(call(aggCall.getAggregation(), arg++, groupCount, input, aggCall.getName()));
+                }
+            }
+
+            RelNode res = new DistributedAggregate(
+                aggregate.getCluster(),
+                traitSet,
+                input,
+                ImmutableBitSet.range(groupCount),
+                null,
+                finalCalls,
+                DistributedAggregate.Phase.FINAL
+            );
+
+            if (sumArgs.isEmpty() && res.getRowType().equals(aggregate.getRowType())) {
+                return res;
+            }
+
+            // Divide the sums by the counts, and restore the types.
+            RexBuilder rexBuilder = aggregate.getCluster().getRexBuilder();
+            List<RelDataType> types = RelOptUtil.getFieldTypeList(aggregate.getRowType());
+            List<RexNode> projects = new ArrayList<>(types.size());
+
+            for (int i = 0; i < groupCount; i++) {
+                projects.add(cast(rexBuilder, types.get(i), RexInputRef.of(i, res.getRowType())));
+            }
+
+            int field = groupCount;
+
+            for (AggregateCall aggCall : aggregate.getAggCallList()) {
+                RexNode project;
+
+                if (aggCall.getAggregation().getKind() == SqlKind.AVG) {
+                    RexNode sum = RexInputRef.of(field++, res.getRowType());
+                    RexNode count = RexInputRef.of(field++, res.getRowType());
+
+                    project = rexBuilder.makeCall(SqlStdOperatorTable.DIVIDE, sum, count);
+                } else {
+                    project = RexInputRef.of(field++, res.getRowType());
+                }
+
+                projects.add(cast(rexBuilder, types.get(projects.size()), project));
+            }
+
+            return new DistributedProject(
+                aggregate.getCluster(),
+                traitSet,
+                res,
+                projects,
+                aggregate.getRowType()
+            );
+        }
+
+        private static RexNode cast(RexBuilder rexBuilder, RelDataType type, RexNode node) {
+            return node.getType().equals(type) ? node : rexBuilder.makeCast(type, node, true);
+        }
+
+        private static AggregateCall call(
+            SqlAggFunction function,
+            List<Integer> args,
+            Aggregate aggregate,
+            RelNode input
+        ) {
+            return AggregateCall.create(
+                function,
+                false,
+                false,
+                false,
+                args,
+                -1,
+                RelCollations.EMPTY,
+                aggregate.getGroupCount(),
+                input,
+                null,
+                null
+            );
+        }
+
+        private static AggregateCall call(
+            SqlAggFunction function,
+            int arg,
+            int groupCount,
+            RelNode input,
+            String name
+        ) {
+            return AggregateCall.create(
+                function,
+                false,
+                false,
+                false,
+                ImmutableList.of(arg),
+                -1,
+                RelCollations.EMPTY,
+                groupCount,
+                input,
+                null,
+                name
+            );
+        }
+
+        public interface Config extends RelRule.Config {
+            Config DEFAULT = EMPTY
+                .withOperandSupplier(b0 -> b0.operand(LogicalAggregate.class).anyInputs())
+                .as(Config.class);
+
+            @Override
+            default AggregateRule toRule() {
+                return new AggregateRule(this);
+            }
+        }
+    }
+
+    /**
+     * Rule that converts the join to the distributed alternatives, the cheapest one is chosen by the cost of the
+     * exchanges that bring the rows of the inputs together.
+     * <p>
+     * The hash join requires both inputs to be hash-partitioned on the same pair of the join keys. An alternative
+     * is registered for every pair of the keys, so the inputs that are already partitioned on one of them are
+     * joined without the exchange, and the other inputs are repartitioned. The inputs are not partitioned on
+     * several keys at once: the distribution of one input could satisfy the multi-key requirement with the keys
+     * that do not match the keys of the other input.
+     * <p>
+     * The broadcast join copies one input to every node of the other input, which keeps its distribution. The
+     * left input may be broadcast for the inner and right joins only, and the right input for the inner, left,
+     * semi and anti joins, so that every unmatched row is produced once. The join without the equality
+     * conditions is executed on a single node or by the broadcast. The distributions of the inputs are taken from
+     * the logical inputs: if the distribution of an input is not known, the other input is broadcast to any
+     * partitioning of it.
+     */
+    public static final class JoinRule extends RelRule<JoinRule.Config> {
+
+        private JoinRule(Config config) {
+            super(config);
+        }
+
+        @Override
+        public void onMatch(RelOptRuleCall call) {
+            LogicalJoin join = call.rel(0);
+            Distribution leftDistribution = partitioned(join.getLeft());
+            Distribution rightDistribution = partitioned(join.getRight());
+            JoinInfo joinInfo = join.analyzeCondition();
+            JoinRelType joinType = join.getJoinType();
+            int leftCount = join.getLeft().getRowType().getFieldCount();
+            int rightCount = join.getRight().getRowType().getFieldCount();
+
+            for (int i = 0; i < joinInfo.leftKeys.size(); i++) {
+                int leftKey = joinInfo.leftKeys.get(i);
+                int rightKey = joinInfo.rightKeys.get(i);
+
+                Distribution distribution;
+
+                switch (joinType) {
+                    case RIGHT:
+                        distribution = Distribution.hash(leftCount + rightKey);
+
+                        break;
+
+                    case FULL:
+                        distribution = Distribution.RANDOM;
+
+                        break;
+
+                    default:
+                        distribution = Distribution.hash(leftKey);
+                }
+
+                call.transformTo(join(
+                    join,
+                    distribution,
+                    Distribution.hash(leftKey),
+                    Distribution.hash(rightKey),
+                    DistributedJoin.Strategy.HASH
+                ));
+            }
+
+            if (joinType == JoinRelType.INNER || joinType == JoinRelType.LEFT || joinType == JoinRelType.SEMI
+                || joinType == JoinRelType.ANTI) {
+                call.transformTo(join(
+                    join,
+                    delivered(leftDistribution),
+                    leftDistribution,
+                    Distribution.BROADCAST,
+                    DistributedJoin.Strategy.BROADCAST_RIGHT
+                ));
+            }
+
+            if (joinType == JoinRelType.INNER || joinType == JoinRelType.RIGHT) {
+                call.transformTo(join(
+                    join,
+                    delivered(rightDistribution).apply(
+                        Mappings.offsetTarget(Mappings.createIdentity(rightCount), leftCount)
+                    ),
+                    Distribution.BROADCAST,
+                    rightDistribution,
+                    DistributedJoin.Strategy.BROADCAST_LEFT
+                ));
+            }
+
+            call.transformTo(join(
+                join,
+                Distribution.SINGLETON,
+                Distribution.SINGLETON,
+                Distribution.SINGLETON,
+                DistributedJoin.Strategy.SINGLETON
+            ));
+        }
+
+        /**
+         * Partitioning of the input to broadcast the other input to: the distribution of the input if it is
+         * partitioned, or any partitioning otherwise.
+         */
+        private static Distribution partitioned(RelNode input) {
+            Distribution distribution = input.getTraitSet().getTrait(DistributionTraitDef.INSTANCE);
+
+            return distribution.satisfies(Distribution.PARTITIONED) ? distribution : Distribution.PARTITIONED;
+        }
+
+        /**
+         * Distribution of the join over the input of the given partitioning.
+         */
+        private static Distribution delivered(Distribution distribution) {
+            return distribution == Distribution.PARTITIONED ? Distribution.RANDOM : distribution;
+        }
+
+        private static DistributedJoin join(
+            LogicalJoin join,
+            Distribution distribution,
+            Distribution leftDistribution,
+            Distribution rightDistribution,
+            DistributedJoin.Strategy strategy
+        ) {
+            RelNode left = join.getLeft();
+            RelNode right = join.getRight();
+
+            return new DistributedJoin(
+                join.getCluster(),
+                join.getTraitSet().replace(DistributedConvention.INSTANCE).replace(distribution),
+                convert(left, left.getTraitSet().replace(DistributedConvention.INSTANCE).replace(leftDistribution)),
+                convert(right, right.getTraitSet().replace(DistributedConvention.INSTANCE)
+                    .replace(rightDistribution)),
+                join.getCondition(),
+                join.getJoinType(),
+                strategy
+            );
+        }
+
+        public interface Config extends RelRule.Config {
+            Config DEFAULT = EMPTY
+                .withOperandSupplier(b0 -> b0.operand(LogicalJoin.class).anyInputs())
+                .as(Config.class);
+
+            @Override
+            default JoinRule toRule() {
+                return new JoinRule(this);
+            }
+        }
+    }
+}
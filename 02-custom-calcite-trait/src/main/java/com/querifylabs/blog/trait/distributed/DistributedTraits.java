@@ -0,0 +1,86 @@
+package com.querifylabs.blog.trait.distributed;
+
+import com.querifylabs.blog.trait.Distribution;
+import com.querifylabs.blog.trait.DistributionTraitDef;
+import org.apache.calcite.plan.RelTraitSet;
+import org.apache.calcite.rex.RexInputRef;
+import org.apache.calcite.rex.RexNode;
+import org.apache.calcite.util.mapping.Mappings;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.IntUnaryOperator;
+
+/**
+ * Utilities to propagate the distribution through the distributed operators.
+ */
+final class DistributedTraits {
+
+    private DistributedTraits() {
+        // No-op.
+    }
+
+    static Distribution distribution(RelTraitSet traitSet) {
+        return traitSet.getTrait(DistributionTraitDef.INSTANCE);
+    }
+
+    /**
+     * Distribution of the output of the operator, whose fields are mapped from the input fields. If the input is
+     * partitioned on the fields that are not mapped, the output rows are spread randomly between the nodes.
+     */
+    static Distribution remap(Distribution distribution, Mappings.TargetMapping mapping) {
+        Distribution res = distribution.apply(mapping);
+
+        if (res.getType() == Distribution.Type.ANY && distribution.satisfies(Distribution.PARTITIONED)) {
+            return Distribution.RANDOM;
+        }
+
+        return res;
+    }
+
+    /**
+     * Mapping of the input fields to the fields of the projection, that refer to them. An input field that is
+     * projected several times is mapped to the first of them.
+     */
+    static Mappings.TargetMapping projectMapping(int inputFieldCount, List<? extends RexNode> projects) {
+        Map<Integer, Integer> map = new HashMap<>();
+
+        for (int i = 0; i < projects.size(); i++) {
+            RexNode project = projects.get(i);
+
+            if (project instanceof RexInputRef) {
+                map.putIfAbsent(((RexInputRef) project).getIndex(), i);
+            }
+        }
+
+        return Mappings.target(map, inputFieldCount, projects.size());
+    }
+
+    /**
+     * Distribution of the input, that delivers the required distribution of the output.
+     *
+     * @param source Input field of the output field, or {@code -1} if the output field is not an input field.
+     * @return The distribution, or {@code null} if some of the required keys are not input fields.
+     */
+    static Distribution inverse(Distribution required, IntUnaryOperator source) {
+        if (required.getKeys().isEmpty()) {
+            return required;
+        }
+
+        List<Integer> keys = new ArrayList<>(required.getKeys().size());
+
+        for (int key : required.getKeys()) {
+            int inputKey = source.applyAsInt(key);
+
+            if (inputKey == -1) {
+                return null;
+            }
+
+            keys.add(inputKey);
+        }
+
+        return required.getType() == Distribution.Type.HASH ? Distribution.hash(keys) : Distribution.range(keys);
+    }
+}
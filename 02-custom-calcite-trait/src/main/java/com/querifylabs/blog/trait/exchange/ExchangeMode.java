@@ -0,0 +1,49 @@
+package com.querifylabs.blog.trait.exchange;
+
+import com.querifylabs.blog.trait.Distribution;
+
+/**
+ * How the rows of the producers are routed to the consumers.
+ */
+public enum ExchangeMode {
+    /** Every row is sent to the consumer that owns the hash of the key values. */
+    HASH,
+
+    /** Every row is sent to all consumers. */
+    BROADCAST,
+
+    /** Every row is sent to the consumer that owns the range of the key values. */
+    RANGE,
+
+    /** Rows are spread evenly between the consumers. */
+    ROUND_ROBIN,
+
+    /** All rows are sent to a single consumer. */
+    GATHER;
+
+    /**
+     * Mode that produces the given distribution.
+     */
+    public static ExchangeMode of(Distribution distribution) {
+        switch (distribution.getType()) {
+            case HASH:
+                return HASH;
+
+            case RANGE:
+                return RANGE;
+
+            case BROADCAST:
+                return BROADCAST;
+
+            case SINGLETON:
+                return GATHER;
+
+            case PARTITIONED:
+            case RANDOM:
+                return ROUND_ROBIN;
+
+            default:
+                throw new IllegalArgumentException("Unsupported distribution of the exchange: " + distribution);
+        }
+    }
+}
@@ -0,0 +1,88 @@
+package com.querifylabs.blog.trait.exchange;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Rows received by every consumer of the exchange, and the metrics of the transfer.
+ */
+public final class ExchangeResult {
+
+    private final ExchangeMode mode;
+    private final List<List<Object[]>> partitions;
+    private final long rowCount;
+    private final long batchCount;
+    private final long producerStalls;
+    private final long consumerStalls;
+    private final long nanos;
+
+    ExchangeResult(
+        ExchangeMode mode,
+        List<List<Object[]>> partitions,
+        long rowCount,
+        long batchCount,
+        long producerStalls,
+        long consumerStalls,
+        long nanos
+    ) {
+        this.mode = mode;
+        this.partitions = partitions;
+        this.rowCount = rowCount;
+        this.batchCount = batchCount;
+        this.producerStalls = producerStalls;
+        this.consumerStalls = consumerStalls;
+        this.nanos = nanos;
+    }
+
+    public ExchangeMode getMode() {
+        return mode;
+    }
+
+    /**
+     * Rows received by the consumers, in the order of the consumer nodes.
+     */
+    public List<List<Object[]>> getPartitions() {
+        return partitions;
+    }
+
+    /** Number of rows transferred, a broadcast row is counted once per consumer. */
+    public long getRowCount() {
+        return rowCount;
+    }
+
+    /** Number of batches transferred. */
+    public long getBatchCount() {
+        return batchCount;
+    }
+
+    /**
+     * Number of times the producers found the queue full and had to wait for the consumer. A high number means
+     * that the consumers cannot keep up with the producers.
+     */
+    public long getProducerStalls() {
+        return producerStalls;
+    }
+
+    /**
+     * Number of times the consumers found all their queues empty and had to wait for the producers.
+     */
+    public long getConsumerStalls() {
+        return consumerStalls;
+    }
+
+    public long getNanos() {
+        return nanos;
+    }
+
+    /** Rows transferred per second. */
+    public double getThroughput() {
+        return nanos == 0L ? 0.0d : (double) rowCount * TimeUnit.SECONDS.toNanos(1) / nanos;
+    }
+
+    @Override
+    public String toString() {
+        return "ExchangeResult{mode=" + mode + ", consumers=" + partitions.size() + ", rows=" + rowCount
+            + ", batches=" + batchCount + ", producerStalls=" + producerStalls + ", consumerStalls="
+            + consumerStalls + ", rowsPerSecond=" + (long) getThroughput() + '}';
+    }
+}
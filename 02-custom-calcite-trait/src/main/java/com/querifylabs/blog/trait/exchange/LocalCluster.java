@@ -0,0 +1,388 @@
+package com.querifylabs.blog.trait.exchange;
+
+import com.querifylabs.blog.trait.ExchangeRel;
+import org.apache.calcite.util.ImmutableIntList;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Objects;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * In-process stand-in for a cluster of nodes, that executes the {@link ExchangeRel}s.
+ * <p>
+ * Every node is a group of worker threads: the producer sends the rows of the node to the consumers, and the
+ * consumer receives the rows addressed to the node. Every pair of a producer and a consumer has its own bounded
+ * {@link SpscQueue}, so the transfer requires no locks. Rows are sent in batches. When a queue is full, the
+ * producer waits for the consumer, which limits the memory held by the exchange and reports the backpressure.
+ */
+public final class LocalCluster {
+
+    public static final int DEFAULT_QUEUE_CAPACITY = 16;
+    public static final int DEFAULT_BATCH_SIZE = 1024;
+
+    /** Marker of the end of the rows of a producer. */
+    private static final List<Object[]> END = Collections.emptyList();
+
+    private static final int SPIN_COUNT = 100;
+    private static final int YIELD_COUNT = 200;
+    private static final long PARK_NANOS = 10_000L;
+
+    private final int nodeCount;
+    private final int queueCapacity;
+    private final int batchSize;
+
+    private LocalCluster(int nodeCount, int queueCapacity, int batchSize) {
+        this.nodeCount = nodeCount;
+        this.queueCapacity = queueCapacity;
+        this.batchSize = batchSize;
+    }
+
+    public int getNodeCount() {
+        return nodeCount;
+    }
+
+    /**
+     * Execute the exchange over the rows of the producer nodes. The exchange distributes the rows according to
+     * its distribution trait. There are as many consumers as nodes, except for the {@code SINGLETON}
+     * distribution that gathers all the rows on the first node.
+     *
+     * @param partitions Rows of the producer nodes, at most one partition per node.
+     */
+    public ExchangeResult exchange(ExchangeRel rel, List<List<Object[]>> partitions) {
+        return exchange(rel.getMode(), rel.getDistribution().getKeys(), partitions);
+    }
+
+    /**
+     * Execute the exchange in the given mode.
+     *
+     * @param keys Indexes of the key fields for the {@link ExchangeMode#HASH} mode.
+     * @param partitions Rows of the producer nodes, at most one partition per node.
+     */
+    public ExchangeResult exchange(ExchangeMode mode, List<Integer> keys, List<List<Object[]>> partitions) {
+        if (partitions.isEmpty() || partitions.size() > nodeCount) {
+            throw new IllegalArgumentException("Exchange must have from 1 to " + nodeCount + " producers: "
+                + partitions.size());
+        }
+
+        if (mode == ExchangeMode.RANGE) {
+            throw new IllegalArgumentException("Range exchange requires the range boundaries, that are not known");
+        }
+
+        if (mode == ExchangeMode.HASH && keys.isEmpty()) {
+            throw new IllegalArgumentException("Hash exchange must have at least one key");
+        }
+
+        Exchange exchange = new Exchange(mode, ImmutableIntList.copyOf(keys), partitions);
+
+        return exchange.execute();
+    }
+
+    /**
+     * Consumer of the row with the given key fields in the hash exchange.
+     */
+    public static int hashPartition(Object[] row, List<Integer> keys, int consumerCount) {
+        int hash = 1;
+
+        for (int key : keys) {
+            hash = 31 * hash + Objects.hashCode(row[key]);
+        }
+
+        return Math.floorMod(hash, consumerCount);
+    }
+
+    public static Builder newBuilder(int nodeCount) {
+        return new Builder(nodeCount);
+    }
+
+    public static final class Builder {
+
+        private final int nodeCount;
+        private int queueCapacity = DEFAULT_QUEUE_CAPACITY;
+        private int batchSize = DEFAULT_BATCH_SIZE;
+
+        private Builder(int nodeCount) {
+            if (nodeCount <= 0) {
+                throw new IllegalArgumentException("Node count must be positive: " + nodeCount);
+            }
+
+            this.nodeCount = nodeCount;
+        }
+
+        /**
+         * Number of batches in flight between a producer and a consumer, must be a power of two.
+         */
+        public Builder withQueueCapacity(int queueCapacity) {
+            if (queueCapacity <= 0 || Integer.bitCount(queueCapacity) != 1) {
+                throw new IllegalArgumentException("Queue capacity must be a positive power of two: "
+                    + queueCapacity);
+            }
+
+            this.queueCapacity = queueCapacity;
+
+            return this;
+        }
+
+        public Builder withBatchSize(int batchSize) {
+            if (batchSize <= 0) {
+                throw new IllegalArgumentException("Batch size must be positive: " + batchSize);
+            }
+
+            this.batchSize = batchSize;
+
+            return this;
+        }
+
+        public LocalCluster build() {
+            return new LocalCluster(nodeCount, queueCapacity, batchSize);
+        }
+    }
+
+    /**
+     * State of a single execution of the exchange. The counters of every thread are written by that thread only,
+     * and read after the thread is joined.
+     */
+    private final class Exchange {
+
+        private final ExchangeMode mode;
+        private final ImmutableIntList keys;
+        private final List<List<Object[]>> partitions;
+        private final int consumerCount;
+
+        /** Queues indexed by the producer and the consumer. */
+        private final SpscQueue<List<Object[]>>[][] queues;
+
+        private final long[] rowCounts;
+        private final long[] batchCounts;
+        private final long[] producerStalls;
+        private final long[] consumerStalls;
+        private final List<List<Object[]>> results;
+
+        private final AtomicReference<Throwable> failure = new AtomicReference<>();
+
+        @SuppressWarnings({"unchecked", "rawtypes"})
+        private Exchange(ExchangeMode mode, ImmutableIntList keys, List<List<Object[]>> partitions) {
+            this.mode = mode;
+            this.keys = keys;
+            this.partitions = partitions;
+
+            consumerCount = mode == ExchangeMode.GATHER ? 1 : nodeCount;
+            queues = new SpscQueue[partitions.size()][consumerCount];
+
+            for (int i = 0; i < partitions.size(); i++) {
+                for (int j = 0; j < consumerCount; j++) {
+                    queues[i][j] = new SpscQueue<>(queueCapacity);
+                }
+            }
+
+            rowCounts = new long[partitions.size()];
+            batchCounts = new long[partitions.size()];
+            producerStalls = new long[partitions.size()];
+            consumerStalls = new long[consumerCount];
+            results = new ArrayList<>(Collections.nCopies(consumerCount, null));
+        }
+
+        private ExchangeResult execute() {
+            List<Thread> threads = new ArrayList<>();
+
+            for (int i = 0; i < nodeCount; i++) {
+                ThreadGroup group = new ThreadGroup("node-" + i);
+
+                if (i < partitions.size()) {
+                    int producer = i;
+                    threads.add(new Thread(group, () -> run(() -> produce(producer)), group.getName() + "-producer"));
+                }
+
+                if (i < consumerCount) {
+                    int consumer = i;
+                    threads.add(new Thread(group, () -> run(() -> consume(consumer)), group.getName() + "-consumer"));
+                }
+            }
+
+            long start = System.nanoTime();
+
+            for (Thread thread : threads) {
+                thread.start();
+            }
+
+            try {
+                for (Thread thread : threads) {
+                    thread.join();
+                }
+            } catch (InterruptedException e) {
+                failure.compareAndSet(null, e);
+                Thread.currentThread().interrupt();
+            }
+
+            long nanos = System.nanoTime() - start;
+
+            if (failure.get() != null) {
+                throw new IllegalStateException("Exchange failed", failure.get());
+            }
+
+            return new ExchangeResult(
+                mode,
+                Collections.unmodifiableList(results),
+                sum(rowCounts),
+                sum(batchCounts),
+                sum(producerStalls),
+                sum(consumerStalls),
+                nanos
+            );
+        }
+
+        private void run(Runnable task) {
+            try {
+                task.run();
+            } catch (Throwable e) {
+                failure.compareAndSet(null, e);
+            }
+        }
+
+        private void produce(int producer) {
+            List<Object[]>[] pending = newPending();
+            int next = producer;
+
+            for (Object[] row : partitions.get(producer)) {
+                switch (mode) {
+                    case HASH:
+                        add(producer, pending, hashPartition(row, keys, consumerCount), row);
+
+                        break;
+
+                    case BROADCAST:
+                        for (int consumer = 0; consumer < consumerCount; consumer++) {
+                            add(producer, pending, consumer, row);
+                        }
+
+                        break;
+
+                    case ROUND_ROBIN:
+                        add(producer, pending, next, row);
+                        next = (next + 1) % consumerCount;
+
+                        break;
+
+                    default:
+                        add(producer, pending, 0, row);
+                }
+            }
+
+            for (int consumer = 0; consumer < consumerCount; consumer++) {
+                if (!pending[consumer].isEmpty()) {
+                    send(producer, consumer, pending[consumer]);
+                }
+
+                send(producer, consumer, END);
+            }
+        }
+
+        @SuppressWarnings({"unchecked", "rawtypes"})
+        private List<Object[]>[] newPending() {
+            List<Object[]>[] res = new List[consumerCount];
+
+            for (int i = 0; i < consumerCount; i++) {
+                res[i] = new ArrayList<>(batchSize);
+            }
+
+            return res;
+        }
+
+        private void add(int producer, List<Object[]>[] pending, int consumer, Object[] row) {
+            List<Object[]> batch = pending[consumer];
+            batch.add(row);
+
+            if (batch.size() == batchSize) {
+                send(producer, consumer, batch);
+                pending[consumer] = new ArrayList<>(batchSize);
+            }
+        }
+
+        private void send(int producer, int consumer, List<Object[]> batch) {
+            SpscQueue<List<Object[]>> queue = queues[producer][consumer];
+
+            for (int attempt = 0; !queue.offer(batch); attempt++) {
+                if (attempt == 0) {
+                    producerStalls[producer]++;
+                }
+
+                backoff(attempt);
+            }
+
+            if (batch != END) {
+                rowCounts[producer] += batch.size();
+                batchCounts[producer]++;
+            }
+        }
+
+        private void consume(int consumer) {
+            List<Object[]> res = new ArrayList<>();
+            boolean[] finished = new boolean[partitions.size()];
+            int remaining = partitions.size();
+            int attempt = 0;
+
+            while (remaining > 0) {
+                boolean received = false;
+
+                for (int producer = 0; producer < partitions.size(); producer++) {
+                    if (finished[producer]) {
+                        continue;
+                    }
+
+                    List<Object[]> batch = queues[producer][consumer].poll();
+
+                    if (batch == END) {
+                        finished[producer] = true;
+                        remaining--;
+                    } else if (batch != null) {
+                        res.addAll(batch);
+                        received = true;
+                    }
+                }
+
+                if (received || remaining == 0) {
+                    attempt = 0;
+                } else {
+                    if (attempt == 0) {
+                        consumerStalls[consumer]++;
+                    }
+
+                    backoff(attempt++);
+                }
+            }
+
+            results.set(consumer, res);
+        }
+
+        /**
+         * Wait for the other side: spin first, then yield, then park.
+         */
+        private void backoff(int attempt) {
+            if (failure.get() != null) {
+                throw new IllegalStateException("Exchange is cancelled");
+            }
+
+            if (attempt < SPIN_COUNT) {
+                return;
+            }
+
+            if (attempt < YIELD_COUNT) {
+                Thread.yield();
+            } else {
+                LockSupport.parkNanos(PARK_NANOS);
+            }
+        }
+    }
+
+    private static long sum(long[] values) {
+        long res = 0L;
+
+        for (long value : values) {
+            res += value;
+        }
+
+        return res;
+    }
+}
@@ -0,0 +1,86 @@
+package com.querifylabs.blog.trait.exchange;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Bounded lock-free ring buffer for a single producer thread and a single consumer thread.
+ * <p>
+ * The producer publishes the element with an ordered write of the tail index, the consumer releases the slot
+ * with an ordered write of the head index. Each side caches the last seen index of the other side, so that the
+ * shared indexes are read only when the queue looks full or empty.
+ */
+final class SpscQueue<T> {
+
+    private final Object[] buffer;
+    private final int mask;
+
+    private final AtomicLong head = new AtomicLong();
+    private final AtomicLong tail = new AtomicLong();
+
+    /** Last seen head, accessed by the producer only. */
+    private long cachedHead;
+
+    /** Last seen tail, accessed by the consumer only. */
+    private long cachedTail;
+
+    SpscQueue(int capacity) {
+        if (capacity <= 0 || Integer.bitCount(capacity) != 1) {
+            throw new IllegalArgumentException("Capacity must be a positive power of two: " + capacity);
+        }
+
+        buffer = new Object[capacity];
+        mask = capacity - 1;
+    }
+
+    int capacity() {
+        return buffer.length;
+    }
+
+    /**
+     * Add the element to the queue, called by the producer.
+     *
+     * @return {@code false} if the queue is full.
+     */
+    boolean offer(T element) {
+        long tail0 = tail.get();
+
+        if (tail0 - cachedHead == buffer.length) {
+            cachedHead = head.get();
+
+            if (tail0 - cachedHead == buffer.length) {
+                return false;
+            }
+        }
+
+        buffer[(int) tail0 & mask] = element;
+        tail.lazySet(tail0 + 1);
+
+        return true;
+    }
+
+    /**
+     * Remove the element from the queue, called by the consumer.
+     *
+     * @return The element, or {@code null} if the queue is empty.
+     */
+    @SuppressWarnings("unchecked")
+    T poll() {
+        long head0 = head.get();
+
+        if (head0 == cachedTail) {
+            cachedTail = tail.get();
+
+            if (head0 == cachedTail) {
+                return null;
+            }
+        }
+
+        int index = (int) head0 & mask;
+        T res = (T) buffer[index];
+
+        buffer[index] = null;
+        head.lazySet(head0 + 1);
+
+        return res;
+    }
+}
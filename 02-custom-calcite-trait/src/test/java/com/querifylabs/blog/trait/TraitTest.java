@@ -1,20 +1,37 @@
 package com.querifylabs.blog.trait;
 
+import com.querifylabs.blog.trait.distributed.DistributedAggregate;
+import com.querifylabs.blog.trait.distributed.DistributedConvention;
+import com.querifylabs.blog.trait.distributed.DistributedJoin;
+import com.querifylabs.blog.trait.distributed.DistributedRelMetadataProvider;
+import com.querifylabs.blog.trait.distributed.DistributedRules;
+import com.querifylabs.blog.trait.exchange.ExchangeMode;
+import com.querifylabs.blog.trait.exchange.ExchangeResult;
+import com.querifylabs.blog.trait.exchange.LocalCluster;
 import org.apache.calcite.config.CalciteConnectionConfig;
 import org.apache.calcite.jdbc.CalciteSchema;
 import org.apache.calcite.jdbc.JavaTypeFactoryImpl;
 import org.apache.calcite.plan.ConventionTraitDef;
+import org.apache.calcite.plan.Contexts;
 import org.apache.calcite.plan.RelOptCluster;
+import org.apache.calcite.plan.RelOptCost;
+import org.apache.calcite.plan.RelOptListener;
+import org.apache.calcite.plan.RelOptUtil;
 import org.apache.calcite.plan.RelTraitSet;
 import org.apache.calcite.plan.volcano.AbstractConverter;
+import org.apache.calcite.plan.volcano.RelSubset;
 import org.apache.calcite.plan.volcano.VolcanoPlanner;
 import org.apache.calcite.prepare.CalciteCatalogReader;
 import org.apache.calcite.prepare.Prepare;
 import org.apache.calcite.rel.RelNode;
+import org.apache.calcite.rel.core.JoinRelType;
+import org.apache.calcite.rel.core.Project;
 import org.apache.calcite.rel.core.RelFactories;
 import org.apache.calcite.rel.externalize.RelWriterImpl;
+import org.apache.calcite.rel.metadata.RelMetadataQuery;
 import org.apache.calcite.rel.type.RelDataTypeFactory;
 import org.apache.calcite.rex.RexBuilder;
+import org.apache.calcite.rex.RexNode;
 import org.apache.calcite.sql.SqlExplainLevel;
 import org.apache.calcite.sql.type.SqlTypeName;
 import org.apache.calcite.tools.Programs;
@@ -22,18 +39,32 @@ import org.apache.calcite.tools.RelBuilder;
 import org.apache.calcite.tools.RelBuilderFactory;
 import org.apache.calcite.tools.RuleSet;
 import org.apache.calcite.tools.RuleSets;
+import org.apache.calcite.util.mapping.Mappings;
 import org.junit.Test;
 
 import java.io.PrintWriter;
 import java.io.StringWriter;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collections;
+import java.util.List;
+import java.util.stream.Collectors;
 
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
 import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
 
 public class TraitTest {
 
     private static final String TABLE_PARTITIONED = "partitioned";
     private static final String TABLE_SINGLETON = "singleton";
+    private static final String TABLE_STORE_SALES = "store_sales";
+    private static final String TABLE_STORE = "store";
+    private static final String TABLE_ITEM = "item";
+    private static final String TABLE_STORE_RETURNS = "store_returns";
+    private static final String TABLE_CATEGORY = "category";
 
     @Test
     public void testEnforceSingletonOnPartitioned() {
@@ -45,23 +76,312 @@ public class TraitTest {
         enforceSingleton(TABLE_SINGLETON);
     }
 
+    @Test
+    public void testDistributionSatisfaction() {
+        Distribution hash = Distribution.hash(1);
+
+        assertTrue(hash.satisfies(Distribution.ANY));
+        assertTrue(hash.satisfies(Distribution.PARTITIONED));
+        assertTrue(hash.satisfies(Distribution.hash(1)));
+        assertTrue(hash.satisfies(Distribution.hash(0, 1)));
+        assertFalse(hash.satisfies(Distribution.hash(0)));
+        assertFalse(Distribution.hash(0, 1).satisfies(hash));
+        assertFalse(hash.satisfies(Distribution.range(1)));
+
+        assertTrue(Distribution.range(0).satisfies(Distribution.range(0, 1)));
+        assertFalse(Distribution.range(1).satisfies(Distribution.range(0, 1)));
+        assertFalse(Distribution.range(0, 1).satisfies(Distribution.range(0)));
+
+        assertTrue(Distribution.RANDOM.satisfies(Distribution.PARTITIONED));
+        assertFalse(Distribution.RANDOM.satisfies(hash));
+        assertFalse(Distribution.BROADCAST.satisfies(Distribution.PARTITIONED));
+        assertFalse(Distribution.SINGLETON.satisfies(Distribution.BROADCAST));
+        assertFalse(Distribution.PARTITIONED.satisfies(hash));
+
+        assertEquals("HASH[1]", hash.toString());
+    }
+
+    @Test
+    public void testColocatedAggregateNeedsNoExchange() {
+        // Rows of the same item and store are on the same node, since the table is partitioned by the item.
+        RelNode node = enforce(TABLE_STORE_SALES, Distribution.hash(0, 1));
+        assertEquals(Distribution.hash(0), node.getTraitSet().getTrait(DistributionTraitDef.INSTANCE));
+        assertFalse(node instanceof ExchangeRel);
+
+        node = enforce(TABLE_STORE_SALES, Distribution.hash(1));
+        assertEquals(Distribution.hash(1), node.getTraitSet().getTrait(DistributionTraitDef.INSTANCE));
+        assertTrue(node instanceof ExchangeRel);
+    }
+
+    @Test
+    public void testDistributionRemappedByProjection() {
+        RelBuilder relBuilder = createRelBuilder(createPlanner());
+        RelNode scan = relBuilder.scan(TABLE_STORE_SALES).build();
+        Distribution distribution = scan.getTraitSet().getTrait(DistributionTraitDef.INSTANCE);
+
+        // select ss_quantity, ss_store_sk, ss_item_sk
+        Project project = (Project) relBuilder.push(scan)
+            .project(relBuilder.field(2), relBuilder.field(1), relBuilder.field(0))
+            .build();
+        Mappings.TargetMapping mapping = project.getMapping();
+        assertEquals(Distribution.hash(2), distribution.apply(mapping));
+        assertTrue(distribution.apply(mapping).satisfies(Distribution.hash(1, 2)));
+
+        // select ss_store_sk: the key is projected out.
+        project = (Project) relBuilder.push(scan).project(relBuilder.field(1)).build();
+        assertSame(Distribution.ANY, distribution.apply(project.getMapping()));
+    }
+
+    @Test
+    public void testExchangeRuntime() {
+        LocalCluster cluster = LocalCluster.newBuilder(4).withQueueCapacity(2).withBatchSize(100).build();
+
+        List<List<Object[]>> partitions = new ArrayList<>();
+        for (int i = 0; i < cluster.getNodeCount(); i++) {
+            List<Object[]> partition = new ArrayList<>();
+
+            for (int j = 0; j < 10_000; j++) {
+                partition.add(new Object[] { i, j % 100, j });
+            }
+
+            partitions.add(partition);
+        }
+
+        // Shuffle by the store.
+        ExchangeRel exchange = (ExchangeRel) enforce(TABLE_STORE_SALES, Distribution.hash(1));
+        ExchangeResult result = cluster.exchange(exchange, partitions);
+        System.out.println(result);
+
+        assertEquals(ExchangeMode.HASH, result.getMode());
+        assertEquals(40_000L, result.getRowCount());
+        assertEquals(4, result.getPartitions().size());
+
+        for (int i = 0; i < result.getPartitions().size(); i++) {
+            for (Object[] row : result.getPartitions().get(i)) {
+                assertEquals(i, LocalCluster.hashPartition(row, Collections.singletonList(1), 4));
+            }
+        }
+
+        assertEquals(40_000, result.getPartitions().stream().mapToInt(List::size).sum());
+
+        // Gather to a single node.
+        exchange = (ExchangeRel) enforce(TABLE_STORE_SALES, Distribution.SINGLETON);
+        result = cluster.exchange(exchange, partitions);
+        assertEquals(ExchangeMode.GATHER, result.getMode());
+        assertEquals(1, result.getPartitions().size());
+        assertEquals(40_000, result.getPartitions().get(0).size());
+
+        // Every node receives all the rows.
+        result = cluster.exchange(ExchangeMode.BROADCAST, Collections.emptyList(), partitions.subList(0, 1));
+        assertEquals(40_000L, result.getRowCount());
+
+        for (List<Object[]> partition : result.getPartitions()) {
+            assertEquals(10_000, partition.size());
+        }
+
+        // Rows of a single node are spread evenly.
+        result = cluster.exchange(ExchangeMode.ROUND_ROBIN, Collections.emptyList(), partitions.subList(0, 1));
+
+        for (List<Object[]> partition : result.getPartitions()) {
+            assertEquals(2_500, partition.size());
+        }
+    }
+
+    @Test
+    public void testExchangeCost() {
+        RelBuilder relBuilder = createRelBuilder(createPlanner());
+        RelNode sales = relBuilder.scan(TABLE_STORE_SALES).build();
+        RelNode stores = relBuilder.scan(TABLE_STORE).build();
+
+        RelOptCost shuffleSales = exchangeCost(sales, Distribution.hash(1));
+        RelOptCost broadcastSales = exchangeCost(sales, Distribution.BROADCAST);
+        RelOptCost gatherSales = exchangeCost(sales, Distribution.SINGLETON);
+        RelOptCost shuffleStores = exchangeCost(stores, Distribution.hash(0));
+        RelOptCost broadcastStores = exchangeCost(stores, Distribution.BROADCAST);
+
+        // Shuffle sends every row once and spreads it between the nodes.
+        assertTrue(shuffleSales.isLt(broadcastSales));
+        assertTrue(shuffleSales.isLt(gatherSales));
+        assertEquals(1_000_000.0d / 4, shuffleSales.getRows(), 0.0d);
+        assertEquals(1_000_000.0d, broadcastSales.getRows(), 0.0d);
+        assertEquals(broadcastSales.getRows(), gatherSales.getRows(), 0.0d);
+        assertEquals(1_000_000.0d * 4, broadcastSales.getCpu(), 0.0d);
+
+        // The network bytes are in the IO: broadcast sends every row to every node, shuffle and gather send it once.
+        assertEquals(broadcastSales.getCpu() * ExchangeRel.rowWidth(sales.getRowType()), broadcastSales.getIo(), 0.0d);
+        assertEquals(shuffleSales.getIo() * 4, broadcastSales.getIo(), 0.0d);
+        assertEquals(shuffleSales.getIo(), gatherSales.getIo(), 0.0d);
+
+        // Broadcast of a small input is cheaper than the shuffle of a large one.
+        assertTrue(broadcastStores.isLt(shuffleSales));
+        assertTrue(shuffleStores.isLt(broadcastStores));
+
+        // Larger cluster spreads the shuffle between more nodes.
+        VolcanoPlanner planner = new VolcanoPlanner(Contexts.of(ClusterTopology.of(16)));
+        planner.addRelTraitDef(ConventionTraitDef.INSTANCE);
+        planner.addRelTraitDef(DistributionTraitDef.INSTANCE);
+        sales = createRelBuilder(planner).scan(TABLE_STORE_SALES).build();
+        assertEquals(shuffleSales.getRows() / 4, exchangeCost(sales, Distribution.hash(1)).getRows(), 0.0d);
+
+        RelTraitSet broadcast = sales.getTraitSet().plus(Distribution.BROADCAST);
+        ExchangeRel exchange = new ExchangeRel(sales.getCluster(), broadcast, sales);
+        assertEquals(ExchangeMode.BROADCAST, exchange.getMode());
+        assertEquals(ExchangeMode.BROADCAST, ((ExchangeRel) exchange.copy(broadcast, exchange.getInputs())).getMode());
+        assertTrue(RelOptUtil.toString(exchange).contains("ExchangeRel(mode=[BROADCAST])"));
+    }
+
+    @Test
+    public void testTwoPhaseAggregate() {
+        RelBuilder relBuilder = createRelBuilder(createDistributedPlanner());
+        RelNode node = relBuilder.scan(TABLE_STORE_SALES)
+            .aggregate(
+                relBuilder.groupKey("ss_store_sk"),
+                relBuilder.sum(relBuilder.field("ss_quantity")),
+                relBuilder.count(),
+                relBuilder.avg(relBuilder.field("ss_quantity")),
+                relBuilder.min(relBuilder.field("ss_quantity")),
+                relBuilder.max(relBuilder.field("ss_quantity"))
+            )
+            .build();
+
+        RelNode optimizedNode = optimizeDistributed(node, Distribution.SINGLETON);
+        assertEquals(node.getRowType(), optimizedNode.getRowType());
+
+        // Partial aggregates are exchanged instead of the rows of the table.
+        DistributedAggregate finalAggregate = findNode(optimizedNode, DistributedAggregate.class);
+        assertEquals(DistributedAggregate.Phase.FINAL, finalAggregate.getPhase());
+        assertEquals(
+            Arrays.asList("SUM", "$SUM0", "SUM", "$SUM0", "MIN", "MAX"),
+            finalAggregate.getAggCallList().stream().map(c -> c.getAggregation().getName()).collect(Collectors.toList())
+        );
+
+        ExchangeRel exchange = findNode(finalAggregate.getInput(), ExchangeRel.class);
+        DistributedAggregate partialAggregate = findNode(exchange, DistributedAggregate.class);
+        assertEquals(DistributedAggregate.Phase.PARTIAL, partialAggregate.getPhase());
+        assertNull(findNode(partialAggregate.getInput(), ExchangeRel.class));
+
+        // Aggregation without grouping sends a row per node.
+        node = relBuilder.scan(TABLE_STORE_SALES).aggregate(relBuilder.groupKey(), relBuilder.count()).build();
+        optimizedNode = optimizeDistributed(node, Distribution.SINGLETON);
+        assertEquals(DistributedAggregate.Phase.FINAL, findNode(optimizedNode, DistributedAggregate.class).getPhase());
+    }
+
+    @Test
+    public void testColocatedAggregate() {
+        RelBuilder relBuilder = createRelBuilder(createDistributedPlanner());
+        RelNode node = relBuilder.scan(TABLE_STORE_SALES)
+            .aggregate(relBuilder.groupKey("ss_item_sk"), relBuilder.sum(relBuilder.field("ss_quantity")))
+            .build();
+
+        // The table is partitioned by the group key, so the groups are aggregated in place.
+        RelNode optimizedNode = optimizeDistributed(node, Distribution.SINGLETON);
+        DistributedAggregate aggregate = findNode(optimizedNode, DistributedAggregate.class);
+        assertEquals(DistributedAggregate.Phase.SINGLE, aggregate.getPhase());
+        assertEquals(Distribution.hash(0), aggregate.getTraitSet().getTrait(DistributionTraitDef.INSTANCE));
+        assertNull(findNode(aggregate.getInput(), ExchangeRel.class));
+        assertEquals(ExchangeMode.GATHER, ((ExchangeRel) optimizedNode).getMode());
+    }
+
+    @Test
+    public void testColocatedJoin() {
+        RelBuilder relBuilder = createRelBuilder(createDistributedPlanner());
+        RelNode node = relBuilder.scan(TABLE_STORE_SALES).scan(TABLE_ITEM)
+            .join(JoinRelType.INNER, relBuilder.equals(relBuilder.field(2, 0, "ss_item_sk"),
+                relBuilder.field(2, 1, "i_item_sk")))
+            .build();
+
+        // Both tables are partitioned by the item, so the rows are joined in place.
+        RelNode optimizedNode = optimizeDistributed(node, Distribution.PARTITIONED);
+        DistributedJoin join = (DistributedJoin) optimizedNode;
+        assertEquals(DistributedJoin.Strategy.HASH, join.getStrategy());
+        assertEquals(Distribution.hash(0), join.getTraitSet().getTrait(DistributionTraitDef.INSTANCE));
+        assertNull(findNode(join, ExchangeRel.class));
+    }
+
+    @Test
+    public void testRepartitionJoin() {
+        RelBuilder relBuilder = createRelBuilder(createDistributedPlanner());
+        RelNode node = relBuilder.scan(TABLE_STORE_SALES).scan(TABLE_STORE_RETURNS)
+            .join(JoinRelType.INNER, relBuilder.equals(relBuilder.field(2, 0, "ss_item_sk"),
+                relBuilder.field(2, 1, "sr_item_sk")))
+            .build();
+
+        // Only the returns are repartitioned by the item, which is cheaper than broadcasting them.
+        RelNode optimizedNode = optimizeDistributed(node, Distribution.PARTITIONED);
+        DistributedJoin join = (DistributedJoin) optimizedNode;
+        assertEquals(DistributedJoin.Strategy.HASH, join.getStrategy());
+        assertFalse(join.getLeft() instanceof ExchangeRel);
+        assertEquals(ExchangeMode.HASH, ((ExchangeRel) join.getRight()).getMode());
+        assertEquals(Distribution.hash(0), join.getRight().getTraitSet().getTrait(DistributionTraitDef.INSTANCE));
+    }
+
+    @Test
+    public void testBroadcastJoin() {
+        RelBuilder relBuilder = createRelBuilder(createDistributedPlanner());
+        RelNode node = relBuilder.scan(TABLE_STORE_SALES).scan(TABLE_STORE)
+            .join(JoinRelType.INNER, relBuilder.equals(relBuilder.field(2, 0, "ss_store_sk"),
+                relBuilder.field(2, 1, "s_store_sk")))
+            .aggregate(relBuilder.groupKey("s_state"), relBuilder.sum(relBuilder.field("ss_quantity")))
+            .build();
+
+        // The small dimension table is copied to every node instead of shuffling the sales.
+        RelNode optimizedNode = optimizeDistributed(node, Distribution.SINGLETON);
+        DistributedJoin join = findNode(optimizedNode, DistributedJoin.class);
+        assertEquals(DistributedJoin.Strategy.BROADCAST_RIGHT, join.getStrategy());
+        assertEquals(Distribution.hash(0), join.getTraitSet().getTrait(DistributionTraitDef.INSTANCE));
+        assertFalse(join.getLeft() instanceof ExchangeRel);
+        assertEquals(ExchangeMode.BROADCAST, ((ExchangeRel) join.getRight()).getMode());
+    }
+
+    @Test
+    public void testTopDownOptimization() {
+        // Warm up the planner, so that the planning time is not dominated by the class loading.
+        planStarQuery(1, false);
+        planStarQuery(1, true);
+
+        for (int joinCount = 1; joinCount <= 3; joinCount++) {
+            PlanningResult abstractConverters = planStarQuery(joinCount, false);
+            PlanningResult topDown = planStarQuery(joinCount, true);
+
+            System.out.println("JOINS " + joinCount + ": abstract converters " + abstractConverters
+                + ", top-down " + topDown);
+
+            // Exchanges are enforced without the abstract converters, and the plan is not worse.
+            assertTrue(abstractConverters.converterCount > 0);
+            assertEquals(0, topDown.converterCount);
+            assertFalse(abstractConverters.cost.isLt(topDown.cost));
+        }
+    }
+
+    private static RelOptCost exchangeCost(RelNode input, Distribution distribution) {
+        ExchangeRel exchange = new ExchangeRel(input.getCluster(), input.getTraitSet().plus(distribution), input);
+
+        return input.getCluster().getMetadataQuery().getNonCumulativeCost(exchange);
+    }
+
     private static void enforceSingleton(String tableName) {
+        RelNode optimizedNode = enforce(tableName, Distribution.SINGLETON);
+
+        assertSame(Distribution.SINGLETON, optimizedNode.getTraitSet().getTrait(DistributionTraitDef.INSTANCE));
+    }
+
+    /**
+     * Scan the table and enforce the given distribution on the scan.
+     */
+    private static RelNode enforce(String tableName, Distribution distribution) {
         // Prepare supporting objects.
-        Prepare.CatalogReader schema = createSchema();
         VolcanoPlanner planner = createPlanner();
+        RelBuilder relBuilder = createRelBuilder(planner);
 
         // Create a table scan on the desired table.
-        RelOptCluster cluster = RelOptCluster.create(planner, new RexBuilder(schema.getTypeFactory()));
-        RelBuilderFactory factory = RelBuilder.proto(RelFactories.DEFAULT_TABLE_SCAN_FACTORY);
-        RelBuilder relBuilder = factory.create(cluster, schema);
         RelNode node = relBuilder.scan(tableName).build();
         print("BEFORE", node);
 
         // Use the built-in rule that will expand abstract converters.
         RuleSet rules = RuleSets.ofList(AbstractConverter.ExpandConversionRule.INSTANCE);
 
-        // Prepare the desired traits with the SINGLETON distribution.
-        RelTraitSet desiredTraits = node.getTraitSet().plus(Distribution.SINGLETON);
+        // Prepare the desired traits with the requested distribution.
+        RelTraitSet desiredTraits = node.getTraitSet().plus(distribution);
 
         // Use the planner to enforce the desired traits.
         RelNode optimizedNode = Programs.of(rules).run(
@@ -74,7 +394,109 @@ public class TraitTest {
 
         print("AFTER", optimizedNode);
 
-        assertSame(Distribution.SINGLETON, optimizedNode.getTraitSet().getTrait(DistributionTraitDef.INSTANCE));
+        return optimizedNode;
+    }
+
+    /**
+     * Optimize the logical node to the distributed operators with the given distribution.
+     */
+    private static RelNode optimizeDistributed(RelNode node, Distribution distribution) {
+        RelNode optimizedNode = Programs.of(RuleSets.ofList(DistributedRules.RULES)).run(
+            node.getCluster().getPlanner(),
+            node,
+            node.getTraitSet().replace(DistributedConvention.INSTANCE).replace(distribution),
+            Collections.emptyList(),
+            Collections.emptyList()
+        );
+
+        print("DISTRIBUTED", optimizedNode);
+
+        return optimizedNode;
+    }
+
+    /**
+     * Plan the aggregation of the sales over the given number of joins with the dimension tables.
+     */
+    private static PlanningResult planStarQuery(int joinCount, boolean topDownOpt) {
+        VolcanoPlanner planner = createDistributedPlanner(topDownOpt);
+        RelBuilder relBuilder = createRelBuilder(planner);
+
+        relBuilder.scan(TABLE_STORE_SALES);
+
+        String[][] joins = {
+            {TABLE_STORE, "ss_store_sk", "s_store_sk", "s_state"},
+            {TABLE_ITEM, "ss_item_sk", "i_item_sk", "i_category"},
+            {TABLE_CATEGORY, "i_category", "c_category", "c_department"}
+        };
+
+        List<RexNode> groupKeys = new ArrayList<>();
+
+        for (int i = 0; i < joinCount; i++) {
+            String[] join = joins[i];
+
+            relBuilder.scan(join[0]).join(
+                JoinRelType.INNER,
+                relBuilder.equals(relBuilder.field(2, 0, join[1]), relBuilder.field(2, 1, join[2]))
+            );
+
+            groupKeys.add(relBuilder.field(join[3]));
+        }
+
+        RelNode node = relBuilder
+            .aggregate(relBuilder.groupKey(groupKeys), relBuilder.sum(relBuilder.field("ss_quantity")))
+            .build();
+
+        RelCounter counter = new RelCounter();
+        planner.addListener(counter);
+
+        long start = System.nanoTime();
+
+        RelNode optimizedNode = Programs.of(RuleSets.ofList(
+            topDownOpt ? DistributedRules.RULES : DistributedRules.ABSTRACT_CONVERTER_RULES
+        )).run(
+            planner,
+            node,
+            node.getTraitSet().replace(DistributedConvention.INSTANCE).replace(Distribution.SINGLETON),
+            Collections.emptyList(),
+            Collections.emptyList()
+        );
+
+        long nanos = System.nanoTime() - start;
+
+        print(topDownOpt ? "TOP-DOWN" : "ABSTRACT CONVERTERS", optimizedNode);
+
+        RelMetadataQuery mq = optimizedNode.getCluster().getMetadataQuery();
+
+        return new PlanningResult(mq.getCumulativeCost(optimizedNode), counter, nanos);
+    }
+
+    /**
+     * Find the first node of the given class in the depth-first order.
+     */
+    private static <T extends RelNode> T findNode(RelNode rel, Class<T> nodeClass) {
+        if (nodeClass.isInstance(rel)) {
+            return nodeClass.cast(rel);
+        }
+
+        for (RelNode input : rel.getInputs()) {
+            T res = findNode(input, nodeClass);
+
+            if (res != null) {
+                return res;
+            }
+        }
+
+        return null;
+    }
+
+    private static RelBuilder createRelBuilder(VolcanoPlanner planner) {
+        Prepare.CatalogReader schema = createSchema();
+
+        RelOptCluster cluster = RelOptCluster.create(planner, new RexBuilder(schema.getTypeFactory()));
+        DistributedRelMetadataProvider.install(cluster);
+        RelBuilderFactory factory = RelBuilder.proto(RelFactories.DEFAULT_TABLE_SCAN_FACTORY);
+
+        return factory.create(cluster, schema);
     }
 
     private static Prepare.CatalogReader createSchema() {
@@ -86,7 +508,54 @@ public class TraitTest {
         Table table2 = Table.newBuilder(TABLE_SINGLETON, Distribution.SINGLETON)
             .addField("field", SqlTypeName.DECIMAL).build();
 
-        Schema schema = Schema.newBuilder("schema").addTable(table1).addTable(table2).build();
+        // Table hash-partitioned by the item.
+        Table table3 = Table.newBuilder(TABLE_STORE_SALES)
+            .addField("ss_item_sk", SqlTypeName.INTEGER)
+            .addField("ss_store_sk", SqlTypeName.INTEGER)
+            .addField("ss_quantity", SqlTypeName.DECIMAL)
+            .withHashDistribution("ss_item_sk")
+            .withRowCount(1_000_000)
+            .build();
+
+        // Small dimension table.
+        Table table4 = Table.newBuilder(TABLE_STORE, Distribution.RANDOM)
+            .addField("s_store_sk", SqlTypeName.INTEGER)
+            .addField("s_state", SqlTypeName.CHAR)
+            .withRowCount(100)
+            .build();
+
+        // Dimension table partitioned by the item, like the sales.
+        Table table5 = Table.newBuilder(TABLE_ITEM)
+            .addField("i_item_sk", SqlTypeName.INTEGER)
+            .addField("i_category", SqlTypeName.CHAR)
+            .withHashDistribution("i_item_sk")
+            .withRowCount(10_000)
+            .build();
+
+        // Fact table partitioned by the ticket.
+        Table table6 = Table.newBuilder(TABLE_STORE_RETURNS)
+            .addField("sr_item_sk", SqlTypeName.INTEGER)
+            .addField("sr_ticket_number", SqlTypeName.INTEGER)
+            .withHashDistribution("sr_ticket_number")
+            .withRowCount(500_000)
+            .build();
+
+        // Small table that describes the categories of the items.
+        Table table7 = Table.newBuilder(TABLE_CATEGORY, Distribution.RANDOM)
+            .addField("c_category", SqlTypeName.CHAR)
+            .addField("c_department", SqlTypeName.CHAR)
+            .withRowCount(10)
+            .build();
+
+        Schema schema = Schema.newBuilder("schema")
+            .addTable(table1)
+            .addTable(table2)
+            .addTable(table3)
+            .addTable(table4)
+            .addTable(table5)
+            .addTable(table6)
+            .addTable(table7)
+            .build();
 
         RelDataTypeFactory typeFactory = new JavaTypeFactoryImpl();
 
@@ -117,6 +586,23 @@ public class TraitTest {
         return planner;
     }
 
+    /**
+     * Planner for the distributed operators, where the logical operators cannot be executed.
+     */
+    private static VolcanoPlanner createDistributedPlanner() {
+        return createDistributedPlanner(true);
+    }
+
+    private static VolcanoPlanner createDistributedPlanner(boolean topDownOpt) {
+        VolcanoPlanner planner = new VolcanoPlanner();
+
+        planner.addRelTraitDef(ConventionTraitDef.INSTANCE);
+        planner.addRelTraitDef(DistributionTraitDef.INSTANCE);
+        planner.setTopDownOpt(topDownOpt);
+
+        return planner;
+    }
+
     private static void print(String header, RelNode relTree) {
         StringWriter sw = new StringWriter();
 
@@ -128,4 +614,70 @@ public class TraitTest {
 
         System.out.println(sw.toString());
     }
+
+    /**
+     * Counts the nodes, the abstract converters among them, and the subsets registered in the memo of the planner.
+     */
+    private static class RelCounter implements RelOptListener {
+
+        private int relCount;
+        private int converterCount;
+        private int subsetCount;
+
+        @Override
+        public void relEquivalenceFound(RelEquivalenceEvent event) {
+            if (event.getRel() instanceof RelSubset) {
+                subsetCount++;
+            } else {
+                relCount++;
+
+                if (event.getRel() instanceof AbstractConverter) {
+                    converterCount++;
+                }
+            }
+        }
+
+        @Override
+        public void ruleAttempted(RuleAttemptedEvent event) {
+            // No-op.
+        }
+
+        @Override
+        public void ruleProductionSucceeded(RuleProductionEvent event) {
+            // No-op.
+        }
+
+        @Override
+        public void relDiscarded(RelDiscardedEvent event) {
+            // No-op.
+        }
+
+        @Override
+        public void relChosen(RelChosenEvent event) {
+            // No-op.
+        }
+    }
+
+    private static class PlanningResult {
+
+        private final RelOptCost cost;
+        private final int relCount;
+        private final int converterCount;
+        private final int subsetCount;
+        private final long nanos;
+
+        private PlanningResult(RelOptCost cost, RelCounter counter, long nanos) {
+            this.cost = cost;
+            this.relCount = counter.relCount;
+            this.converterCount = counter.converterCount;
+            this.subsetCount = counter.subsetCount;
+            this.nanos = nanos;
+        }
+
+        @Override
+        public String toString() {
+            return "{rels=" + relCount + ", converters=" + converterCount + ", subsets=" + subsetCount
+                + ", micros=" + nanos / 1000 + ", cost=" + cost + '}';
+        }
+    }
 }